@@ -0,0 +1,82 @@
+package cz.vladimir.amp.benchmark;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.EngineType;
+import cz.vladimir.amp.exception.DuplicateDatapointException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest where most datapoints are resent duplicates, as after a client retries a batch: batches with the
+ * given share of duplicates, and single duplicates rejected with an exception.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class DuplicateIngestBenchmark {
+
+    private static final int SERIES_SIZE = 100000;
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"LOCKING", "SHARDED"})
+    public EngineType engine;
+
+    @Param({"0.5", "0.9", "1.0"})
+    public double duplicateShare;
+
+    private AverageCalculations averageCalculations;
+    private final SplittableRandom random = new SplittableRandom(1);
+    private long nextTimestamp;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        averageCalculations = Engines.create(engine);
+        Engines.fill(averageCalculations, 1, 1, SERIES_SIZE);
+        nextTimestamp = SERIES_SIZE * Engines.MINUTE;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        Engines.close(averageCalculations);
+    }
+
+    @Benchmark
+    public List<Integer> storeBatch() {
+        List<Datapoint> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            long timestamp;
+            if (random.nextDouble() < duplicateShare) {
+                timestamp = random.nextInt(SERIES_SIZE) * Engines.MINUTE;
+            } else {
+                timestamp = nextTimestamp;
+                nextTimestamp += Engines.MINUTE;
+            }
+            batch.add(new Datapoint(Engines.device(0), Engines.user(0), timestamp, 42));
+        }
+        return averageCalculations.storeDataPoints(batch);
+    }
+
+    @Benchmark
+    public boolean storeDuplicate() {
+        try {
+            averageCalculations.storeDataPoint(new Datapoint(Engines.device(0), Engines.user(0), random.nextInt(SERIES_SIZE) * Engines.MINUTE, 42));
+            return true;
+        } catch (DuplicateDatapointException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package cz.vladimir.amp.benchmark;
+
+import cz.vladimir.amp.AmpProperties;
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.AverageCalculationsService;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.EngineType;
+import cz.vladimir.amp.shard.ShardedAverageCalculations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates and fills the {@link AverageCalculations} implementations compared by the benchmarks.
+ */
+final class Engines {
+
+    static final long MINUTE = 60000;
+
+    private static final int BATCH_SIZE = 10000;
+
+    private Engines() {
+    }
+
+    /**
+     * The query cache of the locking engine is disabled, so that repeated queries are computed every time
+     * like they are by the sharded engine.
+     */
+    static AverageCalculations create(EngineType engine) {
+        if (engine == EngineType.SHARDED) {
+            return new ShardedAverageCalculations(Runtime.getRuntime().availableProcessors());
+        }
+        AmpProperties properties = new AmpProperties();
+        properties.getQueryCache().setMaxEntries(0);
+        return new AverageCalculationsService(properties);
+    }
+
+    static void close(AverageCalculations averageCalculations) {
+        if (averageCalculations instanceof ShardedAverageCalculations) {
+            ((ShardedAverageCalculations) averageCalculations).close();
+        }
+    }
+
+    /**
+     * Stores one datapoint a minute from time zero on into every series of the given devices and users.
+     */
+    static void fill(AverageCalculations averageCalculations, int devices, int users, int pointsPerSeries) {
+        List<Datapoint> batch = new ArrayList<>(BATCH_SIZE);
+        for (int device = 0; device < devices; device++) {
+            for (int user = 0; user < users; user++) {
+                for (int point = 0; point < pointsPerSeries; point++) {
+                    batch.add(new Datapoint(device(device), user(user), point * MINUTE, (point * 31L + device + user) % 100));
+                    if (batch.size() == BATCH_SIZE) {
+                        averageCalculations.storeDataPoints(batch);
+                        batch.clear();
+                    }
+                }
+            }
+        }
+        averageCalculations.storeDataPoints(batch);
+    }
+
+    /**
+     * Stores one datapoint a minute from time zero on into the series of one device and one user.
+     */
+    static void fillSeries(AverageCalculations averageCalculations, int device, int user, int points) {
+        List<Datapoint> batch = new ArrayList<>(BATCH_SIZE);
+        for (int point = 0; point < points; point++) {
+            batch.add(new Datapoint(device(device), user(user), point * MINUTE, (point * 31L + device + user) % 100));
+            if (batch.size() == BATCH_SIZE) {
+                averageCalculations.storeDataPoints(batch);
+                batch.clear();
+            }
+        }
+        averageCalculations.storeDataPoints(batch);
+    }
+
+    static String device(int index) {
+        return "benchmarkDevice" + index;
+    }
+
+    static String user(int index) {
+        return "benchmarkUser" + index;
+    }
+}
@@ -0,0 +1,96 @@
+package cz.vladimir.amp.benchmark;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.EngineType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of storing new datapoints into a series already holding {@code seriesSize} of them, by one
+ * thread, by four threads into the same series and by four threads into a series each, filled alike.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class IngestBenchmark {
+
+    @Param({"LOCKING", "SHARDED"})
+    public EngineType engine;
+
+    @Param({"1000", "100000", "1000000"})
+    public int seriesSize;
+
+    private AverageCalculations averageCalculations;
+    private final AtomicLong nextTimestamp = new AtomicLong();
+    private final AtomicInteger nextDevice = new AtomicInteger(1);
+
+    /**
+     * Every iteration starts from a series of the same size, since the benchmarks keep growing it.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        averageCalculations = Engines.create(engine);
+        Engines.fill(averageCalculations, 1, 1, seriesSize);
+        nextTimestamp.set(seriesSize * Engines.MINUTE);
+        nextDevice.set(1);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        Engines.close(averageCalculations);
+    }
+
+    @Benchmark
+    public void store() {
+        storeNext(Engines.device(0));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void storeContended() {
+        storeNext(Engines.device(0));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void storeToOwnSeries(OwnDevice own) {
+        averageCalculations.storeDataPoint(new Datapoint(own.device, Engines.user(0), own.nextTimestamp, 42));
+        own.nextTimestamp += Engines.MINUTE;
+    }
+
+    private void storeNext(String device) {
+        averageCalculations.storeDataPoint(new Datapoint(device, Engines.user(0), nextTimestamp.getAndAdd(Engines.MINUTE), 42));
+    }
+
+    /**
+     * A series of the thread's own, filled like the shared one, with a clock of its own so that the threads
+     * share nothing but the engine.
+     */
+    @State(Scope.Thread)
+    public static class OwnDevice {
+        private String device;
+        private long nextTimestamp;
+
+        @Setup(Level.Iteration)
+        public void setUp(IngestBenchmark benchmark) {
+            int index = benchmark.nextDevice.getAndIncrement();
+            Engines.fillSeries(benchmark.averageCalculations, index, 0, benchmark.seriesSize);
+            device = Engines.device(index);
+            nextTimestamp = benchmark.seriesSize * Engines.MINUTE;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package cz.vladimir.amp.benchmark;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.AverageForInterval;
+import cz.vladimir.amp.EngineType;
+import cz.vladimir.amp.IntervalQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the statistics of a week of datapoints stored every minute by 10 devices of 10 users: interval
+ * averages of a device and moving averages of a user across window sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+    private static final int DEVICES = 10;
+    private static final int USERS = 10;
+    private static final int POINTS_PER_SERIES = 7 * 24 * 60;
+
+    @Param({"LOCKING", "SHARDED"})
+    public EngineType engine;
+
+    private AverageCalculations averageCalculations;
+
+    @Setup
+    public void setUp() {
+        averageCalculations = Engines.create(engine);
+        Engines.fill(averageCalculations, DEVICES, USERS, POINTS_PER_SERIES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Engines.close(averageCalculations);
+    }
+
+    @Benchmark
+    public List<AverageForInterval> averagesForDevice() {
+        return averageCalculations.getAveragesForDevice(Engines.device(0), IntervalQuery.ALL);
+    }
+
+    @Benchmark
+    public List<AverageForInterval> movingAveragesForUser(Windows windows) {
+        return averageCalculations.getMovingAveragesForUser(Engines.user(0), windows.windowSizes, IntervalQuery.ALL);
+    }
+
+    /**
+     * Kept apart from the engine, so that only the moving averages are measured for every window size.
+     */
+    @State(Scope.Benchmark)
+    public static class Windows {
+        @Param({"1", "4", "96"})
+        public long windowSize;
+
+        private List<Long> windowSizes;
+
+        @Setup
+        public void setUp() {
+            windowSizes = Collections.singletonList(windowSize);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package cz.vladimir.amp.benchmark;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.EngineType;
+import cz.vladimir.amp.wal.FsyncPolicy;
+import cz.vladimir.amp.wal.WriteAheadLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of storing datapoints into the locking engine with the write-ahead log enabled, for every
+ * {@link FsyncPolicy}: by one thread, by four threads sharing the fsyncs of {@link FsyncPolicy#ALWAYS},
+ * and in batches. The log is written to a temporary directory, so the figures depend on its file system.
+ * The throughput of replaying a log into each engine on startup is measured in records a second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class WriteAheadLogBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int REPLAYED_DEVICES = 100;
+    private static final int REPLAYED_USERS = 10;
+    private static final int REPLAYED_POINTS_PER_SERIES = 500;
+    private static final int REPLAYED_RECORDS = REPLAYED_DEVICES * REPLAYED_USERS * REPLAYED_POINTS_PER_SERIES;
+
+    @Param({"ALWAYS", "GROUP", "OS"})
+    public FsyncPolicy fsyncPolicy;
+
+    private Path directory;
+    private WriteAheadLog writeAheadLog;
+    private AverageCalculations averageCalculations;
+    private final AtomicInteger nextDevice = new AtomicInteger();
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wal-benchmark");
+        averageCalculations = Engines.create(EngineType.LOCKING);
+        writeAheadLog = new WriteAheadLog(directory, fsyncPolicy, Duration.ofMillis(10));
+        writeAheadLog.recover(averageCalculations);
+        averageCalculations.addListener(writeAheadLog);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        writeAheadLog.close();
+        deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void store(Writer writer) {
+        averageCalculations.storeDataPoint(writer.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void storeConcurrently(Writer writer) {
+        averageCalculations.storeDataPoint(writer.next());
+    }
+
+    @Benchmark
+    public List<Integer> storeBatch(Writer writer) {
+        List<Datapoint> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(writer.next());
+        }
+        return averageCalculations.storeDataPoints(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPLAYED_RECORDS)
+    public AverageCalculations replay(ReplayedLog replayedLog) throws IOException {
+        AverageCalculations target = Engines.create(replayedLog.engineType);
+        try (WriteAheadLog replayed = new WriteAheadLog(replayedLog.directory, FsyncPolicy.OS, Duration.ofMillis(10))) {
+            replayed.recover(target);
+        } finally {
+            Engines.close(target);
+        }
+        return target;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * A log of one datapoint a minute into every series of the devices and users, written once and replayed
+     * into a new engine by every invocation.
+     */
+    @State(Scope.Benchmark)
+    public static class ReplayedLog {
+        @Param({"LOCKING", "SHARDED"})
+        public EngineType engineType;
+
+        private Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("wal-replay-benchmark");
+            AverageCalculations source = Engines.create(EngineType.LOCKING);
+            try (WriteAheadLog writeAheadLog = new WriteAheadLog(directory, FsyncPolicy.OS, Duration.ofMillis(10))) {
+                writeAheadLog.recover(source);
+                source.addListener(writeAheadLog);
+                Engines.fill(source, REPLAYED_DEVICES, REPLAYED_USERS, REPLAYED_POINTS_PER_SERIES);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Every thread stores into a device of its own with its own clock, so that the threads only share the log.
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        private String device;
+        private long nextTimestamp;
+
+        @Setup(Level.Iteration)
+        public void setUp(WriteAheadLogBenchmark benchmark) {
+            device = Engines.device(benchmark.nextDevice.getAndIncrement());
+            nextTimestamp = 0;
+        }
+
+        private Datapoint next() {
+            Datapoint dataPoint = new Datapoint(device, Engines.user(0), nextTimestamp, 42);
+            nextTimestamp += Engines.MINUTE;
+            return dataPoint;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package cz.vladimir.amp.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.vladimir.amp.AmpApplication;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The application under load, started from the classpath of the load generator in a JVM of its own, so
+ * that its garbage collections and heap are not those of the generator. The JVM is observed over JMX on
+ * a local port and the counters of the application are read from {@code /actuator/metrics}.
+ */
+class ApplicationProcess implements Closeable {
+
+    private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private final Process process;
+    private final int port;
+    private final JMXConnector jmx;
+    private final HttpDriver http;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ApplicationProcess(Process process, int port, JMXConnector jmx) {
+        this.process = process;
+        this.port = port;
+        this.jmx = jmx;
+        this.http = new HttpDriver("http://localhost:" + port);
+    }
+
+    /**
+     * Starts the application and waits until it reports being healthy.
+     *
+     * @param log file the output of the application is written to
+     */
+    static ApplicationProcess start(LoadTestOptions options, File log) throws IOException, InterruptedException {
+        int port = freePort();
+        int jmxPort = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(options.getJvmArgs());
+        command.add("-Dcom.sun.management.jmxremote.port=" + jmxPort);
+        command.add("-Dcom.sun.management.jmxremote.rmi.port=" + jmxPort);
+        command.add("-Dcom.sun.management.jmxremote.authenticate=false");
+        command.add("-Dcom.sun.management.jmxremote.ssl=false");
+        command.add("-Dcom.sun.management.jmxremote.local.only=true");
+        command.add("-Djava.rmi.server.hostname=localhost");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(AmpApplication.class.getName());
+        command.add("--server.port=" + port);
+        for (String argument : options.getApplicationArguments()) {
+            command.add(argument);
+        }
+
+        log.getAbsoluteFile().getParentFile().mkdirs();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+        try {
+            awaitHealthy(process, new HttpDriver("http://localhost:" + port), log);
+            JMXConnector jmx = JMXConnectorFactory.connect(
+                    new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:" + jmxPort + "/jmxrmi"));
+            return new ApplicationProcess(process, port, jmx);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            stop(process);
+            throw e;
+        }
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    MBeanServerConnection getMBeanServer() throws IOException {
+        return jmx.getMBeanServerConnection();
+    }
+
+    /**
+     * @return value of a counter of the application, e.g. {@code amp.datapoints.stored}
+     */
+    long counter(String name) throws IOException {
+        JsonNode metric = objectMapper.readTree(http.getBody("/actuator/metrics/" + name));
+        for (JsonNode measurement : metric.path("measurements")) {
+            if ("COUNT".equals(measurement.path("statistic").asText())) {
+                return measurement.path("value").asLong();
+            }
+        }
+        throw new IOException("Metric " + name + " has no count");
+    }
+
+    /**
+     * Stops the application gracefully, as a deployment would, so that it persists what it is configured to.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            jmx.close();
+        } finally {
+            stop(process);
+        }
+    }
+
+    private static void awaitHealthy(Process process, HttpDriver http, File log) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (true) {
+            if (!process.isAlive()) {
+                throw new IOException("The application exited with " + process.exitValue() + ", see " + log);
+            }
+            try {
+                if (http.get("/actuator/health") == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("The application did not start in time, see " + log);
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    private static void stop(Process process) {
+        process.destroy();
+        try {
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
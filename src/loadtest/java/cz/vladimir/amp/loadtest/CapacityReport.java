@@ -0,0 +1,255 @@
+package cz.vladimir.amp.loadtest;
+
+import java.util.Map;
+
+/**
+ * Outcome of a load test over its measured period, after the warmup. Written as JSON so that runs can be
+ * compared, and summarized on the console.
+ */
+public class CapacityReport {
+    private final LoadTestOptions options;
+    private final double measuredSeconds;
+    private final Ingest ingest;
+    private final Map<String, EndpointLatency> endpoints;
+    private final GcPauses gc;
+    private final Heap heap;
+
+    public CapacityReport(LoadTestOptions options, double measuredSeconds, Ingest ingest, Map<String, EndpointLatency> endpoints,
+                          GcPauses gc, Heap heap) {
+        this.options = options;
+        this.measuredSeconds = measuredSeconds;
+        this.ingest = ingest;
+        this.endpoints = endpoints;
+        this.gc = gc;
+        this.heap = heap;
+    }
+
+    public LoadTestOptions getOptions() {
+        return options;
+    }
+
+    public double getMeasuredSeconds() {
+        return measuredSeconds;
+    }
+
+    public Ingest getIngest() {
+        return ingest;
+    }
+
+    /**
+     * Latencies keyed by method and path template, moving averages by window size too. Ingest latencies are
+     * measured from the time each request was due, so a server falling behind the rate shows in them.
+     */
+    public Map<String, EndpointLatency> getEndpoints() {
+        return endpoints;
+    }
+
+    public GcPauses getGc() {
+        return gc;
+    }
+
+    public Heap getHeap() {
+        return heap;
+    }
+
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Measured %.1f s, %d devices of %d users%n", measuredSeconds, options.getDevices(), options.getUsers()));
+        text.append(String.format("Ingest: %.0f datapoints/s stored, %.0f/s sent of %d/s targeted, %d duplicates rejected, %d failed requests%n",
+                ingest.storedPerSecond, ingest.sentPerSecond, options.getRate(), ingest.duplicatesRejected, ingest.failedRequests));
+        text.append(String.format("%-64s %9s %9s %9s %9s %9s %7s%n", "Endpoint", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors"));
+        endpoints.forEach((name, latency) -> text.append(String.format("%-64s %9.1f %9.2f %9.2f %9.2f %9.2f %7d%n", name,
+                latency.perSecond, latency.p50Millis, latency.p99Millis, latency.p999Millis, latency.maxMillis, latency.errors)));
+        text.append(String.format("GC: %d pauses, %d ms in total (%.2f %% of the time), p99 %.0f ms, max %d ms%n",
+                gc.pauses, gc.totalPauseMillis, gc.pauseShare * 100, gc.p99PauseMillis, gc.maxPauseMillis));
+        text.append(String.format("Heap: %d MB retained before, %d MB after, peak %d MB, %.0f bytes per stored datapoint%n",
+                heap.retainedBeforeBytes >> 20, heap.retainedAfterBytes >> 20, heap.peakBytes >> 20, heap.bytesPerDatapoint));
+        return text.toString();
+    }
+
+    public static class Ingest {
+        private final long requests;
+        private final long failedRequests;
+        private final long datapointsSent;
+        private final long datapointsStored;
+        private final long duplicatesRejected;
+        private final double sentPerSecond;
+        private final double storedPerSecond;
+
+        public Ingest(long requests, long failedRequests, long datapointsSent, long datapointsStored, long duplicatesRejected,
+                      double seconds) {
+            this.requests = requests;
+            this.failedRequests = failedRequests;
+            this.datapointsSent = datapointsSent;
+            this.datapointsStored = datapointsStored;
+            this.duplicatesRejected = duplicatesRejected;
+            this.sentPerSecond = datapointsSent / seconds;
+            this.storedPerSecond = datapointsStored / seconds;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * Requests that failed or were refused, other than for duplicates.
+         */
+        public long getFailedRequests() {
+            return failedRequests;
+        }
+
+        public long getDatapointsSent() {
+            return datapointsSent;
+        }
+
+        public long getDatapointsStored() {
+            return datapointsStored;
+        }
+
+        public long getDuplicatesRejected() {
+            return duplicatesRejected;
+        }
+
+        public double getSentPerSecond() {
+            return sentPerSecond;
+        }
+
+        /**
+         * Sustained ingest throughput; below the rate sent if asynchronous ingest fell behind.
+         */
+        public double getStoredPerSecond() {
+            return storedPerSecond;
+        }
+    }
+
+    public static class EndpointLatency {
+        private final long requests;
+        private final long errors;
+        private final double perSecond;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final double p999Millis;
+        private final double maxMillis;
+
+        public EndpointLatency(long requests, long errors, double perSecond, double p50Millis, double p99Millis, double p999Millis,
+                               double maxMillis) {
+            this.requests = requests;
+            this.errors = errors;
+            this.perSecond = perSecond;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.p999Millis = p999Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getPerSecond() {
+            return perSecond;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getP999Millis() {
+            return p999Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+    }
+
+    public static class GcPauses {
+        private final long pauses;
+        private final long totalPauseMillis;
+        private final double pauseShare;
+        private final double p99PauseMillis;
+        private final long maxPauseMillis;
+
+        public GcPauses(long pauses, long totalPauseMillis, double pauseShare, double p99PauseMillis, long maxPauseMillis) {
+            this.pauses = pauses;
+            this.totalPauseMillis = totalPauseMillis;
+            this.pauseShare = pauseShare;
+            this.p99PauseMillis = p99PauseMillis;
+            this.maxPauseMillis = maxPauseMillis;
+        }
+
+        public long getPauses() {
+            return pauses;
+        }
+
+        public long getTotalPauseMillis() {
+            return totalPauseMillis;
+        }
+
+        /**
+         * Share of the measured time the application was paused.
+         */
+        public double getPauseShare() {
+            return pauseShare;
+        }
+
+        public double getP99PauseMillis() {
+            return p99PauseMillis;
+        }
+
+        public long getMaxPauseMillis() {
+            return maxPauseMillis;
+        }
+    }
+
+    /**
+     * Heap of the application's own JVM, so the growth of the retained heap is the data the application
+     * keeps and none of it belongs to the load generator.
+     */
+    public static class Heap {
+        private final long retainedBeforeBytes;
+        private final long retainedAfterBytes;
+        private final long peakBytes;
+        private final double bytesPerDatapoint;
+
+        public Heap(long retainedBeforeBytes, long retainedAfterBytes, long peakBytes, long datapointsStored) {
+            this.retainedBeforeBytes = retainedBeforeBytes;
+            this.retainedAfterBytes = retainedAfterBytes;
+            this.peakBytes = peakBytes;
+            this.bytesPerDatapoint = datapointsStored == 0 ? 0 : (double) (retainedAfterBytes - retainedBeforeBytes) / datapointsStored;
+        }
+
+        /**
+         * Heap retained once the application started, before any load.
+         */
+        public long getRetainedBeforeBytes() {
+            return retainedBeforeBytes;
+        }
+
+        /**
+         * Heap retained after the load, warmup included.
+         */
+        public long getRetainedAfterBytes() {
+            return retainedAfterBytes;
+        }
+
+        public long getPeakBytes() {
+            return peakBytes;
+        }
+
+        /**
+         * Growth of the retained heap per datapoint stored during the whole run, for sizing nodes.
+         */
+        public double getBytesPerDatapoint() {
+            return bytesPerDatapoint;
+        }
+    }
+}
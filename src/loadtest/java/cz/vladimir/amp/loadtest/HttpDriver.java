@@ -0,0 +1,88 @@
+package cz.vladimir.amp.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Plain HTTP/1.1 requests over the JDK's keep-alive connections, reading every response to the end so the
+ * connection is reused.
+ */
+class HttpDriver {
+
+    private final String baseUrl;
+
+    HttpDriver(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * @return status of the response
+     */
+    int post(String path, String contentType, byte[] body) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", contentType);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body);
+        }
+        return finish(connection);
+    }
+
+    /**
+     * @return status of the response
+     */
+    int get(String path) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("GET");
+        return finish(connection);
+    }
+
+    /**
+     * @return body of a successful response
+     */
+    byte[] getBody(String path) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("GET");
+        int status = connection.getResponseCode();
+        if (status != 200) {
+            finish(connection);
+            throw new IOException("GET " + path + " returned " + status);
+        }
+        try (InputStream input = connection.getInputStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                body.write(buffer, 0, read);
+            }
+            return body.toByteArray();
+        }
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(60000);
+        return connection;
+    }
+
+    private static int finish(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            try (InputStream input = body) {
+                byte[] buffer = new byte[8192];
+                while (input.read(buffer) >= 0) {
+                    // drained, so that the connection can be reused
+                }
+            }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,161 @@
+package cz.vladimir.amp.loadtest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the datapoints of the simulated devices at a fixed rate, split evenly over the sender threads, each
+ * owning every {@code senders}-th device. Requests are scheduled ahead rather than sent one after another
+ * completes, so a slow server cannot lower the rate it is measured at.
+ */
+class IngestDriver {
+
+    private static final String SINGLE_ENDPOINT = "POST /datapoints";
+    private static final String BATCH_ENDPOINT = "POST /datapoints/batch";
+    private static final long FIRST_TIMESTAMP = 1600000000000L;
+    private static final int MAX_DELAY = 50;
+
+    private final LoadTestOptions options;
+    private final HttpDriver http;
+    private final LatencyRecorder latencies;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder datapointsSent = new LongAdder();
+    private volatile boolean running = true;
+
+    IngestDriver(LoadTestOptions options, HttpDriver http, LatencyRecorder latencies) {
+        this.options = options;
+        this.http = http;
+        this.latencies = latencies;
+    }
+
+    void start(ExecutorService threads) {
+        long start = System.nanoTime();
+        for (int sender = 0; sender < options.getSenders(); sender++) {
+            int index = sender;
+            threads.execute(() -> send(index, start));
+        }
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    void resetCounters() {
+        requests.reset();
+        failedRequests.reset();
+        datapointsSent.reset();
+    }
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+    long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    long getDatapointsSent() {
+        return datapointsSent.sum();
+    }
+
+    private void send(int sender, long start) {
+        SplittableRandom random = new SplittableRandom(options.getSeed() * 31 + sender);
+        Devices devices = new Devices(sender, random);
+        double requestIntervalNanos = 1e9 * options.getSenders() * options.getBatchSize() / options.getRate();
+        for (long request = 1; running; request++) {
+            long due = start + (long) (request * requestIntervalNanos);
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < options.getBatchSize(); i++) {
+                devices.appendNext(body);
+                body.append('\n');
+            }
+            boolean single = options.getBatchSize() == 1;
+            int status;
+            try {
+                status = single ? http.post("/datapoints", "application/json", body.toString().getBytes(StandardCharsets.UTF_8))
+                        : http.post("/datapoints/batch", "application/x-ndjson", body.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                status = -1;
+            }
+            // a single duplicate is refused as a bad request, while a batch skips it
+            boolean success = status >= 200 && status < 300 || single && status == 400;
+            latencies.record(single ? SINGLE_ENDPOINT : BATCH_ENDPOINT, System.nanoTime() - due, success);
+            requests.increment();
+            datapointsSent.add(options.getBatchSize());
+            if (!success) {
+                failedRequests.increment();
+            }
+        }
+    }
+
+    /**
+     * The devices of one sender with the sequence number of the next datapoint of each. A device sends
+     * its datapoints in order, except for those held back to arrive up to {@value IngestDriver#MAX_DELAY} datapoints
+     * of the sender late.
+     */
+    private class Devices {
+        private final SplittableRandom random;
+        private final int[] devices;
+        private final long[] sequences;
+        private final Queue<long[]> delayed = new PriorityQueue<>(Comparator.comparingLong(late -> late[2]));
+        private int next;
+        private long sent;
+
+        private Devices(int sender, SplittableRandom random) {
+            this.random = random;
+            int count = (options.getDevices() - sender + options.getSenders() - 1) / options.getSenders();
+            devices = new int[count];
+            for (int i = 0; i < count; i++) {
+                devices[i] = sender + i * options.getSenders();
+            }
+            sequences = new long[count];
+        }
+
+        private void appendNext(StringBuilder body) {
+            sent++;
+            long[] late = delayed.peek();
+            if (late != null && late[2] <= sent) {
+                delayed.poll();
+                append(body, (int) late[0], late[1]);
+                return;
+            }
+            while (true) {
+                int index = next;
+                next = (next + 1) % devices.length;
+                double draw = random.nextDouble();
+                if (draw < options.getDuplicateRatio() && sequences[index] > 0) {
+                    append(body, index, sequences[index] - 1);
+                    return;
+                }
+                long sequence = sequences[index]++;
+                if (draw >= options.getDuplicateRatio() + options.getOutOfOrderRatio()) {
+                    append(body, index, sequence);
+                    return;
+                }
+                delayed.add(new long[]{index, sequence, sent + 1 + random.nextInt(MAX_DELAY)});
+            }
+        }
+
+        private void append(StringBuilder body, int index, long sequence) {
+            int device = devices[index];
+            long timestamp = FIRST_TIMESTAMP + sequence * options.getStep().toMillis() + device % options.getStep().toMillis();
+            long value = 20 + (sequence + device) % 7 + random.nextInt(5);
+            body.append("{\"device\":\"").append(LoadTest.device(device))
+                    .append("\",\"user\":\"").append(LoadTest.user(device % options.getUsers()))
+                    .append("\",\"timestamp\":").append(timestamp)
+                    .append(",\"value\":").append(value).append('}');
+        }
+    }
+}
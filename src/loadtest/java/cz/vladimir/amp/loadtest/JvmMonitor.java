@@ -0,0 +1,109 @@
+package cz.vladimir.amp.loadtest;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import cz.vladimir.amp.QuantileSketch;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.Set;
+
+/**
+ * Collects the garbage collection pauses and the heap used before collections of the application's JVM
+ * from the notifications of its collectors, received over JMX. Cycles of concurrent collectors run
+ * alongside the application and are not counted as pauses.
+ */
+class JvmMonitor implements NotificationListener {
+
+    private final MBeanServerConnection connection;
+    private final MemoryMXBean memory;
+    private final Set<ObjectName> collectors;
+    private QuantileSketch pauses = new QuantileSketch();
+    private long totalPauseMillis;
+    private long maxPauseMillis;
+    private long peakHeapBytes;
+
+    JvmMonitor(MBeanServerConnection connection) throws IOException {
+        this.connection = connection;
+        this.memory = ManagementFactory.newPlatformMXBeanProxy(connection, ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class);
+        try {
+            this.collectors = connection.queryNames(new ObjectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",*"), null);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void start() throws IOException {
+        for (ObjectName collector : collectors) {
+            try {
+                connection.addNotificationListener(collector, this, null, null);
+            } catch (InstanceNotFoundException e) {
+                // collector gone, which the JVM does not do
+            }
+        }
+    }
+
+    void stop() throws IOException {
+        for (ObjectName collector : collectors) {
+            try {
+                connection.removeNotificationListener(collector, this);
+            } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+                // not registered with this collector
+            }
+        }
+    }
+
+    synchronized void reset() {
+        pauses = new QuantileSketch();
+        totalPauseMillis = 0;
+        maxPauseMillis = 0;
+        peakHeapBytes = usedHeapBytes();
+    }
+
+    @Override
+    public synchronized void handleNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long usedBefore = info.getGcInfo().getMemoryUsageBeforeGc().values().stream().mapToLong(MemoryUsage::getUsed).sum();
+        peakHeapBytes = Math.max(peakHeapBytes, usedBefore);
+        if (info.getGcAction().contains("concurrent") || info.getGcName().contains("Concurrent")) {
+            return;
+        }
+        long pauseMillis = info.getGcInfo().getDuration();
+        pauses.add(pauseMillis);
+        totalPauseMillis += pauseMillis;
+        maxPauseMillis = Math.max(maxPauseMillis, pauseMillis);
+    }
+
+    synchronized CapacityReport.GcPauses report(double seconds) {
+        return new CapacityReport.GcPauses(pauses.getCount(), totalPauseMillis, totalPauseMillis / (seconds * 1000),
+                pauses.getCount() == 0 ? 0 : pauses.quantile(0.99), maxPauseMillis);
+    }
+
+    synchronized long getPeakHeapBytes() {
+        return Math.max(peakHeapBytes, usedHeapBytes());
+    }
+
+    /**
+     * @return heap in use right after a full collection, the data actually retained
+     */
+    long retainedHeapBytes() {
+        memory.gc();
+        return usedHeapBytes();
+    }
+
+    private long usedHeapBytes() {
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,56 @@
+package cz.vladimir.amp.loadtest;
+
+import cz.vladimir.amp.QuantileSketch;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latencies of the requests to every endpoint, in the same {@link QuantileSketch} the service summarizes
+ * datapoints with, so percentiles are within one percent of the exact ones.
+ */
+class LatencyRecorder {
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * @param success false if the request failed or was answered with an error status
+     */
+    void record(String endpoint, long nanos, boolean success) {
+        endpoints.computeIfAbsent(endpoint, key -> new Endpoint()).record(nanos / 1000, success);
+    }
+
+    /**
+     * Forgets the latencies recorded so far, at the end of the warmup.
+     */
+    void reset() {
+        endpoints.clear();
+    }
+
+    Map<String, CapacityReport.EndpointLatency> report(double seconds) {
+        Map<String, CapacityReport.EndpointLatency> report = new TreeMap<>();
+        endpoints.forEach((name, endpoint) -> report.put(name, endpoint.report(seconds)));
+        return report;
+    }
+
+    private static class Endpoint {
+        private final QuantileSketch micros = new QuantileSketch();
+        private long maxMicros;
+        private long errors;
+
+        private synchronized void record(long latencyMicros, boolean success) {
+            micros.add(latencyMicros);
+            maxMicros = Math.max(maxMicros, latencyMicros);
+            if (!success) {
+                errors++;
+            }
+        }
+
+        private synchronized CapacityReport.EndpointLatency report(double seconds) {
+            return new CapacityReport.EndpointLatency(micros.getCount(), errors, micros.getCount() / seconds,
+                    micros.quantile(0.5) / 1000, micros.quantile(0.99) / 1000, micros.quantile(0.999) / 1000, maxMicros / 1000.0);
+        }
+    }
+}
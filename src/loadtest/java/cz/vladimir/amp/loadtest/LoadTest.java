@@ -0,0 +1,99 @@
+package cz.vladimir.amp.loadtest;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the application on a free local port in a {@link ApplicationProcess process} of its own, drives
+ * the load described by {@link LoadTestOptions} against it over HTTP and writes a {@link CapacityReport}.
+ * Nothing but the local machine is needed, and the same options and seed send the same datapoints.
+ */
+public class LoadTest {
+
+    /**
+     * Counter of the datapoints actually stored, which with asynchronous ingest may lag behind those accepted.
+     */
+    private static final String STORED = "amp.datapoints.stored";
+    private static final String DUPLICATES = "amp.datapoints.duplicates";
+
+    private final LoadTestOptions options;
+    private final ApplicationProcess application;
+    private final HttpDriver http;
+
+    LoadTest(LoadTestOptions options, ApplicationProcess application) {
+        this.options = options;
+        this.application = application;
+        this.http = new HttpDriver("http://localhost:" + application.getPort());
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        System.setProperty("http.maxConnections", Integer.toString(options.getSenders() + options.getReaders()));
+        File file = new File(options.getReport());
+        File log = new File(file.getAbsoluteFile().getParentFile(), "application.log");
+        try (ApplicationProcess application = ApplicationProcess.start(options, log)) {
+            CapacityReport report = new LoadTest(options, application).run();
+            Jackson2ObjectMapperBuilder.json()
+                    .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS)
+                    .build().writerWithDefaultPrettyPrinter().writeValue(file, report);
+            System.out.println(report.toText());
+            System.out.println("Report written to " + file.getAbsolutePath());
+        }
+    }
+
+    static String device(int index) {
+        return "loadDevice" + index;
+    }
+
+    static String user(int index) {
+        return "loadUser" + index;
+    }
+
+    CapacityReport run() throws IOException, InterruptedException {
+        LatencyRecorder latencies = new LatencyRecorder();
+        JvmMonitor jvm = new JvmMonitor(application.getMBeanServer());
+        IngestDriver ingest = new IngestDriver(options, http, latencies);
+        ReadDriver reads = new ReadDriver(options, http, latencies);
+        long retainedBefore = jvm.retainedHeapBytes();
+        jvm.start();
+
+        ExecutorService threads = Executors.newFixedThreadPool(options.getSenders() + options.getReaders(), runnable -> {
+            Thread thread = new Thread(runnable, "load-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ingest.start(threads);
+        reads.start(threads);
+        Thread.sleep(options.getWarmup().toMillis());
+
+        latencies.reset();
+        jvm.reset();
+        ingest.resetCounters();
+        long storedBefore = application.counter(STORED);
+        long duplicatesBefore = application.counter(DUPLICATES);
+        long started = System.nanoTime();
+        Thread.sleep(options.getDuration().toMillis());
+        double seconds = (System.nanoTime() - started) / 1e9;
+        CapacityReport.Ingest ingested = new CapacityReport.Ingest(ingest.getRequests(), ingest.getFailedRequests(),
+                ingest.getDatapointsSent(), application.counter(STORED) - storedBefore,
+                application.counter(DUPLICATES) - duplicatesBefore, seconds);
+        Map<String, CapacityReport.EndpointLatency> endpoints = latencies.report(seconds);
+        CapacityReport.GcPauses gc = jvm.report(seconds);
+        long peakHeap = jvm.getPeakHeapBytes();
+
+        ingest.stop();
+        reads.stop();
+        threads.shutdown();
+        threads.awaitTermination(1, TimeUnit.MINUTES);
+        jvm.stop();
+        CapacityReport.Heap heap = new CapacityReport.Heap(retainedBefore, jvm.retainedHeapBytes(), peakHeap, application.counter(STORED));
+        return new CapacityReport(options, seconds, ingested, endpoints, gc, heap);
+    }
+}
@@ -0,0 +1,205 @@
+package cz.vladimir.amp.loadtest;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Shape of the load, given as {@code --name=value} arguments. Arguments not named here are passed on to the
+ * application as properties, e.g. {@code --amp.engine=sharded} or {@code --amp.ingest.enabled=true}.
+ */
+public class LoadTestOptions {
+
+    private int devices = 2000;
+    private int users = 500;
+    private int rate = 5000;
+    private int batchSize = 1;
+    private int senders = 16;
+    private int readers = 8;
+    private List<Long> windowSizes = Arrays.asList(1L, 4L, 96L);
+    private double outOfOrderRatio = 0.05;
+    private double duplicateRatio = 0.01;
+    private Duration step = Duration.ofMinutes(1);
+    private Duration warmup = Duration.ofSeconds(15);
+    private Duration duration = Duration.ofSeconds(60);
+    private long seed = 1;
+    private String report = "build/reports/loadtest/report.json";
+    private List<String> jvmArgs = Arrays.asList("-Xms2g", "-Xmx2g");
+    private final Map<String, String> applicationProperties = new LinkedHashMap<>();
+
+    public static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            options.set(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        if (options.devices < options.senders) {
+            throw new IllegalArgumentException("Every sender needs at least one device");
+        }
+        return options;
+    }
+
+    /**
+     * Number of simulated devices; device {@code i} belongs to user {@code i % users}.
+     */
+    public int getDevices() {
+        return devices;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    /**
+     * Datapoints sent per second by all devices together.
+     */
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * Datapoints per request; 1 posts them one by one to {@code /datapoints}, more posts NDJSON batches.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getSenders() {
+        return senders;
+    }
+
+    /**
+     * Threads querying averages and moving averages one query after another.
+     */
+    public int getReaders() {
+        return readers;
+    }
+
+    public List<Long> getWindowSizes() {
+        return windowSizes;
+    }
+
+    /**
+     * Share of datapoints held back and sent after later datapoints of their device.
+     */
+    public double getOutOfOrderRatio() {
+        return outOfOrderRatio;
+    }
+
+    /**
+     * Share of datapoints that resend the previous datapoint of their device.
+     */
+    public double getDuplicateRatio() {
+        return duplicateRatio;
+    }
+
+    /**
+     * Time between the timestamps of consecutive datapoints of a device, which is independent of the rate.
+     */
+    public Duration getStep() {
+        return step;
+    }
+
+    public Duration getWarmup() {
+        return warmup;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public String getReport() {
+        return report;
+    }
+
+    /**
+     * Options of the JVM the application runs in, separated by commas.
+     */
+    public List<String> getJvmArgs() {
+        return jvmArgs;
+    }
+
+    public Map<String, String> getApplicationProperties() {
+        return applicationProperties;
+    }
+
+    @JsonIgnore
+    public String[] getApplicationArguments() {
+        return applicationProperties.entrySet().stream()
+                .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                .toArray(String[]::new);
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "devices":
+                devices = positive(name, Integer.parseInt(value));
+                break;
+            case "users":
+                users = positive(name, Integer.parseInt(value));
+                break;
+            case "rate":
+                rate = positive(name, Integer.parseInt(value));
+                break;
+            case "batch-size":
+                batchSize = positive(name, Integer.parseInt(value));
+                break;
+            case "senders":
+                senders = positive(name, Integer.parseInt(value));
+                break;
+            case "readers":
+                readers = Integer.parseInt(value);
+                break;
+            case "window-sizes":
+                windowSizes = Arrays.stream(value.split(",")).map(Long::valueOf).collect(Collectors.toCollection(ArrayList::new));
+                break;
+            case "out-of-order-ratio":
+                outOfOrderRatio = Double.parseDouble(value);
+                break;
+            case "duplicate-ratio":
+                duplicateRatio = Double.parseDouble(value);
+                break;
+            case "step":
+                step = DurationStyle.detectAndParse(value);
+                break;
+            case "warmup":
+                warmup = DurationStyle.detectAndParse(value);
+                break;
+            case "duration":
+                duration = DurationStyle.detectAndParse(value);
+                break;
+            case "seed":
+                seed = Long.parseLong(value);
+                break;
+            case "report":
+                report = value;
+                break;
+            case "jvm-args":
+                jvmArgs = Arrays.asList(value.split(","));
+                break;
+            default:
+                applicationProperties.put(name, value);
+        }
+    }
+
+    private static int positive(String name, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,61 @@
+package cz.vladimir.amp.loadtest;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Queries the averages and moving averages of random devices and users, every reader thread sending its
+ * next query as soon as the previous one is answered.
+ */
+class ReadDriver {
+
+    private final LoadTestOptions options;
+    private final HttpDriver http;
+    private final LatencyRecorder latencies;
+    private volatile boolean running = true;
+
+    ReadDriver(LoadTestOptions options, HttpDriver http, LatencyRecorder latencies) {
+        this.options = options;
+        this.http = http;
+        this.latencies = latencies;
+    }
+
+    void start(ExecutorService threads) {
+        for (int reader = 0; reader < options.getReaders(); reader++) {
+            int index = reader;
+            threads.execute(() -> read(index));
+        }
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    private void read(int reader) {
+        SplittableRandom random = new SplittableRandom(options.getSeed() * 37 + reader);
+        while (running) {
+            boolean ofDevice = random.nextBoolean();
+            String path = ofDevice ? "/statistics/devices/" + LoadTest.device(random.nextInt(options.getDevices()))
+                    : "/statistics/users/" + LoadTest.user(random.nextInt(options.getUsers()));
+            String endpoint = ofDevice ? "GET /statistics/devices/{device}" : "GET /statistics/users/{user}";
+            if (random.nextBoolean()) {
+                path += "/avg";
+                endpoint += "/avg";
+            } else {
+                long windowSize = options.getWindowSizes().get(random.nextInt(options.getWindowSizes().size()));
+                path += "/moving_avg?window_size=" + windowSize;
+                endpoint += "/moving_avg?window_size=" + windowSize;
+            }
+            long start = System.nanoTime();
+            int status;
+            try {
+                status = http.get(path);
+            } catch (IOException e) {
+                status = -1;
+            }
+            // devices and users that have not sent anything yet are not found, which is no failure
+            latencies.record(endpoint, System.nanoTime() - start, status == 200 || status == 404);
+        }
+    }
+}
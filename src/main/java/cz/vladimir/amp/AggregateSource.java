@@ -0,0 +1,43 @@
+package cz.vladimir.amp;
+
+/**
+ * Interval aggregates and summaries of one device or one user, as read by {@link IntervalAverages} and
+ * {@link IntervalStatistics}.
+ */
+public interface AggregateSource {
+
+    /**
+     * @return number of the first interval of the tier holding data or {@link Long#MAX_VALUE} when there is none
+     */
+    long getFirstInterval(RollupTier tier);
+
+    /**
+     * @return number of the last interval of the tier holding data or {@link Long#MIN_VALUE} when there is none
+     */
+    long getLastInterval(RollupTier tier);
+
+    /**
+     * Aggregates of intervals of the tier numbered from {@code fromInterval} inclusive to {@code toInterval}
+     * exclusive, spanning every interval of the range between the first and the last interval with data.
+     */
+    IntervalAggregates getAggregates(RollupTier tier, long fromInterval, long toInterval);
+
+    /**
+     * Summaries of {@link RollupTier#QUARTER_HOUR} intervals numbered from {@code fromInterval} inclusive to
+     * {@code toInterval} exclusive.
+     */
+    IntervalSummaries getSummaries(long fromInterval, long toInterval);
+
+    /**
+     * Sum and count of the datapoints with timestamps from {@code from} inclusive to {@code to} exclusive.
+     */
+    RangeTotal getTotal(long from, long to);
+
+    /**
+     * Sums and counts of the intervals of {@code intervalInMillis} numbered from {@code fromInterval} inclusive
+     * to {@code toInterval} exclusive that hold datapoints, summed up from their {@link #getTotal totals}.
+     */
+    default IntervalAggregates getTotals(long intervalInMillis, long fromInterval, long toInterval) {
+        return IntervalAverages.sumTotals(this, intervalInMillis, fromInterval, toInterval);
+    }
+}
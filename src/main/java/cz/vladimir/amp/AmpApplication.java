@@ -2,8 +2,10 @@ package cz.vladimir.amp;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
 @SpringBootApplication
+@EnableConfigurationProperties(AmpProperties.class)
 public class AmpApplication {
 
 	public static void main(String[] args) {
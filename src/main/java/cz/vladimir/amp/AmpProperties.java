@@ -0,0 +1,472 @@
+package cz.vladimir.amp;
+
+import cz.vladimir.amp.ingest.IngestMode;
+import cz.vladimir.amp.wal.FsyncPolicy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "amp")
+public class AmpProperties {
+
+    private EngineType engine = EngineType.LOCKING;
+    private int shards = Runtime.getRuntime().availableProcessors();
+    private final QueryCache queryCache = new QueryCache();
+    private final Wal wal = new Wal();
+    private final Segments segments = new Segments();
+    private final Ingest ingest = new Ingest();
+    private final Compaction compaction = new Compaction();
+    private final Retention retention = new Retention();
+    private final Tombstones tombstones = new Tombstones();
+    private final Fleet fleet = new Fleet();
+    private final Compression compression = new Compression();
+    private final Snapshot snapshot = new Snapshot();
+    private final Live live = new Live();
+    private final Metrics metrics = new Metrics();
+
+    public EngineType getEngine() {
+        return engine;
+    }
+
+    public void setEngine(EngineType engine) {
+        this.engine = engine;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public Wal getWal() {
+        return wal;
+    }
+
+    public Segments getSegments() {
+        return segments;
+    }
+
+    public Ingest getIngest() {
+        return ingest;
+    }
+
+    public Compaction getCompaction() {
+        return compaction;
+    }
+
+    public Retention getRetention() {
+        return retention;
+    }
+
+    public Tombstones getTombstones() {
+        return tombstones;
+    }
+
+    public Fleet getFleet() {
+        return fleet;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public Live getLive() {
+        return live;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public static class QueryCache {
+        private int maxEntries = 10000;
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class Wal {
+        private boolean enabled;
+        private String directory = "data/wal";
+        private FsyncPolicy fsync = FsyncPolicy.GROUP;
+        private Duration groupCommitInterval = Duration.ofMillis(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public FsyncPolicy getFsync() {
+            return fsync;
+        }
+
+        public void setFsync(FsyncPolicy fsync) {
+            this.fsync = fsync;
+        }
+
+        public Duration getGroupCommitInterval() {
+            return groupCommitInterval;
+        }
+
+        public void setGroupCommitInterval(Duration groupCommitInterval) {
+            this.groupCommitInterval = groupCommitInterval;
+        }
+    }
+
+    public static class Segments {
+        private boolean enabled;
+        private String directory = "data/segments";
+        private Duration hotWindow = Duration.ofDays(1);
+        private Duration flushInterval = Duration.ofMinutes(15);
+        private int maxSegments = 8;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public Duration getHotWindow() {
+            return hotWindow;
+        }
+
+        public void setHotWindow(Duration hotWindow) {
+            this.hotWindow = hotWindow;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        public int getMaxSegments() {
+            return maxSegments;
+        }
+
+        public void setMaxSegments(int maxSegments) {
+            this.maxSegments = maxSegments;
+        }
+    }
+
+    public static class Ingest {
+        private IngestMode mode = IngestMode.SYNC;
+        private int queueCapacity = 65536;
+        private int appliers = 2;
+        private int maxBatch = 1024;
+        private Duration retryAfter = Duration.ofSeconds(1);
+        private Duration consistentReadTimeout = Duration.ofSeconds(5);
+
+        public IngestMode getMode() {
+            return mode;
+        }
+
+        public void setMode(IngestMode mode) {
+            this.mode = mode;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getAppliers() {
+            return appliers;
+        }
+
+        public void setAppliers(int appliers) {
+            this.appliers = appliers;
+        }
+
+        public int getMaxBatch() {
+            return maxBatch;
+        }
+
+        public void setMaxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public void setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+
+        public Duration getConsistentReadTimeout() {
+            return consistentReadTimeout;
+        }
+
+        public void setConsistentReadTimeout(Duration consistentReadTimeout) {
+            this.consistentReadTimeout = consistentReadTimeout;
+        }
+    }
+
+    public static class Compaction {
+        private boolean enabled;
+        private Duration rawMaxAge = Duration.ofDays(30);
+        private Duration interval = Duration.ofHours(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getRawMaxAge() {
+            return rawMaxAge;
+        }
+
+        public void setRawMaxAge(Duration rawMaxAge) {
+            this.rawMaxAge = rawMaxAge;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+    }
+
+    public static class Retention {
+        private boolean enabled;
+        private Duration ttl;
+        private Map<String, Duration> deviceTtl = new HashMap<>();
+        private DataSize memoryBudget;
+        private Duration interval = Duration.ofSeconds(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public Map<String, Duration> getDeviceTtl() {
+            return deviceTtl;
+        }
+
+        public void setDeviceTtl(Map<String, Duration> deviceTtl) {
+            this.deviceTtl = deviceTtl;
+        }
+
+        public DataSize getMemoryBudget() {
+            return memoryBudget;
+        }
+
+        public void setMemoryBudget(DataSize memoryBudget) {
+            this.memoryBudget = memoryBudget;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+    }
+
+    public static class Tombstones {
+        private Duration purgeInterval = Duration.ofSeconds(1);
+
+        public Duration getPurgeInterval() {
+            return purgeInterval;
+        }
+
+        public void setPurgeInterval(Duration purgeInterval) {
+            this.purgeInterval = purgeInterval;
+        }
+    }
+
+    public static class Fleet {
+        private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+    }
+
+    public static class Compression {
+        private boolean enabled = true;
+        private Duration block = Duration.ofHours(2);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getBlock() {
+            return block;
+        }
+
+        public void setBlock(Duration block) {
+            this.block = block;
+        }
+    }
+
+    public static class Snapshot {
+        private boolean enabled;
+        private String file = "data/snapshot.amp";
+        private Duration interval = Duration.ofMinutes(15);
+        private int loadThreads = Runtime.getRuntime().availableProcessors();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public void setFile(String file) {
+            this.file = file;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+
+        public int getLoadThreads() {
+            return loadThreads;
+        }
+
+        public void setLoadThreads(int loadThreads) {
+            this.loadThreads = loadThreads;
+        }
+    }
+
+    public static class Live {
+        private boolean enabled;
+        private Duration flushInterval = Duration.ofMillis(250);
+        private int senders = 2;
+        private Duration timeout = Duration.ofMinutes(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+
+        public int getSenders() {
+            return senders;
+        }
+
+        public void setSenders(int senders) {
+            this.senders = senders;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class Metrics {
+        private boolean enabled = true;
+        private Duration seriesScanInterval = Duration.ofMinutes(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getSeriesScanInterval() {
+            return seriesScanInterval;
+        }
+
+        public void setSeriesScanInterval(Duration seriesScanInterval) {
+            this.seriesScanInterval = seriesScanInterval;
+        }
+    }
+}
@@ -1,17 +1,144 @@
 package cz.vladimir.amp;
 
-import cz.vladimir.amp.AverageForInterval;
-import cz.vladimir.amp.Datapoint;
-
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
 
 public interface AverageCalculations {
 
     void storeDataPoint(Datapoint dataPoint);
-    List<AverageForInterval> getAveragesForDevice(String device);
-    List<AverageForInterval> getMovingAveragesForDevice(String device, long windowSize);
-    List<AverageForInterval> getAveragesForUser(String user);
-    List<AverageForInterval> getMovingAveragesForUser(String user, long windowSize);
+
+    /**
+     * Stores the datapoints, skipping those that duplicate a stored datapoint or one earlier in the list.
+     *
+     * @return indexes of the skipped datapoints
+     */
+    List<Integer> storeDataPoints(List<Datapoint> dataPoints);
+    List<AverageForInterval> getAveragesForDevice(String device, IntervalQuery query);
+    List<AverageForInterval> getMovingAveragesForDevice(String device, List<Long> windowSizes, IntervalQuery query);
+    List<AverageForInterval> getAveragesForUser(String user, IntervalQuery query);
+    List<AverageForInterval> getMovingAveragesForUser(String user, List<Long> windowSizes, IntervalQuery query);
+
+    /**
+     * @see IntervalStatistics#calculate(AggregateSource, List, IntervalQuery)
+     */
+    List<SummaryForInterval> getSummariesForDevice(String device, List<Double> percentiles, IntervalQuery query);
+
+    /**
+     * Summaries of the user are merged from those of its series, so they cost no more than those of its devices.
+     *
+     * @see IntervalStatistics#calculate(AggregateSource, List, IntervalQuery)
+     */
+    List<SummaryForInterval> getSummariesForUser(String user, List<Double> percentiles, IntervalQuery query);
+
+    /**
+     * Devices with the highest average over the intervals of the query overlapping its time range, highest
+     * first. The limit of the query does not apply; {@code count} limits the devices instead.
+     */
+    List<GroupAverage> getTopDevices(int count, IntervalQuery query);
+
+    /**
+     * Users with the highest average over all their devices, like {@link #getTopDevices(int, IntervalQuery)}.
+     */
+    List<GroupAverage> getTopUsers(int count, IntervalQuery query);
+
+    /**
+     * Sum, count and average of the datapoints of the device with timestamps from {@code from} inclusive to
+     * {@code to} exclusive, in time logarithmic in the number of datapoints of each series of the device.
+     *
+     * @see RangeIndex
+     */
+    RangeTotal getRangeTotalForDevice(String device, long from, long to);
+
+    /**
+     * Like {@link #getRangeTotalForDevice(String, long, long)}, for all devices of the user.
+     */
+    RangeTotal getRangeTotalForUser(String user, long from, long to);
+
+    /**
+     * Averages of all datapoints of all devices per interval.
+     *
+     * @see IntervalAverages#calculate(AggregateSource, List, IntervalQuery)
+     */
+    List<AverageForInterval> getFleetAverages(IntervalQuery query);
+    long getDeviceVersion(String device);
+    long getUserVersion(String user);
+
+    /**
+     * Deletes the datapoints of the user from the views of the user and of its devices alike, in time that
+     * does not depend on the number of datapoints. The memory they take may only be reclaimed later by
+     * {@link #purgeDeleted()}.
+     */
     void deleteUserDatapoints(String user);
+
+    /**
+     * Deletes the datapoints of the device like {@link #deleteUserDatapoints(String)} does those of a user.
+     */
     void deleteDeviceDatapoints(String device);
+
+    /**
+     * Reclaims the memory of the datapoints deleted since the last call.
+     *
+     * @return number of datapoints reclaimed
+     */
+    long purgeDeleted();
+
+    /**
+     * Drops the datapoints older than the timestamp, keeping their rollups from {@link RollupTier#QUARTER_HOUR}
+     * up. Datapoints older than the timestamp are refused afterwards like duplicates, since they could not
+     * be told apart from them anymore.
+     *
+     * @return number of datapoints dropped
+     */
+    long compactDatapoints(long beforeTimestamp);
+
+    /**
+     * Drops the datapoints, together with their rollups, older than the cutoff the function gives for their
+     * device; {@link Long#MIN_VALUE} keeps all datapoints of the device. Expired datapoints are refused
+     * afterwards.
+     *
+     * @return number of datapoints dropped
+     */
+    long expireDatapoints(ToLongFunction<String> cutoffOfDevice);
+
+    List<SeriesUsage> getSeriesUsage();
+
+    /**
+     * Drops the series of the device and user as a whole, while new datapoints of the pair can still be stored.
+     *
+     * @return number of datapoints dropped
+     */
+    long evictSeries(String device, String user);
+    Map<String, DictionaryStatistics> getDictionaryStatistics();
+
+    /**
+     * Counters since the implementation was created, for monitoring.
+     */
+    EngineStatistics getEngineStatistics();
+    void addListener(DatapointListener listener);
+
+    default List<AverageForInterval> getAveragesForDevice(String device) {
+        return getAveragesForDevice(device, IntervalQuery.ALL);
+    }
+
+    default List<AverageForInterval> getMovingAveragesForDevice(String device, List<Long> windowSizes) {
+        return getMovingAveragesForDevice(device, windowSizes, IntervalQuery.ALL);
+    }
+
+    default List<AverageForInterval> getAveragesForUser(String user) {
+        return getAveragesForUser(user, IntervalQuery.ALL);
+    }
+
+    default List<AverageForInterval> getMovingAveragesForUser(String user, List<Long> windowSizes) {
+        return getMovingAveragesForUser(user, windowSizes, IntervalQuery.ALL);
+    }
+
+    default List<AverageForInterval> getMovingAveragesForDevice(String device, long windowSize) {
+        return getMovingAveragesForDevice(device, Collections.singletonList(windowSize));
+    }
+
+    default List<AverageForInterval> getMovingAveragesForUser(String user, long windowSize) {
+        return getMovingAveragesForUser(user, Collections.singletonList(windowSize));
+    }
 }
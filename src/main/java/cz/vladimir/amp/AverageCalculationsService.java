@@ -1,151 +1,514 @@
 package cz.vladimir.amp;
 
+import cz.vladimir.amp.QueryKey.ViewType;
 import cz.vladimir.amp.exception.DataNotFoundException;
 import cz.vladimir.amp.exception.DuplicateDatapointException;
+import cz.vladimir.amp.segment.SegmentSlice;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
-import java.util.stream.LongStream;
-
-import static java.util.stream.Collectors.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 
 @Component
-public class AverageCalculationsService implements AverageCalculations {
+@ConditionalOnProperty(prefix = "amp", name = "engine", havingValue = "locking", matchIfMissing = true)
+public class AverageCalculationsService implements AverageCalculations, SeriesStore {
 
     private static final long INTERVAL_IN_MILLIS = java.time.Duration.ofMinutes(15).toMillis();
 
-    private Map<String, List<Datapoint>> dataByUser = new HashMap<>();
-    private Map<String, List<Datapoint>> dataByDevice = new HashMap<>();
+    private final IdentifierDictionary devices = new IdentifierDictionary();
+    private final IdentifierDictionary users = new IdentifierDictionary();
+    private final ConcurrentMap<Long, PointSeries> series = new ConcurrentHashMap<>();
+    private final IdTable<SeriesView> dataByUser = new IdTable<>();
+    private final IdTable<SeriesView> dataByDevice = new IdTable<>();
+    private final AtomicLong versions = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final Queue<SeriesView> tombstones = new ConcurrentLinkedQueue<>();
+    private final QueryCache queryCache;
+    private final ForkJoinPool fleetPool;
+    private final long blockInMillis;
+    private final ChangeListeners listeners = new ChangeListeners();
+    private final LongAdder duplicatesRejected = new LongAdder();
+    private final Contention contention = new Contention();
+
+    public AverageCalculationsService() {
+        this(new AmpProperties());
+    }
 
+    @Autowired
+    public AverageCalculationsService(AmpProperties properties) {
+        this.queryCache = new QueryCache(properties.getQueryCache().getMaxEntries());
+        this.fleetPool = new ForkJoinPool(properties.getFleet().getParallelism());
+        AmpProperties.Compression compression = properties.getCompression();
+        this.blockInMillis = compression.isEnabled() ? compression.getBlock().toMillis() : 0;
+    }
 
-    public synchronized void storeDataPoint(Datapoint dataPoint) {
-        storeDatapointByUser(dataPoint);
-        storeDatapointByDevice(dataPoint);
+    public void storeDataPoint(Datapoint dataPoint) {
+        listeners.store(() -> add(dataPoint), listener -> listener.datapointStored(dataPoint));
     }
 
-    public synchronized List<AverageForInterval> getAveragesForDevice(String device) {
-        List<Datapoint> dataPointsForDevice = dataByDevice.get(device);
-        if (dataPointsForDevice == null) {
-            throw new DataNotFoundException();
+    private void add(Datapoint dataPoint) {
+        int deviceId = devices.idOf(dataPoint.getDevice());
+        int userId = users.idOf(dataPoint.getUser());
+        PointSeries pointSeries = liveSeries(deviceId, userId);
+        while (!pointSeries.add(dataPoint.getTimestamp(), dataPoint.getValue())) {
+            if (!pointSeries.isRetired()) {
+                duplicatesRejected.increment();
+                throw new DuplicateDatapointException();
+            }
+            pointSeries = liveSeries(deviceId, userId);
         }
-        return getAverages(dataPointsForDevice);
+        touch(dataByDevice.get(deviceId));
+        touch(dataByUser.get(userId));
     }
 
-    public synchronized List<AverageForInterval> getMovingAveragesForDevice(String device, long windowSize) {
-        List<AverageForInterval> averageForIntervals = getAveragesForDevice(device);
-        addMovingAverage(averageForIntervals, windowSize);
-        return averageForIntervals;
+    /**
+     * Datapoints are grouped by point series, so that each series is locked once for the whole batch
+     * and each view gets a new version once.
+     */
+    public List<Integer> storeDataPoints(List<Datapoint> dataPoints) {
+        List<Datapoint> stored = new ArrayList<>(dataPoints.size());
+        List<Integer> duplicates = new ArrayList<>();
+        listeners.store(() -> addAll(dataPoints, stored, duplicates), listener -> {
+            if (!stored.isEmpty()) {
+                listener.datapointsStored(stored);
+            }
+        });
+        return duplicates;
     }
 
-    public synchronized List<AverageForInterval> getAveragesForUser(String user) {
-        List<Datapoint> dataPointsForUser = dataByUser.get(user);
-        if (dataPointsForUser == null) {
-            throw new DataNotFoundException();
+    private void addAll(List<Datapoint> dataPoints, List<Datapoint> stored, List<Integer> duplicates) {
+        int size = dataPoints.size();
+        long[] timestamps = new long[size];
+        long[] values = new long[size];
+        long[] seriesAndPosition = new long[size];
+        List<PointSeries> batchSeries = new ArrayList<>();
+        Map<PointSeries, Integer> seriesIndexes = new IdentityHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Datapoint dataPoint = dataPoints.get(i);
+            int deviceId = devices.idOf(dataPoint.getDevice());
+            int userId = users.idOf(dataPoint.getUser());
+            PointSeries pointSeries = liveSeries(deviceId, userId);
+            Integer seriesIndex = seriesIndexes.computeIfAbsent(pointSeries, key -> {
+                batchSeries.add(key);
+                return batchSeries.size() - 1;
+            });
+            timestamps[i] = dataPoint.getTimestamp();
+            values[i] = dataPoint.getValue();
+            seriesAndPosition[i] = (long) seriesIndex << 32 | i;
+        }
+        Arrays.sort(seriesAndPosition);
+
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = (int) seriesAndPosition[i];
+        }
+        boolean[] added = new boolean[size];
+        Set<SeriesView> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int from = 0; from < size; ) {
+            int seriesIndex = (int) (seriesAndPosition[from] >>> 32);
+            int to = from + 1;
+            while (to < size && (int) (seriesAndPosition[to] >>> 32) == seriesIndex) {
+                to++;
+            }
+            PointSeries pointSeries = batchSeries.get(seriesIndex);
+            while (!pointSeries.addAll(timestamps, values, positions, from, to, added)) {
+                pointSeries = liveSeries(pointSeries.getDeviceId(), pointSeries.getUserId());
+            }
+            touched.add(dataByDevice.get(pointSeries.getDeviceId()));
+            touched.add(dataByUser.get(pointSeries.getUserId()));
+            from = to;
         }
-        return getAverages(dataPointsForUser);
+        touched.forEach(this::touch);
+
+        for (int i = 0; i < size; i++) {
+            if (added[i]) {
+                stored.add(dataPoints.get(i));
+            } else {
+                duplicates.add(i);
+            }
+        }
+        duplicatesRejected.add(duplicates.size());
+    }
+
+    public List<AverageForInterval> getAveragesForDevice(String device, IntervalQuery query) {
+        return getAverages(ViewType.DEVICE, devices.find(device), dataByDevice, Collections.emptyList(), query);
+    }
+
+    public List<AverageForInterval> getMovingAveragesForDevice(String device, List<Long> windowSizes, IntervalQuery query) {
+        return getAverages(ViewType.DEVICE, devices.find(device), dataByDevice, windowSizes, query);
+    }
+
+    public List<AverageForInterval> getAveragesForUser(String user, IntervalQuery query) {
+        return getAverages(ViewType.USER, users.find(user), dataByUser, Collections.emptyList(), query);
+    }
+
+    public List<AverageForInterval> getMovingAveragesForUser(String user, List<Long> windowSizes, IntervalQuery query) {
+        return getAverages(ViewType.USER, users.find(user), dataByUser, windowSizes, query);
     }
 
-    public synchronized List<AverageForInterval> getMovingAveragesForUser(String user, long windowSize) {
-        List<AverageForInterval> averageForIntervals = getAveragesForUser(user);
-        addMovingAverage(averageForIntervals, windowSize);
-        return averageForIntervals;
+    public List<SummaryForInterval> getSummariesForDevice(String device, List<Double> percentiles, IntervalQuery query) {
+        return getSummaries(dataByDevice.get(devices.find(device)), percentiles, query);
     }
 
-    public synchronized void deleteUserDatapoints(String user) {
-        dataByUser.remove(user);
+    public List<SummaryForInterval> getSummariesForUser(String user, List<Double> percentiles, IntervalQuery query) {
+        return getSummaries(dataByUser.get(users.find(user)), percentiles, query);
     }
 
-    public synchronized void deleteDeviceDatapoints(String device) {
-        dataByDevice.remove(device);
+    public List<GroupAverage> getTopDevices(int count, IntervalQuery query) {
+        return getTopAverages(devices, dataByDevice, count, query);
     }
 
-    private List<AverageForInterval> getAverages(List<Datapoint> datapoints) {
+    public List<GroupAverage> getTopUsers(int count, IntervalQuery query) {
+        return getTopAverages(users, dataByUser, count, query);
+    }
 
-        long firstTimestamp = getTimestampOfFirstDataPoint(datapoints);
+    public List<AverageForInterval> getFleetAverages(IntervalQuery query) {
+        return IntervalAverages.calculate(new Fleet(), Collections.emptyList(), query);
+    }
 
-        Map<Long, Double> averageValuePerInterval = calculateAverageValuesPerInterval(datapoints, firstTimestamp);
+    public RangeTotal getRangeTotalForDevice(String device, long from, long to) {
+        return getRangeTotal(dataByDevice.get(devices.find(device)), from, to);
+    }
 
-        long highestIntervalSequenceNumber = getHighestIntervalSequenceNumber(averageValuePerInterval);
+    public RangeTotal getRangeTotalForUser(String user, long from, long to) {
+        return getRangeTotal(dataByUser.get(users.find(user)), from, to);
+    }
 
-        List<AverageForInterval> averageForIntervals = LongStream.rangeClosed(0, highestIntervalSequenceNumber)
-                .mapToObj(sequenceNumber -> {
-                    long intervalStartTime = getIntervalStartTime(firstTimestamp, sequenceNumber);
-                    if (averageValuePerInterval.containsKey(sequenceNumber)) {
-                        return new AverageForInterval(intervalStartTime, averageValuePerInterval.get(sequenceNumber));
-                    } else {
-                        return new AverageForInterval(intervalStartTime, 0);
-                    }
-                })
-                .sorted(Comparator.comparingLong(AverageForInterval::getStartTime))
-                .collect(toList());
+    public long getDeviceVersion(String device) {
+        return getVersion(dataByDevice.get(devices.find(device)));
+    }
 
-        return averageForIntervals;
+    public long getUserVersion(String user) {
+        return getVersion(dataByUser.get(users.find(user)));
     }
 
-    private void addMovingAverage(List<AverageForInterval> listOfIntervals, long windowSize) {
-        Deque<AverageForInterval> window = new ArrayDeque();
+    /**
+     * Only leaves a tombstone, see {@link #purgeDeleted()}.
+     */
+    public void deleteUserDatapoints(String user) {
+        listeners.delete(() -> delete(dataByUser.remove(users.find(user))),
+                listener -> listener.userDatapointsDeleted(user));
+    }
 
-        listOfIntervals.forEach(intervalAverage -> {
-            window.addFirst(intervalAverage);
-            if(window.size() == windowSize){
-                double movingAverage = window.stream()
-                        .mapToDouble(v -> v.getAverage())
-                        .average()
-                        .orElseThrow(DataNotFoundException::new);
-                intervalAverage.setMovingAverage(movingAverage);
-                window.removeLast();
+    /**
+     * Only leaves a tombstone, see {@link #purgeDeleted()}.
+     */
+    public void deleteDeviceDatapoints(String device) {
+        listeners.delete(() -> delete(dataByDevice.remove(devices.find(device))),
+                listener -> listener.deviceDatapointsDeleted(device));
+    }
+
+    /**
+     * Removes the members of the views deleted since the last call from the series and from their other
+     * views, and retires them, so that writers still holding one store into a new series instead.
+     */
+    public long purgeDeleted() {
+        long purged = 0;
+        for (SeriesView view = tombstones.poll(); view != null; view = tombstones.poll()) {
+            for (PointSeries member : view.getMembers()) {
+                series.remove(member.getKey(), member);
+                purged += member.retire();
+                SeriesView otherView = member.getDeviceView() == view ? member.getUserView() : member.getDeviceView();
+                touch(otherView);
+                otherView.removeMember(member);
             }
-        });
+        }
+        return purged;
     }
 
-    private long getHighestIntervalSequenceNumber(Map<Long, Double> averagePerInterval) {
-        return averagePerInterval.keySet().stream().mapToLong(v -> v).max().orElseThrow(DataNotFoundException::new);
+    public long compactDatapoints(long beforeTimestamp) {
+        long dropped = 0;
+        Set<SeriesView> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (PointSeries pointSeries : liveSeries()) {
+            int seriesDropped = pointSeries.compact(beforeTimestamp);
+            if (seriesDropped > 0) {
+                dropped += seriesDropped;
+                touched.add(dataByDevice.get(pointSeries.getDeviceId()));
+                touched.add(dataByUser.get(pointSeries.getUserId()));
+            }
+        }
+        touched.forEach(this::touch);
+        return dropped;
     }
 
-    private Map<Long, Double> calculateAverageValuesPerInterval(List<Datapoint> datapoints, long firstTimestamp) {
-        Map<Long, Double> averagePerInterval = datapoints.stream()
-                .collect(groupingBy(d -> getIntervalSequenceNumber(firstTimestamp, d.getTimestamp()), averagingLong(Datapoint::getValue)));
+    public long expireDatapoints(ToLongFunction<String> cutoffOfDevice) {
+        long dropped = 0;
+        Set<SeriesView> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (PointSeries pointSeries : liveSeries()) {
+            long cutoff = cutoffOfDevice.applyAsLong(devices.identifierOf(pointSeries.getDeviceId()));
+            long seriesDropped = cutoff == Long.MIN_VALUE ? 0 : pointSeries.expire(cutoff);
+            if (seriesDropped > 0) {
+                dropped += seriesDropped;
+                touched.add(dataByDevice.get(pointSeries.getDeviceId()));
+                touched.add(dataByUser.get(pointSeries.getUserId()));
+            }
+        }
+        touched.forEach(this::touch);
+        return dropped;
+    }
 
-        return averagePerInterval;
+    public List<SeriesUsage> getSeriesUsage() {
+        List<SeriesUsage> usage = new ArrayList<>(series.size());
+        for (PointSeries pointSeries : liveSeries()) {
+            long lastQueried = Math.max(lastQueried(dataByDevice.get(pointSeries.getDeviceId())),
+                    lastQueried(dataByUser.get(pointSeries.getUserId())));
+            usage.add(new SeriesUsage(devices.identifierOf(pointSeries.getDeviceId()), users.identifierOf(pointSeries.getUserId()),
+                    pointSeries.estimatedBytes(), pointSeries.size(), lastQueried));
+        }
+        return usage;
     }
 
-    private long getTimestampOfFirstDataPoint(List<Datapoint> datapoints) {
-        return datapoints.stream().mapToLong(Datapoint::getTimestamp).min().orElseThrow(DataNotFoundException::new);
+    /**
+     * The views of the device and user left without members are deleted, so that an evicted device or user
+     * takes no more heap than its id in the dictionary. A series a writer creates in such a view meanwhile
+     * is deleted with it, as when the device or user is deleted.
+     */
+    public long evictSeries(String device, String user) {
+        int deviceId = devices.find(device);
+        int userId = users.find(user);
+        if (deviceId == IdentifierDictionary.NOT_FOUND || userId == IdentifierDictionary.NOT_FOUND) {
+            return 0;
+        }
+        PointSeries pointSeries = series.remove(PointSeries.key(deviceId, userId));
+        if (pointSeries == null) {
+            return 0;
+        }
+        int dropped = pointSeries.retire();
+        for (SeriesView view : Arrays.asList(dataByDevice.get(deviceId), dataByUser.get(userId))) {
+            if (view != null) {
+                view.removeMember(pointSeries);
+                touch(view);
+            }
+        }
+        deleteIfEmpty(dataByDevice, deviceId);
+        deleteIfEmpty(dataByUser, userId);
+        return dropped;
     }
 
-    private long getIntervalSequenceNumber(long firstTimestamp, long currentTimestamp) {
-        return (currentTimestamp - firstTimestamp) / INTERVAL_IN_MILLIS;
+    public Map<String, DictionaryStatistics> getDictionaryStatistics() {
+        Map<String, DictionaryStatistics> statistics = new LinkedHashMap<>();
+        statistics.put("devices", devices.getStatistics());
+        statistics.put("users", users.getStatistics());
+        return statistics;
     }
 
-    private long getIntervalStartTime(long firstTimestamp, long intervalNumber) {
-        return firstTimestamp + intervalNumber * INTERVAL_IN_MILLIS;
+    public EngineStatistics getEngineStatistics() {
+        return new EngineStatistics(duplicatesRejected.sum(), contention.getWaits(), contention.getWaitNanos());
     }
 
-    private void storeDatapointByUser(Datapoint dataPoint) {
-        storeToMultimap(dataByUser, dataPoint.getUser(), dataPoint);
+    public void addListener(DatapointListener listener) {
+        listeners.add(listener);
     }
 
-    private void storeDatapointByDevice(Datapoint dataPoint) {
-        storeToMultimap(dataByDevice, dataPoint.getDevice(), dataPoint);
+    public long getIntervalInMillis() {
+        return INTERVAL_IN_MILLIS;
     }
 
-    private void storeToMultimap(Map<String, List<Datapoint>> mapToStore, String key, Datapoint dataPoint) {
-        if (mapToStore.containsKey(key)) {
-            List<Datapoint> existingDatapoints = mapToStore.get(key);
+    public void forEachSeries(SeriesConsumer consumer) {
+        liveSeries().forEach(pointSeries -> consumer.accept(devices.identifierOf(pointSeries.getDeviceId()),
+                users.identifierOf(pointSeries.getUserId()), pointSeries));
+    }
 
-            boolean isDuplicate = existingDatapoints.stream().anyMatch(existing -> {
-                return existing.isDuplicate(dataPoint);
-            });
+    public PointSeries attach(String device, String user, SegmentSlice slice) {
+        int deviceId = devices.idOf(device);
+        int userId = users.idOf(user);
+        PointSeries pointSeries = liveSeries(deviceId, userId);
+        pointSeries.attach(slice);
+        touch(dataByDevice.get(deviceId));
+        touch(dataByUser.get(userId));
+        return pointSeries;
+    }
 
-            if (isDuplicate) {
-                throw new DuplicateDatapointException();
+    public PointSeries restore(String device, String user, SeriesSnapshot snapshot) {
+        int deviceId = devices.idOf(device);
+        int userId = users.idOf(user);
+        PointSeries pointSeries = liveSeries(deviceId, userId);
+        while (!pointSeries.restore(snapshot)) {
+            pointSeries = liveSeries(deviceId, userId);
+        }
+        touch(dataByDevice.get(deviceId));
+        touch(dataByUser.get(userId));
+        return pointSeries;
+    }
+
+    public boolean isLive(PointSeries pointSeries) {
+        return series.get(pointSeries.getKey()) == pointSeries && !pointSeries.isDeleted();
+    }
+
+    /**
+     * @return the series of the device and user, which replaces a deleted one or is created if it does not exist
+     */
+    private PointSeries liveSeries(int deviceId, int userId) {
+        long key = PointSeries.key(deviceId, userId);
+        PointSeries pointSeries = series.get(key);
+        while (pointSeries == null || pointSeries.isDeleted()) {
+            pointSeries = series.compute(key, (ignored, current) -> current == null || current.isDeleted()
+                    ? createSeries(deviceId, userId) : current);
+        }
+        return pointSeries;
+    }
+
+    private Iterable<PointSeries> liveSeries() {
+        return () -> series.values().stream().filter(pointSeries -> !pointSeries.isDeleted()).iterator();
+    }
+
+    private PointSeries createSeries(int deviceId, int userId) {
+        SeriesView deviceView = dataByDevice.computeIfAbsent(deviceId, this::createView);
+        SeriesView userView = dataByUser.computeIfAbsent(userId, this::createView);
+        PointSeries pointSeries = new PointSeries(deviceId, userId, INTERVAL_IN_MILLIS, blockInMillis, deviceView, userView, contention);
+        deviceView.addMember(pointSeries);
+        userView.addMember(pointSeries);
+        return pointSeries;
+    }
+
+    private void delete(SeriesView view) {
+        if (view != null) {
+            view.markDeleted(versions.incrementAndGet());
+            tombstones.add(view);
+        }
+    }
+
+    private void deleteIfEmpty(IdTable<SeriesView> views, int id) {
+        SeriesView view = views.get(id);
+        if (view != null && view.getMembers().isEmpty() && views.remove(id, view)) {
+            delete(view);
+        }
+    }
+
+    private SeriesView createView(int id) {
+        SeriesView view = new SeriesView();
+        touch(view);
+        return view;
+    }
+
+    private void touch(SeriesView view) {
+        if (view != null) {
+            view.setVersion(versions.incrementAndGet());
+        }
+    }
+
+    private static long lastQueried(SeriesView view) {
+        return view == null ? Long.MIN_VALUE : view.getLastQueried();
+    }
+
+    private long getVersion(SeriesView view) {
+        if (view == null) {
+            throw new DataNotFoundException();
+        }
+        return view.getVersion();
+    }
+
+    private RangeTotal getRangeTotal(SeriesView view, long from, long to) {
+        if (view == null) {
+            throw new DataNotFoundException();
+        }
+        view.markQueried();
+        return view.getTotal(from, to);
+    }
+
+    private List<SummaryForInterval> getSummaries(SeriesView view, List<Double> percentiles, IntervalQuery query) {
+        if (view == null) {
+            throw new DataNotFoundException();
+        }
+        view.markQueried();
+        return IntervalStatistics.calculate(view, percentiles, query);
+    }
+
+    /**
+     * Every view is aggregated by one of the tasks the ids are split among.
+     */
+    private List<GroupAverage> getTopAverages(IdentifierDictionary dictionary, IdTable<SeriesView> views, int count, IntervalQuery query) {
+        long from = query.getFromTime();
+        long to = query.getToTime();
+        return ParallelReduction.reduce(fleetPool, dictionary.size(), () -> new TopAverages(count), (top, id) -> {
+            SeriesView view = views.get(id);
+            if (view != null) {
+                top.add(dictionary.identifierOf(id), view.getTotal(from, to));
             }
+        }, TopAverages::merge).toList();
+    }
 
-            existingDatapoints.add(dataPoint);
-        } else {
-            List<Datapoint> datapoints = new ArrayList<>();
-            datapoints.add(dataPoint);
-            mapToStore.put(key, datapoints);
+    private List<AverageForInterval> getAverages(ViewType viewType, int id, IdTable<SeriesView> views, List<Long> windowSizes, IntervalQuery query) {
+        SeriesView view = views.get(id);
+        long version = getVersion(view);
+        view.markQueried();
+        return queryCache.get(new QueryKey(viewType, id, Arrays.asList(windowSizes, query)), version,
+                () -> IntervalAverages.calculate(view, windowSizes, query));
+    }
+
+    /**
+     * All datapoints as a single source, whose aggregates are merged from the device views in parallel.
+     */
+    private class Fleet implements AggregateSource {
+
+        @Override
+        public long getFirstInterval(RollupTier tier) {
+            long first = Long.MAX_VALUE;
+            for (int id = 0, size = devices.size(); id < size; id++) {
+                SeriesView view = dataByDevice.get(id);
+                if (view != null) {
+                    first = Math.min(first, view.getFirstInterval(tier));
+                }
+            }
+            return first;
+        }
+
+        @Override
+        public long getLastInterval(RollupTier tier) {
+            long last = Long.MIN_VALUE;
+            for (int id = 0, size = devices.size(); id < size; id++) {
+                SeriesView view = dataByDevice.get(id);
+                if (view != null) {
+                    last = Math.max(last, view.getLastInterval(tier));
+                }
+            }
+            return last;
+        }
+
+        @Override
+        public IntervalAggregates getAggregates(RollupTier tier, long fromInterval, long toInterval) {
+            return ParallelReduction.reduce(fleetPool, devices.size(), () -> new IntervalAggregates(tier.getIntervalInMillis()), (aggregates, id) -> {
+                SeriesView view = dataByDevice.get(id);
+                if (view != null) {
+                    aggregates.merge(view.getAggregates(tier, fromInterval, toInterval));
+                }
+            }, (left, right) -> {
+                left.merge(right);
+                return left;
+            });
+        }
+
+        @Override
+        public RangeTotal getTotal(long from, long to) {
+            return ParallelReduction.reduce(fleetPool, devices.size(), RangeTotal::new, (total, id) -> {
+                SeriesView view = dataByDevice.get(id);
+                if (view != null) {
+                    total.add(view.getTotal(from, to));
+                }
+            }, (left, right) -> {
+                left.add(right);
+                return left;
+            });
+        }
+
+        @Override
+        public IntervalSummaries getSummaries(long fromInterval, long toInterval) {
+            return ParallelReduction.reduce(fleetPool, devices.size(), () -> new IntervalSummaries(RollupTier.QUARTER_HOUR.getIntervalInMillis()), (summaries, id) -> {
+                SeriesView view = dataByDevice.get(id);
+                if (view != null) {
+                    summaries.merge(view.getSummaries(fromInterval, toInterval));
+                }
+            }, (left, right) -> {
+                left.merge(right);
+                return left;
+            });
         }
     }
 }
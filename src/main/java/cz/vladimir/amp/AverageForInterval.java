@@ -3,15 +3,25 @@ package cz.vladimir.amp;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 
+import java.util.Map;
+
 public class AverageForInterval {
-    private long startTime;
-    private double average;
+    private final long startTime;
+    private final double average;
     @JsonInclude(Include.NON_NULL)
-    private Double movingAverage;
+    private final Double movingAverage;
+    @JsonInclude(Include.NON_EMPTY)
+    private final Map<Long, Double> movingAverages;
 
     public AverageForInterval(long startTime, double average) {
+        this(startTime, average, null, null);
+    }
+
+    public AverageForInterval(long startTime, double average, Double movingAverage, Map<Long, Double> movingAverages) {
         this.startTime = startTime;
         this.average = average;
+        this.movingAverage = movingAverage;
+        this.movingAverages = movingAverages;
     }
 
     public long getStartTime() {
@@ -26,7 +36,10 @@ public class AverageForInterval {
         return movingAverage;
     }
 
-    public void setMovingAverage(double movingAverage) {
-        this.movingAverage = movingAverage;
+    /**
+     * Moving averages keyed by window size, present when several window sizes were requested at once.
+     */
+    public Map<Long, Double> getMovingAverages() {
+        return movingAverages;
     }
 }
@@ -0,0 +1,40 @@
+package cz.vladimir.amp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a batch of datapoints. Items are referred to by their index in the batch.
+ */
+public class BatchResult {
+    private long accepted;
+    private final List<Integer> duplicates = new ArrayList<>();
+    private final List<Integer> invalid = new ArrayList<>();
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public List<Integer> getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Items missing a field or holding a field of the wrong type.
+     */
+    public List<Integer> getInvalid() {
+        return invalid;
+    }
+
+    void addAccepted(int count) {
+        accepted += count;
+    }
+
+    void addDuplicate(int index) {
+        duplicates.add(index);
+    }
+
+    void addInvalid(int index) {
+        invalid.add(index);
+    }
+}
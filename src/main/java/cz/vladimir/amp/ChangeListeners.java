@@ -0,0 +1,57 @@
+package cz.vladimir.amp;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Listeners of an {@link AverageCalculations} engine, notified of each change in the order the changes
+ * were applied.
+ * <p>
+ * Stores run concurrently with each other, since stores of different datapoints commute and a duplicate
+ * is rejected before it is notified. A delete waits for the stores in progress and excludes new ones
+ * until its listeners are notified, so that a store of a deleted datapoint is never notified after the
+ * delete. Every listener is asked {@link DatapointListener#beforeChange() before} the change is applied,
+ * so that a listener which cannot record it rejects the change without leaving it applied.
+ * <p>
+ * Without listeners there is no order to keep and stores do not touch the shared lock at all. Listeners
+ * are therefore added before the engine is used, as the write-ahead log is after replaying into it.
+ */
+public class ChangeListeners {
+
+    private final List<DatapointListener> listeners = new CopyOnWriteArrayList<>();
+    private final StampedLock order = new StampedLock();
+
+    public void add(DatapointListener listener) {
+        listeners.add(listener);
+    }
+
+    public void store(Runnable change, Consumer<DatapointListener> notification) {
+        if (listeners.isEmpty()) {
+            change.run();
+            return;
+        }
+        long stamp = order.readLock();
+        try {
+            apply(change, notification);
+        } finally {
+            order.unlockRead(stamp);
+        }
+    }
+
+    public void delete(Runnable change, Consumer<DatapointListener> notification) {
+        long stamp = order.writeLock();
+        try {
+            apply(change, notification);
+        } finally {
+            order.unlockWrite(stamp);
+        }
+    }
+
+    private void apply(Runnable change, Consumer<DatapointListener> notification) {
+        listeners.forEach(DatapointListener::beforeChange);
+        change.run();
+        listeners.forEach(notification);
+    }
+}
@@ -0,0 +1,247 @@
+package cz.vladimir.amp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Datapoints of a closed time block, ordered by timestamp and compressed in the manner of Gorilla: the
+ * first datapoint is kept as is, every following timestamp as the zigzag varint of its delta-of-delta and
+ * every following value as the zigzag varint of its delta to the previous one. Datapoints arriving at a
+ * regular rate with slowly changing values then take two or three bytes each instead of sixteen.
+ * <p>
+ * Blocks are immutable and are only ever read in a single pass, decoding one datapoint after another. The
+ * sum and count of the whole block are kept aside, so a range covering the block does not decode it at all.
+ */
+public class CompressedBlock {
+
+    private final long firstTimestamp;
+    private final long firstValue;
+    private final long lastTimestamp;
+    private final int count;
+    private final long sum;
+    private final byte[] data;
+
+    private CompressedBlock(long firstTimestamp, long firstValue, long lastTimestamp, int count, long sum, byte[] data) {
+        this.firstTimestamp = firstTimestamp;
+        this.firstValue = firstValue;
+        this.lastTimestamp = lastTimestamp;
+        this.count = count;
+        this.sum = sum;
+        this.data = data;
+    }
+
+    public static CompressedBlock of(long timestamp, long value) {
+        Encoder encoder = new Encoder();
+        encoder.add(timestamp, value);
+        return encoder.build();
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public boolean contains(long timestamp) {
+        if (timestamp < firstTimestamp || timestamp > lastTimestamp) {
+            return false;
+        }
+        Decoder decoder = new Decoder();
+        while (decoder.next()) {
+            if (decoder.timestamp >= timestamp) {
+                return decoder.timestamp == timestamp;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a new block holding the datapoints of this one and the given datapoint, whose timestamp must
+     * not be in the block yet
+     */
+    public CompressedBlock with(long timestamp, long value) {
+        Encoder encoder = new Encoder();
+        Decoder decoder = new Decoder();
+        boolean added = false;
+        while (decoder.next()) {
+            if (!added && timestamp < decoder.timestamp) {
+                encoder.add(timestamp, value);
+                added = true;
+            }
+            encoder.add(decoder.timestamp, decoder.value);
+        }
+        if (!added) {
+            encoder.add(timestamp, value);
+        }
+        return encoder.build();
+    }
+
+    /**
+     * Adds the datapoints with timestamps from {@code from} inclusive to {@code to} exclusive to the total.
+     */
+    public void addTotal(RangeTotal total, long from, long to) {
+        if (from > lastTimestamp || to <= firstTimestamp) {
+            return;
+        }
+        if (from <= firstTimestamp && to > lastTimestamp) {
+            total.add(sum, count);
+            return;
+        }
+        long rangeSum = 0;
+        long rangeCount = 0;
+        Decoder decoder = new Decoder();
+        while (decoder.next() && decoder.timestamp < to) {
+            if (decoder.timestamp >= from) {
+                rangeSum += decoder.value;
+                rangeCount++;
+            }
+        }
+        total.add(rangeSum, rangeCount);
+    }
+
+    /**
+     * Passes the datapoints to the consumer ordered by timestamp.
+     */
+    public void forEach(RangeIndex.PointConsumer consumer) {
+        Decoder decoder = new Decoder();
+        while (decoder.next()) {
+            consumer.accept(decoder.timestamp, decoder.value);
+        }
+    }
+
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeLong(firstTimestamp);
+        output.writeLong(firstValue);
+        output.writeLong(lastTimestamp);
+        output.writeInt(count);
+        output.writeLong(sum);
+        output.writeInt(data.length);
+        output.write(data);
+    }
+
+    public static CompressedBlock readFrom(DataInput input) throws IOException {
+        long firstTimestamp = input.readLong();
+        long firstValue = input.readLong();
+        long lastTimestamp = input.readLong();
+        int count = input.readInt();
+        long sum = input.readLong();
+        byte[] data = new byte[input.readInt()];
+        input.readFully(data);
+        return new CompressedBlock(firstTimestamp, firstValue, lastTimestamp, count, sum, data);
+    }
+
+    /**
+     * Estimated heap footprint of the block.
+     */
+    public long estimatedBytes() {
+        return 56 + 16 + data.length;
+    }
+
+    /**
+     * Builds a block from datapoints added in the order of their timestamps.
+     */
+    public static class Encoder {
+        private byte[] data = new byte[16];
+        private int length;
+        private long firstTimestamp;
+        private long firstValue;
+        private long lastTimestamp;
+        private long lastValue;
+        private long lastDelta;
+        private int count;
+        private long sum;
+
+        public void add(long timestamp, long value) {
+            if (count == 0) {
+                firstTimestamp = timestamp;
+                firstValue = value;
+            } else {
+                long delta = timestamp - lastTimestamp;
+                writeVarint(zigzag(delta - lastDelta));
+                writeVarint(zigzag(value - lastValue));
+                lastDelta = delta;
+            }
+            lastTimestamp = timestamp;
+            lastValue = value;
+            count++;
+            sum += value;
+        }
+
+        public boolean isEmpty() {
+            return count == 0;
+        }
+
+        public CompressedBlock build() {
+            return new CompressedBlock(firstTimestamp, firstValue, lastTimestamp, count, sum, Arrays.copyOf(data, length));
+        }
+
+        private void writeVarint(long value) {
+            if (data.length - length < 10) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                data[length++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        private static long zigzag(long value) {
+            return value << 1 ^ value >> 63;
+        }
+    }
+
+    /**
+     * Cursor decoding the datapoints of the block one after another.
+     */
+    private class Decoder {
+        private int position;
+        private int decoded;
+        private long delta;
+        private long timestamp;
+        private long value;
+
+        private boolean next() {
+            if (decoded == count) {
+                return false;
+            }
+            if (decoded == 0) {
+                timestamp = firstTimestamp;
+                value = firstValue;
+            } else {
+                delta += unzigzag(readVarint());
+                timestamp += delta;
+                value += unzigzag(readVarint());
+            }
+            decoded++;
+            return true;
+        }
+
+        private long readVarint() {
+            long result = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte next = data[position++];
+                result |= (long) (next & 0x7F) << shift;
+                if (next >= 0) {
+                    return result;
+                }
+            }
+        }
+
+        private long unzigzag(long value) {
+            return value >>> 1 ^ -(value & 1);
+        }
+    }
+}
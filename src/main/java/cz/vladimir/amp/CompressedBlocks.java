@@ -0,0 +1,184 @@
+package cz.vladimir.amp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * The {@link CompressedBlock compressed blocks} of a series, ordered by the numbers of their time blocks,
+ * with prefix sums over the blocks so that a range spanning many of them only decodes the two at its ends.
+ * <p>
+ * Immutable: every change returns a new instance, so an instance can be handed out and read without a lock.
+ */
+public class CompressedBlocks {
+
+    public static final CompressedBlocks EMPTY = new CompressedBlocks(new long[0], new CompressedBlock[0]);
+
+    private final long[] numbers;
+    private final CompressedBlock[] blocks;
+    private final long[] firstTimestamps;
+    private final long[] lastTimestamps;
+    private final long[] sumsBefore;
+    private final long[] countsBefore;
+
+    private CompressedBlocks(long[] numbers, CompressedBlock[] blocks) {
+        this.numbers = numbers;
+        this.blocks = blocks;
+        this.firstTimestamps = new long[blocks.length];
+        this.lastTimestamps = new long[blocks.length];
+        this.sumsBefore = new long[blocks.length + 1];
+        this.countsBefore = new long[blocks.length + 1];
+        for (int i = 0; i < blocks.length; i++) {
+            firstTimestamps[i] = blocks[i].getFirstTimestamp();
+            lastTimestamps[i] = blocks[i].getLastTimestamp();
+            sumsBefore[i + 1] = sumsBefore[i] + blocks[i].getSum();
+            countsBefore[i + 1] = countsBefore[i] + blocks[i].size();
+        }
+    }
+
+    public int size() {
+        return (int) countsBefore[blocks.length];
+    }
+
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    /**
+     * @return number of the newest block or {@link Long#MIN_VALUE} if there is none
+     */
+    public long getLastNumber() {
+        return numbers.length == 0 ? Long.MIN_VALUE : numbers[numbers.length - 1];
+    }
+
+    /**
+     * @return the block with the number or null if there is none
+     */
+    public CompressedBlock get(long number) {
+        int index = Arrays.binarySearch(numbers, number);
+        return index < 0 ? null : blocks[index];
+    }
+
+    /**
+     * @return blocks with the block of the number added or replaced
+     */
+    public CompressedBlocks with(long number, CompressedBlock block) {
+        int index = Arrays.binarySearch(numbers, number);
+        if (index >= 0) {
+            CompressedBlock[] newBlocks = blocks.clone();
+            newBlocks[index] = block;
+            return new CompressedBlocks(numbers, newBlocks);
+        }
+        index = -index - 1;
+        long[] newNumbers = new long[numbers.length + 1];
+        CompressedBlock[] newBlocks = new CompressedBlock[blocks.length + 1];
+        System.arraycopy(numbers, 0, newNumbers, 0, index);
+        System.arraycopy(blocks, 0, newBlocks, 0, index);
+        System.arraycopy(numbers, index, newNumbers, index + 1, numbers.length - index);
+        System.arraycopy(blocks, index, newBlocks, index + 1, blocks.length - index);
+        newNumbers[index] = number;
+        newBlocks[index] = block;
+        return new CompressedBlocks(newNumbers, newBlocks);
+    }
+
+    /**
+     * Keeps only the datapoints whose timestamps match the filter, compressing each block anew unless all of
+     * its datapoints are kept.
+     *
+     * @param retained receives the datapoints that match
+     * @param dropped receives the datapoints that do not match, unless null
+     */
+    public CompressedBlocks retain(LongPredicate filter, RangeIndex.PointConsumer retained, RangeIndex.PointConsumer dropped) {
+        long[] newNumbers = new long[numbers.length];
+        CompressedBlock[] newBlocks = new CompressedBlock[blocks.length];
+        int size = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            CompressedBlock.Encoder encoder = new CompressedBlock.Encoder();
+            int[] kept = new int[1];
+            blocks[i].forEach((timestamp, value) -> {
+                if (filter.test(timestamp)) {
+                    encoder.add(timestamp, value);
+                    retained.accept(timestamp, value);
+                    kept[0]++;
+                } else if (dropped != null) {
+                    dropped.accept(timestamp, value);
+                }
+            });
+            if (!encoder.isEmpty()) {
+                newNumbers[size] = numbers[i];
+                newBlocks[size++] = kept[0] == blocks[i].size() ? blocks[i] : encoder.build();
+            }
+        }
+        return new CompressedBlocks(Arrays.copyOf(newNumbers, size), Arrays.copyOf(newBlocks, size));
+    }
+
+    /**
+     * Adds the datapoints with timestamps from {@code from} inclusive to {@code to} exclusive to the total.
+     */
+    public void addTotal(RangeTotal total, long from, long to) {
+        if (from >= to) {
+            return;
+        }
+        int first = lowerBound(lastTimestamps, from);
+        int last = lowerBound(firstTimestamps, to) - 1;
+        if (first > last) {
+            return;
+        }
+        blocks[first].addTotal(total, from, to);
+        if (first < last) {
+            total.add(sumsBefore[last] - sumsBefore[first + 1], countsBefore[last] - countsBefore[first + 1]);
+            blocks[last].addTotal(total, from, to);
+        }
+    }
+
+    /**
+     * Passes the datapoints to the consumer ordered by timestamp.
+     */
+    public void forEach(RangeIndex.PointConsumer consumer) {
+        for (CompressedBlock block : blocks) {
+            block.forEach(consumer);
+        }
+    }
+
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeInt(blocks.length);
+        for (int i = 0; i < blocks.length; i++) {
+            output.writeLong(numbers[i]);
+            blocks[i].writeTo(output);
+        }
+    }
+
+    public static CompressedBlocks readFrom(DataInput input) throws IOException {
+        long[] numbers = new long[input.readInt()];
+        CompressedBlock[] blocks = new CompressedBlock[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = input.readLong();
+            blocks[i] = CompressedBlock.readFrom(input);
+        }
+        return new CompressedBlocks(numbers, blocks);
+    }
+
+    /**
+     * Estimated heap footprint of the blocks.
+     */
+    public long estimatedBytes() {
+        long bytes = 32 + 6 * 16 + blocks.length * (8 + 8 + 8 + 8 + 8 + 8L);
+        for (CompressedBlock block : blocks) {
+            bytes += block.estimatedBytes();
+        }
+        return bytes;
+    }
+
+    private static int lowerBound(long[] sorted, long value) {
+        int index = Arrays.binarySearch(sorted, value);
+        if (index < 0) {
+            return -index - 1;
+        }
+        while (index > 0 && sorted[index - 1] == value) {
+            index--;
+        }
+        return index;
+    }
+}
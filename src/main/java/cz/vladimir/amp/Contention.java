@@ -0,0 +1,26 @@
+package cz.vladimir.amp;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the waits for exclusive access to the state of an {@link AverageCalculations} implementation and
+ * the time spent waiting.
+ */
+public class Contention {
+
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public void record(long nanos) {
+        waits.increment();
+        waitNanos.add(nanos);
+    }
+
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+}
@@ -0,0 +1,113 @@
+package cz.vladimir.amp;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.vladimir.amp.exception.MalformedBatchException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads datapoints token by token from either a JSON array or newline delimited JSON objects, and stores
+ * them in batches of {@value #BATCH_SIZE}, so that a request of any size is stored using little memory.
+ * <p>
+ * Batches read before a syntax error are stored even though the request fails.
+ */
+@Component
+public class DatapointBatchReader {
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
+    static final int BATCH_SIZE = 4096;
+
+    private final JsonFactory jsonFactory;
+
+    public DatapointBatchReader(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    public BatchResult read(InputStream input, AverageCalculations target) throws IOException {
+        BatchResult result = new BatchResult();
+        List<Datapoint> batch = new ArrayList<>(BATCH_SIZE);
+        int[] batchIndexes = new int[BATCH_SIZE];
+        int index = 0;
+        try (JsonParser parser = jsonFactory.createParser(input)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            for (; token != null && token != JsonToken.END_ARRAY; token = parser.nextToken(), index++) {
+                Datapoint dataPoint = readDatapoint(parser);
+                if (dataPoint == null) {
+                    result.addInvalid(index);
+                    continue;
+                }
+                batchIndexes[batch.size()] = index;
+                batch.add(dataPoint);
+                if (batch.size() == BATCH_SIZE) {
+                    store(batch, batchIndexes, target, result);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            store(batch, batchIndexes, target, result);
+            throw new MalformedBatchException("Malformed item " + index + " of the batch", e);
+        }
+        store(batch, batchIndexes, target, result);
+        return result;
+    }
+
+    private static void store(List<Datapoint> batch, int[] batchIndexes, AverageCalculations target, BatchResult result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Integer> duplicates = target.storeDataPoints(batch);
+        duplicates.forEach(duplicate -> result.addDuplicate(batchIndexes[duplicate]));
+        result.addAccepted(batch.size() - duplicates.size());
+        batch.clear();
+    }
+
+    /**
+     * @return null when the item is not a complete datapoint
+     */
+    private static Datapoint readDatapoint(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        String device = null;
+        String user = null;
+        Long timestamp = null;
+        Long value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "device":
+                    device = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    break;
+                case "user":
+                    user = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    break;
+                case "timestamp":
+                    timestamp = token == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : null;
+                    break;
+                case "value":
+                    value = token == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : null;
+                    break;
+                default:
+                    break;
+            }
+            parser.skipChildren();
+        }
+        if (device == null || user == null || timestamp == null || value == null) {
+            return null;
+        }
+        return new Datapoint(device, user, timestamp, value);
+    }
+}
@@ -0,0 +1,26 @@
+package cz.vladimir.amp;
+
+import java.util.List;
+
+/**
+ * Notified after a change has been applied by {@link AverageCalculations}, on the thread that made it,
+ * in the order described by {@link ChangeListeners}.
+ */
+public interface DatapointListener {
+
+    /**
+     * Called before a change is applied; an exception rejects the change.
+     */
+    default void beforeChange() {
+    }
+
+    void datapointStored(Datapoint dataPoint);
+
+    default void datapointsStored(List<Datapoint> dataPoints) {
+        dataPoints.forEach(this::datapointStored);
+    }
+
+    void userDatapointsDeleted(String user);
+
+    void deviceDatapointsDeleted(String device);
+}
@@ -0,0 +1,19 @@
+package cz.vladimir.amp;
+
+public class DictionaryStatistics {
+    private long entries;
+    private long estimatedBytes;
+
+    public DictionaryStatistics(long entries, long estimatedBytes) {
+        this.entries = entries;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+}
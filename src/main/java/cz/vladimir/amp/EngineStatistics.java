@@ -0,0 +1,32 @@
+package cz.vladimir.amp;
+
+public class EngineStatistics {
+    private final long duplicatesRejected;
+    private final long waits;
+    private final long waitNanos;
+
+    public EngineStatistics(long duplicatesRejected, long waits, long waitNanos) {
+        this.duplicatesRejected = duplicatesRejected;
+        this.waits = waits;
+        this.waitNanos = waitNanos;
+    }
+
+    public long getDuplicatesRejected() {
+        return duplicatesRejected;
+    }
+
+    /**
+     * Writes to the locking engine that found the lock of their series held, or tasks of the sharded
+     * engine, which all queue for the thread of their shard.
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    /**
+     * Total time the {@link #getWaits() waits} took.
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+}
@@ -0,0 +1,13 @@
+package cz.vladimir.amp;
+
+public enum EngineType {
+    /**
+     * {@link AverageCalculationsService}: any thread applies changes, locking the point series it changes.
+     */
+    LOCKING,
+    /**
+     * {@link cz.vladimir.amp.shard.ShardedAverageCalculations}: devices are split across shards, each
+     * changed by its own thread only.
+     */
+    SHARDED
+}
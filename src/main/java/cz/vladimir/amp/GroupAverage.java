@@ -0,0 +1,29 @@
+package cz.vladimir.amp;
+
+/**
+ * Average of all datapoints of one device or one user within a time range.
+ */
+public class GroupAverage {
+
+    private final String identifier;
+    private final long count;
+    private final double average;
+
+    public GroupAverage(String identifier, long count, double average) {
+        this.identifier = identifier;
+        this.count = count;
+        this.average = average;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getAverage() {
+        return average;
+    }
+}
@@ -0,0 +1,56 @@
+package cz.vladimir.amp;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Values indexed directly by dictionary id. Reads never lock; writes serialize on the table.
+ */
+public class IdTable<T> {
+
+    private volatile AtomicReferenceArray<T> slots = new AtomicReferenceArray<>(16);
+
+    public T get(int id) {
+        AtomicReferenceArray<T> slots = this.slots;
+        return id >= 0 && id < slots.length() ? slots.get(id) : null;
+    }
+
+    public T computeIfAbsent(int id, IntFunction<T> factory) {
+        T value = get(id);
+        if (value != null) {
+            return value;
+        }
+        synchronized (this) {
+            ensureCapacity(id + 1);
+            value = slots.get(id);
+            if (value == null) {
+                value = factory.apply(id);
+                slots.set(id, value);
+            }
+            return value;
+        }
+    }
+
+    public synchronized T remove(int id) {
+        return get(id) == null ? null : slots.getAndSet(id, null);
+    }
+
+    /**
+     * @return whether the id was mapped to the value and has been removed
+     */
+    public synchronized boolean remove(int id, T value) {
+        return get(id) == value && slots.compareAndSet(id, value, null);
+    }
+
+    private void ensureCapacity(int capacity) {
+        AtomicReferenceArray<T> slots = this.slots;
+        if (capacity <= slots.length()) {
+            return;
+        }
+        AtomicReferenceArray<T> newSlots = new AtomicReferenceArray<>(Math.max(capacity, slots.length() * 2));
+        for (int i = 0; i < slots.length(); i++) {
+            newSlots.set(i, slots.get(i));
+        }
+        this.slots = newSlots;
+    }
+}
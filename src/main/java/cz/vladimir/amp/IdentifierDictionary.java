@@ -0,0 +1,73 @@
+package cz.vladimir.amp;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps device or user identifiers to dense int ids, so that every identifier is retained exactly once
+ * and the rest of the engine works with ints. Ids are never reused, even when all data of an
+ * identifier is deleted.
+ */
+public class IdentifierDictionary {
+
+    public static final int NOT_FOUND = -1;
+
+    private static final int STRING_OVERHEAD_IN_BYTES = 24 + 16;
+    private static final int ENTRY_OVERHEAD_IN_BYTES = 32 + 16 + 8 + 8;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] identifiers = new String[16];
+    private int size;
+    private long characters;
+
+    public int idOf(String identifier) {
+        Integer id = ids.get(identifier);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(identifier);
+            if (id != null) {
+                return id;
+            }
+            if (size == identifiers.length) {
+                identifiers = Arrays.copyOf(identifiers, size * 2);
+            }
+            identifiers[size] = identifier;
+            characters += identifier.length();
+            ids.put(identifier, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @return id of the identifier or {@link #NOT_FOUND} if it has never been seen
+     */
+    public int find(String identifier) {
+        Integer id = ids.get(identifier);
+        return id == null ? NOT_FOUND : id;
+    }
+
+    /**
+     * @return number of identifiers seen, which is also the id the next one gets
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public String identifierOf(int id) {
+        return identifiers[id];
+    }
+
+    public synchronized DictionaryStatistics getStatistics() {
+        return new DictionaryStatistics(size, estimatedBytes(size, characters) + identifiers.length * 8L);
+    }
+
+    /**
+     * Estimated heap footprint of identifiers held as keys of a hash map.
+     */
+    public static long estimatedBytes(long entries, long characters) {
+        return entries * (STRING_OVERHEAD_IN_BYTES + ENTRY_OVERHEAD_IN_BYTES) + characters * 2;
+    }
+}
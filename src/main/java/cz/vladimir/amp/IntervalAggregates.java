@@ -0,0 +1,385 @@
+package cz.vladimir.amp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Running sum and count of datapoint values per interval, maintained at ingest time.
+ * <p>
+ * Intervals are aligned to the epoch, so a datapoint arriving out of order - even one older
+ * than anything seen so far - only touches its own bucket. Buckets are kept in pages of
+ * {@value #PAGE_SIZE} consecutive intervals and only pages holding data exist, so gaps between
+ * datapoints cost nothing, however short the intervals are.
+ */
+public class IntervalAggregates {
+
+    private static final int PAGE_BITS = 5;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final long intervalInMillis;
+
+    private Pages pages = Pages.EMPTY;
+    private long firstInterval;
+    private long lastInterval;
+    private boolean empty = true;
+
+    public IntervalAggregates(long intervalInMillis) {
+        this.intervalInMillis = intervalInMillis;
+    }
+
+    public long getIntervalInMillis() {
+        return intervalInMillis;
+    }
+
+    public void add(long timestamp, long value) {
+        addInterval(Math.floorDiv(timestamp, intervalInMillis), value, 1);
+    }
+
+    public void addInterval(long interval, long sum, long count) {
+        int index = pageIndex(interval >> PAGE_BITS);
+        int offset = (int) (interval & PAGE_MASK);
+        pages.sums[index][offset] += sum;
+        pages.counts[index][offset] += count;
+        include(interval);
+    }
+
+    /**
+     * Adds the buckets of another instance with the same interval length to this one.
+     */
+    public void merge(IntervalAggregates other) {
+        if (other.empty) {
+            return;
+        }
+        Pages otherPages = other.pages;
+        for (int i = 0; i < otherPages.size; i++) {
+            int index = pageIndex(otherPages.numbers[i]);
+            long[] sums = pages.sums[index];
+            long[] counts = pages.counts[index];
+            for (int offset = 0; offset < PAGE_SIZE; offset++) {
+                sums[offset] += otherPages.sums[i][offset];
+                counts[offset] += otherPages.counts[i][offset];
+            }
+        }
+        include(other.firstInterval);
+        include(other.lastInterval);
+    }
+
+    /**
+     * @return number of the first interval holding data or {@link Long#MAX_VALUE} when there is none
+     */
+    public long getFirstInterval() {
+        return empty ? Long.MAX_VALUE : firstInterval;
+    }
+
+    /**
+     * @return number of the last interval holding data or {@link Long#MIN_VALUE} when there is none
+     */
+    public long getLastInterval() {
+        return empty ? Long.MIN_VALUE : lastInterval;
+    }
+
+    /**
+     * @return sum of the values in all buckets
+     */
+    public long getSum() {
+        Pages pages = this.pages;
+        long sum = 0;
+        for (int i = 0; i < pages.size; i++) {
+            for (long bucket : pages.sums[i]) {
+                sum += bucket;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return number of datapoints in all buckets
+     */
+    public long getCount() {
+        Pages pages = this.pages;
+        long count = 0;
+        for (int i = 0; i < pages.size; i++) {
+            count += countOf(pages.counts[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Makes the interval part of the aggregates even when it holds no data.
+     */
+    public void include(long interval) {
+        if (empty) {
+            firstInterval = interval;
+            lastInterval = interval;
+            empty = false;
+        } else if (interval < firstInterval) {
+            firstInterval = interval;
+        } else if (interval > lastInterval) {
+            lastInterval = interval;
+        }
+    }
+
+    /**
+     * Copies the buckets of intervals numbered from {@code fromInterval} inclusive to {@code toInterval}
+     * exclusive. Intervals without data at the edges of the series are not part of the copy.
+     * <p>
+     * Safe to call concurrently with {@link #add}: the copy may then be inconsistent, but the call never
+     * fails, so that callers can validate the copy afterwards.
+     */
+    public IntervalAggregates copy(long fromInterval, long toInterval) {
+        Pages pages = this.pages;
+        long firstInterval = this.firstInterval;
+        long lastInterval = this.lastInterval;
+
+        IntervalAggregates copy = new IntervalAggregates(intervalInMillis);
+        if (empty || toInterval == Long.MIN_VALUE) {
+            return copy;
+        }
+        long copyFrom = Math.max(fromInterval, firstInterval);
+        long copyTo = Math.min(toInterval - 1, lastInterval);
+        if (copyFrom > copyTo) {
+            return copy;
+        }
+
+        int from = pages.lowerBound(copyFrom >> PAGE_BITS);
+        int to = pages.lowerBound((copyTo >> PAGE_BITS) + 1);
+        long[] numbers = Arrays.copyOfRange(pages.numbers, from, to);
+        long[][] sums = new long[to - from][];
+        long[][] counts = new long[to - from][];
+        for (int i = 0; i < numbers.length; i++) {
+            if (pages.sums[from + i] == null || pages.counts[from + i] == null) {
+                return copy;
+            }
+            sums[i] = pages.sums[from + i].clone();
+            counts[i] = pages.counts[from + i].clone();
+        }
+        if (numbers.length > 0) {
+            clearOutside(numbers[0], sums[0], counts[0], copyFrom, copyTo);
+            clearOutside(numbers[numbers.length - 1], sums[numbers.length - 1], counts[numbers.length - 1], copyFrom, copyTo);
+        }
+        copy.pages = new Pages(numbers, sums, counts, numbers.length);
+        copy.firstInterval = copyFrom;
+        copy.lastInterval = copyTo;
+        copy.empty = false;
+        return copy;
+    }
+
+    /**
+     * Sums the buckets up into intervals of the given length, which must be a multiple of this one's.
+     * Intervals without data inside the span of this instance remain part of the result.
+     */
+    public IntervalAggregates rollUp(long intervalInMillis) {
+        long factor = intervalInMillis / this.intervalInMillis;
+        IntervalAggregates rolledUp = new IntervalAggregates(intervalInMillis);
+        if (empty) {
+            return rolledUp;
+        }
+        for (int i = 0; i < pages.size; i++) {
+            long pageStart = pages.numbers[i] << PAGE_BITS;
+            for (int offset = 0; offset < PAGE_SIZE; offset++) {
+                if (pages.counts[i][offset] != 0 || pages.sums[i][offset] != 0) {
+                    rolledUp.addInterval(Math.floorDiv(pageStart + offset, factor), pages.sums[i][offset], pages.counts[i][offset]);
+                }
+            }
+        }
+        rolledUp.include(Math.floorDiv(firstInterval, factor));
+        rolledUp.include(Math.floorDiv(lastInterval, factor));
+        return rolledUp;
+    }
+
+    /**
+     * Drops the buckets of intervals numbered below {@code interval}, together with any buckets without
+     * data that would be left at the start.
+     *
+     * @return number of datapoints the dropped buckets held
+     */
+    public long dropBefore(long interval) {
+        if (empty || interval <= firstInterval) {
+            return 0;
+        }
+        long dropped = 0;
+        int index = pages.lowerBound(interval >> PAGE_BITS);
+        for (int i = 0; i < index; i++) {
+            dropped += countOf(pages.counts[i]);
+        }
+        if (index < pages.size && pages.numbers[index] == interval >> PAGE_BITS) {
+            long before = countOf(pages.counts[index]);
+            clearOutside(pages.numbers[index], pages.sums[index], pages.counts[index], interval, Long.MAX_VALUE);
+            dropped += before - countOf(pages.counts[index]);
+        }
+        for (; index < pages.size; index++) {
+            for (int offset = 0; offset < PAGE_SIZE; offset++) {
+                if (pages.counts[index][offset] != 0) {
+                    pages = pages.dropBefore(index);
+                    firstInterval = (pages.numbers[0] << PAGE_BITS) + offset;
+                    return dropped;
+                }
+            }
+        }
+        pages = Pages.EMPTY;
+        empty = true;
+        return dropped;
+    }
+
+    /**
+     * Writes the span and the buckets holding data.
+     */
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeBoolean(empty);
+        if (empty) {
+            return;
+        }
+        output.writeLong(firstInterval);
+        output.writeLong(lastInterval);
+        int buckets = 0;
+        for (int i = 0; i < pages.size; i++) {
+            for (int offset = 0; offset < PAGE_SIZE; offset++) {
+                if (pages.counts[i][offset] != 0 || pages.sums[i][offset] != 0) {
+                    buckets++;
+                }
+            }
+        }
+        output.writeInt(buckets);
+        for (int i = 0; i < pages.size; i++) {
+            for (int offset = 0; offset < PAGE_SIZE; offset++) {
+                if (pages.counts[i][offset] != 0 || pages.sums[i][offset] != 0) {
+                    output.writeLong((pages.numbers[i] << PAGE_BITS) + offset);
+                    output.writeLong(pages.sums[i][offset]);
+                    output.writeLong(pages.counts[i][offset]);
+                }
+            }
+        }
+    }
+
+    public static IntervalAggregates readFrom(DataInput input, long intervalInMillis) throws IOException {
+        IntervalAggregates aggregates = new IntervalAggregates(intervalInMillis);
+        if (input.readBoolean()) {
+            return aggregates;
+        }
+        aggregates.include(input.readLong());
+        aggregates.include(input.readLong());
+        for (int i = input.readInt(); i > 0; i--) {
+            aggregates.addInterval(input.readLong(), input.readLong(), input.readLong());
+        }
+        return aggregates;
+    }
+
+    /**
+     * Estimated heap footprint of the buckets.
+     */
+    public long estimatedBytes() {
+        Pages pages = this.pages;
+        return 48 + 40 + pages.numbers.length * 24L + pages.size * 2L * (16 + PAGE_SIZE * 8);
+    }
+
+    public List<AverageForInterval> toAverages() {
+        if (empty) {
+            return new ArrayList<>();
+        }
+        List<AverageForInterval> averages = new ArrayList<>((int) Math.min(lastInterval - firstInterval + 1, Integer.MAX_VALUE - 8));
+        int index = pages.lowerBound(firstInterval >> PAGE_BITS);
+        for (long interval = firstInterval; interval <= lastInterval; interval++) {
+            long number = interval >> PAGE_BITS;
+            while (index < pages.size && pages.numbers[index] < number) {
+                index++;
+            }
+            double average = 0;
+            if (index < pages.size && pages.numbers[index] == number) {
+                int offset = (int) (interval & PAGE_MASK);
+                long count = pages.counts[index][offset];
+                average = count == 0 ? 0 : (double) pages.sums[index][offset] / count;
+            }
+            averages.add(new AverageForInterval(interval * intervalInMillis, average));
+        }
+        return averages;
+    }
+
+    /**
+     * @return index of the page, which is created if it does not exist
+     */
+    private int pageIndex(long number) {
+        int index = pages.lowerBound(number);
+        if (index == pages.size || pages.numbers[index] != number) {
+            pages = pages.insert(index, number);
+        }
+        return index;
+    }
+
+    private static long countOf(long[] counts) {
+        long count = 0;
+        for (long bucket : counts) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    private static void clearOutside(long number, long[] sums, long[] counts, long fromInterval, long toInterval) {
+        long pageStart = number << PAGE_BITS;
+        for (int offset = 0; offset < PAGE_SIZE; offset++) {
+            long interval = pageStart + offset;
+            if (interval < fromInterval || interval > toInterval) {
+                sums[offset] = 0;
+                counts[offset] = 0;
+            }
+        }
+    }
+
+    /**
+     * Sorted page numbers with the buckets of each page. Pages are only ever added past the size of an
+     * instance or into new arrays, and published by replacing the instance, so that a reader working with
+     * one instance always sees matching arrays.
+     */
+    private static class Pages {
+        private static final Pages EMPTY = new Pages(new long[0], new long[0][], new long[0][], 0);
+
+        private final long[] numbers;
+        private final long[][] sums;
+        private final long[][] counts;
+        private final int size;
+
+        private Pages(long[] numbers, long[][] sums, long[][] counts, int size) {
+            this.numbers = numbers;
+            this.sums = sums;
+            this.counts = counts;
+            this.size = size;
+        }
+
+        private int lowerBound(long number) {
+            int index = Arrays.binarySearch(numbers, 0, size, number);
+            return index < 0 ? -index - 1 : index;
+        }
+
+        private Pages insert(int index, long number) {
+            if (index == size && size < numbers.length) {
+                numbers[index] = number;
+                sums[index] = new long[PAGE_SIZE];
+                counts[index] = new long[PAGE_SIZE];
+                return new Pages(numbers, sums, counts, size + 1);
+            }
+            int capacity = Math.max(4, size * 2);
+            long[] newNumbers = new long[capacity];
+            long[][] newSums = new long[capacity][];
+            long[][] newCounts = new long[capacity][];
+            System.arraycopy(numbers, 0, newNumbers, 0, index);
+            System.arraycopy(sums, 0, newSums, 0, index);
+            System.arraycopy(counts, 0, newCounts, 0, index);
+            System.arraycopy(numbers, index, newNumbers, index + 1, size - index);
+            System.arraycopy(sums, index, newSums, index + 1, size - index);
+            System.arraycopy(counts, index, newCounts, index + 1, size - index);
+            newNumbers[index] = number;
+            newSums[index] = new long[PAGE_SIZE];
+            newCounts[index] = new long[PAGE_SIZE];
+            return new Pages(newNumbers, newSums, newCounts, size + 1);
+        }
+
+        private Pages dropBefore(int index) {
+            return new Pages(Arrays.copyOfRange(numbers, index, size), Arrays.copyOfRange(sums, index, size),
+                    Arrays.copyOfRange(counts, index, size), size - index);
+        }
+    }
+}
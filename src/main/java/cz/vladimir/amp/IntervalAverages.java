@@ -0,0 +1,171 @@
+package cz.vladimir.amp;
+
+import cz.vladimir.amp.exception.DataNotFoundException;
+import cz.vladimir.amp.exception.InvalidQueryException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers an {@link IntervalQuery} from the aggregates of one device or one user, reading the coarsest
+ * rollup tier the resolution of the query allows. Intervals of a resolution no tier adds up to are summed
+ * up one by one from the {@link AggregateSource#getTotal(long, long) totals} of their time ranges instead.
+ */
+public class IntervalAverages {
+
+    /**
+     * Intervals of a resolution no tier adds up to are summed up one by one, which bounds how many of them
+     * a query may span.
+     */
+    static final int MAX_INTERVALS_FROM_TOTALS = 100000;
+
+    private IntervalAverages() {
+    }
+
+    /**
+     * Only the requested intervals are aggregated, preceded by as many intervals as the largest moving
+     * average window needs to warm up.
+     *
+     * @throws DataNotFoundException if the source holds no data in the tier
+     */
+    public static List<AverageForInterval> calculate(AggregateSource source, List<Long> windowSizes, IntervalQuery query) {
+        long intervalInMillis = query.getResolution();
+        RollupTier tier = RollupTier.cheapestFor(intervalInMillis);
+        if (tier == null) {
+            return calculateFromTotals(source, windowSizes, query);
+        }
+        long factor = intervalInMillis / tier.getIntervalInMillis();
+        long firstTierInterval = source.getFirstInterval(tier);
+        if (firstTierInterval == Long.MAX_VALUE) {
+            throw new DataNotFoundException();
+        }
+        long firstInterval = Math.floorDiv(firstTierInterval, factor);
+
+        long fromInterval = Math.max(firstInterval, Math.floorDiv(query.getFrom(), intervalInMillis));
+        long toInterval = Math.min(Math.floorDiv(query.getTo() - 1, intervalInMillis) + 1, fromInterval + query.getLimit());
+        if (fromInterval >= toInterval) {
+            return new ArrayList<>();
+        }
+
+        if (windowSizes.isEmpty()) {
+            return getAggregates(source, tier, factor, fromInterval, toInterval).toAverages();
+        }
+        long warmUpIntervals = Math.min(Collections.max(windowSizes) - 1, Integer.MAX_VALUE);
+        return withMovingAverages(getAggregates(source, tier, factor, fromInterval - warmUpIntervals, toInterval).toAverages(),
+                windowSizes, fromInterval * intervalInMillis);
+    }
+
+    /**
+     * The datapoints of the source lie within its first and last {@link RollupTier#QUARTER_HOUR}, and the
+     * first and the last of them are found by bisecting those by the totals.
+     *
+     * @throws InvalidQueryException if more than {@link #MAX_INTERVALS_FROM_TOTALS} intervals are asked for
+     */
+    private static List<AverageForInterval> calculateFromTotals(AggregateSource source, List<Long> windowSizes, IntervalQuery query) {
+        long intervalInMillis = query.getResolution();
+        RollupTier bounds = RollupTier.QUARTER_HOUR;
+        long firstBoundsInterval = source.getFirstInterval(bounds);
+        if (firstBoundsInterval == Long.MAX_VALUE) {
+            throw new DataNotFoundException();
+        }
+        long from = firstBoundsInterval * bounds.getIntervalInMillis();
+        long to = (source.getLastInterval(bounds) + 1) * bounds.getIntervalInMillis();
+        long firstInterval = Math.floorDiv(firstTimestamp(source, from, to), intervalInMillis);
+        long lastInterval = Math.floorDiv(lastTimestamp(source, from, to), intervalInMillis);
+
+        long fromInterval = Math.max(firstInterval, Math.floorDiv(query.getFrom(), intervalInMillis));
+        long toInterval = Math.min(Math.min(Math.floorDiv(query.getTo() - 1, intervalInMillis) + 1, fromInterval + query.getLimit()), lastInterval + 1);
+        if (fromInterval >= toInterval) {
+            return new ArrayList<>();
+        }
+
+        long warmUpIntervals = windowSizes.isEmpty() ? 0 : Math.min(Collections.max(windowSizes) - 1, Integer.MAX_VALUE);
+        long startInterval = Math.max(firstInterval, fromInterval - warmUpIntervals);
+        if (toInterval - startInterval > MAX_INTERVALS_FROM_TOTALS) {
+            throw new InvalidQueryException();
+        }
+        IntervalAggregates aggregates = source.getTotals(intervalInMillis, startInterval, toInterval);
+        if (windowSizes.isEmpty()) {
+            return aggregates.toAverages();
+        }
+        return withMovingAverages(aggregates.toAverages(), windowSizes, fromInterval * intervalInMillis);
+    }
+
+    /**
+     * An empty interval is skipped together with the ones following it up to the next datapoint, found by
+     * bisecting the totals.
+     *
+     * @see AggregateSource#getTotals(long, long, long)
+     */
+    static IntervalAggregates sumTotals(AggregateSource source, long intervalInMillis, long fromInterval, long toInterval) {
+        IntervalAggregates aggregates = new IntervalAggregates(intervalInMillis);
+        long end = toInterval * intervalInMillis;
+        long interval = fromInterval;
+        while (interval < toInterval) {
+            long start = interval * intervalInMillis;
+            RangeTotal total = source.getTotal(start, start + intervalInMillis);
+            if (total.getCount() > 0) {
+                aggregates.addInterval(interval, total.getSum(), total.getCount());
+                interval++;
+            } else if (source.getTotal(start, end).getCount() > 0) {
+                interval = Math.floorDiv(firstTimestamp(source, start, end), intervalInMillis);
+            } else {
+                break;
+            }
+        }
+        return aggregates;
+    }
+
+    /**
+     * @return the moving averages of the intervals starting at {@code fromTime} or later
+     */
+    private static List<AverageForInterval> withMovingAverages(List<AverageForInterval> averages, List<Long> windowSizes, long fromTime) {
+        List<AverageForInterval> movingAverages = MovingAverages.calculate(averages, windowSizes);
+
+        int first = 0;
+        while (first < movingAverages.size() && movingAverages.get(first).getStartTime() < fromTime) {
+            first++;
+        }
+        return new ArrayList<>(movingAverages.subList(first, movingAverages.size()));
+    }
+
+    /**
+     * @return timestamp of the first datapoint between {@code from} and {@code to}, which must exist
+     */
+    private static long firstTimestamp(AggregateSource source, long from, long to) {
+        long low = from;
+        long high = to - 1;
+        while (low < high) {
+            long middle = low + (high - low) / 2;
+            if (source.getTotal(from, middle + 1).getCount() > 0) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return timestamp of the last datapoint between {@code from} and {@code to}, which must exist
+     */
+    private static long lastTimestamp(AggregateSource source, long from, long to) {
+        long low = from;
+        long high = to - 1;
+        while (low < high) {
+            long middle = low + (high - low + 1) / 2;
+            if (source.getTotal(middle, to).getCount() > 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private static IntervalAggregates getAggregates(AggregateSource source, RollupTier tier, long factor, long fromInterval, long toInterval) {
+        IntervalAggregates aggregates = source.getAggregates(tier, fromInterval * factor, toInterval * factor);
+        return factor == 1 ? aggregates : aggregates.rollUp(tier.getIntervalInMillis() * factor);
+    }
+}
@@ -0,0 +1,90 @@
+package cz.vladimir.amp;
+
+import java.util.Objects;
+
+/**
+ * Restricts statistics to the intervals overlapping the time range from {@code from} inclusive to
+ * {@code to} exclusive, returning at most {@code limit} of them. Intervals are {@code resolution}
+ * milliseconds long. Resolutions that are a multiple of one of the {@link RollupTier rollup tiers} are
+ * answered from its aggregates, any other from the {@link RangeIndex range indexes} of the series.
+ */
+public class IntervalQuery {
+
+    public static final long DEFAULT_RESOLUTION = RollupTier.QUARTER_HOUR.getIntervalInMillis();
+
+    public static final IntervalQuery ALL = new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final long from;
+    private final long to;
+    private final int limit;
+    private final long resolution;
+
+    public IntervalQuery(long from, long to, int limit) {
+        this(from, to, limit, DEFAULT_RESOLUTION);
+    }
+
+    public IntervalQuery(long from, long to, int limit, long resolution) {
+        if (from >= to) {
+            throw new IllegalArgumentException("Start of the time range must precede its end");
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        if (resolution < 1) {
+            throw new IllegalArgumentException("Resolution must be positive");
+        }
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+        this.resolution = resolution;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public long getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @return start of the first interval overlapping the time range
+     */
+    public long getFromTime() {
+        long interval = Math.floorDiv(from, resolution);
+        return interval < Long.MIN_VALUE / resolution ? Long.MIN_VALUE : interval * resolution;
+    }
+
+    /**
+     * @return end of the last interval overlapping the time range
+     */
+    public long getToTime() {
+        long start = Math.floorDiv(to - 1, resolution) * resolution;
+        return start > Long.MAX_VALUE - resolution ? Long.MAX_VALUE : start + resolution;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        IntervalQuery that = (IntervalQuery) o;
+        return from == that.from && to == that.to && limit == that.limit && resolution == that.resolution;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(from, to, limit, resolution);
+    }
+}
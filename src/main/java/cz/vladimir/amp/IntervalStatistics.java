@@ -0,0 +1,53 @@
+package cz.vladimir.amp;
+
+import cz.vladimir.amp.exception.DataNotFoundException;
+import cz.vladimir.amp.exception.InvalidQueryException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers an {@link IntervalQuery} with the count, sum, minimum, maximum and percentiles of every interval,
+ * merged from the {@link IntervalSummaries summaries} of {@link RollupTier#QUARTER_HOUR} intervals.
+ */
+public class IntervalStatistics {
+
+    public static final List<Double> DEFAULT_PERCENTILES = Collections.unmodifiableList(Arrays.asList(50.0, 95.0, 99.0));
+
+    private IntervalStatistics() {
+    }
+
+    /**
+     * @param percentiles between 0 and 100
+     * @throws DataNotFoundException if the source holds no data
+     * @throws InvalidQueryException if the resolution is not a multiple of {@link RollupTier#QUARTER_HOUR} or
+     *                               a percentile is out of range
+     */
+    public static List<SummaryForInterval> calculate(AggregateSource source, List<Double> percentiles, IntervalQuery query) {
+        long intervalInMillis = query.getResolution();
+        RollupTier tier = RollupTier.QUARTER_HOUR;
+        if (intervalInMillis % tier.getIntervalInMillis() != 0 || percentiles.stream().anyMatch(percentile -> !(percentile >= 0 && percentile <= 100))) {
+            throw new InvalidQueryException();
+        }
+        long factor = intervalInMillis / tier.getIntervalInMillis();
+        long firstTierInterval = source.getFirstInterval(tier);
+        if (firstTierInterval == Long.MAX_VALUE) {
+            throw new DataNotFoundException();
+        }
+
+        long fromInterval = Math.max(Math.floorDiv(firstTierInterval, factor), Math.floorDiv(query.getFrom(), intervalInMillis));
+        long toInterval = Math.min(Math.floorDiv(query.getTo() - 1, intervalInMillis) + 1, fromInterval + query.getLimit());
+        long lastInterval = Math.min(toInterval - 1, Math.floorDiv(source.getLastInterval(tier), factor));
+        if (fromInterval > lastInterval) {
+            return new ArrayList<>();
+        }
+
+        IntervalSummaries summaries = source.getSummaries(fromInterval * factor, (lastInterval + 1) * factor);
+        if (factor > 1) {
+            summaries = summaries.rollUp(intervalInMillis);
+        }
+        return summaries.toSummaries(fromInterval, lastInterval, percentiles);
+    }
+}
@@ -0,0 +1,128 @@
+package cz.vladimir.amp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * {@link IntervalSummary Summaries} of datapoint values per interval, maintained at ingest time next to
+ * the {@link IntervalAggregates interval aggregates}. Only intervals holding data have a summary.
+ * <p>
+ * Unlike interval aggregates, summaries must not be read concurrently with {@link #add}.
+ */
+public class IntervalSummaries {
+
+    private final long intervalInMillis;
+    private final NavigableMap<Long, IntervalSummary> summaries = new TreeMap<>();
+
+    public IntervalSummaries(long intervalInMillis) {
+        this.intervalInMillis = intervalInMillis;
+    }
+
+    public long getIntervalInMillis() {
+        return intervalInMillis;
+    }
+
+    public void add(long timestamp, long value) {
+        summaries.computeIfAbsent(Math.floorDiv(timestamp, intervalInMillis), interval -> new IntervalSummary()).add(value);
+    }
+
+    /**
+     * Adds the summaries of another instance with the same interval length to this one.
+     */
+    public void merge(IntervalSummaries other) {
+        other.summaries.forEach(this::merge);
+    }
+
+    /**
+     * Copies the summaries of intervals numbered from {@code fromInterval} inclusive to {@code toInterval} exclusive.
+     */
+    public IntervalSummaries copy(long fromInterval, long toInterval) {
+        IntervalSummaries copy = new IntervalSummaries(intervalInMillis);
+        if (fromInterval < toInterval) {
+            summaries.subMap(fromInterval, toInterval).forEach((interval, summary) -> copy.summaries.put(interval, summary.copy()));
+        }
+        return copy;
+    }
+
+    /**
+     * Merges the summaries into intervals of the given length, which must be a multiple of this one's.
+     */
+    public IntervalSummaries rollUp(long intervalInMillis) {
+        long factor = intervalInMillis / this.intervalInMillis;
+        IntervalSummaries rolledUp = new IntervalSummaries(intervalInMillis);
+        summaries.forEach((interval, summary) -> rolledUp.merge(Math.floorDiv(interval, factor), summary));
+        return rolledUp;
+    }
+
+    /**
+     * Drops the summaries of intervals numbered below {@code interval}.
+     */
+    public void dropBefore(long interval) {
+        summaries.headMap(interval).clear();
+    }
+
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeInt(summaries.size());
+        for (Map.Entry<Long, IntervalSummary> summary : summaries.entrySet()) {
+            output.writeLong(summary.getKey());
+            summary.getValue().writeTo(output);
+        }
+    }
+
+    public static IntervalSummaries readFrom(DataInput input, long intervalInMillis) throws IOException {
+        IntervalSummaries summaries = new IntervalSummaries(intervalInMillis);
+        for (int i = input.readInt(); i > 0; i--) {
+            summaries.summaries.put(input.readLong(), IntervalSummary.readFrom(input));
+        }
+        return summaries;
+    }
+
+    public long estimatedBytes() {
+        long bytes = 48;
+        for (IntervalSummary summary : summaries.values()) {
+            bytes += 64 + summary.estimatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Lists the intervals numbered from {@code fromInterval} to {@code toInterval}, both inclusive, including
+     * those without datapoints.
+     *
+     * @param percentiles between 0 and 100
+     */
+    public List<SummaryForInterval> toSummaries(long fromInterval, long toInterval, List<Double> percentiles) {
+        List<SummaryForInterval> result = new ArrayList<>();
+        for (long interval = fromInterval; interval <= toInterval; interval++) {
+            IntervalSummary summary = summaries.get(interval);
+            if (summary == null) {
+                result.add(new SummaryForInterval(interval * intervalInMillis));
+                continue;
+            }
+            Map<String, Double> estimates = new LinkedHashMap<>();
+            for (Double percentile : percentiles) {
+                estimates.put("p" + BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString(), summary.quantile(percentile / 100));
+            }
+            result.add(new SummaryForInterval(interval * intervalInMillis, summary.getCount(), summary.getSum(), summary.getMin(),
+                    summary.getMax(), (double) summary.getSum() / summary.getCount(), estimates));
+        }
+        return result;
+    }
+
+    private void merge(long interval, IntervalSummary summary) {
+        IntervalSummary existing = summaries.get(interval);
+        if (existing == null) {
+            summaries.put(interval, summary.copy());
+        } else {
+            existing.merge(summary);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package cz.vladimir.amp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Count, sum, minimum, maximum and {@link QuantileSketch quantile sketch} of the values of one interval.
+ */
+public class IntervalSummary {
+
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private QuantileSketch sketch = new QuantileSketch();
+
+    public void add(long value) {
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sketch.add(value);
+    }
+
+    public void merge(IntervalSummary other) {
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sketch.merge(other.sketch);
+    }
+
+    public IntervalSummary copy() {
+        IntervalSummary copy = new IntervalSummary();
+        copy.merge(this);
+        return copy;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Estimate of the value at the quantile, never outside of the minimum and the maximum.
+     */
+    public double quantile(double quantile) {
+        return Math.max(min, Math.min(max, sketch.quantile(quantile)));
+    }
+
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeLong(count);
+        output.writeLong(sum);
+        output.writeLong(min);
+        output.writeLong(max);
+        sketch.writeTo(output);
+    }
+
+    public static IntervalSummary readFrom(DataInput input) throws IOException {
+        IntervalSummary summary = new IntervalSummary();
+        summary.count = input.readLong();
+        summary.sum = input.readLong();
+        summary.min = input.readLong();
+        summary.max = input.readLong();
+        summary.sketch = QuantileSketch.readFrom(input);
+        return summary;
+    }
+
+    public long estimatedBytes() {
+        return 48 + sketch.estimatedBytes();
+    }
+}
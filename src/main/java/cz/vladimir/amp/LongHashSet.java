@@ -0,0 +1,109 @@
+package cz.vladimir.amp;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open addressing hash set of primitive longs, used to look up datapoint timestamps without boxing.
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] slots;
+    private boolean containsEmptyMarker;
+    private int size;
+
+    public LongHashSet() {
+        slots = newSlots(INITIAL_CAPACITY);
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmptyMarker;
+        }
+        int mask = slots.length - 1;
+        for (int index = hash(value) & mask; slots[index] != EMPTY; index = (index + 1) & mask) {
+            if (slots[index] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the value was already present
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmptyMarker) {
+                return false;
+            }
+            containsEmptyMarker = true;
+            size++;
+            return true;
+        }
+        if (!insert(slots, value)) {
+            return false;
+        }
+        size++;
+        if (size * 4 > slots.length * 3) {
+            rehash(slots.length * 2);
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long estimatedBytes() {
+        return 32 + 16 + slots.length * 8L;
+    }
+
+    public void forEach(LongConsumer action) {
+        if (containsEmptyMarker) {
+            action.accept(EMPTY);
+        }
+        for (long value : slots) {
+            if (value != EMPTY) {
+                action.accept(value);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] newSlots = newSlots(capacity);
+        for (long value : slots) {
+            if (value != EMPTY) {
+                insert(newSlots, value);
+            }
+        }
+        slots = newSlots;
+    }
+
+    private static boolean insert(long[] slots, long value) {
+        int mask = slots.length - 1;
+        int index = hash(value) & mask;
+        while (slots[index] != EMPTY) {
+            if (slots[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        slots[index] = value;
+        return true;
+    }
+
+    private static long[] newSlots(int capacity) {
+        long[] slots = new long[capacity];
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+
+    private static int hash(long value) {
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,55 @@
+package cz.vladimir.amp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sliding window averages of interval averages, computed in a single pass with one running sum per
+ * window size, so the cost does not depend on how large the windows are.
+ */
+public class MovingAverages {
+
+    private MovingAverages() {
+    }
+
+    /**
+     * Returns new interval averages carrying the moving averages; the given list is left untouched.
+     * With a single window size the result is reported as {@link AverageForInterval#getMovingAverage()},
+     * with several as {@link AverageForInterval#getMovingAverages()}.
+     */
+    public static List<AverageForInterval> calculate(List<AverageForInterval> averages, List<Long> windowSizes) {
+        long[] windows = windowSizes.stream().mapToLong(Long::longValue).distinct().sorted().toArray();
+        if (windows.length == 0 || windows[0] < 1) {
+            throw new IllegalArgumentException("Window sizes must be positive");
+        }
+
+        double[] values = averages.stream().mapToDouble(AverageForInterval::getAverage).toArray();
+        double[] sums = new double[windows.length];
+        List<AverageForInterval> result = new ArrayList<>(values.length);
+
+        for (int i = 0; i < values.length; i++) {
+            Map<Long, Double> movingAverages = windows.length == 1 ? null : new LinkedHashMap<>();
+            Double movingAverage = null;
+
+            for (int w = 0; w < windows.length; w++) {
+                sums[w] += values[i];
+                if (i >= windows[w]) {
+                    sums[w] -= values[(int) (i - windows[w])];
+                }
+                if (i + 1 >= windows[w]) {
+                    if (movingAverages == null) {
+                        movingAverage = sums[w] / windows[w];
+                    } else {
+                        movingAverages.put(windows[w], sums[w] / windows[w]);
+                    }
+                }
+            }
+
+            AverageForInterval interval = averages.get(i);
+            result.add(new AverageForInterval(interval.getStartTime(), interval.getAverage(), movingAverage, movingAverages));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,62 @@
+package cz.vladimir.amp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Reduces a range of dictionary ids on a fork-join pool. The range is split in halves until the parts are
+ * small enough to be accumulated into a result of their own, and the results of the halves are combined on
+ * the way back, so no result is shared between threads. The parallelism of the pool bounds how many cores
+ * a reduction can take from ingest.
+ */
+public class ParallelReduction {
+
+    private static final int LEAF_SIZE = 64;
+
+    private ParallelReduction() {
+    }
+
+    /**
+     * @param identity    creates an empty result for every part of the range
+     * @param accumulator adds the id to a result
+     * @param combiner    combines the results of two parts, possibly into one of them
+     */
+    public static <R> R reduce(ForkJoinPool pool, int size, Supplier<R> identity, ObjIntConsumer<R> accumulator, BinaryOperator<R> combiner) {
+        return pool.invoke(new Part<>(0, size, identity, accumulator, combiner));
+    }
+
+    private static class Part<R> extends RecursiveTask<R> {
+        private final int from;
+        private final int to;
+        private final Supplier<R> identity;
+        private final ObjIntConsumer<R> accumulator;
+        private final BinaryOperator<R> combiner;
+
+        private Part(int from, int to, Supplier<R> identity, ObjIntConsumer<R> accumulator, BinaryOperator<R> combiner) {
+            this.from = from;
+            this.to = to;
+            this.identity = identity;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from <= LEAF_SIZE) {
+                R result = identity.get();
+                for (int id = from; id < to; id++) {
+                    accumulator.accept(result, id);
+                }
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            Part<R> left = new Part<>(from, middle, identity, accumulator, combiner);
+            left.fork();
+            R right = new Part<>(middle, to, identity, accumulator, combiner).compute();
+            return combiner.apply(left.join(), right);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package cz.vladimir.amp;
+
+import cz.vladimir.amp.segment.SegmentStore;
+import cz.vladimir.amp.snapshot.SnapshotStore;
+import cz.vladimir.amp.wal.WriteAheadLog;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Restores the datapoints persisted by the write-ahead log, the segment store and the snapshot store,
+ * whichever of them is enabled, once all beans exist and before the web server accepts requests.
+ * <p>
+ * The segments are attached first, the snapshot is restored over them and the log is replayed over both;
+ * datapoints the log holds again are skipped as duplicates, while its deletes are applied in order. Segments may still hold datapoints
+ * deleted after they were written, since they are rewritten in the background; the log keeps those
+ * deletes until the segments are rewritten, and files of the log are only released in order, so any
+ * datapoint stored after a replayed delete is replayed after it as well.
+ */
+@Component
+public class PersistenceInitializer implements SmartInitializingSingleton {
+
+    private final AverageCalculations averageCalculations;
+    private final AmpProperties properties;
+    private final ObjectProvider<WriteAheadLog> writeAheadLog;
+    private final ObjectProvider<SegmentStore> segmentStore;
+    private final ObjectProvider<SnapshotStore> snapshotStore;
+
+    public PersistenceInitializer(AverageCalculations averageCalculations, AmpProperties properties,
+                                  ObjectProvider<WriteAheadLog> writeAheadLog, ObjectProvider<SegmentStore> segmentStore,
+                                  ObjectProvider<SnapshotStore> snapshotStore) {
+        this.averageCalculations = averageCalculations;
+        this.properties = properties;
+        this.writeAheadLog = writeAheadLog;
+        this.segmentStore = segmentStore;
+        this.snapshotStore = snapshotStore;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        WriteAheadLog log = writeAheadLog.getIfAvailable();
+        SegmentStore segments = segmentStore.getIfAvailable();
+        SnapshotStore snapshots = snapshotStore.getIfAvailable();
+        try {
+            if (segments != null) {
+                segments.open();
+            }
+            if (snapshots != null) {
+                snapshots.load();
+            }
+            if (log != null) {
+                log.recover(averageCalculations);
+            }
+            if (segments != null) {
+                segments.setWriteAheadLog(log);
+                averageCalculations.addListener(segments);
+                segments.start(properties.getSegments().getFlushInterval());
+            }
+            if (log != null) {
+                averageCalculations.addListener(log);
+            }
+            if (snapshots != null) {
+                snapshots.start(properties.getSnapshot().getInterval());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Persisted datapoints could not be restored", e);
+        }
+    }
+}
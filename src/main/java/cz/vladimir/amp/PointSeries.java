@@ -0,0 +1,595 @@
+package cz.vladimir.amp;
+
+import cz.vladimir.amp.segment.PointBatch;
+import cz.vladimir.amp.segment.SegmentSlice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Datapoints of one device and user pair, stored ordered by timestamp in a {@link RangeIndex} together
+ * with their {@link Rollups rollups}. Each datapoint is stored exactly once; the device and user views only
+ * refer to the series.
+ * <p>
+ * Datapoints are grouped into time blocks of fixed length, and only the open block - the newest one any
+ * datapoint arrived for - keeps them in the index and their timestamps in a hash set for duplicate checks.
+ * Once a datapoint arrives for a newer block, the open block is closed into a {@link CompressedBlock}. A
+ * datapoint arriving late for a closed block is checked against it and compressed into it anew, which costs
+ * as much as decoding the block.
+ * <p>
+ * Writers serialize on the series' own lock, readers of the aggregates only take it when an optimistic
+ * read raced with a writer.
+ * <p>
+ * Older datapoints may be moved out of the heap into {@link SegmentSlice slices} of mapped segment files.
+ * The series then keeps only the remaining hot datapoints itself and merges the slices in on every read.
+ * <p>
+ * Old datapoints may also be compacted: they are dropped and only their rollups from
+ * {@link RollupTier#QUARTER_HOUR} up are kept. Datapoints of the compacted time range are refused
+ * afterwards, since they could not be told apart from duplicates anymore.
+ * <p>
+ * Datapoints past their retention are expired: they are dropped together with their rollups and refused
+ * afterwards as well. A series that is evicted as a whole is retired, so that writers still holding it
+ * notice and store into a new series instead.
+ */
+public class PointSeries {
+
+    private final StampedLock lock = new StampedLock();
+    private final int deviceId;
+    private final int userId;
+    private final long intervalInMillis;
+    private final long blockInMillis;
+    private final SeriesView deviceView;
+    private final SeriesView userView;
+    private final Contention contention;
+    private RangeIndex points = new RangeIndex();
+    private LongHashSet timestamps = new LongHashSet();
+    private CompressedBlocks closed = CompressedBlocks.EMPTY;
+    private long openBlock = Long.MIN_VALUE;
+    private Rollups rollups = new Rollups();
+    private SegmentSlice[] slices = new SegmentSlice[0];
+    private Rollups compacted;
+    private long compactedBefore = Long.MIN_VALUE;
+    private long expiredBefore = Long.MIN_VALUE;
+    private boolean retired;
+
+    /**
+     * @param intervalInMillis length of the intervals {@link #copyHotPoints} selects datapoints by
+     * @param blockInMillis length of the time blocks closed into compressed blocks, or 0 to keep all hot
+     * datapoints uncompressed
+     * @param deviceView view of the device the series is a member of
+     * @param userView view of the user the series is a member of
+     * @param contention records the writers that had to wait for the lock
+     */
+    public PointSeries(int deviceId, int userId, long intervalInMillis, long blockInMillis, SeriesView deviceView, SeriesView userView,
+                       Contention contention) {
+        this.deviceId = deviceId;
+        this.userId = userId;
+        this.intervalInMillis = intervalInMillis;
+        this.blockInMillis = blockInMillis;
+        this.deviceView = deviceView;
+        this.userView = userView;
+        this.contention = contention;
+    }
+
+    public static long key(int deviceId, int userId) {
+        return (long) deviceId << 32 | (userId & 0xFFFFFFFFL);
+    }
+
+    public long getKey() {
+        return key(deviceId, userId);
+    }
+
+    public int getDeviceId() {
+        return deviceId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public SeriesView getDeviceView() {
+        return deviceView;
+    }
+
+    public SeriesView getUserView() {
+        return userView;
+    }
+
+    /**
+     * A series is deleted together with its device or its user.
+     */
+    public boolean isDeleted() {
+        return deviceView.isDeleted() || userView.isDeleted();
+    }
+
+    /**
+     * @return the version the view of the device or the user got when it was deleted, or {@link Long#MIN_VALUE}
+     */
+    public long getDeletedVersion() {
+        return Math.max(deviceView.getDeletedVersion(), userView.getDeletedVersion());
+    }
+
+    /**
+     * @return false if the series already contains a datapoint with the timestamp or has been retired
+     */
+    public boolean add(long timestamp, long value) {
+        long stamp = writeLock();
+        try {
+            return !retired && addLocked(timestamp, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds the datapoints at the given positions of the columns under a single acquisition of the lock.
+     *
+     * @param added set to true at the positions of the datapoints that were not duplicates
+     * @return false if the series has been retired, in which case nothing was added
+     */
+    public boolean addAll(long[] timestamps, long[] values, int[] positions, int from, int to, boolean[] added) {
+        long stamp = writeLock();
+        try {
+            if (retired) {
+                return false;
+            }
+            for (int i = from; i < to; i++) {
+                int position = positions[i];
+                added[position] = addLocked(timestamps[position], values[position]);
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            int total = points.size() + closed.size();
+            for (SegmentSlice slice : slices) {
+                total += slice.size();
+            }
+            return total;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return number of datapoints kept on the heap
+     */
+    public int hotSize() {
+        long stamp = lock.readLock();
+        try {
+            return points.size() + closed.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Estimated heap footprint of the series, not counting its slices, which are mapped.
+     */
+    public long estimatedBytes() {
+        long stamp = lock.readLock();
+        try {
+            long bytes = 112 + points.estimatedBytes() + timestamps.estimatedBytes() + closed.estimatedBytes()
+                    + rollups.estimatedBytes() + slices.length * 64L;
+            if (compacted != null) {
+                bytes += compacted.estimatedBytes();
+            }
+            return bytes;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the closed blocks of the hot datapoints, which are immutable and may be read without the lock
+     */
+    public CompressedBlocks getClosedBlocks() {
+        return read(() -> closed);
+    }
+
+    public boolean isRetired() {
+        return read(() -> retired);
+    }
+
+    /**
+     * Timestamp datapoints older than which have been expired, or {@link Long#MIN_VALUE} if none have.
+     */
+    public long getExpiredBefore() {
+        return read(() -> expiredBefore);
+    }
+
+    public IntervalAggregates copyAggregates(RollupTier tier, long fromInterval, long toInterval) {
+        return read(() -> {
+            IntervalAggregates copy = rollups.copy(tier, fromInterval, toInterval);
+            if (compacted != null) {
+                copy.merge(compacted.copy(tier, fromInterval, toInterval));
+            }
+            long sliceFrom = Math.max(fromInterval, firstUnexpiredInterval(tier));
+            for (SegmentSlice slice : slices) {
+                slice.mergeInto(copy, sliceFrom, toInterval);
+            }
+            return copy;
+        });
+    }
+
+    /**
+     * Summaries of {@link RollupTier#QUARTER_HOUR} intervals numbered from {@code fromInterval} inclusive to
+     * {@code toInterval} exclusive. Unlike the aggregates, they are read under the lock.
+     */
+    public IntervalSummaries copySummaries(long fromInterval, long toInterval) {
+        long stamp = lock.readLock();
+        try {
+            IntervalSummaries copy = rollups.copySummaries(fromInterval, toInterval);
+            if (compacted != null) {
+                copy.merge(compacted.copySummaries(fromInterval, toInterval));
+            }
+            for (SegmentSlice slice : slices) {
+                slice.summarizeInto(copy, fromInterval, toInterval, expiredBefore);
+            }
+            return copy;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Sum and count of the datapoints with timestamps from {@code from} inclusive to {@code to} exclusive.
+     * Compacted datapoints are only known by quarter hour, so they count when their whole quarter hour lies
+     * within the range.
+     */
+    public RangeTotal getTotal(long from, long to) {
+        long stamp = lock.readLock();
+        try {
+            RangeTotal total = new RangeTotal();
+            points.addTotal(total, from, to);
+            closed.addTotal(total, from, to);
+            for (SegmentSlice slice : slices) {
+                slice.addTotal(total, Math.max(from, expiredBefore), to);
+            }
+            if (compacted != null) {
+                long quarterHour = RollupTier.QUARTER_HOUR.getIntervalInMillis();
+                long fromInterval = Math.floorDiv(from, quarterHour) + (Math.floorMod(from, quarterHour) == 0 ? 0 : 1);
+                long toInterval = Math.floorDiv(to, quarterHour);
+                if (fromInterval < toInterval) {
+                    IntervalAggregates aggregates = compacted.copy(RollupTier.QUARTER_HOUR, fromInterval, toInterval);
+                    total.add(aggregates.getSum(), aggregates.getCount());
+                }
+            }
+            return total;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return number of the first interval of the tier holding data or {@link Long#MAX_VALUE} when there is none
+     */
+    public long getFirstInterval(RollupTier tier) {
+        return read(() -> {
+            long first = rollups.getFirstInterval(tier);
+            if (compacted != null) {
+                first = Math.min(first, compacted.getFirstInterval(tier));
+            }
+            for (SegmentSlice slice : slices) {
+                first = Math.min(first, Math.max(firstUnexpiredInterval(tier),
+                        Math.floorDiv(slice.getTimestamp(0), tier.getIntervalInMillis())));
+            }
+            return first;
+        });
+    }
+
+    /**
+     * @return number of the last interval of the tier holding data or {@link Long#MIN_VALUE} when there is none
+     */
+    public long getLastInterval(RollupTier tier) {
+        return read(() -> {
+            long last = rollups.getLastInterval(tier);
+            if (compacted != null) {
+                last = Math.max(last, compacted.getLastInterval(tier));
+            }
+            for (SegmentSlice slice : slices) {
+                last = Math.max(last, Math.floorDiv(slice.getTimestamp(slice.size() - 1), tier.getIntervalInMillis()));
+            }
+            return last;
+        });
+    }
+
+    /**
+     * Copies the hot datapoints of intervals numbered below {@code toInterval} to the batch.
+     */
+    public void copyHotPoints(long toInterval, PointBatch target) {
+        long stamp = lock.readLock();
+        try {
+            RangeIndex.PointConsumer copy = (timestamp, value) -> {
+                if (Math.floorDiv(timestamp, intervalInMillis) < toInterval) {
+                    target.add(timestamp, value);
+                }
+            };
+            closed.forEach(copy);
+            points.forEach(copy);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public List<SegmentSlice> getSlices() {
+        return read(() -> Arrays.asList(slices));
+    }
+
+    /**
+     * Adds the slice to the series, dropping the hot datapoints it already contains.
+     */
+    public void attach(SegmentSlice slice) {
+        replaceSlices(Collections.emptyList(), slice);
+    }
+
+    /**
+     * Replaces slices holding the same datapoints as the replacement, e.g. after they were merged.
+     */
+    public void replaceSlices(Collection<SegmentSlice> replaced, SegmentSlice replacement) {
+        long stamp = writeLock();
+        try {
+            List<SegmentSlice> remaining = new ArrayList<>(Arrays.asList(slices));
+            remaining.removeAll(replaced);
+            remaining.add(replacement);
+            slices = remaining.toArray(new SegmentSlice[0]);
+            retainHotPoints(timestamp -> !replacement.contains(timestamp), null);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Drops the hot datapoints older than the timestamp, keeping their rollups.
+     *
+     * @return number of datapoints dropped
+     */
+    public int compact(long beforeTimestamp) {
+        long stamp = writeLock();
+        try {
+            if (!rollups.mayHoldDataBefore(beforeTimestamp)) {
+                return 0;
+            }
+            if (compacted == null) {
+                compacted = new Rollups(RollupTier.QUARTER_HOUR, RollupTier.HOUR, RollupTier.DAY);
+            }
+            int dropped = retainHotPoints(timestamp -> timestamp >= beforeTimestamp, compacted);
+            if (dropped > 0) {
+                compactedBefore = Math.max(compactedBefore, beforeTimestamp);
+            }
+            return dropped;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Drops the datapoints older than the timestamp together with their rollups. Buckets of the compacted
+     * rollups and of the slices are only dropped once they lie entirely before the timestamp.
+     *
+     * @return number of datapoints dropped
+     */
+    public long expire(long beforeTimestamp) {
+        long stamp = writeLock();
+        try {
+            if (beforeTimestamp <= expiredBefore) {
+                return 0;
+            }
+            expiredBefore = beforeTimestamp;
+            long dropped = rollups.mayHoldDataBefore(beforeTimestamp)
+                    ? retainHotPoints(timestamp -> timestamp >= beforeTimestamp, null) : 0;
+            if (compacted != null) {
+                dropped += compacted.dropBefore(beforeTimestamp);
+            }
+            List<SegmentSlice> remaining = new ArrayList<>(slices.length);
+            for (SegmentSlice slice : slices) {
+                if (slice.getTimestamp(slice.size() - 1) < beforeTimestamp) {
+                    dropped += slice.size();
+                } else {
+                    remaining.add(slice);
+                }
+            }
+            slices = remaining.toArray(new SegmentSlice[0]);
+            return dropped;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Captures the state of the series kept on the heap. Closed blocks are immutable and taken as they are,
+     * so only the open block is compressed while the lock is held.
+     */
+    public SeriesSnapshot snapshot() {
+        long stamp = lock.readLock();
+        try {
+            CompressedBlock open = null;
+            if (points.size() > 0) {
+                CompressedBlock.Encoder encoder = new CompressedBlock.Encoder();
+                points.forEach(encoder::add);
+                open = encoder.build();
+            }
+            return new SeriesSnapshot(closed.getBlockCount() == 0 ? 0 : blockInMillis, closed, open,
+                    compacted == null ? null : compacted.copy(), compactedBefore, expiredBefore);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds the datapoints and compacted rollups of the snapshot to the series. While the series holds no
+     * hot datapoints of its own, closed blocks of the same length are taken over as they are; otherwise
+     * every datapoint is added like a new one, skipping duplicates.
+     *
+     * @return false if the series has been retired, in which case nothing was restored
+     */
+    public boolean restore(SeriesSnapshot snapshot) {
+        long stamp = writeLock();
+        try {
+            if (retired) {
+                return false;
+            }
+            compactedBefore = Math.max(compactedBefore, snapshot.getCompactedBefore());
+            expiredBefore = Math.max(expiredBefore, snapshot.getExpiredBefore());
+            if (snapshot.getCompacted() != null) {
+                if (compacted == null) {
+                    compacted = new Rollups(RollupTier.QUARTER_HOUR, RollupTier.HOUR, RollupTier.DAY);
+                }
+                compacted.merge(snapshot.getCompacted());
+            }
+            if (points.size() == 0 && closed.size() == 0 && slices.length == 0 && snapshot.getBlockInMillis() == blockInMillis
+                    && snapshot.getClosed().getLastNumber() >= openBlock) {
+                closed = snapshot.getClosed();
+                closed.forEach(rollups::add);
+                openBlock = closed.getLastNumber();
+                if (snapshot.getOpen() != null) {
+                    snapshot.getOpen().forEach(this::addLocked);
+                }
+            } else {
+                snapshot.forEach(this::addLocked);
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Refuses any further datapoints, so that the series can be forgotten.
+     *
+     * @return number of datapoints the series keeps, not counting those compacted
+     */
+    public int retire() {
+        long stamp = writeLock();
+        try {
+            retired = true;
+            int total = points.size() + closed.size();
+            for (SegmentSlice slice : slices) {
+                total += slice.size();
+            }
+            return total;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private long firstUnexpiredInterval(RollupTier tier) {
+        return expiredBefore == Long.MIN_VALUE ? Long.MIN_VALUE : Math.floorDiv(expiredBefore, tier.getIntervalInMillis());
+    }
+
+    private <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            T result = reader.get();
+            if (lock.validate(stamp)) {
+                return result;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private boolean addLocked(long timestamp, long value) {
+        if (timestamp < compactedBefore || timestamp < expiredBefore) {
+            return false;
+        }
+        for (SegmentSlice slice : slices) {
+            if (slice.contains(timestamp)) {
+                return false;
+            }
+        }
+        long block = blockInMillis == 0 ? 0 : Math.floorDiv(timestamp, blockInMillis);
+        if (block < openBlock) {
+            return addClosed(block, timestamp, value);
+        }
+        if (block > openBlock) {
+            closeOpenBlock();
+            openBlock = block;
+        }
+        if (!timestamps.add(timestamp)) {
+            return false;
+        }
+        points.add(timestamp, value);
+        rollups.add(timestamp, value);
+        return true;
+    }
+
+    private boolean addClosed(long block, long timestamp, long value) {
+        CompressedBlock current = closed.get(block);
+        if (current != null && current.contains(timestamp)) {
+            return false;
+        }
+        closed = closed.with(block, current == null ? CompressedBlock.of(timestamp, value) : current.with(timestamp, value));
+        rollups.add(timestamp, value);
+        return true;
+    }
+
+    /**
+     * Compresses the datapoints of the open block, which is newer than any closed block.
+     */
+    private void closeOpenBlock() {
+        if (points.size() == 0) {
+            return;
+        }
+        CompressedBlock.Encoder encoder = new CompressedBlock.Encoder();
+        points.forEach(encoder::add);
+        closed = closed.with(openBlock, encoder.build());
+        points = new RangeIndex();
+        timestamps = new LongHashSet();
+    }
+
+    /**
+     * Keeps only the hot datapoints whose timestamps match the filter.
+     *
+     * @param dropped receives the datapoints that do not match, unless null
+     * @return number of datapoints dropped
+     */
+    private int retainHotPoints(LongPredicate filter, Rollups dropped) {
+        RangeIndex oldPoints = points;
+        int oldSize = oldPoints.size() + closed.size();
+
+        points = new RangeIndex();
+        timestamps = new LongHashSet();
+        rollups = new Rollups();
+        closed = closed.retain(filter, rollups::add, dropped == null ? null : dropped::add);
+        oldPoints.forEach((timestamp, value) -> {
+            if (filter.test(timestamp)) {
+                timestamps.add(timestamp);
+                points.add(timestamp, value);
+                rollups.add(timestamp, value);
+            } else if (dropped != null) {
+                dropped.add(timestamp, value);
+            }
+        });
+        return oldSize - points.size() - closed.size();
+    }
+
+    /**
+     * Takes the write lock, timing the wait only when it is held by someone else.
+     */
+    private long writeLock() {
+        long stamp = lock.tryWriteLock();
+        if (stamp == 0) {
+            long start = System.nanoTime();
+            stamp = lock.writeLock();
+            contention.record(System.nanoTime() - start);
+        }
+        return stamp;
+    }
+}
@@ -0,0 +1,156 @@
+package cz.vladimir.amp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Quantile sketch with a relative error guarantee, after DDSketch: values are counted in buckets whose
+ * bounds grow geometrically, so any quantile is estimated within {@value #RELATIVE_ACCURACY} of its value
+ * relative to it. Sketches merge exactly by adding up their buckets.
+ */
+public class QuantileSketch {
+
+    static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private final Store positive = new Store();
+    private final Store negative = new Store();
+    private long zeros;
+    private long count;
+
+    public void add(long value) {
+        if (value > 0) {
+            positive.add(indexOf(value), 1);
+        } else if (value < 0) {
+            negative.add(indexOf(-(double) value), 1);
+        } else {
+            zeros++;
+        }
+        count++;
+    }
+
+    public void merge(QuantileSketch other) {
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeros += other.zeros;
+        count += other.count;
+    }
+
+    public QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch();
+        copy.merge(this);
+        return copy;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return estimate of the value at the quantile, NaN if the sketch is empty
+     */
+    public double quantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (quantile * (count - 1));
+        long seen = 0;
+        for (int i = negative.counts.length - 1; i >= 0; i--) {
+            seen += negative.counts[i];
+            if (seen > rank) {
+                return -valueOf(negative.offset + i);
+            }
+        }
+        seen += zeros;
+        if (seen > rank) {
+            return 0;
+        }
+        for (int i = 0; i < positive.counts.length; i++) {
+            seen += positive.counts[i];
+            if (seen > rank) {
+                return valueOf(positive.offset + i);
+            }
+        }
+        return valueOf(positive.offset + positive.counts.length - 1);
+    }
+
+    public void writeTo(DataOutput output) throws IOException {
+        positive.writeTo(output);
+        negative.writeTo(output);
+        output.writeLong(zeros);
+        output.writeLong(count);
+    }
+
+    public static QuantileSketch readFrom(DataInput input) throws IOException {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.positive.readFrom(input);
+        sketch.negative.readFrom(input);
+        sketch.zeros = input.readLong();
+        sketch.count = input.readLong();
+        return sketch;
+    }
+
+    public long estimatedBytes() {
+        return 48 + 2 * (32 + 16) + (positive.counts.length + negative.counts.length) * 8L;
+    }
+
+    private static int indexOf(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    private static double valueOf(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /**
+     * Bucket counts of one sign, kept in an array covering the indexes from the lowest to the highest used.
+     */
+    private static class Store {
+        private long[] counts = new long[0];
+        private int offset;
+
+        private void add(int index, long count) {
+            if (counts.length == 0) {
+                counts = new long[1];
+                offset = index;
+            } else if (index < offset) {
+                long[] grown = new long[counts.length + offset - index];
+                System.arraycopy(counts, 0, grown, offset - index, counts.length);
+                counts = grown;
+                offset = index;
+            } else if (index >= offset + counts.length) {
+                counts = Arrays.copyOf(counts, index - offset + 1);
+            }
+            counts[index - offset] += count;
+        }
+
+        private void writeTo(DataOutput output) throws IOException {
+            output.writeInt(offset);
+            output.writeInt(counts.length);
+            for (long count : counts) {
+                output.writeLong(count);
+            }
+        }
+
+        private void readFrom(DataInput input) throws IOException {
+            offset = input.readInt();
+            counts = new long[input.readInt()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = input.readLong();
+            }
+        }
+
+        private void merge(Store other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package cz.vladimir.amp;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of query results. An entry is only served while the version of the view it was computed
+ * from is unchanged, so writers invalidate results just by moving the version of the view on.
+ * <p>
+ * The cache is split into independently locked segments, each evicting its least recently used entries.
+ */
+public class QueryCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public QueryCache(int maxEntries) {
+        int maxEntriesPerSegment = (maxEntries + SEGMENTS - 1) / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxEntriesPerSegment);
+        }
+    }
+
+    public List<AverageForInterval> get(QueryKey key, long version, Supplier<List<AverageForInterval>> query) {
+        Segment segment = segments[(key.hashCode() & Integer.MAX_VALUE) % SEGMENTS];
+
+        CachedResult cached = segment.get(key);
+        if (cached != null && cached.version == version) {
+            return cached.result;
+        }
+
+        List<AverageForInterval> result = Collections.unmodifiableList(query.get());
+        segment.put(key, new CachedResult(version, result));
+        return result;
+    }
+
+    private static class CachedResult {
+        private final long version;
+        private final List<AverageForInterval> result;
+
+        private CachedResult(long version, List<AverageForInterval> result) {
+            this.version = version;
+            this.result = result;
+        }
+    }
+
+    private static class Segment {
+        private final Map<QueryKey, CachedResult> entries;
+
+        private Segment(int maxEntries) {
+            entries = new LinkedHashMap<QueryKey, CachedResult>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<QueryKey, CachedResult> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        private synchronized CachedResult get(QueryKey key) {
+            return entries.get(key);
+        }
+
+        private synchronized void put(QueryKey key, CachedResult cached) {
+            entries.put(key, cached);
+        }
+    }
+}
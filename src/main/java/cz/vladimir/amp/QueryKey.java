@@ -0,0 +1,38 @@
+package cz.vladimir.amp;
+
+import java.util.Objects;
+
+public class QueryKey {
+
+    public enum ViewType {DEVICE, USER}
+
+    private final ViewType viewType;
+    private final int id;
+    private final Object query;
+
+    /**
+     * @param query everything that distinguishes the query for the same view, e.g. the window sizes
+     */
+    public QueryKey(ViewType viewType, int id, Object query) {
+        this.viewType = viewType;
+        this.id = id;
+        this.query = query;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        QueryKey queryKey = (QueryKey) o;
+        return id == queryKey.id && viewType == queryKey.viewType && query.equals(queryKey.query);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(viewType, id, query);
+    }
+}
@@ -0,0 +1,228 @@
+package cz.vladimir.amp;
+
+import java.util.Arrays;
+
+/**
+ * Datapoints ordered by timestamp, which sums up the datapoints of any time range in logarithmic time.
+ * <p>
+ * Datapoints are kept in blocks of at most {@value #BLOCK_CAPACITY}, ordered among each other, and a Fenwick
+ * tree over the sums and counts of the blocks adds up every block before a given one, so only the datapoints
+ * of the blocks at either end of a range are read one by one. Appending a datapoint newer than all others,
+ * the common case, keeps the tree up to date in logarithmic time as well; a datapoint arriving out of order
+ * into a full block splits it, and the tree is rebuilt then.
+ * <p>
+ * Not thread-safe.
+ */
+public class RangeIndex {
+
+    private static final int BLOCK_CAPACITY = 64;
+    private static final int FIRST_BLOCK_CAPACITY = 4;
+
+    private long[][] timestamps = new long[4][];
+    private long[][] values = new long[4][];
+    private int[] sizes = new int[4];
+    private long[] blockSums = new long[4];
+    private int blockCount;
+    private int size;
+    private long[] sumTree = new long[5];
+    private int[] countTree = new int[5];
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long timestamp) {
+        int block = blockOf(timestamp);
+        return block >= 0 && Arrays.binarySearch(timestamps[block], 0, sizes[block], timestamp) >= 0;
+    }
+
+    /**
+     * Adds a datapoint whose timestamp is not in the index yet.
+     */
+    public void add(long timestamp, long value) {
+        int block = blockOf(timestamp);
+        if (blockCount == 0 || block == blockCount - 1 && sizes[block] == BLOCK_CAPACITY && timestamp > lastTimestamp()) {
+            appendBlock();
+            block = blockCount - 1;
+        } else if (block < 0) {
+            block = 0;
+        }
+        if (sizes[block] == BLOCK_CAPACITY) {
+            split(block);
+            if (timestamp > timestamps[block + 1][0]) {
+                block++;
+            }
+        }
+
+        long[] blockTimestamps = timestamps[block];
+        int position = -Arrays.binarySearch(blockTimestamps, 0, sizes[block], timestamp) - 1;
+        if (sizes[block] == blockTimestamps.length) {
+            timestamps[block] = blockTimestamps = Arrays.copyOf(blockTimestamps, Math.min(BLOCK_CAPACITY, sizes[block] * 2));
+            values[block] = Arrays.copyOf(values[block], blockTimestamps.length);
+        }
+        System.arraycopy(blockTimestamps, position, blockTimestamps, position + 1, sizes[block] - position);
+        System.arraycopy(values[block], position, values[block], position + 1, sizes[block] - position);
+        blockTimestamps[position] = timestamp;
+        values[block][position] = value;
+        sizes[block]++;
+        blockSums[block] += value;
+        size++;
+        for (int node = block + 1; node <= blockCount; node += node & -node) {
+            sumTree[node] += value;
+            countTree[node]++;
+        }
+    }
+
+    /**
+     * Adds the datapoints with timestamps from {@code from} inclusive to {@code to} exclusive to the total.
+     */
+    public void addTotal(RangeTotal total, long from, long to) {
+        if (from < to) {
+            addBefore(total, to, 1);
+            addBefore(total, from, -1);
+        }
+    }
+
+    /**
+     * Passes the datapoints to the consumer ordered by timestamp.
+     */
+    public void forEach(PointConsumer consumer) {
+        for (int block = 0; block < blockCount; block++) {
+            for (int i = 0; i < sizes[block]; i++) {
+                consumer.accept(timestamps[block][i], values[block][i]);
+            }
+        }
+    }
+
+    /**
+     * Estimated heap footprint of the index.
+     */
+    public long estimatedBytes() {
+        long bytes = 64 + 5 * 16 + timestamps.length * (8 + 8 + 4 + 8 + 8 + 4L);
+        for (int block = 0; block < blockCount; block++) {
+            bytes += 2 * (16 + timestamps[block].length * 8L);
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds, multiplied by the sign, the datapoints older than the timestamp to the total.
+     */
+    private void addBefore(RangeTotal total, long timestamp, int sign) {
+        int block = blockOf(timestamp - 1);
+        if (timestamp == Long.MIN_VALUE || block < 0) {
+            return;
+        }
+        long sum = 0;
+        long count = 0;
+        for (int node = block; node > 0; node -= node & -node) {
+            sum += sumTree[node];
+            count += countTree[node];
+        }
+        for (int i = 0; i < sizes[block] && timestamps[block][i] < timestamp; i++) {
+            sum += values[block][i];
+            count++;
+        }
+        total.add(sign * sum, sign * count);
+    }
+
+    /**
+     * @return index of the last block whose first timestamp is not newer than the timestamp, or -1 if there is none
+     */
+    private int blockOf(long timestamp) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle][0] <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    private long lastTimestamp() {
+        return timestamps[blockCount - 1][sizes[blockCount - 1] - 1];
+    }
+
+    /**
+     * Adds an empty block after the others. The node of the tree for the new block covers blocks before
+     * it as well, and is summed up from the nodes covering those.
+     */
+    private void appendBlock() {
+        if (blockCount == timestamps.length) {
+            resize(blockCount * 2);
+        }
+        timestamps[blockCount] = new long[blockCount == 0 ? FIRST_BLOCK_CAPACITY : BLOCK_CAPACITY];
+        values[blockCount] = new long[timestamps[blockCount].length];
+        blockCount++;
+        int node = blockCount;
+        long sum = 0;
+        int count = 0;
+        for (int covered = node - 1; covered > node - (node & -node); covered -= covered & -covered) {
+            sum += sumTree[covered];
+            count += countTree[covered];
+        }
+        sumTree[node] = sum;
+        countTree[node] = count;
+    }
+
+    /**
+     * Moves the newer half of a full block into a new block following it.
+     */
+    private void split(int block) {
+        if (blockCount == timestamps.length) {
+            resize(blockCount * 2);
+        }
+        int moved = BLOCK_CAPACITY / 2;
+        System.arraycopy(timestamps, block + 1, timestamps, block + 2, blockCount - block - 1);
+        System.arraycopy(values, block + 1, values, block + 2, blockCount - block - 1);
+        System.arraycopy(sizes, block + 1, sizes, block + 2, blockCount - block - 1);
+        System.arraycopy(blockSums, block + 1, blockSums, block + 2, blockCount - block - 1);
+        timestamps[block + 1] = new long[BLOCK_CAPACITY];
+        values[block + 1] = new long[BLOCK_CAPACITY];
+        System.arraycopy(timestamps[block], BLOCK_CAPACITY - moved, timestamps[block + 1], 0, moved);
+        System.arraycopy(values[block], BLOCK_CAPACITY - moved, values[block + 1], 0, moved);
+        long movedSum = 0;
+        for (int i = 0; i < moved; i++) {
+            movedSum += values[block + 1][i];
+        }
+        sizes[block] = BLOCK_CAPACITY - moved;
+        sizes[block + 1] = moved;
+        blockSums[block] -= movedSum;
+        blockSums[block + 1] = movedSum;
+        blockCount++;
+        rebuildTree();
+    }
+
+    private void resize(int capacity) {
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        values = Arrays.copyOf(values, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        blockSums = Arrays.copyOf(blockSums, capacity);
+        sumTree = new long[capacity + 1];
+        countTree = new int[capacity + 1];
+        rebuildTree();
+    }
+
+    private void rebuildTree() {
+        Arrays.fill(sumTree, 0);
+        Arrays.fill(countTree, 0);
+        for (int node = 1; node <= blockCount; node++) {
+            sumTree[node] += blockSums[node - 1];
+            countTree[node] += sizes[node - 1];
+            int parent = node + (node & -node);
+            if (parent <= blockCount) {
+                sumTree[parent] += sumTree[node];
+                countTree[parent] += countTree[node];
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(long timestamp, long value);
+    }
+}
@@ -0,0 +1,103 @@
+package cz.vladimir.amp;
+
+import cz.vladimir.amp.exception.InvalidQueryException;
+import org.springframework.boot.convert.DurationStyle;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Optional query parameters of the statistics endpoints. {@code cursor} is the start time of the first
+ * interval of the next page, as returned in the {@value #NEXT_CURSOR_HEADER} header of the previous page.
+ * With asynchronous ingest, {@code consistent} makes the request wait until every datapoint accepted
+ * before it has been stored. {@code resolution} is the length of the intervals, e.g. {@code 5m}, {@code 1h}
+ * or {@code 1d}, fifteen minutes by default.
+ */
+public class RangeParameters {
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private Long from;
+    private Long to;
+    @Min(1)
+    private Integer limit;
+    private Long cursor;
+    private boolean consistent;
+    private String resolution;
+
+    public Long getFrom() {
+        return from;
+    }
+
+    public void setFrom(Long from) {
+        this.from = from;
+    }
+
+    public Long getTo() {
+        return to;
+    }
+
+    public void setTo(Long to) {
+        this.to = to;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public Long getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(Long cursor) {
+        this.cursor = cursor;
+    }
+
+    public boolean isConsistent() {
+        return consistent;
+    }
+
+    public void setConsistent(boolean consistent) {
+        this.consistent = consistent;
+    }
+
+    public String getResolution() {
+        return resolution;
+    }
+
+    public void setResolution(String resolution) {
+        this.resolution = resolution;
+    }
+
+    /**
+     * Asks for one interval more than the limit, so that the caller can tell whether there is a next page.
+     */
+    public IntervalQuery toQuery() {
+        long start = cursor != null ? cursor : from != null ? from : Long.MIN_VALUE;
+        long end = to != null ? to : Long.MAX_VALUE;
+        if (start >= end) {
+            throw new InvalidQueryException();
+        }
+        int pageSize = limit == null || limit == Integer.MAX_VALUE ? Integer.MAX_VALUE : limit + 1;
+        return new IntervalQuery(start, end, pageSize, parseResolution());
+    }
+
+    private long parseResolution() {
+        if (resolution == null) {
+            return IntervalQuery.DEFAULT_RESOLUTION;
+        }
+        long millis;
+        try {
+            millis = DurationStyle.detectAndParse(resolution).toMillis();
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            throw new InvalidQueryException();
+        }
+        if (millis < 1) {
+            throw new InvalidQueryException();
+        }
+        return millis;
+    }
+}
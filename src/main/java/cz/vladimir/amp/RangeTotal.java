@@ -0,0 +1,35 @@
+package cz.vladimir.amp;
+
+/**
+ * Sum and count of the datapoints within a time range, added up from every part of the data holding some
+ * of them.
+ */
+public class RangeTotal {
+
+    private long sum;
+    private long count;
+
+    public void add(long sum, long count) {
+        this.sum += sum;
+        this.count += count;
+    }
+
+    public void add(RangeTotal other) {
+        add(other.sum, other.count);
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return average of the datapoints, or 0 if there are none, like for an interval without data
+     */
+    public double getAverage() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+}
@@ -0,0 +1,37 @@
+package cz.vladimir.amp;
+
+import java.time.Duration;
+
+/**
+ * Interval lengths for which aggregates are maintained at ingest time, from the finest to the coarsest.
+ */
+public enum RollupTier {
+    MINUTE(Duration.ofMinutes(1)),
+    QUARTER_HOUR(Duration.ofMinutes(15)),
+    HOUR(Duration.ofHours(1)),
+    DAY(Duration.ofDays(1));
+
+    private final long intervalInMillis;
+
+    RollupTier(Duration interval) {
+        this.intervalInMillis = interval.toMillis();
+    }
+
+    public long getIntervalInMillis() {
+        return intervalInMillis;
+    }
+
+    /**
+     * @return the coarsest tier whose intervals add up to intervals of the resolution exactly, or null if
+     * there is none
+     */
+    public static RollupTier cheapestFor(long resolutionInMillis) {
+        RollupTier[] tiers = values();
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            if (resolutionInMillis % tiers[i].intervalInMillis == 0) {
+                return tiers[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,186 @@
+package cz.vladimir.amp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Interval aggregates of the same datapoints in several {@link RollupTier rollup tiers}, every one of
+ * them updated by each datapoint added. A query is then answered from the coarsest tier that fits its
+ * resolution instead of from the datapoints.
+ * <p>
+ * When the {@link RollupTier#QUARTER_HOUR} tier is kept, {@link IntervalSummaries summaries} of its
+ * intervals are kept as well.
+ */
+public class Rollups {
+
+    private final IntervalAggregates[] tiers = new IntervalAggregates[RollupTier.values().length];
+    private IntervalSummaries summaries;
+
+    public Rollups() {
+        this(RollupTier.values());
+    }
+
+    /**
+     * @param kept tiers to maintain; the others stay empty
+     */
+    public Rollups(RollupTier... kept) {
+        for (RollupTier tier : kept) {
+            tiers[tier.ordinal()] = new IntervalAggregates(tier.getIntervalInMillis());
+            if (tier == RollupTier.QUARTER_HOUR) {
+                summaries = new IntervalSummaries(tier.getIntervalInMillis());
+            }
+        }
+    }
+
+    public void add(long timestamp, long value) {
+        for (IntervalAggregates aggregates : tiers) {
+            if (aggregates != null) {
+                aggregates.add(timestamp, value);
+            }
+        }
+        if (summaries != null) {
+            summaries.add(timestamp, value);
+        }
+    }
+
+    /**
+     * Copies the summaries of {@link RollupTier#QUARTER_HOUR} intervals numbered from {@code fromInterval}
+     * inclusive to {@code toInterval} exclusive.
+     */
+    public IntervalSummaries copySummaries(long fromInterval, long toInterval) {
+        return summaries == null ? new IntervalSummaries(RollupTier.QUARTER_HOUR.getIntervalInMillis())
+                : summaries.copy(fromInterval, toInterval);
+    }
+
+    /**
+     * @see IntervalAggregates#copy(long, long)
+     */
+    public IntervalAggregates copy(RollupTier tier, long fromInterval, long toInterval) {
+        IntervalAggregates aggregates = tiers[tier.ordinal()];
+        return aggregates == null ? new IntervalAggregates(tier.getIntervalInMillis()) : aggregates.copy(fromInterval, toInterval);
+    }
+
+    /**
+     * @return number of the first interval of the tier holding data or {@link Long#MAX_VALUE} when there is none
+     */
+    public long getFirstInterval(RollupTier tier) {
+        IntervalAggregates aggregates = tiers[tier.ordinal()];
+        return aggregates == null ? Long.MAX_VALUE : aggregates.getFirstInterval();
+    }
+
+    /**
+     * @return number of the last interval of the tier holding data or {@link Long#MIN_VALUE} when there is none
+     */
+    public long getLastInterval(RollupTier tier) {
+        IntervalAggregates aggregates = tiers[tier.ordinal()];
+        return aggregates == null ? Long.MIN_VALUE : aggregates.getLastInterval();
+    }
+
+    /**
+     * Tells from the finest tier kept whether a datapoint older than the timestamp may have been added.
+     */
+    public boolean mayHoldDataBefore(long timestamp) {
+        for (RollupTier tier : RollupTier.values()) {
+            IntervalAggregates aggregates = tiers[tier.ordinal()];
+            if (aggregates != null) {
+                long first = aggregates.getFirstInterval();
+                return first != Long.MAX_VALUE && first < -Math.floorDiv(-timestamp, tier.getIntervalInMillis());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the buckets of the tier whose intervals lie entirely before the timestamp.
+     *
+     * @return number of datapoints the dropped buckets held
+     */
+    public long dropBefore(RollupTier tier, long timestamp) {
+        if (tier == RollupTier.QUARTER_HOUR && summaries != null) {
+            summaries.dropBefore(Math.floorDiv(timestamp, tier.getIntervalInMillis()));
+        }
+        IntervalAggregates aggregates = tiers[tier.ordinal()];
+        return aggregates == null ? 0 : aggregates.dropBefore(Math.floorDiv(timestamp, tier.getIntervalInMillis()));
+    }
+
+    /**
+     * Drops the buckets of every tier whose intervals lie entirely before the timestamp.
+     *
+     * @return number of datapoints dropped, as counted by the tier that dropped the most of them
+     */
+    public long dropBefore(long timestamp) {
+        long dropped = 0;
+        for (RollupTier tier : RollupTier.values()) {
+            dropped = Math.max(dropped, dropBefore(tier, timestamp));
+        }
+        return dropped;
+    }
+
+    /**
+     * Adds the buckets and summaries of another instance to the tiers this one keeps.
+     */
+    public void merge(Rollups other) {
+        for (int i = 0; i < tiers.length; i++) {
+            if (tiers[i] != null && other.tiers[i] != null) {
+                tiers[i].merge(other.tiers[i]);
+            }
+        }
+        if (summaries != null && other.summaries != null) {
+            summaries.merge(other.summaries);
+        }
+    }
+
+    public Rollups copy() {
+        Rollups copy = new Rollups(keptTiers());
+        copy.merge(this);
+        return copy;
+    }
+
+    public void writeTo(DataOutput output) throws IOException {
+        RollupTier[] kept = keptTiers();
+        output.writeByte(kept.length);
+        for (RollupTier tier : kept) {
+            output.writeByte(tier.ordinal());
+            tiers[tier.ordinal()].writeTo(output);
+        }
+        if (summaries != null) {
+            summaries.writeTo(output);
+        }
+    }
+
+    public static Rollups readFrom(DataInput input) throws IOException {
+        RollupTier[] kept = new RollupTier[input.readUnsignedByte()];
+        IntervalAggregates[] aggregates = new IntervalAggregates[kept.length];
+        for (int i = 0; i < kept.length; i++) {
+            kept[i] = RollupTier.values()[input.readUnsignedByte()];
+            aggregates[i] = IntervalAggregates.readFrom(input, kept[i].getIntervalInMillis());
+        }
+        Rollups rollups = new Rollups(kept);
+        for (int i = 0; i < kept.length; i++) {
+            rollups.tiers[kept[i].ordinal()] = aggregates[i];
+        }
+        if (rollups.summaries != null) {
+            rollups.summaries = IntervalSummaries.readFrom(input, RollupTier.QUARTER_HOUR.getIntervalInMillis());
+        }
+        return rollups;
+    }
+
+    public long estimatedBytes() {
+        long bytes = 16 + 16 + tiers.length * 8L;
+        for (IntervalAggregates aggregates : tiers) {
+            if (aggregates != null) {
+                bytes += aggregates.estimatedBytes();
+            }
+        }
+        if (summaries != null) {
+            bytes += summaries.estimatedBytes();
+        }
+        return bytes;
+    }
+
+    private RollupTier[] keptTiers() {
+        return Arrays.stream(RollupTier.values()).filter(tier -> tiers[tier.ordinal()] != null).toArray(RollupTier[]::new);
+    }
+}
@@ -0,0 +1,99 @@
+package cz.vladimir.amp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * State of a {@link PointSeries} kept on the heap, captured at one moment: the hot datapoints as
+ * {@link CompressedBlock compressed blocks}, the rollups of compacted datapoints and the timestamps before
+ * which datapoints were compacted or expired. The rollups of the hot datapoints are not part of it, since
+ * they are rebuilt from the datapoints. Datapoints moved to segments are not part of it either.
+ */
+public class SeriesSnapshot {
+
+    private final long blockInMillis;
+    private final CompressedBlocks closed;
+    private final CompressedBlock open;
+    private final Rollups compacted;
+    private final long compactedBefore;
+    private final long expiredBefore;
+
+    /**
+     * @param blockInMillis length of the time blocks the closed blocks were closed at, 0 if there are none
+     * @param open datapoints of the open block, null if it has none
+     * @param compacted rollups of the compacted datapoints, null if none were compacted
+     */
+    public SeriesSnapshot(long blockInMillis, CompressedBlocks closed, CompressedBlock open, Rollups compacted,
+                          long compactedBefore, long expiredBefore) {
+        this.blockInMillis = blockInMillis;
+        this.closed = closed;
+        this.open = open;
+        this.compacted = compacted;
+        this.compactedBefore = compactedBefore;
+        this.expiredBefore = expiredBefore;
+    }
+
+    public long getBlockInMillis() {
+        return blockInMillis;
+    }
+
+    public CompressedBlocks getClosed() {
+        return closed;
+    }
+
+    public CompressedBlock getOpen() {
+        return open;
+    }
+
+    public Rollups getCompacted() {
+        return compacted;
+    }
+
+    public long getCompactedBefore() {
+        return compactedBefore;
+    }
+
+    public long getExpiredBefore() {
+        return expiredBefore;
+    }
+
+    public int size() {
+        return closed.size() + (open == null ? 0 : open.size());
+    }
+
+    /**
+     * Passes the hot datapoints to the consumer ordered by timestamp.
+     */
+    public void forEach(RangeIndex.PointConsumer consumer) {
+        closed.forEach(consumer);
+        if (open != null) {
+            open.forEach(consumer);
+        }
+    }
+
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeLong(blockInMillis);
+        output.writeLong(compactedBefore);
+        output.writeLong(expiredBefore);
+        closed.writeTo(output);
+        output.writeBoolean(open != null);
+        if (open != null) {
+            open.writeTo(output);
+        }
+        output.writeBoolean(compacted != null);
+        if (compacted != null) {
+            compacted.writeTo(output);
+        }
+    }
+
+    public static SeriesSnapshot readFrom(DataInput input) throws IOException {
+        long blockInMillis = input.readLong();
+        long compactedBefore = input.readLong();
+        long expiredBefore = input.readLong();
+        CompressedBlocks closed = CompressedBlocks.readFrom(input);
+        CompressedBlock open = input.readBoolean() ? CompressedBlock.readFrom(input) : null;
+        Rollups compacted = input.readBoolean() ? Rollups.readFrom(input) : null;
+        return new SeriesSnapshot(blockInMillis, closed, open, compacted, compactedBefore, expiredBefore);
+    }
+}
@@ -0,0 +1,33 @@
+package cz.vladimir.amp;
+
+import cz.vladimir.amp.segment.SegmentSlice;
+
+/**
+ * Access to the point series behind {@link AverageCalculations} for storage moving their datapoints
+ * off the heap.
+ */
+public interface SeriesStore {
+
+    long getIntervalInMillis();
+
+    void forEachSeries(SeriesConsumer consumer);
+
+    /**
+     * Attaches the slice to the point series of the device and user, which is created if it does not exist.
+     */
+    PointSeries attach(String device, String user, SegmentSlice slice);
+
+    /**
+     * Restores the snapshot into the point series of the device and user, which is created if it does not exist.
+     */
+    PointSeries restore(String device, String user, SeriesSnapshot snapshot);
+
+    /**
+     * @return false once the datapoints of the series have been deleted
+     */
+    boolean isLive(PointSeries series);
+
+    interface SeriesConsumer {
+        void accept(String device, String user, PointSeries series);
+    }
+}
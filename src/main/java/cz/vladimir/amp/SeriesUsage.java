@@ -0,0 +1,43 @@
+package cz.vladimir.amp;
+
+/**
+ * Memory held by the series of one device and user pair, for deciding what to evict.
+ */
+public class SeriesUsage {
+    private final String device;
+    private final String user;
+    private final long estimatedBytes;
+    private final long datapoints;
+    private final long lastQueried;
+
+    public SeriesUsage(String device, String user, long estimatedBytes, long datapoints, long lastQueried) {
+        this.device = device;
+        this.user = user;
+        this.estimatedBytes = estimatedBytes;
+        this.datapoints = datapoints;
+        this.lastQueried = lastQueried;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public long getDatapoints() {
+        return datapoints;
+    }
+
+    /**
+     * Time the device or the user of the series was last queried, whichever is later.
+     */
+    public long getLastQueried() {
+        return lastQueried;
+    }
+}
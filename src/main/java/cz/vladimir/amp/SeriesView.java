@@ -0,0 +1,150 @@
+package cz.vladimir.amp;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * All datapoints of one device or one user, i.e. the point series of every device and user pair
+ * the device or user takes part in.
+ * <p>
+ * Deleting the datapoints of a device or user only marks its view deleted. Its members then drop out of
+ * the other views they belong to as well, until they are purged from them in the background.
+ */
+public class SeriesView implements AggregateSource {
+
+    private final List<PointSeries> members = new CopyOnWriteArrayList<>();
+    private volatile long version;
+    private volatile long deletedVersion = Long.MIN_VALUE;
+    private volatile long lastQueried = System.currentTimeMillis();
+
+    public void addMember(PointSeries series) {
+        members.add(series);
+    }
+
+    public void removeMember(PointSeries series) {
+        members.remove(series);
+    }
+
+    /**
+     * @return the members, including those deleted but not purged yet
+     */
+    public List<PointSeries> getMembers() {
+        return members;
+    }
+
+    /**
+     * Changes whenever the datapoints of the view change, including when members are deleted through
+     * their other view; never repeats a previous value.
+     */
+    public long getVersion() {
+        long version = this.version;
+        for (PointSeries member : members) {
+            version = Math.max(version, member.getDeletedVersion());
+        }
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public boolean isDeleted() {
+        return deletedVersion != Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the version the view got when it was deleted, or {@link Long#MIN_VALUE} if it has not been
+     */
+    public long getDeletedVersion() {
+        return deletedVersion;
+    }
+
+    public void markDeleted(long version) {
+        deletedVersion = version;
+    }
+
+    /**
+     * Time of the last query of the view, or of its creation if it has not been queried.
+     */
+    public long getLastQueried() {
+        return lastQueried;
+    }
+
+    public void markQueried() {
+        lastQueried = System.currentTimeMillis();
+    }
+
+    public long getFirstInterval(RollupTier tier) {
+        long first = Long.MAX_VALUE;
+        for (PointSeries member : members) {
+            if (!member.isDeleted()) {
+                first = Math.min(first, member.getFirstInterval(tier));
+            }
+        }
+        return first;
+    }
+
+    public long getLastInterval(RollupTier tier) {
+        long last = Long.MIN_VALUE;
+        for (PointSeries member : members) {
+            if (!member.isDeleted()) {
+                last = Math.max(last, member.getLastInterval(tier));
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Summaries of the view merged from those of its members.
+     */
+    public IntervalSummaries getSummaries(long fromInterval, long toInterval) {
+        IntervalSummaries summaries = new IntervalSummaries(RollupTier.QUARTER_HOUR.getIntervalInMillis());
+        for (PointSeries member : members) {
+            if (!member.isDeleted()) {
+                summaries.merge(member.copySummaries(fromInterval, toInterval));
+            }
+        }
+        return summaries;
+    }
+
+    public RangeTotal getTotal(long from, long to) {
+        RangeTotal total = new RangeTotal();
+        for (PointSeries member : members) {
+            if (!member.isDeleted()) {
+                total.add(member.getTotal(from, to));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Aggregates of intervals numbered from {@code fromInterval} inclusive to {@code toInterval} exclusive.
+     * Like for a single point series, the result spans every interval of the range lying between the first
+     * and the last interval with data, even when the data of those intervals comes from different members.
+     */
+    public IntervalAggregates getAggregates(RollupTier tier, long fromInterval, long toInterval) {
+        PointSeries[] members = this.members.toArray(new PointSeries[0]);
+        if (members.length == 1 && !members[0].isDeleted()) {
+            return members[0].copyAggregates(tier, fromInterval, toInterval);
+        }
+        IntervalAggregates aggregates = new IntervalAggregates(tier.getIntervalInMillis());
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (PointSeries member : members) {
+            if (member.isDeleted()) {
+                continue;
+            }
+            aggregates.merge(member.copyAggregates(tier, fromInterval, toInterval));
+            first = Math.min(first, member.getFirstInterval(tier));
+            last = Math.max(last, member.getLastInterval(tier));
+        }
+
+        long spanFrom = Math.max(fromInterval, first);
+        long spanTo = Math.min(toInterval - 1, last);
+        if (spanFrom <= spanTo) {
+            aggregates.include(spanFrom);
+            aggregates.include(spanTo);
+        }
+        return aggregates;
+    }
+}
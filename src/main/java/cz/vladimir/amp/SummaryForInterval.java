@@ -0,0 +1,66 @@
+package cz.vladimir.amp;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+import java.util.Map;
+
+@JsonInclude(Include.NON_NULL)
+public class SummaryForInterval {
+    private final long startTime;
+    private final long count;
+    private final Long sum;
+    private final Long min;
+    private final Long max;
+    private final Double average;
+    @JsonInclude(Include.NON_EMPTY)
+    private final Map<String, Double> percentiles;
+
+    /**
+     * An interval without datapoints.
+     */
+    public SummaryForInterval(long startTime) {
+        this(startTime, 0, null, null, null, null, null);
+    }
+
+    public SummaryForInterval(long startTime, long count, Long sum, Long min, Long max, Double average, Map<String, Double> percentiles) {
+        this.startTime = startTime;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.average = average;
+        this.percentiles = percentiles;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public Long getSum() {
+        return sum;
+    }
+
+    public Long getMin() {
+        return min;
+    }
+
+    public Long getMax() {
+        return max;
+    }
+
+    public Double getAverage() {
+        return average;
+    }
+
+    /**
+     * Estimated values keyed by the requested percentiles, e.g. {@code p99}.
+     */
+    public Map<String, Double> getPercentiles() {
+        return percentiles;
+    }
+}
@@ -0,0 +1,56 @@
+package cz.vladimir.amp;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the {@link GroupAverage averages} with the highest values among those added, so that ranking the
+ * whole fleet never holds more than the requested number of them. Equal averages are ranked by identifier.
+ * Instances filled in parallel are combined with {@link #merge(TopAverages)}.
+ */
+public class TopAverages {
+
+    private static final Comparator<GroupAverage> RANKING = Comparator.comparingDouble(GroupAverage::getAverage)
+            .thenComparing(GroupAverage::getIdentifier, Comparator.reverseOrder());
+
+    private final int limit;
+    private final PriorityQueue<GroupAverage> lowestFirst = new PriorityQueue<>(RANKING);
+
+    public TopAverages(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Adds the average of the datapoints of the total, unless there are none.
+     */
+    public void add(String identifier, RangeTotal total) {
+        if (total.getCount() > 0) {
+            add(new GroupAverage(identifier, total.getCount(), total.getAverage()));
+        }
+    }
+
+    public void add(GroupAverage average) {
+        if (lowestFirst.size() < limit) {
+            lowestFirst.add(average);
+        } else if (RANKING.compare(average, lowestFirst.peek()) > 0) {
+            lowestFirst.poll();
+            lowestFirst.add(average);
+        }
+    }
+
+    public TopAverages merge(TopAverages other) {
+        other.lowestFirst.forEach(this::add);
+        return this;
+    }
+
+    /**
+     * @return the averages kept, highest first
+     */
+    public List<GroupAverage> toList() {
+        List<GroupAverage> averages = new ArrayList<>(lowestFirst);
+        averages.sort(RANKING.reversed());
+        return averages;
+    }
+}
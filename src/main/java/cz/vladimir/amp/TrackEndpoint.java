@@ -1,14 +1,31 @@
 package cz.vladimir.amp;
 
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.Valid;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
 
+import cz.vladimir.amp.exception.InvalidQueryException;
+import cz.vladimir.amp.exception.PendingWritesException;
+import cz.vladimir.amp.ingest.AsyncIngest;
+import cz.vladimir.amp.metrics.QueryCosts;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 @RestController
 @Validated
@@ -17,29 +34,138 @@ public class TrackEndpoint {
     @Autowired
     private AverageCalculations averageCalculations;
 
+    @Autowired
+    private DatapointBatchReader datapointBatchReader;
+
+    @Autowired(required = false)
+    private AsyncIngest asyncIngest;
+
+    @Autowired
+    private AmpProperties properties;
+
+    @Autowired(required = false)
+    private QueryCosts queryCosts;
+
     @PostMapping("/datapoints")
-    public void addDatapoint(@RequestBody Datapoint dataPoint) {
-        averageCalculations.storeDataPoint(dataPoint);
+    public ResponseEntity<Void> addDatapoint(@RequestBody Datapoint dataPoint) {
+        if (asyncIngest == null) {
+            averageCalculations.storeDataPoint(dataPoint);
+            return ResponseEntity.ok().build();
+        }
+        if (!asyncIngest.offer(dataPoint)) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, properties.getIngest().getRetryAfter().getSeconds())))
+                    .build();
+        }
+        return ResponseEntity.accepted().build();
+    }
+
+    @PostMapping(value = "/datapoints/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, DatapointBatchReader.NDJSON_VALUE})
+    public BatchResult addDatapoints(HttpServletRequest request) throws IOException {
+        return datapointBatchReader.read(request.getInputStream(), averageCalculations);
     }
 
     @GetMapping("/statistics/devices/{device}/avg")
-    public List<AverageForInterval> getDeviceAverages(@PathVariable @NotBlank String device){
-        return averageCalculations.getAveragesForDevice(device);
+    public List<AverageForInterval> getDeviceAverages(@PathVariable @NotBlank String device, @Valid RangeParameters range, WebRequest request, HttpServletResponse response){
+        awaitWrites(range);
+        if (request.checkNotModified(etag(averageCalculations.getDeviceVersion(device)))) {
+            return null;
+        }
+        return page(deviceQuery(device, () -> averageCalculations.getAveragesForDevice(device, range.toQuery())), range, response);
     }
 
     @GetMapping("/statistics/devices/{device}/moving_avg")
-    public List<AverageForInterval> getDeviceMovingAverages(@PathVariable @NotBlank String device, @RequestParam(value = "window_size") @Min(1) long windowSize){
-        return averageCalculations.getMovingAveragesForDevice(device, windowSize);
+    public List<AverageForInterval> getDeviceMovingAverages(@PathVariable @NotBlank String device, @RequestParam(value = "window_size") @NotEmpty List<@Min(1) Long> windowSizes, @Valid RangeParameters range, WebRequest request, HttpServletResponse response){
+        awaitWrites(range);
+        if (request.checkNotModified(etag(averageCalculations.getDeviceVersion(device)))) {
+            return null;
+        }
+        return page(deviceQuery(device, () -> averageCalculations.getMovingAveragesForDevice(device, windowSizes, range.toQuery())), range, response);
     }
 
     @GetMapping("/statistics/users/{user}/avg")
-    public List<AverageForInterval> getUserAverages(@PathVariable @NotBlank String user){
-        return averageCalculations.getAveragesForUser(user);
+    public List<AverageForInterval> getUserAverages(@PathVariable @NotBlank String user, @Valid RangeParameters range, WebRequest request, HttpServletResponse response){
+        awaitWrites(range);
+        if (request.checkNotModified(etag(averageCalculations.getUserVersion(user)))) {
+            return null;
+        }
+        return page(userQuery(user, () -> averageCalculations.getAveragesForUser(user, range.toQuery())), range, response);
     }
 
     @GetMapping("/statistics/users/{user}/moving_avg")
-    public List<AverageForInterval> getUserMovingAverages(@PathVariable @NotBlank String user, @RequestParam(value = "window_size") @Min(1) long windowSize){
-        return averageCalculations.getMovingAveragesForUser(user, windowSize);
+    public List<AverageForInterval> getUserMovingAverages(@PathVariable @NotBlank String user, @RequestParam(value = "window_size") @NotEmpty List<@Min(1) Long> windowSizes, @Valid RangeParameters range, WebRequest request, HttpServletResponse response){
+        awaitWrites(range);
+        if (request.checkNotModified(etag(averageCalculations.getUserVersion(user)))) {
+            return null;
+        }
+        return page(userQuery(user, () -> averageCalculations.getMovingAveragesForUser(user, windowSizes, range.toQuery())), range, response);
+    }
+
+    @GetMapping("/statistics/devices/{device}/summary")
+    public List<SummaryForInterval> getDeviceSummaries(@PathVariable @NotBlank String device, @RequestParam(value = "percentiles", required = false) List<Double> percentiles, @Valid RangeParameters range, WebRequest request, HttpServletResponse response){
+        awaitWrites(range);
+        if (request.checkNotModified(etag(averageCalculations.getDeviceVersion(device)))) {
+            return null;
+        }
+        return page(deviceQuery(device, () -> averageCalculations.getSummariesForDevice(device, percentilesOrDefault(percentiles), range.toQuery())),
+                SummaryForInterval::getStartTime, range, response);
+    }
+
+    @GetMapping("/statistics/users/{user}/summary")
+    public List<SummaryForInterval> getUserSummaries(@PathVariable @NotBlank String user, @RequestParam(value = "percentiles", required = false) List<Double> percentiles, @Valid RangeParameters range, WebRequest request, HttpServletResponse response){
+        awaitWrites(range);
+        if (request.checkNotModified(etag(averageCalculations.getUserVersion(user)))) {
+            return null;
+        }
+        return page(userQuery(user, () -> averageCalculations.getSummariesForUser(user, percentilesOrDefault(percentiles), range.toQuery())),
+                SummaryForInterval::getStartTime, range, response);
+    }
+
+    @GetMapping("/statistics/devices/{device}/range_avg")
+    public RangeTotal getDeviceRangeAverage(@PathVariable @NotBlank String device, @RequestParam("from") long from, @RequestParam("to") long to, @RequestParam(value = "consistent", defaultValue = "false") boolean consistent, WebRequest request){
+        awaitWrites(consistent);
+        if (from >= to) {
+            throw new InvalidQueryException();
+        }
+        if (request.checkNotModified(etag(averageCalculations.getDeviceVersion(device)))) {
+            return null;
+        }
+        return deviceQuery(device, () -> averageCalculations.getRangeTotalForDevice(device, from, to));
+    }
+
+    @GetMapping("/statistics/users/{user}/range_avg")
+    public RangeTotal getUserRangeAverage(@PathVariable @NotBlank String user, @RequestParam("from") long from, @RequestParam("to") long to, @RequestParam(value = "consistent", defaultValue = "false") boolean consistent, WebRequest request){
+        awaitWrites(consistent);
+        if (from >= to) {
+            throw new InvalidQueryException();
+        }
+        if (request.checkNotModified(etag(averageCalculations.getUserVersion(user)))) {
+            return null;
+        }
+        return userQuery(user, () -> averageCalculations.getRangeTotalForUser(user, from, to));
+    }
+
+    @GetMapping("/statistics/devices/top")
+    public List<GroupAverage> getTopDevices(@RequestParam(value = "n", defaultValue = "10") @Min(1) int count, @Valid RangeParameters range){
+        awaitWrites(range);
+        return averageCalculations.getTopDevices(count, range.toQuery());
+    }
+
+    @GetMapping("/statistics/users/top")
+    public List<GroupAverage> getTopUsers(@RequestParam(value = "n", defaultValue = "10") @Min(1) int count, @Valid RangeParameters range){
+        awaitWrites(range);
+        return averageCalculations.getTopUsers(count, range.toQuery());
+    }
+
+    @GetMapping("/statistics/fleet/avg")
+    public List<AverageForInterval> getFleetAverages(@Valid RangeParameters range, HttpServletResponse response){
+        awaitWrites(range);
+        return page(averageCalculations.getFleetAverages(range.toQuery()), range, response);
+    }
+
+    @GetMapping("/admin/dictionaries")
+    public Map<String, DictionaryStatistics> getDictionaryStatistics(){
+        return averageCalculations.getDictionaryStatistics();
     }
 
     @DeleteMapping("/devices/{device}/datapoints")
@@ -47,9 +173,60 @@ public class TrackEndpoint {
         averageCalculations.deleteDeviceDatapoints(device);
     }
 
-    @DeleteMapping("/devices/{user}/datapoints")
+    @DeleteMapping("/users/{user}/datapoints")
     void deleteUserDatapoints(@PathVariable @NotBlank String user) {
         averageCalculations.deleteUserDatapoints(user);
     }
 
+    private <T> T deviceQuery(String device, Supplier<T> query) {
+        if (queryCosts == null) {
+            return query.get();
+        }
+        long start = System.nanoTime();
+        T result = query.get();
+        queryCosts.recordDevice(device, System.nanoTime() - start);
+        return result;
+    }
+
+    private <T> T userQuery(String user, Supplier<T> query) {
+        if (queryCosts == null) {
+            return query.get();
+        }
+        long start = System.nanoTime();
+        T result = query.get();
+        queryCosts.recordUser(user, System.nanoTime() - start);
+        return result;
+    }
+
+    private void awaitWrites(RangeParameters range) {
+        awaitWrites(range.isConsistent());
+    }
+
+    private void awaitWrites(boolean consistent) {
+        if (consistent && asyncIngest != null && !asyncIngest.awaitApplied()) {
+            throw new PendingWritesException();
+        }
+    }
+
+    private static List<AverageForInterval> page(List<AverageForInterval> averages, RangeParameters range, HttpServletResponse response) {
+        return page(averages, AverageForInterval::getStartTime, range, response);
+    }
+
+    private static <T> List<T> page(List<T> intervals, ToLongFunction<T> startTime, RangeParameters range, HttpServletResponse response) {
+        Integer limit = range.getLimit();
+        if (limit == null || intervals.size() <= limit) {
+            return intervals;
+        }
+        response.setHeader(RangeParameters.NEXT_CURSOR_HEADER, Long.toString(startTime.applyAsLong(intervals.get(limit))));
+        return intervals.subList(0, limit);
+    }
+
+    private static List<Double> percentilesOrDefault(List<Double> percentiles) {
+        return percentiles == null || percentiles.isEmpty() ? IntervalStatistics.DEFAULT_PERCENTILES : percentiles;
+    }
+
+    private static String etag(long version) {
+        return "\"" + Long.toHexString(version) + "\"";
+    }
+
 }
@@ -0,0 +1,25 @@
+package cz.vladimir.amp.compaction;
+
+import cz.vladimir.amp.AmpProperties;
+import cz.vladimir.amp.AverageCalculations;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(prefix = "amp.compaction", name = "enabled", havingValue = "true")
+public class CompactionConfiguration {
+
+    /**
+     * Segments hold the datapoints older than the hot window together with their quarter-hour aggregates
+     * only, so compacted datapoints could not be kept out of them; the two cannot be combined.
+     */
+    @Bean
+    public DatapointCompactor datapointCompactor(AmpProperties properties, AverageCalculations averageCalculations) {
+        if (properties.getSegments().isEnabled()) {
+            throw new IllegalStateException("Compaction of datapoints cannot be enabled together with segments");
+        }
+        AmpProperties.Compaction compaction = properties.getCompaction();
+        return new DatapointCompactor(averageCalculations, compaction.getRawMaxAge(), compaction.getInterval());
+    }
+}
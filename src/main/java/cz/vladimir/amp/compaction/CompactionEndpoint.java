@@ -0,0 +1,19 @@
+package cz.vladimir.amp.compaction;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@ConditionalOnProperty(prefix = "amp.compaction", name = "enabled", havingValue = "true")
+public class CompactionEndpoint {
+
+    @Autowired
+    private DatapointCompactor datapointCompactor;
+
+    @GetMapping("/admin/compaction")
+    public CompactionStatistics getStatistics(){
+        return datapointCompactor.getStatistics();
+    }
+}
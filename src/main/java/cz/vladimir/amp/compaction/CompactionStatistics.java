@@ -0,0 +1,28 @@
+package cz.vladimir.amp.compaction;
+
+public class CompactionStatistics {
+    private long runs;
+    private long datapointsDropped;
+    private Long cutoff;
+
+    public CompactionStatistics(long runs, long datapointsDropped, Long cutoff) {
+        this.runs = runs;
+        this.datapointsDropped = datapointsDropped;
+        this.cutoff = cutoff;
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    public long getDatapointsDropped() {
+        return datapointsDropped;
+    }
+
+    /**
+     * Timestamp datapoints older than which were dropped by the last run, null before the first run.
+     */
+    public Long getCutoff() {
+        return cutoff;
+    }
+}
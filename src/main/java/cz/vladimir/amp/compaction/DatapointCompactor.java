@@ -0,0 +1,90 @@
+package cz.vladimir.amp.compaction;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.RollupTier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically drops the datapoints older than the maximum age, keeping only their rollups from
+ * {@link RollupTier#QUARTER_HOUR} up, so that long histories cost a bounded number of buckets instead of
+ * every datapoint. The cutoff is aligned to a minute, so that the {@link RollupTier#MINUTE} tier
+ * never holds part of an interval.
+ * <p>
+ * Runs after the persisted datapoints have been restored, once the application has started.
+ */
+public class DatapointCompactor implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(DatapointCompactor.class);
+
+    private final AverageCalculations averageCalculations;
+    private final Duration rawMaxAge;
+    private final Duration interval;
+
+    private ScheduledExecutorService compactor;
+    private long runs;
+    private long dropped;
+    private long cutoff = Long.MIN_VALUE;
+
+    public DatapointCompactor(AverageCalculations averageCalculations, Duration rawMaxAge, Duration interval) {
+        this.averageCalculations = averageCalculations;
+        this.rawMaxAge = rawMaxAge;
+        this.interval = interval;
+    }
+
+    /**
+     * @return number of datapoints dropped
+     */
+    public synchronized long compact() {
+        long minute = RollupTier.MINUTE.getIntervalInMillis();
+        long before = Math.floorDiv(System.currentTimeMillis() - rawMaxAge.toMillis(), minute) * minute;
+        long started = System.nanoTime();
+        long compacted = averageCalculations.compactDatapoints(before);
+        runs++;
+        dropped += compacted;
+        cutoff = before;
+        log.info("Compacted {} datapoints older than {} in {} ms", compacted, before,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return compacted;
+    }
+
+    public synchronized CompactionStatistics getStatistics() {
+        return new CompactionStatistics(runs, dropped, cutoff == Long.MIN_VALUE ? null : cutoff);
+    }
+
+    @Override
+    public synchronized void start() {
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "datapoint-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = interval.toNanos();
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (RuntimeException e) {
+                log.error("Compacting datapoints failed", e);
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (compactor != null) {
+            compactor.shutdown();
+            compactor = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return compactor != null;
+    }
+}
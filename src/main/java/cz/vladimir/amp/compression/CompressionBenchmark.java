@@ -0,0 +1,106 @@
+package cz.vladimir.amp.compression;
+
+import cz.vladimir.amp.CompressedBlocks;
+import cz.vladimir.amp.LongHashSet;
+import cz.vladimir.amp.PointSeries;
+import cz.vladimir.amp.RangeIndex;
+import cz.vladimir.amp.RangeTotal;
+import cz.vladimir.amp.SeriesStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the closed blocks of stored series with the same datapoints kept uncompressed, decoding the
+ * blocks of each sampled series into a {@link RangeIndex} and timing the same random range queries on both.
+ * The sampled series are read without blocking writers, since closed blocks are immutable.
+ */
+public class CompressionBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private final SeriesStore seriesStore;
+    private volatile long consumed;
+
+    public CompressionBenchmark(SeriesStore seriesStore) {
+        this.seriesStore = seriesStore;
+    }
+
+    /**
+     * @param maxSeries number of series with closed blocks to sample at most
+     * @param queriesPerSeries number of random range queries timed on each sampled series
+     */
+    public CompressionReport run(int maxSeries, int queriesPerSeries) {
+        List<CompressedBlocks> sampled = new ArrayList<>();
+        seriesStore.forEachSeries((device, user, series) -> {
+            CompressedBlocks blocks = series.getClosedBlocks();
+            if (sampled.size() < maxSeries && blocks.size() > 0) {
+                sampled.add(blocks);
+            }
+        });
+
+        int closedBlocks = 0;
+        long datapoints = 0;
+        long compressedBytes = 0;
+        long uncompressedBytes = 0;
+        long compressedNanos = 0;
+        long uncompressedNanos = 0;
+        Random random = new Random(0);
+        for (CompressedBlocks blocks : sampled) {
+            RangeIndex index = new RangeIndex();
+            LongHashSet timestamps = new LongHashSet();
+            long[] span = {Long.MAX_VALUE, Long.MIN_VALUE};
+            blocks.forEach((timestamp, value) -> {
+                index.add(timestamp, value);
+                timestamps.add(timestamp);
+                span[0] = Math.min(span[0], timestamp);
+                span[1] = Math.max(span[1], timestamp);
+            });
+            closedBlocks += blocks.getBlockCount();
+            datapoints += blocks.size();
+            compressedBytes += blocks.estimatedBytes();
+            uncompressedBytes += index.estimatedBytes() + timestamps.estimatedBytes();
+
+            long[] from = new long[queriesPerSeries];
+            long[] to = new long[queriesPerSeries];
+            for (int i = 0; i < queriesPerSeries; i++) {
+                long a = span[0] + (long) (random.nextDouble() * (span[1] - span[0] + 1));
+                long b = span[0] + (long) (random.nextDouble() * (span[1] - span[0] + 1));
+                from[i] = Math.min(a, b);
+                to[i] = Math.max(a, b) + 1;
+            }
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                queryCompressed(blocks, from, to);
+                queryUncompressed(index, from, to);
+            }
+            compressedNanos += queryCompressed(blocks, from, to);
+            uncompressedNanos += queryUncompressed(index, from, to);
+        }
+        long queries = (long) sampled.size() * queriesPerSeries;
+        return new CompressionReport(sampled.size(), closedBlocks, datapoints, compressedBytes, uncompressedBytes, queries,
+                queries == 0 ? 0 : (double) compressedNanos / queries, queries == 0 ? 0 : (double) uncompressedNanos / queries);
+    }
+
+    private long queryCompressed(CompressedBlocks blocks, long[] from, long[] to) {
+        long start = System.nanoTime();
+        RangeTotal total = new RangeTotal();
+        for (int i = 0; i < from.length; i++) {
+            blocks.addTotal(total, from[i], to[i]);
+        }
+        long elapsed = System.nanoTime() - start;
+        consumed += total.getSum();
+        return elapsed;
+    }
+
+    private long queryUncompressed(RangeIndex index, long[] from, long[] to) {
+        long start = System.nanoTime();
+        RangeTotal total = new RangeTotal();
+        for (int i = 0; i < from.length; i++) {
+            index.addTotal(total, from[i], to[i]);
+        }
+        long elapsed = System.nanoTime() - start;
+        consumed += total.getSum();
+        return elapsed;
+    }
+}
@@ -0,0 +1,19 @@
+package cz.vladimir.amp.compression;
+
+import cz.vladimir.amp.SeriesStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Closed blocks are only compressed by the locking engine, whose series are reachable through {@link SeriesStore}.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "amp", name = "engine", havingValue = "locking", matchIfMissing = true)
+public class CompressionConfiguration {
+
+    @Bean
+    public CompressionBenchmark compressionBenchmark(SeriesStore seriesStore) {
+        return new CompressionBenchmark(seriesStore);
+    }
+}
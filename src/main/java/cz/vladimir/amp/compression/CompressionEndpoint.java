@@ -0,0 +1,25 @@
+package cz.vladimir.amp.compression;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.validation.constraints.Min;
+
+@RestController
+@Validated
+@ConditionalOnProperty(prefix = "amp", name = "engine", havingValue = "locking", matchIfMissing = true)
+public class CompressionEndpoint {
+
+    @Autowired
+    private CompressionBenchmark compressionBenchmark;
+
+    @GetMapping("/admin/compression")
+    public CompressionReport getReport(@RequestParam(defaultValue = "100") @Min(1) int series,
+                                       @RequestParam(defaultValue = "1000") @Min(1) int queries){
+        return compressionBenchmark.run(series, queries);
+    }
+}
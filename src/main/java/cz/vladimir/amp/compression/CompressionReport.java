@@ -0,0 +1,78 @@
+package cz.vladimir.amp.compression;
+
+/**
+ * Memory taken by the closed blocks of sampled series and the mean time of range queries over them, next to
+ * the same for their datapoints stored uncompressed.
+ */
+public class CompressionReport {
+    private int series;
+    private int closedBlocks;
+    private long datapoints;
+    private long compressedBytes;
+    private long uncompressedBytes;
+    private long queries;
+    private double compressedQueryNanos;
+    private double uncompressedQueryNanos;
+
+    public CompressionReport(int series, int closedBlocks, long datapoints, long compressedBytes, long uncompressedBytes,
+                             long queries, double compressedQueryNanos, double uncompressedQueryNanos) {
+        this.series = series;
+        this.closedBlocks = closedBlocks;
+        this.datapoints = datapoints;
+        this.compressedBytes = compressedBytes;
+        this.uncompressedBytes = uncompressedBytes;
+        this.queries = queries;
+        this.compressedQueryNanos = compressedQueryNanos;
+        this.uncompressedQueryNanos = uncompressedQueryNanos;
+    }
+
+    public int getSeries() {
+        return series;
+    }
+
+    public int getClosedBlocks() {
+        return closedBlocks;
+    }
+
+    public long getDatapoints() {
+        return datapoints;
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * Estimated footprint of the same datapoints in a range index with a hash set of their timestamps, as
+     * the open block keeps them.
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    public double getCompressedBytesPerDatapoint() {
+        return datapoints == 0 ? 0 : (double) compressedBytes / datapoints;
+    }
+
+    public double getUncompressedBytesPerDatapoint() {
+        return datapoints == 0 ? 0 : (double) uncompressedBytes / datapoints;
+    }
+
+    public long getQueries() {
+        return queries;
+    }
+
+    /**
+     * Mean time of summing up a random time range from the closed blocks.
+     */
+    public double getCompressedQueryNanos() {
+        return compressedQueryNanos;
+    }
+
+    /**
+     * Mean time of summing up the same time range from the uncompressed datapoints.
+     */
+    public double getUncompressedQueryNanos() {
+        return uncompressedQueryNanos;
+    }
+}
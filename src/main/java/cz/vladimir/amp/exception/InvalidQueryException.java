@@ -0,0 +1,8 @@
+package cz.vladimir.amp.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.BAD_REQUEST)
+public class InvalidQueryException extends RuntimeException{
+}
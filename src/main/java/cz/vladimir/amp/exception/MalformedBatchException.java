@@ -0,0 +1,12 @@
+package cz.vladimir.amp.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.BAD_REQUEST)
+public class MalformedBatchException extends RuntimeException{
+
+    public MalformedBatchException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,8 @@
+package cz.vladimir.amp.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class PendingWritesException extends RuntimeException{
+}
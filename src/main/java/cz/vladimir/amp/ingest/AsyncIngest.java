@@ -0,0 +1,198 @@
+package cz.vladimir.amp.ingest;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.exception.InvalidDatapointException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queues datapoints in bounded ring buffers, from which applier threads store them in batches.
+ * <p>
+ * Each applier drains its own queue, and all datapoints of a device and user pair go to the same queue,
+ * so that they are stored in the order they arrived and the first of two duplicates wins, as when storing
+ * synchronously. Duplicates cannot be reported to the sender anymore; they are only counted.
+ * <p>
+ * The appliers are stopped after the web server, once they have stored everything queued.
+ */
+public class AsyncIngest implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncIngest.class);
+
+    private static final long POLL_MILLIS = 100;
+
+    private final AverageCalculations target;
+    private final int maxBatch;
+    private final Duration consistentReadTimeout;
+    private final Lane[] lanes;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean running;
+
+    public AsyncIngest(AverageCalculations target, int appliers, int queueCapacity, int maxBatch, Duration consistentReadTimeout) {
+        this.target = target;
+        this.maxBatch = maxBatch;
+        this.consistentReadTimeout = consistentReadTimeout;
+        this.lanes = new Lane[appliers];
+        for (int i = 0; i < appliers; i++) {
+            lanes[i] = new Lane(Math.max(1, queueCapacity / appliers));
+        }
+    }
+
+    /**
+     * @return false when the queue of the datapoint is full
+     */
+    public boolean offer(Datapoint dataPoint) {
+        if (dataPoint.getDevice() == null || dataPoint.getUser() == null) {
+            throw new InvalidDatapointException();
+        }
+        int hash = dataPoint.getDevice().hashCode() * 31 + dataPoint.getUser().hashCode();
+        Lane lane = lanes[Math.floorMod(hash, lanes.length)];
+        // counted before it is queued, so that a consistent read following the offer waits for the datapoint
+        lane.enqueued.incrementAndGet();
+        if (!lane.queue.offer(dataPoint)) {
+            synchronized (lane) {
+                lane.enqueued.decrementAndGet();
+                lane.notifyAll();
+            }
+            rejected.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until every datapoint queued before the call has been stored. A datapoint being offered
+     * concurrently may be waited for too, unless it is rejected.
+     *
+     * @return false if that did not happen within the consistent read timeout
+     */
+    public boolean awaitApplied() {
+        long[] targets = new long[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            targets[i] = lanes[i].enqueued.get();
+        }
+
+        long deadline = System.nanoTime() + consistentReadTimeout.toNanos();
+        for (int i = 0; i < lanes.length; i++) {
+            Lane lane = lanes[i];
+            synchronized (lane) {
+                while (lane.applied < Math.min(targets[i], lane.enqueued.get())) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    try {
+                        lane.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    public IngestStatistics getStatistics() {
+        int capacity = 0;
+        int depth = 0;
+        long enqueued = 0;
+        long applied = 0;
+        for (Lane lane : lanes) {
+            capacity += lane.queue.size() + lane.queue.remainingCapacity();
+            depth += lane.queue.size();
+            enqueued += lane.enqueued.get();
+            synchronized (lane) {
+                applied += lane.applied;
+            }
+        }
+        return new IngestStatistics(capacity, depth, enqueued, applied, rejected.get(), duplicates.get(), failed.get());
+    }
+
+    @Override
+    public synchronized void start() {
+        running = true;
+        for (int i = 0; i < lanes.length; i++) {
+            Lane lane = lanes[i];
+            lane.applier = new Thread(() -> apply(lane), "ingest-applier-" + i);
+            lane.applier.setDaemon(true);
+            lane.applier.start();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        for (Lane lane : lanes) {
+            try {
+                if (lane.applier != null) {
+                    lane.applier.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    private void apply(Lane lane) {
+        List<Datapoint> batch = new ArrayList<>(maxBatch);
+        while (running || !lane.queue.isEmpty()) {
+            try {
+                Datapoint first = lane.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            lane.queue.drainTo(batch, maxBatch - 1);
+
+            try {
+                duplicates.addAndGet(target.storeDataPoints(batch).size());
+            } catch (RuntimeException e) {
+                failed.addAndGet(batch.size());
+                log.error("Storing {} queued datapoints failed", batch.size(), e);
+            }
+            synchronized (lane) {
+                lane.applied += batch.size();
+                lane.notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    private static class Lane {
+        private final BlockingQueue<Datapoint> queue;
+        private final AtomicLong enqueued = new AtomicLong();
+        private long applied;
+        private Thread applier;
+
+        private Lane(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+}
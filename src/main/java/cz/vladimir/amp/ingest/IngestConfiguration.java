@@ -0,0 +1,19 @@
+package cz.vladimir.amp.ingest;
+
+import cz.vladimir.amp.AmpProperties;
+import cz.vladimir.amp.AverageCalculations;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(prefix = "amp.ingest", name = "mode", havingValue = "async")
+public class IngestConfiguration {
+
+    @Bean
+    public AsyncIngest asyncIngest(AmpProperties properties, AverageCalculations averageCalculations) {
+        AmpProperties.Ingest ingest = properties.getIngest();
+        return new AsyncIngest(averageCalculations, ingest.getAppliers(), ingest.getQueueCapacity(), ingest.getMaxBatch(),
+                ingest.getConsistentReadTimeout());
+    }
+}
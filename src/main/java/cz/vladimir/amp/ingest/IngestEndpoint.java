@@ -0,0 +1,19 @@
+package cz.vladimir.amp.ingest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@ConditionalOnProperty(prefix = "amp.ingest", name = "mode", havingValue = "async")
+public class IngestEndpoint {
+
+    @Autowired
+    private AsyncIngest asyncIngest;
+
+    @GetMapping("/admin/ingest")
+    public IngestStatistics getStatistics(){
+        return asyncIngest.getStatistics();
+    }
+}
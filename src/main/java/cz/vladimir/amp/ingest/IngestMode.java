@@ -0,0 +1,13 @@
+package cz.vladimir.amp.ingest;
+
+public enum IngestMode {
+    /**
+     * A datapoint is stored before the request that sent it completes.
+     */
+    SYNC,
+    /**
+     * A datapoint is queued and the request completes with 202 Accepted; the datapoint is stored shortly
+     * after by an applier thread.
+     */
+    ASYNC
+}
@@ -0,0 +1,55 @@
+package cz.vladimir.amp.ingest;
+
+public class IngestStatistics {
+    private int capacity;
+    private int depth;
+    private long enqueued;
+    private long applied;
+    private long rejected;
+    private long duplicates;
+    private long failed;
+
+    public IngestStatistics(int capacity, int depth, long enqueued, long applied, long rejected, long duplicates, long failed) {
+        this.capacity = capacity;
+        this.depth = depth;
+        this.enqueued = enqueued;
+        this.applied = applied;
+        this.rejected = rejected;
+        this.duplicates = duplicates;
+        this.failed = failed;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Datapoints waiting in the queues.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    /**
+     * Datapoints refused because their queue was full.
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+}
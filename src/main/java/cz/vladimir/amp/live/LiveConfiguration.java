@@ -0,0 +1,20 @@
+package cz.vladimir.amp.live;
+
+import cz.vladimir.amp.AmpProperties;
+import cz.vladimir.amp.AverageCalculations;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(prefix = "amp.live", name = "enabled", havingValue = "true")
+public class LiveConfiguration {
+
+    @Bean
+    public LiveUpdates liveUpdates(AmpProperties properties, AverageCalculations averageCalculations) {
+        AmpProperties.Live live = properties.getLive();
+        LiveUpdates liveUpdates = new LiveUpdates(averageCalculations, live.getFlushInterval(), live.getSenders());
+        averageCalculations.addListener(liveUpdates);
+        return liveUpdates;
+    }
+}
@@ -0,0 +1,98 @@
+package cz.vladimir.amp.live;
+
+import cz.vladimir.amp.AmpProperties;
+import cz.vladimir.amp.AverageForInterval;
+import cz.vladimir.amp.RangeParameters;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Server-sent events with the averages changed by stored datapoints. Every {@code averages} event holds the
+ * changed intervals as the polling endpoints return them, with moving averages instead if
+ * {@code window_size} is given; a {@code deleted} event means the datapoints were deleted and everything
+ * received so far should be dropped.
+ */
+@RestController
+@Validated
+@ConditionalOnProperty(prefix = "amp.live", name = "enabled", havingValue = "true")
+public class LiveEndpoint {
+
+    @Autowired
+    private LiveUpdates liveUpdates;
+
+    @Autowired
+    private AmpProperties properties;
+
+    @GetMapping(value = "/statistics/devices/{device}/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeDevice(@PathVariable @NotBlank String device, @RequestParam(value = "window_size", required = false) List<@Min(1) Long> windowSizes, @Valid RangeParameters range){
+        SseEmitter emitter = newEmitter();
+        return register(emitter, liveUpdates.subscribeDevice(device, range.toQuery().getResolution(), orEmpty(windowSizes), new EmitterListener(emitter)));
+    }
+
+    @GetMapping(value = "/statistics/users/{user}/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeUser(@PathVariable @NotBlank String user, @RequestParam(value = "window_size", required = false) List<@Min(1) Long> windowSizes, @Valid RangeParameters range){
+        SseEmitter emitter = newEmitter();
+        return register(emitter, liveUpdates.subscribeUser(user, range.toQuery().getResolution(), orEmpty(windowSizes), new EmitterListener(emitter)));
+    }
+
+    @GetMapping("/admin/live")
+    public LiveStatistics getStatistics(){
+        return liveUpdates.getStatistics();
+    }
+
+    private SseEmitter newEmitter() {
+        return new SseEmitter(properties.getLive().getTimeout().toMillis());
+    }
+
+    private SseEmitter register(SseEmitter emitter, LiveUpdates.Subscription subscription) {
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return emitter;
+    }
+
+    private List<Long> orEmpty(List<Long> windowSizes) {
+        return windowSizes == null ? Collections.emptyList() : windowSizes;
+    }
+
+    private static class EmitterListener implements LiveListener {
+        private final SseEmitter emitter;
+
+        private EmitterListener(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void averagesChanged(List<AverageForInterval> changed) throws IOException {
+            send(SseEmitter.event().name("averages").data(changed, MediaType.APPLICATION_JSON));
+        }
+
+        @Override
+        public void datapointsDeleted() throws IOException {
+            send(SseEmitter.event().name("deleted").data(""));
+        }
+
+        private void send(SseEmitter.SseEventBuilder event) throws IOException {
+            try {
+                emitter.send(event);
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package cz.vladimir.amp.live;
+
+import cz.vladimir.amp.AverageForInterval;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the updates of one {@link LiveUpdates} subscription, never concurrently. Throwing cancels the
+ * subscription.
+ */
+public interface LiveListener {
+
+    /**
+     * @param changed the intervals whose average or moving average changed, ordered by start time
+     */
+    void averagesChanged(List<AverageForInterval> changed) throws IOException;
+
+    void datapointsDeleted() throws IOException;
+}
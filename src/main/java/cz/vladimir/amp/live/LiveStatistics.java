@@ -0,0 +1,47 @@
+package cz.vladimir.amp.live;
+
+public class LiveStatistics {
+    private int subscribers;
+    private long datapointsSeen;
+    private long intervalsComputed;
+    private long eventsSent;
+    private long subscribersDropped;
+
+    public LiveStatistics(int subscribers, long datapointsSeen, long intervalsComputed, long eventsSent, long subscribersDropped) {
+        this.subscribers = subscribers;
+        this.datapointsSeen = datapointsSeen;
+        this.intervalsComputed = intervalsComputed;
+        this.eventsSent = eventsSent;
+        this.subscribersDropped = subscribersDropped;
+    }
+
+    public int getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * Number of stored datapoints of devices or users with subscribers.
+     */
+    public long getDatapointsSeen() {
+        return datapointsSeen;
+    }
+
+    /**
+     * Number of changed intervals computed once for all subscribers of the same device or user, resolution
+     * and window sizes; datapoints of the same interval between two flushes are coalesced into one.
+     */
+    public long getIntervalsComputed() {
+        return intervalsComputed;
+    }
+
+    public long getEventsSent() {
+        return eventsSent;
+    }
+
+    /**
+     * Number of subscribers whose updates failed to be delivered.
+     */
+    public long getSubscribersDropped() {
+        return subscribersDropped;
+    }
+}
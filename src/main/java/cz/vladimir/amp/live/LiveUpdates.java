@@ -0,0 +1,409 @@
+package cz.vladimir.amp.live;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.AverageForInterval;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.DatapointListener;
+import cz.vladimir.amp.IntervalQuery;
+import cz.vladimir.amp.exception.DataNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Pushes the interval averages and moving averages that changed because datapoints were stored to
+ * subscribers of a device or a user.
+ * <p>
+ * Storing a datapoint only marks its interval dirty in every group of subscribers of its device and
+ * user sharing a resolution and window sizes, which is a lookup and a set insertion, so ingest never waits
+ * for subscribers. Periodically the dirty intervals are drained, so that any number of datapoints of the
+ * same interval is coalesced into one update, and the changed averages are computed once per group. They
+ * are then handed to every subscriber of the group and sent on a pool of sender threads; a subscriber that
+ * is slower than the updates keeps only the latest average of each interval until it is sent.
+ */
+public class LiveUpdates implements DatapointListener, SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveUpdates.class);
+
+    private final AverageCalculations averageCalculations;
+    private final Duration flushInterval;
+    private final int senders;
+
+    private final ConcurrentMap<String, Topic> devices = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Topic> users = new ConcurrentHashMap<>();
+    private final LongAdder datapointsSeen = new LongAdder();
+    private final LongAdder intervalsComputed = new LongAdder();
+    private final LongAdder eventsSent = new LongAdder();
+    private final LongAdder subscribersDropped = new LongAdder();
+
+    private ScheduledExecutorService dispatcher;
+    private volatile ExecutorService sendPool;
+
+    public LiveUpdates(AverageCalculations averageCalculations, Duration flushInterval, int senders) {
+        this.averageCalculations = averageCalculations;
+        this.flushInterval = flushInterval;
+        this.senders = senders;
+    }
+
+    /**
+     * @param resolution length of the intervals in milliseconds
+     * @param windowSizes window sizes of the moving averages, empty for interval averages only
+     */
+    public Subscription subscribeDevice(String device, long resolution, List<Long> windowSizes, LiveListener listener) {
+        return subscribe(devices, true, device, resolution, windowSizes, listener);
+    }
+
+    /**
+     * @see #subscribeDevice(String, long, List, LiveListener)
+     */
+    public Subscription subscribeUser(String user, long resolution, List<Long> windowSizes, LiveListener listener) {
+        return subscribe(users, false, user, resolution, windowSizes, listener);
+    }
+
+    @Override
+    public void datapointStored(Datapoint dataPoint) {
+        Topic device = devices.get(dataPoint.getDevice());
+        Topic user = users.get(dataPoint.getUser());
+        if (device == null && user == null) {
+            return;
+        }
+        datapointsSeen.increment();
+        if (device != null) {
+            device.markDirty(dataPoint.getTimestamp());
+        }
+        if (user != null) {
+            user.markDirty(dataPoint.getTimestamp());
+        }
+    }
+
+    @Override
+    public void userDatapointsDeleted(String user) {
+        Topic topic = users.get(user);
+        if (topic != null) {
+            topic.deleted.set(true);
+        }
+    }
+
+    @Override
+    public void deviceDatapointsDeleted(String device) {
+        Topic topic = devices.get(device);
+        if (topic != null) {
+            topic.deleted.set(true);
+        }
+    }
+
+    /**
+     * Computes the averages of the intervals marked dirty since the last flush and hands them to the subscribers.
+     */
+    public void flush() {
+        removeUnsubscribed();
+        flush(devices.values());
+        flush(users.values());
+    }
+
+    public LiveStatistics getStatistics() {
+        int subscribers = 0;
+        for (Topic topic : devices.values()) {
+            subscribers += topic.subscriberCount();
+        }
+        for (Topic topic : users.values()) {
+            subscribers += topic.subscriberCount();
+        }
+        return new LiveStatistics(subscribers, datapointsSeen.sum(), intervalsComputed.sum(), eventsSent.sum(), subscribersDropped.sum());
+    }
+
+    @Override
+    public synchronized void start() {
+        AtomicInteger senderNumber = new AtomicInteger();
+        sendPool = Executors.newFixedThreadPool(senders, runnable -> {
+            Thread thread = new Thread(runnable, "live-sender-" + senderNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "live-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = flushInterval.toNanos();
+        dispatcher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.error("Pushing live updates failed", e);
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+            sendPool.shutdown();
+            dispatcher = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return dispatcher != null;
+    }
+
+    private synchronized Subscription subscribe(ConcurrentMap<String, Topic> topics, boolean ofDevice, String identifier,
+                                                long resolution, List<Long> windowSizes, LiveListener listener) {
+        Topic topic = topics.computeIfAbsent(identifier, key -> new Topic(ofDevice, key));
+        List<Long> windows = windowSizes.stream().distinct().sorted().collect(Collectors.toList());
+        Group group = topic.groups.computeIfAbsent(new GroupKey(resolution, windows), Group::new);
+        Subscription subscription = new Subscription(listener, group);
+        group.subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Forgets the groups and topics left without subscribers, under the same lock as subscribing, so that
+     * no subscriber is added to a group being removed.
+     */
+    private synchronized void removeUnsubscribed() {
+        for (ConcurrentMap<String, Topic> topics : Arrays.asList(devices, users)) {
+            topics.values().removeIf(topic -> {
+                topic.groups.values().removeIf(group -> group.subscriptions.isEmpty());
+                return topic.groups.isEmpty();
+            });
+        }
+    }
+
+    private void flush(Iterable<Topic> topics) {
+        for (Topic topic : topics) {
+            boolean deleted = topic.deleted.getAndSet(false);
+            for (Group group : topic.groups.values()) {
+                if (deleted) {
+                    group.subscriptions.forEach(Subscription::offerDeleted);
+                }
+                long[] intervals = group.drainDirty();
+                if (intervals.length == 0) {
+                    continue;
+                }
+                List<AverageForInterval> changed = new ArrayList<>();
+                try {
+                    for (IntervalQuery query : group.affectedRanges(intervals)) {
+                        changed.addAll(calculate(topic, group.key.windowSizes, query));
+                    }
+                } catch (DataNotFoundException e) {
+                    continue;
+                }
+                intervalsComputed.add(changed.size());
+                if (!changed.isEmpty()) {
+                    group.subscriptions.forEach(subscription -> subscription.offer(changed));
+                }
+            }
+        }
+    }
+
+    private List<AverageForInterval> calculate(Topic topic, List<Long> windowSizes, IntervalQuery query) {
+        if (topic.ofDevice) {
+            return windowSizes.isEmpty() ? averageCalculations.getAveragesForDevice(topic.identifier, query)
+                    : averageCalculations.getMovingAveragesForDevice(topic.identifier, windowSizes, query);
+        }
+        return windowSizes.isEmpty() ? averageCalculations.getAveragesForUser(topic.identifier, query)
+                : averageCalculations.getMovingAveragesForUser(topic.identifier, windowSizes, query);
+    }
+
+    /**
+     * Subscribers of one device or user.
+     */
+    private static class Topic {
+        private final boolean ofDevice;
+        private final String identifier;
+        private final ConcurrentMap<GroupKey, Group> groups = new ConcurrentHashMap<>();
+        private final AtomicBoolean deleted = new AtomicBoolean();
+
+        private Topic(boolean ofDevice, String identifier) {
+            this.ofDevice = ofDevice;
+            this.identifier = identifier;
+        }
+
+        private void markDirty(long timestamp) {
+            for (Group group : groups.values()) {
+                group.dirty.add(Math.floorDiv(timestamp, group.key.resolution));
+            }
+        }
+
+        private int subscriberCount() {
+            int count = 0;
+            for (Group group : groups.values()) {
+                count += group.subscriptions.size();
+            }
+            return count;
+        }
+    }
+
+    private static class GroupKey {
+        private final long resolution;
+        private final List<Long> windowSizes;
+
+        private GroupKey(long resolution, List<Long> windowSizes) {
+            this.resolution = resolution;
+            this.windowSizes = windowSizes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            GroupKey groupKey = (GroupKey) o;
+            return resolution == groupKey.resolution && windowSizes.equals(groupKey.windowSizes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(resolution, windowSizes);
+        }
+    }
+
+    /**
+     * Subscribers of one topic sharing a resolution and window sizes, together with the intervals changed
+     * since the last flush.
+     */
+    private static class Group {
+        private final GroupKey key;
+        private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+        private Group(GroupKey key) {
+            this.key = key;
+        }
+
+        private long[] drainDirty() {
+            List<Long> drained = new ArrayList<>();
+            for (Iterator<Long> iterator = dirty.iterator(); iterator.hasNext(); ) {
+                drained.add(iterator.next());
+                iterator.remove();
+            }
+            return drained.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+
+        /**
+         * A changed interval changes the moving averages of the intervals up to the largest window after it
+         * as well. Overlapping or adjacent ranges are queried together.
+         */
+        private List<IntervalQuery> affectedRanges(long[] intervals) {
+            long reach = key.windowSizes.isEmpty() ? 1 : key.windowSizes.get(key.windowSizes.size() - 1);
+            List<IntervalQuery> ranges = new ArrayList<>();
+            long from = intervals[0];
+            long to = intervals[0] + reach;
+            for (int i = 1; i < intervals.length; i++) {
+                if (intervals[i] > to) {
+                    ranges.add(new IntervalQuery(from * key.resolution, to * key.resolution, Integer.MAX_VALUE, key.resolution));
+                    from = intervals[i];
+                }
+                to = Math.max(to, intervals[i] + reach);
+            }
+            ranges.add(new IntervalQuery(from * key.resolution, to * key.resolution, Integer.MAX_VALUE, key.resolution));
+            return ranges;
+        }
+    }
+
+    /**
+     * One subscriber, whose pending updates are sent by at most one sender thread at a time.
+     */
+    public class Subscription {
+        private final LiveListener listener;
+        private final Group group;
+        private final TreeMap<Long, AverageForInterval> pending = new TreeMap<>();
+        private boolean deletedPending;
+        private boolean scheduled;
+        private boolean cancelled;
+
+        private Subscription(LiveListener listener, Group group) {
+            this.listener = listener;
+            this.group = group;
+        }
+
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                pending.clear();
+            }
+            group.subscriptions.remove(this);
+        }
+
+        private synchronized void offer(List<AverageForInterval> changed) {
+            if (!cancelled) {
+                changed.forEach(average -> pending.put(average.getStartTime(), average));
+                schedule();
+            }
+        }
+
+        private synchronized void offerDeleted() {
+            if (!cancelled) {
+                pending.clear();
+                deletedPending = true;
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (!scheduled) {
+                scheduled = true;
+                sendPool.execute(this::send);
+            }
+        }
+
+        private void send() {
+            boolean deleted;
+            List<AverageForInterval> changed;
+            synchronized (this) {
+                deleted = deletedPending;
+                changed = new ArrayList<>(pending.values());
+                deletedPending = false;
+                pending.clear();
+            }
+            try {
+                if (deleted) {
+                    listener.datapointsDeleted();
+                    eventsSent.increment();
+                }
+                if (!changed.isEmpty()) {
+                    listener.averagesChanged(changed);
+                    eventsSent.increment();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Dropping live subscriber", e);
+                subscribersDropped.increment();
+                cancel();
+            }
+            synchronized (this) {
+                if (!cancelled && (deletedPending || !pending.isEmpty())) {
+                    sendPool.execute(this::send);
+                } else {
+                    scheduled = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package cz.vladimir.amp.metrics;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.DatapointListener;
+import cz.vladimir.amp.SeriesUsage;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Meters of the {@link AverageCalculations} implementation: datapoints stored, duplicates rejected, waits
+ * for exclusive access compared to the time spent computing, and the number, sizes and estimated heap of
+ * the series.
+ * <p>
+ * Counters are read from the implementation when scraped and cost nothing on the ingest path. Walking all
+ * series is too expensive for every scrape, so they are scanned periodically and the gauges report
+ * quantiles of the last scan.
+ */
+public class EngineMetrics implements MeterBinder, DatapointListener, SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(EngineMetrics.class);
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 1.0};
+
+    private final AverageCalculations averageCalculations;
+    private final Duration scanInterval;
+    private final LongAdder datapointsStored = new LongAdder();
+    private volatile SeriesScan lastScan = new SeriesScan(Collections.emptyList());
+    private ScheduledExecutorService scanner;
+
+    public EngineMetrics(AverageCalculations averageCalculations, Duration scanInterval) {
+        this.averageCalculations = averageCalculations;
+        this.scanInterval = scanInterval;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("amp.datapoints.stored", datapointsStored, LongAdder::sum)
+                .description("Datapoints stored")
+                .register(registry);
+        FunctionCounter.builder("amp.datapoints.duplicates", averageCalculations,
+                calculations -> calculations.getEngineStatistics().getDuplicatesRejected())
+                .description("Datapoints rejected as duplicates")
+                .register(registry);
+        FunctionTimer.builder("amp.engine.waits", averageCalculations,
+                calculations -> calculations.getEngineStatistics().getWaits(),
+                calculations -> calculations.getEngineStatistics().getWaitNanos(), TimeUnit.NANOSECONDS)
+                .description("Waits for a series lock held by another writer, or for the thread of a shard")
+                .register(registry);
+        Gauge.builder("amp.series", this, metrics -> metrics.lastScan.count())
+                .description("Series at the last scan")
+                .register(registry);
+        Gauge.builder("amp.series.bytes.total", this, metrics -> metrics.lastScan.totalBytes)
+                .description("Estimated heap held by all series at the last scan")
+                .baseUnit("bytes")
+                .register(registry);
+        for (double quantile : QUANTILES) {
+            quantileGauge(registry, "amp.series.datapoints", quantile, scan -> scan.datapoints, "Datapoints per series at the last scan");
+            quantileGauge(registry, "amp.series.bytes", quantile, scan -> scan.bytes, "Estimated heap per series at the last scan");
+        }
+    }
+
+    @Override
+    public void datapointStored(Datapoint dataPoint) {
+        datapointsStored.increment();
+    }
+
+    @Override
+    public void datapointsStored(List<Datapoint> dataPoints) {
+        datapointsStored.add(dataPoints.size());
+    }
+
+    @Override
+    public void userDatapointsDeleted(String user) {
+    }
+
+    @Override
+    public void deviceDatapointsDeleted(String device) {
+    }
+
+    public void scanSeries() {
+        lastScan = new SeriesScan(averageCalculations.getSeriesUsage());
+    }
+
+    @Override
+    public synchronized void start() {
+        scanner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "series-scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scanner.scheduleWithFixedDelay(() -> {
+            try {
+                scanSeries();
+            } catch (RuntimeException e) {
+                log.error("Scanning series failed", e);
+            }
+        }, 0, scanInterval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (scanner != null) {
+            scanner.shutdown();
+            scanner = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return scanner != null;
+    }
+
+    private void quantileGauge(MeterRegistry registry, String name, double quantile, Function<SeriesScan, long[]> values,
+                               String description) {
+        Gauge.builder(name, this, metrics -> SeriesScan.quantile(values.apply(metrics.lastScan), quantile))
+                .description(description)
+                .tag("quantile", Double.toString(quantile))
+                .register(registry);
+    }
+
+    /**
+     * Sizes of all series, sorted.
+     */
+    private static class SeriesScan {
+        private final long[] datapoints;
+        private final long[] bytes;
+        private final long totalBytes;
+
+        private SeriesScan(List<SeriesUsage> usage) {
+            datapoints = usage.stream().mapToLong(SeriesUsage::getDatapoints).sorted().toArray();
+            bytes = usage.stream().mapToLong(SeriesUsage::getEstimatedBytes).sorted().toArray();
+            totalBytes = Arrays.stream(bytes).sum();
+        }
+
+        private int count() {
+            return datapoints.length;
+        }
+
+        private static long quantile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1)];
+        }
+    }
+}
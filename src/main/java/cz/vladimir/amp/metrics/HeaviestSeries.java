@@ -0,0 +1,38 @@
+package cz.vladimir.amp.metrics;
+
+import cz.vladimir.amp.SeriesUsage;
+
+import java.util.List;
+
+public class HeaviestSeries {
+    private final List<SeriesUsage> series;
+    private final List<QueryCost> devices;
+    private final List<QueryCost> users;
+
+    public HeaviestSeries(List<SeriesUsage> series, List<QueryCost> devices, List<QueryCost> users) {
+        this.series = series;
+        this.devices = devices;
+        this.users = users;
+    }
+
+    /**
+     * Series holding the most datapoints, largest first.
+     */
+    public List<SeriesUsage> getSeries() {
+        return series;
+    }
+
+    /**
+     * Devices whose queries took the most time.
+     */
+    public List<QueryCost> getDevices() {
+        return devices;
+    }
+
+    /**
+     * Users whose queries took the most time.
+     */
+    public List<QueryCost> getUsers() {
+        return users;
+    }
+}
@@ -0,0 +1,37 @@
+package cz.vladimir.amp.metrics;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.SeriesUsage;
+import cz.vladimir.amp.exception.InvalidQueryException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@RestController
+@ConditionalOnProperty(prefix = "amp.metrics", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class HeaviestSeriesEndpoint {
+
+    @Autowired
+    private AverageCalculations averageCalculations;
+
+    @Autowired
+    private QueryCosts queryCosts;
+
+    @GetMapping("/admin/series/heaviest")
+    public HeaviestSeries getHeaviestSeries(@RequestParam(value = "n", defaultValue = "20") int count){
+        if (count < 1) {
+            throw new InvalidQueryException();
+        }
+        List<SeriesUsage> series = averageCalculations.getSeriesUsage().stream()
+                .sorted(Comparator.comparingLong(SeriesUsage::getDatapoints).reversed())
+                .limit(count)
+                .collect(Collectors.toList());
+        return new HeaviestSeries(series, queryCosts.getTopDevices(count), queryCosts.getTopUsers(count));
+    }
+}
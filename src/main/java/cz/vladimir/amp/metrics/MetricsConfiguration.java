@@ -0,0 +1,30 @@
+package cz.vladimir.amp.metrics;
+
+import cz.vladimir.amp.AmpProperties;
+import cz.vladimir.amp.AverageCalculations;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Meters of the engine, exposed through the actuator like the request latencies Spring Boot records on its
+ * own, and the query costs behind {@code /admin/series/heaviest}.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "amp.metrics", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class MetricsConfiguration {
+
+    @Bean
+    public EngineMetrics engineMetrics(AmpProperties properties, AverageCalculations averageCalculations) {
+        EngineMetrics engineMetrics = new EngineMetrics(averageCalculations, properties.getMetrics().getSeriesScanInterval());
+        averageCalculations.addListener(engineMetrics);
+        return engineMetrics;
+    }
+
+    @Bean
+    public QueryCosts queryCosts(AverageCalculations averageCalculations) {
+        QueryCosts queryCosts = new QueryCosts();
+        averageCalculations.addListener(queryCosts);
+        return queryCosts;
+    }
+}
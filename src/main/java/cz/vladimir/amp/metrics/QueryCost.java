@@ -0,0 +1,29 @@
+package cz.vladimir.amp.metrics;
+
+public class QueryCost {
+    private final String identifier;
+    private final long queries;
+    private final long totalNanos;
+
+    public QueryCost(String identifier, long queries, long totalNanos) {
+        this.identifier = identifier;
+        this.queries = queries;
+        this.totalNanos = totalNanos;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public long getQueries() {
+        return queries;
+    }
+
+    public double getTotalMillis() {
+        return totalNanos / 1e6;
+    }
+
+    public double getAverageMillis() {
+        return queries == 0 ? 0 : totalNanos / 1e6 / queries;
+    }
+}
@@ -0,0 +1,76 @@
+package cz.vladimir.amp.metrics;
+
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.DatapointListener;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Time spent answering the statistics of every device and user since the start, for finding those behind
+ * latency spikes. Only queries that found data are recorded, so unknown identifiers take no memory; the
+ * costs of a device or user are forgotten when its datapoints are deleted.
+ */
+public class QueryCosts implements DatapointListener {
+
+    private final ConcurrentMap<String, Cost> devices = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Cost> users = new ConcurrentHashMap<>();
+
+    public void recordDevice(String device, long nanos) {
+        devices.computeIfAbsent(device, key -> new Cost()).record(nanos);
+    }
+
+    public void recordUser(String user, long nanos) {
+        users.computeIfAbsent(user, key -> new Cost()).record(nanos);
+    }
+
+    /**
+     * @return devices that took the most time in total, most expensive first
+     */
+    public List<QueryCost> getTopDevices(int count) {
+        return top(devices, count);
+    }
+
+    /**
+     * @return users that took the most time in total, most expensive first
+     */
+    public List<QueryCost> getTopUsers(int count) {
+        return top(users, count);
+    }
+
+    @Override
+    public void datapointStored(Datapoint dataPoint) {
+    }
+
+    @Override
+    public void userDatapointsDeleted(String user) {
+        users.remove(user);
+    }
+
+    @Override
+    public void deviceDatapointsDeleted(String device) {
+        devices.remove(device);
+    }
+
+    private static List<QueryCost> top(ConcurrentMap<String, Cost> costs, int count) {
+        return costs.entrySet().stream()
+                .map(entry -> new QueryCost(entry.getKey(), entry.getValue().queries.sum(), entry.getValue().nanos.sum()))
+                .sorted(Comparator.comparingDouble(QueryCost::getTotalMillis).reversed())
+                .limit(count)
+                .collect(Collectors.toList());
+    }
+
+    private static class Cost {
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private void record(long nanos) {
+            queries.increment();
+            this.nanos.add(nanos);
+        }
+    }
+}
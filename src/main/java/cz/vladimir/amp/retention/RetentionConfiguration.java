@@ -0,0 +1,19 @@
+package cz.vladimir.amp.retention;
+
+import cz.vladimir.amp.AmpProperties;
+import cz.vladimir.amp.AverageCalculations;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(prefix = "amp.retention", name = "enabled", havingValue = "true")
+public class RetentionConfiguration {
+
+    @Bean
+    public RetentionEvictor retentionEvictor(AmpProperties properties, AverageCalculations averageCalculations) {
+        AmpProperties.Retention retention = properties.getRetention();
+        return new RetentionEvictor(averageCalculations, retention.getTtl(), retention.getDeviceTtl(),
+                retention.getMemoryBudget() == null ? null : retention.getMemoryBudget().toBytes(), retention.getInterval());
+    }
+}
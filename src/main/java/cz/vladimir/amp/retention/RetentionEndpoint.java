@@ -0,0 +1,19 @@
+package cz.vladimir.amp.retention;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@ConditionalOnProperty(prefix = "amp.retention", name = "enabled", havingValue = "true")
+public class RetentionEndpoint {
+
+    @Autowired
+    private RetentionEvictor retentionEvictor;
+
+    @GetMapping("/admin/retention")
+    public RetentionStatistics getStatistics(){
+        return retentionEvictor.getStatistics();
+    }
+}
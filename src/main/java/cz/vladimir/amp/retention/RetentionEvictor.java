@@ -0,0 +1,143 @@
+package cz.vladimir.amp.retention;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.DictionaryStatistics;
+import cz.vladimir.amp.SeriesUsage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically drops the datapoints older than their time to live, and evicts the least recently queried
+ * series while the series take more heap than the memory budget, until they take no more than 90% of it.
+ * The identifier dictionaries count towards the budget as well, though only the series can be evicted.
+ * <p>
+ * Runs on its own thread and locks one series at a time, so ingest goes on while it works.
+ */
+public class RetentionEvictor implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(RetentionEvictor.class);
+    private static final double LOW_WATER_MARK = 0.9;
+
+    private final AverageCalculations averageCalculations;
+    private final Duration ttl;
+    private final Map<String, Duration> deviceTtl;
+    private final Long memoryBudget;
+    private final Duration interval;
+
+    private ScheduledExecutorService evictor;
+    private long runs;
+    private long expiredDatapoints;
+    private long evictedSeries;
+    private long evictedDatapoints;
+    private long evictedBytes;
+    private Long usedBytes;
+
+    /**
+     * @param ttl age of the datapoints to drop, null to keep them unless their device has its own
+     * @param deviceTtl time to live of the datapoints of single devices, overriding the global one
+     * @param memoryBudget bytes of heap the series may take, null for no limit
+     */
+    public RetentionEvictor(AverageCalculations averageCalculations, Duration ttl, Map<String, Duration> deviceTtl,
+                            Long memoryBudget, Duration interval) {
+        this.averageCalculations = averageCalculations;
+        this.ttl = ttl;
+        this.deviceTtl = new HashMap<>(deviceTtl);
+        this.memoryBudget = memoryBudget;
+        this.interval = interval;
+    }
+
+    public synchronized void run() {
+        long started = System.nanoTime();
+        long now = System.currentTimeMillis();
+        long expired = 0;
+        if (ttl != null || !deviceTtl.isEmpty()) {
+            expired = averageCalculations.expireDatapoints(device -> cutoffOf(device, now));
+            expiredDatapoints += expired;
+        }
+        long evicted = 0;
+        if (memoryBudget != null) {
+            evicted = evict();
+        }
+        runs++;
+        if (expired > 0 || evicted > 0) {
+            log.info("Expired {} datapoints and evicted {} series in {} ms", expired, evicted,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
+    }
+
+    public synchronized RetentionStatistics getStatistics() {
+        return new RetentionStatistics(runs, expiredDatapoints, evictedSeries, evictedDatapoints, evictedBytes,
+                usedBytes, memoryBudget);
+    }
+
+    @Override
+    public synchronized void start() {
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retention-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = interval.toNanos();
+        evictor.scheduleWithFixedDelay(() -> {
+            try {
+                run();
+            } catch (RuntimeException e) {
+                log.error("Applying retention failed", e);
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (evictor != null) {
+            evictor.shutdown();
+            evictor = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return evictor != null;
+    }
+
+    private long cutoffOf(String device, long now) {
+        Duration ttl = deviceTtl.getOrDefault(device, this.ttl);
+        return ttl == null ? Long.MIN_VALUE : now - ttl.toMillis();
+    }
+
+    /**
+     * @return number of series evicted
+     */
+    private long evict() {
+        List<SeriesUsage> usage = averageCalculations.getSeriesUsage();
+        long used = usage.stream().mapToLong(SeriesUsage::getEstimatedBytes).sum()
+                + averageCalculations.getDictionaryStatistics().values().stream().mapToLong(DictionaryStatistics::getEstimatedBytes).sum();
+        long evicted = 0;
+        if (used > memoryBudget) {
+            long target = (long) (memoryBudget * LOW_WATER_MARK);
+            usage.sort(Comparator.comparingLong(SeriesUsage::getLastQueried));
+            for (SeriesUsage series : usage) {
+                if (used <= target) {
+                    break;
+                }
+                evictedDatapoints += averageCalculations.evictSeries(series.getDevice(), series.getUser());
+                evictedBytes += series.getEstimatedBytes();
+                used -= series.getEstimatedBytes();
+                evicted++;
+            }
+            evictedSeries += evicted;
+        }
+        usedBytes = used;
+        return evicted;
+    }
+}
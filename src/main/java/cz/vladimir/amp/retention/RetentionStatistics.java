@@ -0,0 +1,53 @@
+package cz.vladimir.amp.retention;
+
+public class RetentionStatistics {
+    private long runs;
+    private long expiredDatapoints;
+    private long evictedSeries;
+    private long evictedDatapoints;
+    private long evictedBytes;
+    private Long usedBytes;
+    private Long memoryBudget;
+
+    public RetentionStatistics(long runs, long expiredDatapoints, long evictedSeries, long evictedDatapoints,
+                               long evictedBytes, Long usedBytes, Long memoryBudget) {
+        this.runs = runs;
+        this.expiredDatapoints = expiredDatapoints;
+        this.evictedSeries = evictedSeries;
+        this.evictedDatapoints = evictedDatapoints;
+        this.evictedBytes = evictedBytes;
+        this.usedBytes = usedBytes;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    public long getExpiredDatapoints() {
+        return expiredDatapoints;
+    }
+
+    public long getEvictedSeries() {
+        return evictedSeries;
+    }
+
+    public long getEvictedDatapoints() {
+        return evictedDatapoints;
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    /**
+     * Estimated heap taken by the series after the last run, null before the first run or without a budget.
+     */
+    public Long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public Long getMemoryBudget() {
+        return memoryBudget;
+    }
+}
@@ -0,0 +1,73 @@
+package cz.vladimir.amp.segment;
+
+import java.util.Arrays;
+
+/**
+ * Growable pair of timestamp and value columns, used to collect the datapoints of one series before
+ * they are written to a segment.
+ */
+public class PointBatch {
+
+    private long[] timestamps = new long[16];
+    private long[] values = new long[16];
+    private int size;
+
+    public void add(long timestamp, long value) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public long getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Orders the datapoints by timestamp. Datapoints mostly arrive in order, so an ordered batch is
+     * detected and left alone.
+     */
+    public void sort() {
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i - 1] > timestamps[i]) {
+                mergeSort(Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size), timestamps, values, 0, size);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sorts the range of the source columns into the target columns, which start as copies of the source.
+     */
+    private static void mergeSort(long[] sourceTimestamps, long[] sourceValues, long[] timestamps, long[] values, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(timestamps, values, sourceTimestamps, sourceValues, from, middle);
+        mergeSort(timestamps, values, sourceTimestamps, sourceValues, middle, to);
+
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && sourceTimestamps[left] <= sourceTimestamps[right])) {
+                timestamps[i] = sourceTimestamps[left];
+                values[i] = sourceValues[left++];
+            } else {
+                timestamps[i] = sourceTimestamps[right];
+                values[i] = sourceValues[right++];
+            }
+        }
+    }
+}
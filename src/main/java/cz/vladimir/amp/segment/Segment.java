@@ -0,0 +1,153 @@
+package cz.vladimir.amp.segment;
+
+import cz.vladimir.amp.PointSeries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable file holding the slices of any number of point series, mapped into memory as a whole.
+ * <p>
+ * The file starts with the columns of every slice - timestamps, values, interval sums and interval
+ * counts, all of them longs - followed by a directory of the slices and a fixed size footer:
+ * <pre>
+ * directory entry: device, user (int length + UTF-8), int points, long first interval, int intervals, long offset
+ * footer:          long directory offset, int entries, long interval in millis, int magic
+ * </pre>
+ */
+public class Segment {
+
+    static final String PREFIX = "segment-";
+    static final String SUFFIX = ".seg";
+    static final int MAGIC = 0x414d5053;
+    static final int FOOTER_BYTES = 24;
+
+    private final Path file;
+    private final long generation;
+    private final long bytes;
+    private final List<Entry> entries;
+
+    private Segment(Path file, long generation, long bytes, List<Entry> entries) {
+        this.file = file;
+        this.generation = generation;
+        this.bytes = bytes;
+        this.entries = entries;
+    }
+
+    static String fileName(long generation) {
+        return String.format("%s%016d%s", PREFIX, generation, SUFFIX);
+    }
+
+    static long generationOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    static Segment open(Path file, long intervalInMillis) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int footer = buffer.limit() - FOOTER_BYTES;
+        if (footer < 0 || buffer.getInt(footer + 20) != MAGIC) {
+            throw new IOException("Not a segment file: " + file);
+        }
+        if (buffer.getLong(footer + 12) != intervalInMillis) {
+            throw new IOException("Segment " + file + " uses a different interval length");
+        }
+
+        ByteBuffer directory = buffer.duplicate();
+        directory.position((int) buffer.getLong(footer));
+        int entryCount = buffer.getInt(footer + 8);
+        List<Entry> entries = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            String device = readString(directory);
+            String user = readString(directory);
+            int points = directory.getInt();
+            long firstInterval = directory.getLong();
+            int intervals = directory.getInt();
+            int offset = (int) directory.getLong();
+
+            LongBuffer timestamps = columnOf(buffer, offset, points);
+            LongBuffer values = columnOf(buffer, offset + points * 8, points);
+            LongBuffer sums = columnOf(buffer, offset + points * 16, intervals);
+            LongBuffer counts = columnOf(buffer, offset + points * 16 + intervals * 8, intervals);
+            entries.add(new Entry(device, user, new SegmentSlice(timestamps, values, sums, counts, firstInterval, intervalInMillis)));
+        }
+        return new Segment(file, generationOf(file), buffer.limit(), Collections.unmodifiableList(entries));
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    private static LongBuffer columnOf(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer column = buffer.duplicate();
+        column.position(offset).limit(offset + length * 8);
+        return column.slice().asLongBuffer();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Slice of one device and user pair, together with the point series it is currently attached to.
+     */
+    public static class Entry {
+        private final String device;
+        private final String user;
+        private final SegmentSlice slice;
+        private volatile PointSeries owner;
+
+        Entry(String device, String user, SegmentSlice slice) {
+            this.device = device;
+            this.user = user;
+            this.slice = slice;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public SegmentSlice getSlice() {
+            return slice;
+        }
+
+        public PointSeries getOwner() {
+            return owner;
+        }
+
+        void setOwner(PointSeries owner) {
+            this.owner = owner;
+        }
+    }
+}
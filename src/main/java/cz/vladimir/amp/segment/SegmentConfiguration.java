@@ -0,0 +1,23 @@
+package cz.vladimir.amp.segment;
+
+import cz.vladimir.amp.AmpProperties;
+import cz.vladimir.amp.SeriesStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+
+@Configuration
+@ConditionalOnProperty(prefix = "amp.segments", name = "enabled", havingValue = "true")
+public class SegmentConfiguration {
+
+    /**
+     * The segments are mapped by {@link cz.vladimir.amp.PersistenceInitializer} before the web server accepts requests.
+     */
+    @Bean(destroyMethod = "close")
+    public SegmentStore segmentStore(AmpProperties properties, SeriesStore seriesStore) {
+        AmpProperties.Segments segments = properties.getSegments();
+        return new SegmentStore(Paths.get(segments.getDirectory()), seriesStore, segments.getHotWindow(), segments.getMaxSegments());
+    }
+}
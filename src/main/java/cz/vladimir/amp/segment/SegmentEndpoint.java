@@ -0,0 +1,19 @@
+package cz.vladimir.amp.segment;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@ConditionalOnProperty(prefix = "amp.segments", name = "enabled", havingValue = "true")
+public class SegmentEndpoint {
+
+    @Autowired
+    private SegmentStore segmentStore;
+
+    @GetMapping("/admin/segments")
+    public SegmentStatistics getStatistics(){
+        return segmentStore.getStatistics();
+    }
+}
@@ -0,0 +1,176 @@
+package cz.vladimir.amp.segment;
+
+import cz.vladimir.amp.IntervalAggregates;
+import cz.vladimir.amp.IntervalSummaries;
+import cz.vladimir.amp.RangeTotal;
+
+import java.nio.LongBuffer;
+
+/**
+ * Datapoints of one point series stored in a segment, ordered by timestamp, together with their
+ * interval aggregates. All columns are views of the mapped segment file, so a slice costs no heap
+ * beyond the object itself and is safe to read from any thread.
+ * <p>
+ * Once a time range is summed up, the slice also keeps the running sums of its values at every
+ * {@value #BLOCK_SIZE}th datapoint, so that only the datapoints of a block at either end of a range are
+ * read one by one.
+ */
+public class SegmentSlice {
+
+    private static final int BLOCK_SIZE = 64;
+
+    private final LongBuffer timestamps;
+    private final LongBuffer values;
+    private final LongBuffer sums;
+    private final LongBuffer counts;
+    private final long firstInterval;
+    private final long intervalInMillis;
+    private volatile long[] blockSums;
+
+    SegmentSlice(LongBuffer timestamps, LongBuffer values, LongBuffer sums, LongBuffer counts, long firstInterval, long intervalInMillis) {
+        this.timestamps = timestamps;
+        this.values = values;
+        this.sums = sums;
+        this.counts = counts;
+        this.firstInterval = firstInterval;
+        this.intervalInMillis = intervalInMillis;
+    }
+
+    public int size() {
+        return timestamps.limit();
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps.get(index);
+    }
+
+    public long getValue(int index) {
+        return values.get(index);
+    }
+
+    public boolean contains(long timestamp) {
+        int low = 0;
+        int high = timestamps.limit() - 1;
+        if (high < 0 || timestamp < timestamps.get(0) || timestamp > timestamps.get(high)) {
+            return false;
+        }
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long candidate = timestamps.get(middle);
+            if (candidate < timestamp) {
+                low = middle + 1;
+            } else if (candidate > timestamp) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getFirstInterval() {
+        return firstInterval;
+    }
+
+    public long getLastInterval() {
+        return firstInterval + sums.limit() - 1;
+    }
+
+    /**
+     * Adds the buckets of intervals numbered from {@code fromInterval} inclusive to {@code toInterval}
+     * exclusive to the target. Intervals of the target may be longer than those of the slice, when they
+     * are summed up from the stored buckets, or shorter, when they are computed from the datapoints.
+     */
+    public void mergeInto(IntervalAggregates target, long fromInterval, long toInterval) {
+        long targetInterval = target.getIntervalInMillis();
+        if (targetInterval % intervalInMillis == 0) {
+            long factor = targetInterval / intervalInMillis;
+            long from = Math.max(firstInterval, Math.max(fromInterval, Math.floorDiv(firstInterval, factor)) * factor);
+            long to = Math.min(getLastInterval() + 1, Math.min(toInterval, Math.floorDiv(getLastInterval(), factor) + 1) * factor);
+            for (long interval = from; interval < to; interval++) {
+                int index = (int) (interval - firstInterval);
+                target.addInterval(Math.floorDiv(interval, factor), sums.get(index), counts.get(index));
+            }
+            return;
+        }
+
+        long fromTime = Math.max(fromInterval, Math.floorDiv(timestamps.get(0), targetInterval)) * targetInterval;
+        for (int i = lowerBound(fromTime); i < timestamps.limit(); i++) {
+            long timestamp = timestamps.get(i);
+            if (Math.floorDiv(timestamp, targetInterval) >= toInterval) {
+                break;
+            }
+            target.add(timestamp, values.get(i));
+        }
+    }
+
+    /**
+     * Adds the datapoints of intervals of the target numbered from {@code fromInterval} inclusive to
+     * {@code toInterval} exclusive, and not older than {@code notBefore}, to the target.
+     */
+    public void summarizeInto(IntervalSummaries target, long fromInterval, long toInterval, long notBefore) {
+        long targetInterval = target.getIntervalInMillis();
+        long fromTime = Math.max(fromInterval, Math.floorDiv(timestamps.get(0), targetInterval)) * targetInterval;
+        for (int i = lowerBound(Math.max(fromTime, notBefore)); i < timestamps.limit(); i++) {
+            long timestamp = timestamps.get(i);
+            if (Math.floorDiv(timestamp, targetInterval) >= toInterval) {
+                break;
+            }
+            target.add(timestamp, values.get(i));
+        }
+    }
+
+    /**
+     * Adds the datapoints with timestamps from {@code from} inclusive to {@code to} exclusive to the total.
+     */
+    public void addTotal(RangeTotal total, long from, long to) {
+        if (from >= to) {
+            return;
+        }
+        int first = lowerBound(from);
+        int end = lowerBound(to);
+        if (first < end) {
+            total.add(sumBefore(end) - sumBefore(first), end - first);
+        }
+    }
+
+    /**
+     * @return sum of the values of the datapoints before the index
+     */
+    private long sumBefore(int index) {
+        long[] blockSums = this.blockSums;
+        if (blockSums == null) {
+            blockSums = new long[timestamps.limit() / BLOCK_SIZE + 1];
+            for (int block = 1; block < blockSums.length; block++) {
+                long sum = blockSums[block - 1];
+                for (int i = (block - 1) * BLOCK_SIZE; i < block * BLOCK_SIZE; i++) {
+                    sum += values.get(i);
+                }
+                blockSums[block] = sum;
+            }
+            this.blockSums = blockSums;
+        }
+        long sum = blockSums[index / BLOCK_SIZE];
+        for (int i = index / BLOCK_SIZE * BLOCK_SIZE; i < index; i++) {
+            sum += values.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * @return index of the first datapoint not older than the timestamp
+     */
+    private int lowerBound(long timestamp) {
+        int low = 0;
+        int high = timestamps.limit();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps.get(middle) < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,25 @@
+package cz.vladimir.amp.segment;
+
+public class SegmentStatistics {
+    private int segments;
+    private long datapoints;
+    private long bytes;
+
+    public SegmentStatistics(int segments, long datapoints, long bytes) {
+        this.segments = segments;
+        this.datapoints = datapoints;
+        this.bytes = bytes;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public long getDatapoints() {
+        return datapoints;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,304 @@
+package cz.vladimir.amp.segment;
+
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.DatapointListener;
+import cz.vladimir.amp.PointSeries;
+import cz.vladimir.amp.SeriesStore;
+import cz.vladimir.amp.wal.WriteAheadLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps datapoints older than the hot window in immutable segment files mapped into memory, outside of
+ * the Java heap.
+ * <p>
+ * A flush writes the cold datapoints of every point series to a new segment and attaches its slices to
+ * the series, which drop the datapoints from the heap. When there are more segments than allowed, they
+ * are compacted into one, merging the slices of each series. Slices of deleted series are left out of
+ * the segments in the background, on the flush thread, so that deletes do not wait for segments to be
+ * rewritten; until then the write-ahead log, replayed over the segments on startup, keeps the deletes.
+ * On startup the segments are mapped and attached again, so loading them does
+ * not depend on the amount of data they hold.
+ */
+public class SegmentStore implements DatapointListener, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentStore.class);
+
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final Path directory;
+    private final SeriesStore seriesStore;
+    private final Duration hotWindow;
+    private final int maxSegments;
+    private final long intervalInMillis;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextGeneration = 1;
+    private WriteAheadLog writeAheadLog;
+    private volatile ScheduledExecutorService flusher;
+
+    public SegmentStore(Path directory, SeriesStore seriesStore, Duration hotWindow, int maxSegments) {
+        this.directory = directory;
+        this.seriesStore = seriesStore;
+        this.hotWindow = hotWindow;
+        this.maxSegments = maxSegments;
+        this.intervalInMillis = seriesStore.getIntervalInMillis();
+    }
+
+    /**
+     * Maps the existing segments and attaches their slices to the series store. Any datapoints the
+     * series hold already, e.g. replayed from the write-ahead log, are dropped from the heap when a
+     * slice contains them.
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.sorted().collect(Collectors.toList());
+        }
+
+        long started = System.nanoTime();
+        long points = 0;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(SegmentWriter.TEMPORARY_SUFFIX)) {
+                Files.delete(file);
+            } else if (name.startsWith(Segment.PREFIX) && name.endsWith(Segment.SUFFIX)) {
+                Segment segment = Segment.open(file, intervalInMillis);
+                for (Segment.Entry entry : segment.getEntries()) {
+                    entry.setOwner(seriesStore.attach(entry.getDevice(), entry.getUser(), entry.getSlice()));
+                    points += entry.getSlice().size();
+                }
+                segments.add(segment);
+                nextGeneration = Math.max(nextGeneration, segment.getGeneration() + 1);
+            }
+        }
+        log.info("Mapped {} segments with {} datapoints in {} ms", segments.size(), points,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    /**
+     * Lets the store release the files of the log once their datapoints are flushed to segments.
+     */
+    public synchronized void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    public synchronized void start(Duration flushInterval) {
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = flushInterval.toNanos();
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (IOException | RuntimeException e) {
+                log.error("Flushing datapoints to a segment failed", e);
+            }
+        }, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Moves the datapoints of intervals older than the hot window to new segments, and drops the slices of
+     * series evicted or expired since the last flush from the segments.
+     *
+     * @return number of datapoints moved
+     */
+    public synchronized long flush() throws IOException {
+        long toInterval = Math.floorDiv(System.currentTimeMillis() - hotWindow.toMillis(), intervalInMillis);
+        if (writeAheadLog != null) {
+            writeAheadLog.roll();
+        }
+
+        Map<PointSeries, PointBatch> batches = new LinkedHashMap<>();
+        Map<PointSeries, String[]> identifiers = new HashMap<>();
+        seriesStore.forEachSeries((device, user, series) -> {
+            PointBatch batch = new PointBatch();
+            series.copyHotPoints(toInterval, batch);
+            if (batch.size() > 0) {
+                batch.sort();
+                batches.put(series, batch);
+                identifiers.put(series, new String[]{device, user});
+            }
+        });
+
+        long points = write(batches, identifiers, Collections.emptyMap());
+        if (segments.size() > maxSegments) {
+            compact(new ArrayList<>(segments));
+        } else {
+            removeDeleted();
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.release(toInterval * intervalInMillis);
+        }
+        return points;
+    }
+
+    public synchronized SegmentStatistics getStatistics() {
+        long points = 0;
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.getBytes();
+            for (Segment.Entry entry : segment.getEntries()) {
+                points += entry.getSlice().size();
+            }
+        }
+        return new SegmentStatistics(segments.size(), points, bytes);
+    }
+
+    @Override
+    public void datapointStored(Datapoint dataPoint) {
+    }
+
+    @Override
+    public void userDatapointsDeleted(String user) {
+        scheduleRemoval();
+    }
+
+    @Override
+    public void deviceDatapointsDeleted(String device) {
+        scheduleRemoval();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+    }
+
+    /**
+     * Lets the flush thread remove the deleted slices, unless it has not been started; the next flush
+     * removes them then.
+     */
+    private void scheduleRemoval() {
+        ScheduledExecutorService flusher = this.flusher;
+        if (flusher != null) {
+            flusher.execute(() -> {
+                try {
+                    removeDeleted();
+                } catch (RuntimeException e) {
+                    log.error("Removing deleted datapoints from segments failed", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Rewrites the segments holding slices of deleted, evicted or expired series without them.
+     */
+    private synchronized void removeDeleted() {
+        List<Segment> affected = segments.stream()
+                .filter(segment -> segment.getEntries().stream().anyMatch(entry -> !isLive(entry)))
+                .collect(Collectors.toList());
+        try {
+            compact(affected);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Deleted datapoints could not be removed from segments", e);
+        }
+    }
+
+    /**
+     * Merges the slices each live series has in the segments into one slice in new segments, and deletes
+     * the old segments.
+     */
+    private void compact(List<Segment> compacted) throws IOException {
+        if (compacted.isEmpty()) {
+            return;
+        }
+        Map<PointSeries, PointBatch> batches = new LinkedHashMap<>();
+        Map<PointSeries, String[]> identifiers = new HashMap<>();
+        Map<PointSeries, List<SegmentSlice>> replaced = new HashMap<>();
+        for (Segment segment : compacted) {
+            for (Segment.Entry entry : segment.getEntries()) {
+                if (!isLive(entry)) {
+                    continue;
+                }
+                SegmentSlice slice = entry.getSlice();
+                PointBatch batch = batches.computeIfAbsent(entry.getOwner(), series -> new PointBatch());
+                long expiredBefore = entry.getOwner().getExpiredBefore();
+                for (int i = 0; i < slice.size(); i++) {
+                    if (slice.getTimestamp(i) >= expiredBefore) {
+                        batch.add(slice.getTimestamp(i), slice.getValue(i));
+                    }
+                }
+                identifiers.put(entry.getOwner(), new String[]{entry.getDevice(), entry.getUser()});
+                replaced.computeIfAbsent(entry.getOwner(), series -> new ArrayList<>()).add(slice);
+            }
+        }
+        batches.values().forEach(PointBatch::sort);
+
+        write(batches, identifiers, replaced);
+        segments.removeAll(compacted);
+        for (Segment segment : compacted) {
+            Files.delete(segment.getFile());
+        }
+        log.info("Compacted {} segments into {}", compacted.size(), segments.size());
+    }
+
+    /**
+     * Writes the batches to new segments and attaches them to their series in place of the replaced slices.
+     *
+     * @return number of datapoints written
+     */
+    private long write(Map<PointSeries, PointBatch> batches, Map<PointSeries, String[]> identifiers,
+                       Map<PointSeries, List<SegmentSlice>> replaced) throws IOException {
+        long points = 0;
+        SegmentWriter writer = null;
+        List<PointSeries> written = new ArrayList<>();
+        try {
+            for (Map.Entry<PointSeries, PointBatch> batch : batches.entrySet()) {
+                if (writer == null) {
+                    writer = new SegmentWriter(directory, nextGeneration++, intervalInMillis);
+                }
+                String[] identifier = identifiers.get(batch.getKey());
+                writer.add(identifier[0], identifier[1], batch.getValue());
+                written.add(batch.getKey());
+                points += batch.getValue().size();
+
+                if (writer.size() >= MAX_SEGMENT_BYTES) {
+                    attach(writer.finish(), written, replaced);
+                    writer = null;
+                    written.clear();
+                }
+            }
+            if (writer != null) {
+                attach(writer.finish(), written, replaced);
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return points;
+    }
+
+    private void attach(Segment segment, List<PointSeries> written, Map<PointSeries, List<SegmentSlice>> replaced) {
+        for (int i = 0; i < written.size(); i++) {
+            PointSeries series = written.get(i);
+            Segment.Entry entry = segment.getEntries().get(i);
+            series.replaceSlices(replaced.getOrDefault(series, Collections.emptyList()), entry.getSlice());
+            entry.setOwner(series);
+        }
+        segments.add(segment);
+    }
+
+    private boolean isLive(Segment.Entry entry) {
+        return seriesStore.isLive(entry.getOwner()) && entry.getOwner().getSlices().contains(entry.getSlice());
+    }
+}
@@ -0,0 +1,122 @@
+package cz.vladimir.amp.segment;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a {@link Segment} to a temporary file, which only replaces the final file once it is complete
+ * and synced to disk.
+ */
+class SegmentWriter implements Closeable {
+
+    static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path file;
+    private final Path temporaryFile;
+    private final long intervalInMillis;
+    private final DataOutputStream data;
+    private final DataOutputStream directory;
+    private final ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+    private long size;
+    private int entries;
+    private boolean finished;
+
+    SegmentWriter(Path directory, long generation, long intervalInMillis) throws IOException {
+        this.file = directory.resolve(Segment.fileName(generation));
+        this.temporaryFile = directory.resolve(Segment.fileName(generation) + TEMPORARY_SUFFIX);
+        this.intervalInMillis = intervalInMillis;
+        this.data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16));
+        this.directory = new DataOutputStream(directoryBytes);
+    }
+
+    /**
+     * @param points datapoints of one series ordered by timestamp, at least one
+     */
+    void add(String device, String user, PointBatch points) throws IOException {
+        long firstInterval = Math.floorDiv(points.getTimestamp(0), intervalInMillis);
+        long lastInterval = Math.floorDiv(points.getTimestamp(points.size() - 1), intervalInMillis);
+        int intervals = Math.toIntExact(lastInterval - firstInterval + 1);
+
+        writeString(directory, device);
+        writeString(directory, user);
+        directory.writeInt(points.size());
+        directory.writeLong(firstInterval);
+        directory.writeInt(intervals);
+        directory.writeLong(size);
+
+        for (int i = 0; i < points.size(); i++) {
+            data.writeLong(points.getTimestamp(i));
+        }
+        for (int i = 0; i < points.size(); i++) {
+            data.writeLong(points.getValue(i));
+        }
+
+        long[] sums = new long[intervals];
+        long[] counts = new long[intervals];
+        for (int i = 0; i < points.size(); i++) {
+            int index = (int) (Math.floorDiv(points.getTimestamp(i), intervalInMillis) - firstInterval);
+            sums[index] += points.getValue(i);
+            counts[index]++;
+        }
+        for (long sum : sums) {
+            data.writeLong(sum);
+        }
+        for (long count : counts) {
+            data.writeLong(count);
+        }
+
+        size += 16L * points.size() + 16L * intervals;
+        entries++;
+    }
+
+    /**
+     * @return bytes of datapoints and aggregates written so far
+     */
+    long size() {
+        return size;
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    Segment finish() throws IOException {
+        directory.flush();
+        directoryBytes.writeTo(data);
+        data.writeLong(size);
+        data.writeInt(entries);
+        data.writeLong(intervalInMillis);
+        data.writeInt(Segment.MAGIC);
+        data.close();
+
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+        return Segment.open(file, intervalInMillis);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            data.close();
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+}
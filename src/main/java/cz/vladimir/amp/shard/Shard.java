@@ -0,0 +1,450 @@
+package cz.vladimir.amp.shard;
+
+import cz.vladimir.amp.AggregateSource;
+import cz.vladimir.amp.IntervalAggregates;
+import cz.vladimir.amp.IntervalSummaries;
+import cz.vladimir.amp.RangeIndex;
+import cz.vladimir.amp.RangeTotal;
+import cz.vladimir.amp.RollupTier;
+import cz.vladimir.amp.Rollups;
+import cz.vladimir.amp.SeriesUsage;
+import cz.vladimir.amp.TopAverages;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToLongFunction;
+
+/**
+ * The devices whose identifiers hash to one shard of {@link ShardedAverageCalculations}, together with
+ * their series. The state is owned by the shard's single thread and must only be touched by tasks
+ * running on its executor, which is why nothing here is synchronized.
+ */
+class Shard {
+
+    private final ExecutorService executor;
+    private final Map<String, Group> devices = new HashMap<>();
+    private final Map<String, Group> users = new HashMap<>();
+
+    Shard(int index) {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-" + index);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return false if the series already contains a datapoint with the timestamp
+     */
+    boolean store(String device, String user, long timestamp, long value, long version) {
+        Group deviceGroup = devices.get(device);
+        if (deviceGroup == null) {
+            deviceGroup = new Group();
+            devices.put(device, deviceGroup);
+        }
+        Series series = deviceGroup.members.get(user);
+        if (series == null) {
+            series = new Series();
+            deviceGroup.members.put(user, series);
+            users.computeIfAbsent(user, key -> new Group()).members.put(device, series);
+        }
+
+        if (timestamp < series.compactedBefore || timestamp < series.expiredBefore || series.points.contains(timestamp)) {
+            return false;
+        }
+        series.points.add(timestamp, value);
+        series.rollups.add(timestamp, value);
+        deviceGroup.version = version;
+        users.get(user).version = version;
+        return true;
+    }
+
+    Group getDevice(String device) {
+        return devices.get(device);
+    }
+
+    Group getUser(String user) {
+        return users.get(user);
+    }
+
+    /**
+     * @return users left without series in this shard by the delete
+     */
+    List<String> deleteDevice(String device, long version) {
+        return delete(device, devices, users, version);
+    }
+
+    void deleteUser(String user, long version) {
+        delete(user, users, devices, version);
+    }
+
+    /**
+     * Sets the version of the users present in this shard.
+     */
+    void setUserVersions(Collection<String> userIdentifiers, long version) {
+        for (String user : userIdentifiers) {
+            Group group = users.get(user);
+            if (group != null) {
+                group.version = version;
+            }
+        }
+    }
+
+    /**
+     * Forgets the datapoints older than the given timestamp and drops the {@link RollupTier#MINUTE} rollups
+     * of them, like compacting a point series does.
+     *
+     * @return number of datapoints forgotten
+     */
+    long compact(long beforeTimestamp, long version) {
+        long dropped = 0;
+        for (Group deviceGroup : devices.values()) {
+            boolean changed = false;
+            for (Map.Entry<String, Series> member : deviceGroup.members.entrySet()) {
+                int seriesDropped = member.getValue().compact(beforeTimestamp);
+                if (seriesDropped > 0) {
+                    dropped += seriesDropped;
+                    changed = true;
+                    users.get(member.getKey()).version = version;
+                }
+            }
+            if (changed) {
+                deviceGroup.version = version;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Forgets the datapoints older than the cutoff of their device and drops the buckets of every rollup
+     * tier lying entirely before it.
+     *
+     * @return number of datapoints dropped
+     */
+    long expire(ToLongFunction<String> cutoffOfDevice, long version) {
+        long dropped = 0;
+        for (Map.Entry<String, Group> device : devices.entrySet()) {
+            long cutoff = cutoffOfDevice.applyAsLong(device.getKey());
+            if (cutoff == Long.MIN_VALUE) {
+                continue;
+            }
+            for (Map.Entry<String, Series> member : device.getValue().members.entrySet()) {
+                long seriesDropped = member.getValue().expire(cutoff);
+                if (seriesDropped > 0) {
+                    dropped += seriesDropped;
+                    device.getValue().version = version;
+                    users.get(member.getKey()).version = version;
+                }
+            }
+        }
+        return dropped;
+    }
+
+    List<SeriesUsage> getSeriesUsage() {
+        List<SeriesUsage> usage = new ArrayList<>();
+        for (Map.Entry<String, Group> device : devices.entrySet()) {
+            for (Map.Entry<String, Series> member : device.getValue().members.entrySet()) {
+                Series series = member.getValue();
+                usage.add(new SeriesUsage(device.getKey(), member.getKey(), series.estimatedBytes(), series.points.size(),
+                        Math.max(device.getValue().lastQueried, users.get(member.getKey()).lastQueried)));
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Drops the series of the device and user, together with the groups left without series.
+     *
+     * @return number of datapoints dropped
+     */
+    long evict(String device, String user, long version) {
+        Group deviceGroup = devices.get(device);
+        Series series = deviceGroup == null ? null : deviceGroup.members.remove(user);
+        if (series == null) {
+            return 0;
+        }
+        Group userGroup = users.get(user);
+        userGroup.members.remove(device);
+        deviceGroup.version = version;
+        userGroup.version = version;
+        if (deviceGroup.members.isEmpty()) {
+            devices.remove(device);
+        }
+        if (userGroup.members.isEmpty()) {
+            users.remove(user);
+        }
+        return series.points.size();
+    }
+
+    /**
+     * Devices are never split across shards, so the top devices of the fleet are among the top devices of
+     * their shards.
+     */
+    TopAverages getTopDevices(int count, long from, long to) {
+        TopAverages top = new TopAverages(count);
+        devices.forEach((device, group) -> top.add(device, group.getTotal(from, to)));
+        return top;
+    }
+
+    /**
+     * @return totals of the datapoints every user has on this shard
+     */
+    Map<String, RangeTotal> getUserTotals(long from, long to) {
+        Map<String, RangeTotal> totals = new HashMap<>();
+        users.forEach((user, group) -> {
+            RangeTotal total = group.getTotal(from, to);
+            if (total.getCount() > 0) {
+                totals.put(user, total);
+            }
+        });
+        return totals;
+    }
+
+    /**
+     * @return all series of the shard as a single source, which must only be read on the shard's thread too
+     */
+    AggregateSource getFleet() {
+        return new Fleet();
+    }
+
+    int getDeviceCount() {
+        return devices.size();
+    }
+
+    int getUserCount() {
+        return users.size();
+    }
+
+    long getDeviceCharacters() {
+        return devices.keySet().stream().mapToLong(String::length).sum();
+    }
+
+    long getUserCharacters() {
+        return users.keySet().stream().mapToLong(String::length).sum();
+    }
+
+    /**
+     * Removes the group and its series from the groups of the other kind, giving them the version and
+     * dropping those left empty.
+     *
+     * @return identifiers of the dropped groups of the other kind
+     */
+    private List<String> delete(String identifier, Map<String, Group> groups, Map<String, Group> otherGroups, long version) {
+        Group group = groups.remove(identifier);
+        if (group == null) {
+            return Collections.emptyList();
+        }
+        List<String> dropped = new ArrayList<>();
+        for (String other : group.members.keySet()) {
+            Group otherGroup = otherGroups.get(other);
+            otherGroup.members.remove(identifier);
+            otherGroup.version = version;
+            if (otherGroup.members.isEmpty()) {
+                otherGroups.remove(other);
+                dropped.add(other);
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Series of one device or one user within the shard, keyed by the other identifier of each series.
+     */
+    class Group implements AggregateSource {
+        private final Map<String, Series> members = new HashMap<>();
+        private long version;
+        private long lastQueried = System.currentTimeMillis();
+
+        long getVersion() {
+            return version;
+        }
+
+        void markQueried() {
+            lastQueried = System.currentTimeMillis();
+        }
+
+        @Override
+        public long getFirstInterval(RollupTier tier) {
+            long first = Long.MAX_VALUE;
+            for (Series series : members.values()) {
+                first = Math.min(first, series.rollups.getFirstInterval(tier));
+            }
+            return first;
+        }
+
+        @Override
+        public long getLastInterval(RollupTier tier) {
+            long last = Long.MIN_VALUE;
+            for (Series series : members.values()) {
+                last = Math.max(last, series.rollups.getLastInterval(tier));
+            }
+            return last;
+        }
+
+        @Override
+        public IntervalSummaries getSummaries(long fromInterval, long toInterval) {
+            IntervalSummaries summaries = new IntervalSummaries(RollupTier.QUARTER_HOUR.getIntervalInMillis());
+            for (Series series : members.values()) {
+                summaries.merge(series.rollups.copySummaries(fromInterval, toInterval));
+            }
+            return summaries;
+        }
+
+        @Override
+        public RangeTotal getTotal(long from, long to) {
+            RangeTotal total = new RangeTotal();
+            for (Series series : members.values()) {
+                series.addTotal(total, from, to);
+            }
+            return total;
+        }
+
+        @Override
+        public IntervalAggregates getAggregates(RollupTier tier, long fromInterval, long toInterval) {
+            IntervalAggregates aggregates = new IntervalAggregates(tier.getIntervalInMillis());
+            for (Series series : members.values()) {
+                aggregates.merge(series.rollups.copy(tier, fromInterval, toInterval));
+            }
+            long spanFrom = Math.max(fromInterval, getFirstInterval(tier));
+            long spanTo = Math.min(toInterval - 1, getLastInterval(tier));
+            if (spanFrom <= spanTo) {
+                aggregates.include(spanFrom);
+                aggregates.include(spanTo);
+            }
+            return aggregates;
+        }
+    }
+
+    private class Fleet implements AggregateSource {
+
+        @Override
+        public long getFirstInterval(RollupTier tier) {
+            long first = Long.MAX_VALUE;
+            for (Group group : devices.values()) {
+                first = Math.min(first, group.getFirstInterval(tier));
+            }
+            return first;
+        }
+
+        @Override
+        public long getLastInterval(RollupTier tier) {
+            long last = Long.MIN_VALUE;
+            for (Group group : devices.values()) {
+                last = Math.max(last, group.getLastInterval(tier));
+            }
+            return last;
+        }
+
+        @Override
+        public IntervalSummaries getSummaries(long fromInterval, long toInterval) {
+            IntervalSummaries summaries = new IntervalSummaries(RollupTier.QUARTER_HOUR.getIntervalInMillis());
+            for (Group group : devices.values()) {
+                summaries.merge(group.getSummaries(fromInterval, toInterval));
+            }
+            return summaries;
+        }
+
+        @Override
+        public RangeTotal getTotal(long from, long to) {
+            RangeTotal total = new RangeTotal();
+            for (Group group : devices.values()) {
+                total.add(group.getTotal(from, to));
+            }
+            return total;
+        }
+
+        @Override
+        public IntervalAggregates getAggregates(RollupTier tier, long fromInterval, long toInterval) {
+            IntervalAggregates aggregates = new IntervalAggregates(tier.getIntervalInMillis());
+            for (Group group : devices.values()) {
+                aggregates.merge(group.getAggregates(tier, fromInterval, toInterval));
+            }
+            return aggregates;
+        }
+    }
+
+    private static class Series {
+        private RangeIndex points = new RangeIndex();
+        private final Rollups rollups = new Rollups();
+        private Rollups compacted;
+        private long compactedBefore = Long.MIN_VALUE;
+        private long expiredBefore = Long.MIN_VALUE;
+
+        private int compact(long beforeTimestamp) {
+            if (!rollups.mayHoldDataBefore(beforeTimestamp)) {
+                return 0;
+            }
+            if (compacted == null) {
+                compacted = new Rollups(RollupTier.QUARTER_HOUR, RollupTier.HOUR, RollupTier.DAY);
+            }
+            RangeIndex retained = retainFrom(beforeTimestamp, compacted);
+            int dropped = points.size() - retained.size();
+            if (dropped > 0) {
+                points = retained;
+                rollups.dropBefore(RollupTier.MINUTE, beforeTimestamp);
+                compactedBefore = Math.max(compactedBefore, beforeTimestamp);
+            }
+            return dropped;
+        }
+
+        private long expire(long beforeTimestamp) {
+            if (beforeTimestamp <= expiredBefore) {
+                return 0;
+            }
+            expiredBefore = beforeTimestamp;
+            int forgotten = points.size();
+            points = retainFrom(beforeTimestamp, null);
+            forgotten -= points.size();
+            if (compacted != null) {
+                compacted.dropBefore(beforeTimestamp);
+            }
+            return Math.max(forgotten, rollups.dropBefore(beforeTimestamp));
+        }
+
+        /**
+         * Adds the datapoints in the range and the compacted quarter-hours lying entirely within it, like
+         * {@link cz.vladimir.amp.PointSeries#getTotal(long, long)} does.
+         */
+        private void addTotal(RangeTotal total, long from, long to) {
+            points.addTotal(total, from, to);
+            if (compacted != null) {
+                long quarterHour = RollupTier.QUARTER_HOUR.getIntervalInMillis();
+                long fromInterval = Math.floorDiv(from, quarterHour) + (Math.floorMod(from, quarterHour) == 0 ? 0 : 1);
+                long toInterval = Math.floorDiv(to, quarterHour);
+                if (fromInterval < toInterval) {
+                    IntervalAggregates aggregates = compacted.copy(RollupTier.QUARTER_HOUR, fromInterval, toInterval);
+                    total.add(aggregates.getSum(), aggregates.getCount());
+                }
+            }
+        }
+
+        private long estimatedBytes() {
+            return 48 + points.estimatedBytes() + rollups.estimatedBytes() + (compacted == null ? 0 : compacted.estimatedBytes());
+        }
+
+        /**
+         * @param dropped rollups the datapoints not retained are added to, if any
+         */
+        private RangeIndex retainFrom(long beforeTimestamp, Rollups dropped) {
+            RangeIndex retained = new RangeIndex();
+            points.forEach((timestamp, value) -> {
+                if (timestamp >= beforeTimestamp) {
+                    retained.add(timestamp, value);
+                } else if (dropped != null) {
+                    dropped.add(timestamp, value);
+                }
+            });
+            return retained;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package cz.vladimir.amp.shard;
+
+import cz.vladimir.amp.AmpProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConditionalOnProperty(prefix = "amp", name = "engine", havingValue = "sharded")
+public class ShardConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public ShardedAverageCalculations shardedAverageCalculations(AmpProperties properties) {
+        return new ShardedAverageCalculations(properties.getShards());
+    }
+}
@@ -0,0 +1,488 @@
+package cz.vladimir.amp.shard;
+
+import cz.vladimir.amp.*;
+import cz.vladimir.amp.exception.DataNotFoundException;
+import cz.vladimir.amp.exception.DuplicateDatapointException;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Splits the devices across shards by the hash of the device identifier. Every shard is owned by a
+ * single thread which applies the operations sent to it one after another, so shard state is never
+ * locked. Operations on a device run on its shard only; operations on a user run on every shard and
+ * their results are merged.
+ * <p>
+ * The series keep their rollups and a {@link RangeIndex} of their datapoints, which also rejects duplicates,
+ * on the heap only, so the segment store cannot be used with this implementation.
+ */
+public class ShardedAverageCalculations implements AverageCalculations, Closeable {
+
+    private final Shard[] shards;
+    private final AtomicLong versions = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final ChangeListeners listeners = new ChangeListeners();
+    private final LongAdder duplicatesRejected = new LongAdder();
+    private final Contention contention = new Contention();
+
+    public ShardedAverageCalculations(int shardCount) {
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    public void storeDataPoint(Datapoint dataPoint) {
+        listeners.store(() -> add(dataPoint), listener -> listener.datapointStored(dataPoint));
+    }
+
+    private void add(Datapoint dataPoint) {
+        boolean stored = call(shardOf(dataPoint.getDevice()), shard -> shard.store(dataPoint.getDevice(), dataPoint.getUser(),
+                dataPoint.getTimestamp(), dataPoint.getValue(), versions.incrementAndGet()));
+        if (!stored) {
+            duplicatesRejected.increment();
+            throw new DuplicateDatapointException();
+        }
+    }
+
+    /**
+     * Every shard receives its part of the batch as a single task.
+     */
+    public List<Integer> storeDataPoints(List<Datapoint> dataPoints) {
+        List<Datapoint> stored = new ArrayList<>(dataPoints.size());
+        List<Integer> duplicates = new ArrayList<>();
+        listeners.store(() -> addAll(dataPoints, stored, duplicates), listener -> {
+            if (!stored.isEmpty()) {
+                listener.datapointsStored(stored);
+            }
+        });
+        return duplicates;
+    }
+
+    private void addAll(List<Datapoint> dataPoints, List<Datapoint> stored, List<Integer> duplicates) {
+        int[] counts = new int[shards.length];
+        int[] shardIndexes = new int[dataPoints.size()];
+        for (int i = 0; i < dataPoints.size(); i++) {
+            shardIndexes[i] = shardIndexOf(dataPoints.get(i).getDevice());
+            counts[shardIndexes[i]]++;
+        }
+        int[][] positions = new int[shards.length][];
+        for (int i = 0; i < shards.length; i++) {
+            positions[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < dataPoints.size(); i++) {
+            positions[shardIndexes[i]][counts[shardIndexes[i]]++] = i;
+        }
+
+        List<CompletableFuture<boolean[]>> results = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            int[] shardPositions = positions[i];
+            results.add(submit(shards[i], shard -> {
+                long version = versions.incrementAndGet();
+                boolean[] added = new boolean[shardPositions.length];
+                for (int j = 0; j < shardPositions.length; j++) {
+                    Datapoint dataPoint = dataPoints.get(shardPositions[j]);
+                    added[j] = shard.store(dataPoint.getDevice(), dataPoint.getUser(), dataPoint.getTimestamp(), dataPoint.getValue(), version);
+                }
+                return added;
+            }));
+        }
+
+        boolean[] added = new boolean[dataPoints.size()];
+        for (int i = 0; i < shards.length; i++) {
+            boolean[] shardAdded = join(results.get(i));
+            for (int j = 0; j < shardAdded.length; j++) {
+                added[positions[i][j]] = shardAdded[j];
+            }
+        }
+
+        for (int i = 0; i < added.length; i++) {
+            if (added[i]) {
+                stored.add(dataPoints.get(i));
+            } else {
+                duplicates.add(i);
+            }
+        }
+        duplicatesRejected.add(duplicates.size());
+    }
+
+    public List<AverageForInterval> getAveragesForDevice(String device, IntervalQuery query) {
+        return getDeviceAverages(device, Collections.emptyList(), query);
+    }
+
+    public List<AverageForInterval> getMovingAveragesForDevice(String device, List<Long> windowSizes, IntervalQuery query) {
+        return getDeviceAverages(device, windowSizes, query);
+    }
+
+    public List<AverageForInterval> getAveragesForUser(String user, IntervalQuery query) {
+        return getUserAverages(user, Collections.emptyList(), query);
+    }
+
+    public List<AverageForInterval> getMovingAveragesForUser(String user, List<Long> windowSizes, IntervalQuery query) {
+        return getUserAverages(user, windowSizes, query);
+    }
+
+    public List<SummaryForInterval> getSummariesForDevice(String device, List<Double> percentiles, IntervalQuery query) {
+        return call(shardOf(device), shard -> {
+            Shard.Group group = shard.getDevice(device);
+            if (group == null) {
+                throw new DataNotFoundException();
+            }
+            group.markQueried();
+            return IntervalStatistics.calculate(group, percentiles, query);
+        });
+    }
+
+    public List<SummaryForInterval> getSummariesForUser(String user, List<Double> percentiles, IntervalQuery query) {
+        return IntervalStatistics.calculate(new MergedAggregates(shard -> queriedUser(shard, user)), percentiles, query);
+    }
+
+    /**
+     * Shards rank their devices in parallel, on their own threads, so the parallelism of the ranking is the
+     * number of shards.
+     */
+    public List<GroupAverage> getTopDevices(int count, IntervalQuery query) {
+        TopAverages top = new TopAverages(count);
+        callAll(shard -> shard.getTopDevices(count, query.getFromTime(), query.getToTime())).forEach(top::merge);
+        return top.toList();
+    }
+
+    /**
+     * A user may have devices on every shard, so shards sum up the datapoints of all their users and only
+     * the merged totals are ranked.
+     */
+    public List<GroupAverage> getTopUsers(int count, IntervalQuery query) {
+        Map<String, RangeTotal> totals = new HashMap<>();
+        callAll(shard -> shard.getUserTotals(query.getFromTime(), query.getToTime()))
+                .forEach(shardTotals -> shardTotals.forEach((user, total) -> totals.merge(user, total, (left, right) -> {
+                    left.add(right);
+                    return left;
+                })));
+        TopAverages top = new TopAverages(count);
+        totals.forEach(top::add);
+        return top.toList();
+    }
+
+    public RangeTotal getRangeTotalForDevice(String device, long from, long to) {
+        return call(shardOf(device), shard -> {
+            Shard.Group group = shard.getDevice(device);
+            if (group == null) {
+                throw new DataNotFoundException();
+            }
+            group.markQueried();
+            return group.getTotal(from, to);
+        });
+    }
+
+    public RangeTotal getRangeTotalForUser(String user, long from, long to) {
+        List<RangeTotal> shardTotals = callAll(shard -> {
+            Shard.Group group = queriedUser(shard, user);
+            return group == null ? null : group.getTotal(from, to);
+        });
+        if (shardTotals.stream().allMatch(Objects::isNull)) {
+            throw new DataNotFoundException();
+        }
+        RangeTotal total = new RangeTotal();
+        shardTotals.stream().filter(Objects::nonNull).forEach(total::add);
+        return total;
+    }
+
+    public List<AverageForInterval> getFleetAverages(IntervalQuery query) {
+        return IntervalAverages.calculate(new MergedAggregates(Shard::getFleet), Collections.emptyList(), query);
+    }
+
+    public long getDeviceVersion(String device) {
+        return call(shardOf(device), shard -> {
+            Shard.Group group = shard.getDevice(device);
+            if (group == null) {
+                throw new DataNotFoundException();
+            }
+            return group.getVersion();
+        });
+    }
+
+    public long getUserVersion(String user) {
+        long version = callAll(shard -> {
+            Shard.Group group = shard.getUser(user);
+            return group == null ? Long.MIN_VALUE : group.getVersion();
+        }).stream().mapToLong(Long::longValue).max().orElse(Long.MIN_VALUE);
+        if (version == Long.MIN_VALUE) {
+            throw new DataNotFoundException();
+        }
+        return version;
+    }
+
+    public void deleteUserDatapoints(String user) {
+        listeners.delete(() -> callAll(shard -> {
+            shard.deleteUser(user, versions.incrementAndGet());
+            return null;
+        }), listener -> listener.userDatapointsDeleted(user));
+    }
+
+    /**
+     * Users left without series in the device's shard get a new version in the other shards too, since the
+     * version of a user is the maximum over the shards and would go back otherwise.
+     */
+    public void deleteDeviceDatapoints(String device) {
+        listeners.delete(() -> {
+            List<String> droppedUsers = call(shardOf(device), shard -> shard.deleteDevice(device, versions.incrementAndGet()));
+            if (!droppedUsers.isEmpty()) {
+                setUserVersions(droppedUsers);
+            }
+        }, listener -> listener.deviceDatapointsDeleted(device));
+    }
+
+    /**
+     * Deletes drop the series of the device or user right away, in time proportional to the number of its
+     * series rather than datapoints, so there is nothing left to purge.
+     */
+    public long purgeDeleted() {
+        return 0;
+    }
+
+    public long compactDatapoints(long beforeTimestamp) {
+        return callAll(shard -> shard.compact(beforeTimestamp, versions.incrementAndGet())).stream()
+                .mapToLong(Long::longValue).sum();
+    }
+
+    public long expireDatapoints(ToLongFunction<String> cutoffOfDevice) {
+        return callAll(shard -> shard.expire(cutoffOfDevice, versions.incrementAndGet())).stream()
+                .mapToLong(Long::longValue).sum();
+    }
+
+    public List<SeriesUsage> getSeriesUsage() {
+        List<SeriesUsage> usage = new ArrayList<>();
+        callAll(Shard::getSeriesUsage).forEach(usage::addAll);
+        return usage;
+    }
+
+    /**
+     * A user left without series in the device's shard gets a new version in the other shards too, like
+     * after {@link #deleteDeviceDatapoints(String)}.
+     */
+    public long evictSeries(String device, String user) {
+        long[] evicted = new long[1];
+        boolean userDropped = call(shardOf(device), shard -> {
+            evicted[0] = shard.evict(device, user, versions.incrementAndGet());
+            return evicted[0] > 0 && shard.getUser(user) == null;
+        });
+        if (userDropped) {
+            setUserVersions(Collections.singletonList(user));
+        }
+        return evicted[0];
+    }
+
+    /**
+     * Identifiers are kept by each shard they occur in, so a user is counted once per shard holding its data.
+     */
+    public Map<String, DictionaryStatistics> getDictionaryStatistics() {
+        List<long[]> counts = callAll(shard -> new long[]{shard.getDeviceCount(), shard.getDeviceCharacters(),
+                shard.getUserCount(), shard.getUserCharacters()});
+        long[] total = new long[4];
+        counts.forEach(count -> Arrays.setAll(total, i -> total[i] + count[i]));
+
+        Map<String, DictionaryStatistics> statistics = new LinkedHashMap<>();
+        statistics.put("devices", new DictionaryStatistics(total[0], IdentifierDictionary.estimatedBytes(total[0], total[1])));
+        statistics.put("users", new DictionaryStatistics(total[2], IdentifierDictionary.estimatedBytes(total[2], total[3])));
+        return statistics;
+    }
+
+    public EngineStatistics getEngineStatistics() {
+        return new EngineStatistics(duplicatesRejected.sum(), contention.getWaits(), contention.getWaitNanos());
+    }
+
+    public void addListener(DatapointListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.getExecutor().shutdown();
+        }
+    }
+
+    private List<AverageForInterval> getDeviceAverages(String device, List<Long> windowSizes, IntervalQuery query) {
+        return call(shardOf(device), shard -> {
+            Shard.Group group = shard.getDevice(device);
+            if (group == null) {
+                throw new DataNotFoundException();
+            }
+            group.markQueried();
+            return IntervalAverages.calculate(group, windowSizes, query);
+        });
+    }
+
+    private List<AverageForInterval> getUserAverages(String user, List<Long> windowSizes, IntervalQuery query) {
+        return IntervalAverages.calculate(new MergedAggregates(shard -> queriedUser(shard, user)), windowSizes, query);
+    }
+
+    private void setUserVersions(List<String> users) {
+        long version = versions.incrementAndGet();
+        callAll(shard -> {
+            shard.setUserVersions(users, version);
+            return null;
+        });
+    }
+
+    private static Shard.Group queriedUser(Shard shard, String user) {
+        Shard.Group group = shard.getUser(user);
+        if (group != null) {
+            group.markQueried();
+        }
+        return group;
+    }
+
+    private Shard shardOf(String device) {
+        return shards[shardIndexOf(device)];
+    }
+
+    private int shardIndexOf(String device) {
+        int hash = device.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    /**
+     * Every task counts as a wait for the shard's thread, lasting until the thread picks it up.
+     */
+    private <T> CompletableFuture<T> submit(Shard shard, Function<Shard, T> task) {
+        long submitted = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            contention.record(System.nanoTime() - submitted);
+            return task.apply(shard);
+        }, shard.getExecutor());
+    }
+
+    private <T> T call(Shard shard, Function<Shard, T> task) {
+        return join(submit(shard, task));
+    }
+
+    private <T> List<T> callAll(Function<Shard, T> task) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            futures.add(submit(shard, task));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        futures.forEach(future -> results.add(join(future)));
+        return results;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Aggregates merged from a source on every shard, such as the series a user has there.
+     */
+    private class MergedAggregates implements AggregateSource {
+        private final Function<Shard, AggregateSource> sourceOf;
+
+        /**
+         * @param sourceOf the source of the shard, or null if the shard has none; applied on the shard's thread
+         */
+        private MergedAggregates(Function<Shard, AggregateSource> sourceOf) {
+            this.sourceOf = sourceOf;
+        }
+
+        @Override
+        public long getFirstInterval(RollupTier tier) {
+            return callAll(shard -> {
+                AggregateSource source = sourceOf.apply(shard);
+                return source == null ? Long.MAX_VALUE : source.getFirstInterval(tier);
+            }).stream().mapToLong(Long::longValue).min().orElse(Long.MAX_VALUE);
+        }
+
+        @Override
+        public long getLastInterval(RollupTier tier) {
+            return callAll(shard -> {
+                AggregateSource source = sourceOf.apply(shard);
+                return source == null ? Long.MIN_VALUE : source.getLastInterval(tier);
+            }).stream().mapToLong(Long::longValue).max().orElse(Long.MIN_VALUE);
+        }
+
+        @Override
+        public IntervalSummaries getSummaries(long fromInterval, long toInterval) {
+            IntervalSummaries summaries = new IntervalSummaries(RollupTier.QUARTER_HOUR.getIntervalInMillis());
+            callAll(shard -> {
+                AggregateSource source = sourceOf.apply(shard);
+                return source == null ? null : source.getSummaries(fromInterval, toInterval);
+            }).stream().filter(Objects::nonNull).forEach(summaries::merge);
+            return summaries;
+        }
+
+        @Override
+        public RangeTotal getTotal(long from, long to) {
+            RangeTotal total = new RangeTotal();
+            callAll(shard -> {
+                AggregateSource source = sourceOf.apply(shard);
+                return source == null ? null : source.getTotal(from, to);
+            }).stream().filter(Objects::nonNull).forEach(total::add);
+            return total;
+        }
+
+        /**
+         * Every shard sums up the intervals of its own source in a single task.
+         */
+        @Override
+        public IntervalAggregates getTotals(long intervalInMillis, long fromInterval, long toInterval) {
+            IntervalAggregates aggregates = new IntervalAggregates(intervalInMillis);
+            callAll(shard -> {
+                AggregateSource source = sourceOf.apply(shard);
+                return source == null ? null : source.getTotals(intervalInMillis, fromInterval, toInterval);
+            }).stream().filter(Objects::nonNull).forEach(aggregates::merge);
+            return aggregates;
+        }
+
+        @Override
+        public IntervalAggregates getAggregates(RollupTier tier, long fromInterval, long toInterval) {
+            List<ShardPart> parts = callAll(shard -> {
+                AggregateSource source = sourceOf.apply(shard);
+                return source == null ? null : new ShardPart(source.getAggregates(tier, fromInterval, toInterval),
+                        source.getFirstInterval(tier), source.getLastInterval(tier));
+            });
+
+            IntervalAggregates aggregates = new IntervalAggregates(tier.getIntervalInMillis());
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (ShardPart part : parts) {
+                if (part != null) {
+                    aggregates.merge(part.aggregates);
+                    first = Math.min(first, part.firstInterval);
+                    last = Math.max(last, part.lastInterval);
+                }
+            }
+            long spanFrom = Math.max(fromInterval, first);
+            long spanTo = Math.min(toInterval - 1, last);
+            if (spanFrom <= spanTo) {
+                aggregates.include(spanFrom);
+                aggregates.include(spanTo);
+            }
+            return aggregates;
+        }
+    }
+
+    private static class ShardPart {
+        private final IntervalAggregates aggregates;
+        private final long firstInterval;
+        private final long lastInterval;
+
+        private ShardPart(IntervalAggregates aggregates, long firstInterval, long lastInterval) {
+            this.aggregates = aggregates;
+            this.firstInterval = firstInterval;
+            this.lastInterval = lastInterval;
+        }
+    }
+}
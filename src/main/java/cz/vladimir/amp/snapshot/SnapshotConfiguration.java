@@ -0,0 +1,32 @@
+package cz.vladimir.amp.snapshot;
+
+import cz.vladimir.amp.AmpProperties;
+import cz.vladimir.amp.SeriesStore;
+import cz.vladimir.amp.wal.WriteAheadLog;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.lang.Nullable;
+
+import java.nio.file.Paths;
+
+@Configuration
+@ConditionalOnProperty(prefix = "amp.snapshot", name = "enabled", havingValue = "true")
+public class SnapshotConfiguration {
+
+    /**
+     * The snapshot is loaded by {@link cz.vladimir.amp.PersistenceInitializer} before the web server accepts requests.
+     * The store releases the files of the write-ahead log unless the segment store does, which keeps the
+     * deletes the segments do not reflect yet. Depending on the log, the store is closed before it, so the
+     * last snapshot releases the log as well.
+     */
+    @Bean(destroyMethod = "close")
+    public SnapshotStore snapshotStore(AmpProperties properties, SeriesStore seriesStore, @Nullable WriteAheadLog writeAheadLog) {
+        AmpProperties.Snapshot snapshot = properties.getSnapshot();
+        SnapshotStore snapshotStore = new SnapshotStore(Paths.get(snapshot.getFile()), seriesStore, snapshot.getLoadThreads());
+        if (!properties.getSegments().isEnabled()) {
+            snapshotStore.setWriteAheadLog(writeAheadLog);
+        }
+        return snapshotStore;
+    }
+}
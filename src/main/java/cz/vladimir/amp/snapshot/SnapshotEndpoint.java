@@ -0,0 +1,27 @@
+package cz.vladimir.amp.snapshot;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+
+@RestController
+@ConditionalOnProperty(prefix = "amp.snapshot", name = "enabled", havingValue = "true")
+public class SnapshotEndpoint {
+
+    @Autowired
+    private SnapshotStore snapshotStore;
+
+    @GetMapping("/admin/snapshot")
+    public SnapshotStatistics getStatistics(){
+        return snapshotStore.getStatistics();
+    }
+
+    @PostMapping("/admin/snapshot")
+    public SnapshotStatistics writeSnapshot() throws IOException {
+        return snapshotStore.write();
+    }
+}
@@ -0,0 +1,65 @@
+package cz.vladimir.amp.snapshot;
+
+public class SnapshotStatistics {
+    private long snapshots;
+    private int series;
+    private long datapoints;
+    private long bytes;
+    private long millis;
+    private Long timestamp;
+    private int loadedSeries;
+    private long loadMillis;
+
+    public SnapshotStatistics(long snapshots, int series, long datapoints, long bytes, long millis, Long timestamp,
+                              int loadedSeries, long loadMillis) {
+        this.snapshots = snapshots;
+        this.series = series;
+        this.datapoints = datapoints;
+        this.bytes = bytes;
+        this.millis = millis;
+        this.timestamp = timestamp;
+        this.loadedSeries = loadedSeries;
+        this.loadMillis = loadMillis;
+    }
+
+    /**
+     * Number of snapshots written since startup.
+     */
+    public long getSnapshots() {
+        return snapshots;
+    }
+
+    public int getSeries() {
+        return series;
+    }
+
+    public long getDatapoints() {
+        return datapoints;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Time the last snapshot was started at, null before the first one.
+     */
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Number of series restored from the snapshot on startup.
+     */
+    public int getLoadedSeries() {
+        return loadedSeries;
+    }
+
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+}
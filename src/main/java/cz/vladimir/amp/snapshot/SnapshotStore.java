@@ -0,0 +1,263 @@
+package cz.vladimir.amp.snapshot;
+
+import cz.vladimir.amp.SeriesSnapshot;
+import cz.vladimir.amp.SeriesStore;
+import cz.vladimir.amp.wal.WriteAheadLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the state every point series keeps on the heap into a single snapshot file and restores it on
+ * startup, so that a node starts warm instead of empty or replaying every datapoint.
+ * <p>
+ * The file starts with a header and holds one frame per series, prefixed with its length and CRC32 like
+ * the frames of the write-ahead log, and ends with a frame of length zero followed by the number of
+ * frames, so that a corrupt or incomplete file is detected. Hot datapoints are stored as the compressed
+ * blocks the series keep anyway. A snapshot is written to a temporary file and moved over the previous
+ * one only once complete.
+ * <p>
+ * Given the write-ahead log, the log is rolled before each snapshot, since every change logged before the
+ * roll is already applied to the series, and the files closed by the roll are released once the
+ * snapshot is in place. The changes logged after the roll are replayed over the snapshot on startup.
+ * <p>
+ * Writing a snapshot holds the lock of one series at a time, only to compress its open block, so ingest
+ * is never blocked for longer. Loading reads the frames sequentially and decodes and restores them on
+ * several threads in parallel.
+ */
+public class SnapshotStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotStore.class);
+
+    static final int MAGIC = 0x414D5053;
+    static final int VERSION = 1;
+    static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final Path file;
+    private final SeriesStore seriesStore;
+    private final int loadThreads;
+    private WriteAheadLog writeAheadLog;
+
+    private long snapshots;
+    private int lastSeries;
+    private long lastDatapoints;
+    private long lastBytes;
+    private long lastMillis;
+    private Long lastTimestamp;
+    private int loadedSeries;
+    private long loadMillis;
+    private volatile ScheduledExecutorService writer;
+
+    public SnapshotStore(Path file, SeriesStore seriesStore, int loadThreads) {
+        this.file = file;
+        this.seriesStore = seriesStore;
+        this.loadThreads = loadThreads;
+    }
+
+    /**
+     * Restores the snapshot file into the series store, if there is one.
+     */
+    public synchronized void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long started = System.nanoTime();
+        ExecutorService decoders = Executors.newFixedThreadPool(loadThreads, runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlight = new Semaphore(loadThreads * 4);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        AtomicInteger restored = new AtomicInteger();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)), BUFFER_BYTES))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unsupported snapshot " + file);
+            }
+            input.readLong();
+            long frames = 0;
+            while (true) {
+                int length = input.readInt();
+                int checksum = input.readInt();
+                if (length == 0) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Corrupt frame " + frames + " in snapshot " + file);
+                }
+                frames++;
+                inFlight.acquireUninterruptibly();
+                if (failure.get() != null) {
+                    break;
+                }
+                decoders.execute(() -> {
+                    try {
+                        DataInputStream frame = new DataInputStream(new ByteArrayInputStream(payload));
+                        String device = frame.readUTF();
+                        String user = frame.readUTF();
+                        seriesStore.restore(device, user, SeriesSnapshot.readFrom(frame));
+                        restored.incrementAndGet();
+                    } catch (IOException | RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            if (failure.get() == null && input.readLong() != frames) {
+                throw new IOException("Incomplete snapshot " + file);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Incomplete snapshot " + file, e);
+        } finally {
+            inFlight.acquireUninterruptibly(loadThreads * 4);
+            decoders.shutdown();
+        }
+        if (failure.get() != null) {
+            throw new IOException("Snapshot " + file + " could not be restored", failure.get());
+        }
+        loadedSeries = restored.get();
+        loadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        log.info("Restored {} series from snapshot {} in {} ms", loadedSeries, file, loadMillis);
+    }
+
+    /**
+     * Lets the store release the files of the log once they are covered by a snapshot.
+     */
+    public synchronized void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    /**
+     * Writes the state of every series to a new snapshot file replacing the previous one.
+     */
+    public synchronized SnapshotStatistics write() throws IOException {
+        long started = System.nanoTime();
+        long timestamp = System.currentTimeMillis();
+        Path temporary = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        long rolledLog = writeAheadLog != null ? writeAheadLog.roll() : 0;
+        int[] series = new int[1];
+        long[] datapoints = new long[1];
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(timestamp);
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(64 * 1024);
+            DataOutputStream frame = new DataOutputStream(payload);
+            try {
+                seriesStore.forEachSeries((device, user, pointSeries) -> {
+                    SeriesSnapshot snapshot = pointSeries.snapshot();
+                    if (snapshot.size() == 0 && snapshot.getCompacted() == null) {
+                        return;
+                    }
+                    try {
+                        payload.reset();
+                        frame.writeUTF(device);
+                        frame.writeUTF(user);
+                        snapshot.writeTo(frame);
+                        CRC32 crc = new CRC32();
+                        crc.update(payload.toByteArray(), 0, payload.size());
+                        output.writeInt(payload.size());
+                        output.writeInt((int) crc.getValue());
+                        payload.writeTo(output);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    series[0]++;
+                    datapoints[0] += snapshot.size();
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            output.writeInt(0);
+            output.writeInt(0);
+            output.writeLong(series[0]);
+            output.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (writeAheadLog != null) {
+            writeAheadLog.releaseRolled(rolledLog);
+        }
+
+        snapshots++;
+        lastSeries = series[0];
+        lastDatapoints = datapoints[0];
+        lastBytes = Files.size(file);
+        lastMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        lastTimestamp = timestamp;
+        log.info("Wrote snapshot of {} series with {} datapoints, {} bytes, in {} ms", lastSeries, lastDatapoints, lastBytes, lastMillis);
+        return getStatistics();
+    }
+
+    public synchronized SnapshotStatistics getStatistics() {
+        return new SnapshotStatistics(snapshots, lastSeries, lastDatapoints, lastBytes, lastMillis, lastTimestamp, loadedSeries, loadMillis);
+    }
+
+    /**
+     * Starts writing snapshots periodically on a background thread.
+     */
+    public synchronized void start(Duration interval) {
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = interval.toNanos();
+        writer.scheduleWithFixedDelay(() -> {
+            try {
+                write();
+            } catch (IOException | RuntimeException e) {
+                log.error("Writing a snapshot failed", e);
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the periodic snapshots and writes a last one, so that a restarted node misses nothing.
+     */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService writer = this.writer;
+        if (writer == null) {
+            return;
+        }
+        this.writer = null;
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        write();
+    }
+}
@@ -0,0 +1,15 @@
+package cz.vladimir.amp.tombstone;
+
+import cz.vladimir.amp.AmpProperties;
+import cz.vladimir.amp.AverageCalculations;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TombstoneConfiguration {
+
+    @Bean
+    public TombstonePurger tombstonePurger(AmpProperties properties, AverageCalculations averageCalculations) {
+        return new TombstonePurger(averageCalculations, properties.getTombstones().getPurgeInterval());
+    }
+}
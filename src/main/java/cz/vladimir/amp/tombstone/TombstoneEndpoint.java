@@ -0,0 +1,17 @@
+package cz.vladimir.amp.tombstone;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class TombstoneEndpoint {
+
+    @Autowired
+    private TombstonePurger tombstonePurger;
+
+    @GetMapping("/admin/tombstones")
+    public TombstoneStatistics getStatistics(){
+        return tombstonePurger.getStatistics();
+    }
+}
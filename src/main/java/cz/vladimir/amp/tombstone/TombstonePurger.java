@@ -0,0 +1,79 @@
+package cz.vladimir.amp.tombstone;
+
+import cz.vladimir.amp.AverageCalculations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically reclaims the memory of deleted datapoints, which deletes themselves only mark with a
+ * tombstone so that they return in the same time however many datapoints they delete.
+ */
+public class TombstonePurger implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(TombstonePurger.class);
+
+    private final AverageCalculations averageCalculations;
+    private final Duration interval;
+
+    private ScheduledExecutorService purger;
+    private long runs;
+    private long purgedDatapoints;
+
+    public TombstonePurger(AverageCalculations averageCalculations, Duration interval) {
+        this.averageCalculations = averageCalculations;
+        this.interval = interval;
+    }
+
+    /**
+     * @return number of datapoints purged
+     */
+    public synchronized long purge() {
+        long purged = averageCalculations.purgeDeleted();
+        runs++;
+        purgedDatapoints += purged;
+        if (purged > 0) {
+            log.info("Purged {} deleted datapoints", purged);
+        }
+        return purged;
+    }
+
+    public synchronized TombstoneStatistics getStatistics() {
+        return new TombstoneStatistics(runs, purgedDatapoints);
+    }
+
+    @Override
+    public synchronized void start() {
+        purger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tombstone-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = interval.toNanos();
+        purger.scheduleWithFixedDelay(() -> {
+            try {
+                purge();
+            } catch (RuntimeException e) {
+                log.error("Purging deleted datapoints failed", e);
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (purger != null) {
+            purger.shutdown();
+            purger = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return purger != null;
+    }
+}
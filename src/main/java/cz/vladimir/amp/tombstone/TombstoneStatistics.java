@@ -0,0 +1,19 @@
+package cz.vladimir.amp.tombstone;
+
+public class TombstoneStatistics {
+    private long runs;
+    private long purgedDatapoints;
+
+    public TombstoneStatistics(long runs, long purgedDatapoints) {
+        this.runs = runs;
+        this.purgedDatapoints = purgedDatapoints;
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    public long getPurgedDatapoints() {
+        return purgedDatapoints;
+    }
+}
@@ -0,0 +1,19 @@
+package cz.vladimir.amp.wal;
+
+public enum FsyncPolicy {
+    /**
+     * Every change is forced to disk before the call that made it returns. Concurrent writers share
+     * a single fsync.
+     */
+    ALWAYS,
+    /**
+     * Changes are written and forced to disk together once per group commit interval; a crash loses
+     * at most the last interval.
+     */
+    GROUP,
+    /**
+     * Changes are written once per group commit interval and the operating system decides when they
+     * reach the disk.
+     */
+    OS
+}
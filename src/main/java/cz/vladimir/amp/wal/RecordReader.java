@@ -0,0 +1,62 @@
+package cz.vladimir.amp.wal;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the records of one frame written by {@link RecordBuffer}.
+ */
+class RecordReader {
+
+    private final byte[] bytes;
+    private final int limit;
+    private int position;
+
+    RecordReader(byte[] bytes, int limit) {
+        this.bytes = bytes;
+        this.limit = limit;
+    }
+
+    boolean hasRemaining() {
+        return position < limit;
+    }
+
+    int readByte() {
+        checkRemaining(1);
+        return bytes[position++];
+    }
+
+    long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed variable length number");
+    }
+
+    long readSignedVarLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    int readVarInt() {
+        return Math.toIntExact(readVarLong());
+    }
+
+    String readString() {
+        int length = readVarInt();
+        checkRemaining(length);
+        String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    private void checkRemaining(int length) {
+        if (length < 0 || position + length > limit) {
+            throw new IllegalStateException("Record exceeds its frame");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package cz.vladimir.amp.wal;
+
+import cz.vladimir.amp.AmpProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+
+@Configuration
+@ConditionalOnProperty(prefix = "amp.wal", name = "enabled", havingValue = "true")
+public class WalConfiguration {
+
+    /**
+     * The log is replayed by {@link cz.vladimir.amp.PersistenceInitializer} before the web server accepts requests.
+     */
+    @Bean(destroyMethod = "close")
+    public WriteAheadLog writeAheadLog(AmpProperties properties) {
+        AmpProperties.Wal wal = properties.getWal();
+        return new WriteAheadLog(Paths.get(wal.getDirectory()), wal.getFsync(), wal.getGroupCommitInterval());
+    }
+}
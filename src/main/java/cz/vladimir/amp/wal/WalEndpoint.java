@@ -0,0 +1,19 @@
+package cz.vladimir.amp.wal;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@ConditionalOnProperty(prefix = "amp.wal", name = "enabled", havingValue = "true")
+public class WalEndpoint {
+
+    @Autowired
+    private WriteAheadLog writeAheadLog;
+
+    @GetMapping("/admin/wal")
+    public WalStatistics getStatistics(){
+        return writeAheadLog.getStatistics();
+    }
+}
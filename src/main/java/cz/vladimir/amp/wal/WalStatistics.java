@@ -0,0 +1,38 @@
+package cz.vladimir.amp.wal;
+
+public class WalStatistics {
+    private FsyncPolicy fsyncPolicy;
+    private long records;
+    private long bytes;
+    private long commits;
+
+    public WalStatistics(FsyncPolicy fsyncPolicy, long records, long bytes, long commits) {
+        this.fsyncPolicy = fsyncPolicy;
+        this.records = records;
+        this.bytes = bytes;
+        this.commits = commits;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Number of frames written to the log, i.e. of fsyncs unless the policy is {@link FsyncPolicy#OS}.
+     */
+    public long getCommits() {
+        return commits;
+    }
+
+    public double getRecordsPerCommit() {
+        return commits == 0 ? 0 : (double) records / commits;
+    }
+}
@@ -0,0 +1,519 @@
+package cz.vladimir.amp.wal;
+
+import cz.vladimir.amp.AverageCalculations;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.DatapointListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of every change applied to {@link AverageCalculations}, replayed on startup.
+ * <p>
+ * Records are buffered in memory and written in frames, each prefixed with its length and CRC32, so that
+ * a frame torn by a crash is detected and dropped on replay. Devices and users are written once per log
+ * as a definition record and then referred to by id. With {@link FsyncPolicy#ALWAYS} the writer that
+ * finds no write in progress commits everything buffered so far, and writers arriving meanwhile wait
+ * for the next commit, so that concurrent writers share one fsync. Changes are appended in the order they
+ * were applied, see {@link cz.vladimir.amp.ChangeListeners}, and the caller of a change waits for its
+ * commit; a commit failing after the change was applied fails the caller and every later change.
+ * <p>
+ * The log is split into files. Once the datapoints of a file are persisted elsewhere, the log is
+ * {@link #roll() rolled} over to a new file and the old ones are {@link #release(long) released} by the
+ * segment store, or {@link #releaseRolled(long) released} by the snapshot store once a snapshot taken
+ * after the roll is in place.
+ */
+public class WriteAheadLog implements DatapointListener, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    static final String PREFIX = "wal-";
+    static final String SUFFIX = ".log";
+
+    static final int DEVICE = 1;
+    static final int USER = 2;
+    static final int DATAPOINT = 3;
+    static final int DELETE_DEVICE = 4;
+    static final int DELETE_USER = 5;
+
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int MAX_BUFFERED_BYTES = 1 << 20;
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+    private static final int REPLAY_BATCH_SIZE = 10000;
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final Duration groupCommitInterval;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    private final Map<String, Integer> deviceIds = new HashMap<>();
+    private final Map<String, Integer> userIds = new HashMap<>();
+    private RecordBuffer buffer = new RecordBuffer(64 * 1024);
+    private RecordBuffer spareBuffer = new RecordBuffer(64 * 1024);
+    private long appendedRecords;
+    private long committedRecords;
+    private long committedBytes;
+    private long commits;
+    private boolean committing;
+    private volatile IOException failure;
+    private long replayedRecords;
+    private long replayedMaxTimestamp;
+
+    private final Deque<LogFile> closedFiles = new ArrayDeque<>();
+    private Path file;
+    private long fileSequence;
+    private long fileMaxTimestamp = Long.MIN_VALUE;
+    private FileChannel channel;
+    private ScheduledExecutorService committer;
+
+    public WriteAheadLog(Path directory, FsyncPolicy fsyncPolicy, Duration groupCommitInterval) {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.groupCommitInterval = groupCommitInterval;
+    }
+
+    /**
+     * Replays the existing log into the target and opens its last file for appending. A torn frame at
+     * the end of a file is cut off.
+     */
+    public void recover(AverageCalculations target) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().matches(PREFIX + "\\d+" + SUFFIX))
+                    .sorted().collect(Collectors.toList());
+        }
+
+        long started = System.nanoTime();
+        long validLength = 0;
+        for (Path replayed : files) {
+            if (file != null) {
+                closedFiles.add(new LogFile(file, sequenceOf(file), fileMaxTimestamp));
+                deviceIds.clear();
+                userIds.clear();
+            }
+            file = replayed;
+            validLength = replay(target);
+            fileMaxTimestamp = replayedMaxTimestamp;
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        log.info("Replayed {} records from {} files in {} ms ({} records/s)", replayedRecords, files.size(), millis,
+                millis == 0 ? replayedRecords : replayedRecords * 1000 / millis);
+
+        if (file == null) {
+            openFile(1);
+        } else {
+            fileSequence = sequenceOf(file);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            channel.truncate(validLength);
+            channel.position(validLength);
+        }
+
+        if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+            committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-group-commit");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = groupCommitInterval.toNanos();
+            committer.scheduleWithFixedDelay(this::commitBuffered, interval, interval, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Rejects every change once a write of the log has failed, before the change is applied.
+     */
+    @Override
+    public void beforeChange() {
+        checkFailure();
+    }
+
+    @Override
+    public void datapointStored(Datapoint dataPoint) {
+        append(buffer -> writeDatapoint(buffer, dataPoint));
+    }
+
+    @Override
+    public void datapointsStored(List<Datapoint> dataPoints) {
+        append(dataPoints.size(), buffer -> dataPoints.forEach(dataPoint -> writeDatapoint(buffer, dataPoint)));
+    }
+
+    @Override
+    public void userDatapointsDeleted(String user) {
+        append(buffer -> {
+            int userId = define(buffer, userIds, USER, user);
+            buffer.writeByte(DELETE_USER);
+            buffer.writeVarLong(userId);
+        });
+    }
+
+    @Override
+    public void deviceDatapointsDeleted(String device) {
+        append(buffer -> {
+            int deviceId = define(buffer, deviceIds, DEVICE, device);
+            buffer.writeByte(DELETE_DEVICE);
+            buffer.writeVarLong(deviceId);
+        });
+    }
+
+    /**
+     * Commits everything appended so far and continues in a new file.
+     *
+     * @return sequence number of the file closed, for {@link #releaseRolled(long)}
+     */
+    public long roll() throws IOException {
+        lock.lock();
+        try {
+            while (committing || buffer.size() > 0) {
+                if (committing) {
+                    committed.awaitUninterruptibly();
+                } else {
+                    commit(appendedRecords, false);
+                }
+            }
+            checkFailure();
+            channel.force(false);
+            channel.close();
+            closedFiles.add(new LogFile(file, fileSequence, fileMaxTimestamp));
+            long closedSequence = fileSequence;
+            openFile(fileSequence + 1);
+            return closedSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes files closed by {@link #roll()}, oldest first, as long as every datapoint in them is older
+     * than the timestamp. The caller must have persisted those datapoints, and the effect of deletes
+     * logged in the files, elsewhere.
+     */
+    public void release(long timestamp) throws IOException {
+        lock.lock();
+        try {
+            while (!closedFiles.isEmpty() && closedFiles.peekFirst().maxTimestamp < timestamp) {
+                Files.delete(closedFiles.peekFirst().file);
+                closedFiles.removeFirst();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the files closed by {@link #roll()} up to the one with the given sequence number. The caller
+     * must have persisted the effect of every change logged in them elsewhere.
+     */
+    public void releaseRolled(long sequence) throws IOException {
+        lock.lock();
+        try {
+            while (!closedFiles.isEmpty() && closedFiles.peekFirst().sequence <= sequence) {
+                Files.delete(closedFiles.peekFirst().file);
+                closedFiles.removeFirst();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public WalStatistics getStatistics() {
+        lock.lock();
+        try {
+            return new WalStatistics(fsyncPolicy, committedRecords, committedBytes, commits);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        if (committer != null) {
+            committer.shutdown();
+        }
+        lock.lock();
+        try {
+            commit(appendedRecords, true);
+        } finally {
+            lock.unlock();
+        }
+        channel.close();
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private void openFile(long sequence) throws IOException {
+        fileSequence = sequence;
+        file = directory.resolve(String.format("%s%016d%s", PREFIX, sequence, SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        fileMaxTimestamp = Long.MIN_VALUE;
+        deviceIds.clear();
+        userIds.clear();
+    }
+
+    private void append(RecordWriter writer) {
+        append(1, writer);
+    }
+
+    private void append(int records, RecordWriter writer) {
+        lock.lock();
+        try {
+            checkFailure();
+            writer.write(buffer);
+            appendedRecords += records;
+            long record = appendedRecords;
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                commit(record, true);
+            } else if (buffer.size() >= MAX_BUFFERED_BYTES) {
+                commit(record, fsyncPolicy == FsyncPolicy.GROUP);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commitBuffered() {
+        lock.lock();
+        try {
+            commit(appendedRecords, fsyncPolicy == FsyncPolicy.GROUP);
+        } catch (UncheckedIOException e) {
+            log.error("Group commit of the write-ahead log failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called holding the lock, which is released while the frame is being written.
+     */
+    private void commit(long record, boolean force) {
+        while (committedRecords < record) {
+            checkFailure();
+            if (committing) {
+                committed.awaitUninterruptibly();
+                continue;
+            }
+
+            committing = true;
+            RecordBuffer frame = buffer;
+            buffer = spareBuffer;
+            long frameRecords = appendedRecords;
+            long frameBytes = 0;
+            lock.unlock();
+            try {
+                frameBytes = writeFrame(frame, force);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                lock.lock();
+            }
+
+            frame.clear();
+            spareBuffer = frame;
+            committing = false;
+            if (failure == null) {
+                committedRecords = frameRecords;
+                committedBytes += frameBytes;
+                commits++;
+            }
+            committed.signalAll();
+        }
+    }
+
+    private long writeFrame(RecordBuffer frame, boolean force) throws IOException {
+        ByteBuffer payload = frame.toByteBuffer();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        header.putInt(frame.size()).putInt((int) crc.getValue()).flip();
+
+        ByteBuffer[] buffers = {header, payload};
+        while (payload.hasRemaining()) {
+            channel.write(buffers);
+        }
+        if (force) {
+            channel.force(false);
+        }
+        return FRAME_HEADER_BYTES + frame.size();
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log is not writable", failure);
+        }
+    }
+
+    private void writeDatapoint(RecordBuffer buffer, Datapoint dataPoint) {
+        int deviceId = define(buffer, deviceIds, DEVICE, dataPoint.getDevice());
+        int userId = define(buffer, userIds, USER, dataPoint.getUser());
+        buffer.writeByte(DATAPOINT);
+        buffer.writeVarLong(deviceId);
+        buffer.writeVarLong(userId);
+        buffer.writeSignedVarLong(dataPoint.getTimestamp());
+        buffer.writeSignedVarLong(dataPoint.getValue());
+        fileMaxTimestamp = Math.max(fileMaxTimestamp, dataPoint.getTimestamp());
+    }
+
+    private static int define(RecordBuffer buffer, Map<String, Integer> ids, int recordType, String identifier) {
+        Integer id = ids.get(identifier);
+        if (id == null) {
+            id = ids.size();
+            ids.put(identifier, id);
+            buffer.writeByte(recordType);
+            buffer.writeVarLong(id);
+            buffer.writeString(identifier);
+        }
+        return id;
+    }
+
+    /**
+     * @return length of the valid part of the log
+     */
+    private long replay(AverageCalculations target) throws IOException {
+        Map<Integer, String> devices = new HashMap<>();
+        Map<Integer, String> users = new HashMap<>();
+        long fileLength = Files.size(file);
+        long validLength = 0;
+        replayedMaxTimestamp = Long.MIN_VALUE;
+        List<Datapoint> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+        byte[] payload = new byte[64 * 1024];
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ)), READ_BUFFER_BYTES))) {
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = input.readInt();
+                    checksum = input.readInt();
+                    if (length < 0 || validLength + FRAME_HEADER_BYTES + length > fileLength) {
+                        break;
+                    }
+                    if (length > payload.length) {
+                        payload = new byte[length];
+                    }
+                    input.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                replayFrame(new RecordReader(payload, length), devices, users, batch, target);
+                validLength += FRAME_HEADER_BYTES + length;
+            }
+        }
+        storeBatch(batch, target);
+
+        if (validLength < fileLength) {
+            log.warn("Dropping {} bytes of incomplete frames at the end of {}", fileLength - validLength, file);
+        }
+        devices.forEach((id, device) -> deviceIds.put(device, id));
+        users.forEach((id, user) -> userIds.put(user, id));
+        return validLength;
+    }
+
+    /**
+     * Datapoints are collected into the batch and stored by {@link #storeBatch}, which happens before each
+     * delete too, so that the changes are applied in the order they were logged.
+     */
+    private void replayFrame(RecordReader reader, Map<Integer, String> devices, Map<Integer, String> users,
+                             List<Datapoint> batch, AverageCalculations target) {
+        while (reader.hasRemaining()) {
+            int recordType = reader.readByte();
+            switch (recordType) {
+                case DEVICE:
+                    devices.put(reader.readVarInt(), reader.readString());
+                    break;
+                case USER:
+                    users.put(reader.readVarInt(), reader.readString());
+                    break;
+                case DATAPOINT:
+                    String device = devices.get(reader.readVarInt());
+                    String user = users.get(reader.readVarInt());
+                    long timestamp = reader.readSignedVarLong();
+                    replayedMaxTimestamp = Math.max(replayedMaxTimestamp, timestamp);
+                    batch.add(new Datapoint(device, user, timestamp, reader.readSignedVarLong()));
+                    if (batch.size() == REPLAY_BATCH_SIZE) {
+                        storeBatch(batch, target);
+                    }
+                    break;
+                case DELETE_DEVICE:
+                    storeBatch(batch, target);
+                    target.deleteDeviceDatapoints(devices.get(reader.readVarInt()));
+                    break;
+                case DELETE_USER:
+                    storeBatch(batch, target);
+                    target.deleteUserDatapoints(users.get(reader.readVarInt()));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown record type " + recordType + " in " + file);
+            }
+            replayedRecords++;
+        }
+    }
+
+    private void storeBatch(List<Datapoint> batch, AverageCalculations target) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Integer> duplicates = target.storeDataPoints(batch);
+        if (!duplicates.isEmpty()) {
+            log.debug("Skipping {} duplicate datapoints in the write-ahead log", duplicates.size());
+        }
+        batch.clear();
+    }
+
+    private interface RecordWriter {
+        void write(RecordBuffer buffer);
+    }
+
+    private static class LogFile {
+        private final Path file;
+        private final long sequence;
+        private final long maxTimestamp;
+
+        private LogFile(Path file, long sequence, long maxTimestamp) {
+            this.file = file;
+            this.sequence = sequence;
+            this.maxTimestamp = maxTimestamp;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package cz.vladimir.amp;
+
+import cz.vladimir.amp.exception.DataNotFoundException;
+import cz.vladimir.amp.exception.DuplicateDatapointException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AverageCalculationsServiceConcurrencyTest {
+
+    private static final String TEST_USER = "testUser";
+    private static final int DEVICES = 4;
+    private static final int WRITERS_PER_DEVICE = 2;
+    private static final int POINTS_PER_DEVICE = 5000;
+    private static final long INTERVAL_IN_MILLIS = 900000;
+    private static final long VALUE = 100;
+
+    @Test
+    public void concurrentIngestAndQueriesShouldStayConsistent() throws Exception {
+        AverageCalculationsService averageCalculationsService = new AverageCalculationsService();
+        ExecutorService executor = Executors.newFixedThreadPool(DEVICES * WRITERS_PER_DEVICE + 2);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger duplicates = new AtomicInteger();
+
+        List<Future<?>> writers = new ArrayList<>();
+        for (int device = 0; device < DEVICES; device++) {
+            String deviceName = "device" + device;
+            for (int writer = 0; writer < WRITERS_PER_DEVICE; writer++) {
+                writers.add(executor.submit(() -> {
+                    startSignal.await();
+                    for (int i = 0; i < POINTS_PER_DEVICE; i++) {
+                        try {
+                            averageCalculationsService.storeDataPoint(new Datapoint(deviceName, TEST_USER, i * INTERVAL_IN_MILLIS / 10, VALUE));
+                        } catch (DuplicateDatapointException e) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        List<Future<?>> readers = new ArrayList<>();
+        readers.add(executor.submit(() -> readWhileWriting(writing, () -> averageCalculationsService.getMovingAveragesForUser(TEST_USER, 3))));
+        readers.add(executor.submit(() -> readWhileWriting(writing, () -> averageCalculationsService.getMovingAveragesForDevice("device0", 2))));
+
+        startSignal.countDown();
+        for (Future<?> writer : writers) {
+            writer.get(1, TimeUnit.MINUTES);
+        }
+        writing.set(false);
+        for (Future<?> reader : readers) {
+            reader.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        assertEquals(DEVICES * (WRITERS_PER_DEVICE - 1) * POINTS_PER_DEVICE, duplicates.get(), "Wrong number of rejected duplicates");
+
+        List<AverageForInterval> userAverages = averageCalculationsService.getAveragesForUser(TEST_USER);
+        assertEquals(POINTS_PER_DEVICE / 10, userAverages.size(), "Wrong number of average values");
+        userAverages.forEach(average -> assertEquals(VALUE, average.getAverage(), "Wrong average value"));
+    }
+
+    private Void readWhileWriting(AtomicBoolean writing, Callable<List<AverageForInterval>> query) throws Exception {
+        while (writing.get()) {
+            List<AverageForInterval> averages;
+            try {
+                averages = query.call();
+            } catch (DataNotFoundException e) {
+                continue;
+            }
+            for (int i = 1; i < averages.size(); i++) {
+                assertEquals(INTERVAL_IN_MILLIS, averages.get(i).getStartTime() - averages.get(i - 1).getStartTime(), "Intervals are not contiguous");
+            }
+            averages.forEach(average -> {
+                assertEquals(VALUE, average.getAverage(), "Wrong average value");
+                if (average.getMovingAverage() != null) {
+                    assertEquals(VALUE, average.getMovingAverage(), "Wrong moving average value");
+                }
+            });
+        }
+        return null;
+    }
+}
@@ -2,9 +2,12 @@ package cz.vladimir.amp;
 
 import cz.vladimir.amp.exception.DataNotFoundException;
 import cz.vladimir.amp.exception.DuplicateDatapointException;
+import cz.vladimir.amp.exception.InvalidQueryException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -27,6 +30,21 @@ public class AverageCalculationsServiceTest {
         averageCalculationsService = new AverageCalculationsService();
     }
 
+    @Test
+    public void shouldStoreBatchSkippingDuplicates(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+
+        List<Integer> duplicates = averageCalculationsService.storeDataPoints(Arrays.asList(
+                new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 500),
+                new Datapoint(TEST_DEVICE, "otherTestUser", FIRST_INTERVAL_FIRST_TIMESTAMP, 200),
+                new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_SECOND_TIMESTAMP, 300),
+                new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_SECOND_TIMESTAMP, 700)));
+
+        assertEquals(Arrays.asList(0, 3), duplicates, "Wrong duplicates");
+        assertEquals(200, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+        assertEquals(200, averageCalculationsService.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+    }
+
     @Test
     public void shouldThrowExceptionIfStoringDuplicateDataPoint(){
         Datapoint dataPoint = new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100);
@@ -39,6 +57,26 @@ public class AverageCalculationsServiceTest {
         });
     }
 
+    @Test
+    public void shouldAcceptDatapointsWithSameTimestampFromDifferentUsersOfDevice(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, "otherTestUser", FIRST_INTERVAL_FIRST_TIMESTAMP, 300));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForDevice(TEST_DEVICE);
+
+        assertEquals(200, averageValues.get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldAcceptDatapointsWithSameTimestampFromDifferentDevicesOfUser(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint("otherTestDevice", TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 300));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForUser(TEST_USER);
+
+        assertEquals(200, averageValues.get(0).getAverage(), "Wrong average value");
+    }
+
     @Test
     public void shouldThrowExceptionIfAccessingDataForNotExistingUser(){
         assertThrows(DataNotFoundException.class, () -> {
@@ -263,6 +301,167 @@ public class AverageCalculationsServiceTest {
         assertEquals(550, averageValues.get(2).getMovingAverage(), "Wrong moving average value");
     }
 
+    @Test
+    public void shouldAlignIntervalsToFifteenMinuteBoundaries(){
+        Datapoint datapoint = new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100);
+        averageCalculationsService.storeDataPoint(datapoint);
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForDevice(TEST_DEVICE);
+
+        assertEquals(9900000, averageValues.get(0).getStartTime(), "Wrong interval start time");
+    }
+
+    @Test
+    public void shouldIncludeOutOfOrderDatapointOlderThanFirstInterval(){
+        Datapoint thirdIntervalDataPoint = new Datapoint(TEST_DEVICE, TEST_USER, THIRD_INTERVAL_FIRST_TIMESTAMP, 400);
+        averageCalculationsService.storeDataPoint(thirdIntervalDataPoint);
+
+        Datapoint secondIntervalDataPoint = new Datapoint(TEST_DEVICE, TEST_USER, SECOND_INTERVAL_FIRST_TIMESTAMP, 300);
+        averageCalculationsService.storeDataPoint(secondIntervalDataPoint);
+
+        Datapoint firstIntervalDataPoint = new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100);
+        averageCalculationsService.storeDataPoint(firstIntervalDataPoint);
+
+        Datapoint thirdIntervalLateDataPoint = new Datapoint(TEST_DEVICE, TEST_USER, THIRD_INTERVAL_SECOND_TIMESTAMP, 600);
+        averageCalculationsService.storeDataPoint(thirdIntervalLateDataPoint);
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForUser(TEST_USER);
+
+        assertEquals(3, averageValues.size(), "Wrong number of average values");
+        assertEquals(100, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(300, averageValues.get(1).getAverage(), "Wrong average value");
+        assertEquals(500, averageValues.get(2).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldNotStoreDatapointForUserWhenRejectedAsDuplicate(){
+        Datapoint dataPoint = new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100);
+        averageCalculationsService.storeDataPoint(dataPoint);
+
+        assertThrows(DuplicateDatapointException.class, () -> {
+            averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 300));
+        });
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForUser(TEST_USER);
+
+        assertEquals(100, averageValues.get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldCalculateMovingAveragesForSeveralWindowSizesAtOnce(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 200));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, SECOND_INTERVAL_FIRST_TIMESTAMP, 450));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, THIRD_INTERVAL_FIRST_TIMESTAMP, 650));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getMovingAveragesForDevice(TEST_DEVICE, Arrays.asList(3L, 2L, 10L));
+
+        assertEquals(3, averageValues.size(), "Wrong number of average values");
+        assertNull(averageValues.get(0).getMovingAverage(), "Single moving average should not be calculated");
+        assertTrue(averageValues.get(0).getMovingAverages().isEmpty(), "Moving averages should not be calculated");
+
+        assertEquals(1, averageValues.get(1).getMovingAverages().size(), "Wrong number of moving averages");
+        assertEquals(325, averageValues.get(1).getMovingAverages().get(2L), "Wrong moving average value");
+
+        assertEquals(2, averageValues.get(2).getMovingAverages().size(), "Wrong number of moving averages");
+        assertEquals(550, averageValues.get(2).getMovingAverages().get(2L), "Wrong moving average value");
+        assertEquals(1300 / 3.0, averageValues.get(2).getMovingAverages().get(3L), 0.000001, "Wrong moving average value");
+    }
+
+    @Test
+    public void shouldNotCalculateMovingAverageForWindowLargerThanSeries(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 200));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, SECOND_INTERVAL_FIRST_TIMESTAMP, 450));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getMovingAveragesForUser(TEST_USER, 1000000);
+
+        assertEquals(2, averageValues.size(), "Wrong number of average values");
+        averageValues.forEach(average -> assertNull(average.getMovingAverage(), "Moving average should not be calculated"));
+    }
+
+    @Test
+    public void shouldReturnCachedResultWhileDataIsUnchanged(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+
+        List<AverageForInterval> firstResult = averageCalculationsService.getMovingAveragesForDevice(TEST_DEVICE, 1);
+        List<AverageForInterval> secondResult = averageCalculationsService.getMovingAveragesForDevice(TEST_DEVICE, 1);
+
+        assertSame(firstResult, secondResult, "Result should be served from cache");
+    }
+
+    @Test
+    public void shouldInvalidateCachedResultWhenDatapointIsStored(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        long deviceVersion = averageCalculationsService.getDeviceVersion(TEST_DEVICE);
+        long userVersion = averageCalculationsService.getUserVersion(TEST_USER);
+        assertEquals(100, averageCalculationsService.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_SECOND_TIMESTAMP, 300));
+
+        assertNotEquals(deviceVersion, averageCalculationsService.getDeviceVersion(TEST_DEVICE), "Device version should change");
+        assertNotEquals(userVersion, averageCalculationsService.getUserVersion(TEST_USER), "User version should change");
+        assertEquals(200, averageCalculationsService.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldNotServeCachedResultAfterDataIsDeletedAndStoredAgain(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        assertEquals(100, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+
+        averageCalculationsService.deleteDeviceDatapoints(TEST_DEVICE);
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 300));
+
+        assertEquals(300, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldReturnOnlyIntervalsOfRequestedTimeRange(){
+        storeOneDatapointPerInterval();
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(SECOND_INTERVAL_SECOND_TIMESTAMP, 11700000, Integer.MAX_VALUE));
+
+        assertEquals(1, averageValues.size(), "Wrong number of average values");
+        assertEquals(450, averageValues.get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldReturnAtMostLimitIntervals(){
+        storeOneDatapointPerInterval();
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForUser(TEST_USER,
+                new IntervalQuery(0, Long.MAX_VALUE, 2));
+
+        assertEquals(2, averageValues.size(), "Wrong number of average values");
+        assertEquals(200, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(450, averageValues.get(1).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldWarmUpMovingAverageFromIntervalsBeforeRequestedTimeRange(){
+        storeOneDatapointPerInterval();
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getMovingAveragesForUser(TEST_USER, Arrays.asList(2L),
+                new IntervalQuery(THIRD_INTERVAL_FIRST_TIMESTAMP, Long.MAX_VALUE, Integer.MAX_VALUE));
+
+        assertEquals(1, averageValues.size(), "Wrong number of average values");
+        assertEquals(650, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(550, averageValues.get(0).getMovingAverage(), "Wrong moving average value");
+    }
+
+    @Test
+    public void shouldReturnEmptyIntervalsBetweenDevicesOfUserWithinTimeRange(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint("otherTestDevice", TEST_USER, THIRD_INTERVAL_FIRST_TIMESTAMP, 400));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getMovingAveragesForUser(TEST_USER, Arrays.asList(2L),
+                new IntervalQuery(SECOND_INTERVAL_FIRST_TIMESTAMP, Long.MAX_VALUE, Integer.MAX_VALUE));
+
+        assertEquals(2, averageValues.size(), "Wrong number of average values");
+        assertEquals(0, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(50, averageValues.get(0).getMovingAverage(), "Wrong moving average value");
+        assertEquals(200, averageValues.get(1).getMovingAverage(), "Wrong moving average value");
+    }
+
     @Test
     public void dataForUserShouldBeDeleted(){
         AverageCalculationsService averageCalculationsService = new AverageCalculationsService();
@@ -290,4 +489,329 @@ public class AverageCalculationsServiceTest {
             averageCalculationsService.getAveragesForDevice(TEST_DEVICE);
         });
     }
+
+    @Test
+    public void deletedUserShouldBeRemovedFromItsDevices(){
+        storeOneDatapointPerInterval();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, "otherTestUser", FIRST_INTERVAL_SECOND_TIMESTAMP, 400));
+        long deviceVersion = averageCalculationsService.getDeviceVersion(TEST_DEVICE);
+
+        averageCalculationsService.deleteUserDatapoints(TEST_USER);
+
+        assertNotEquals(deviceVersion, averageCalculationsService.getDeviceVersion(TEST_DEVICE), "Device version should change");
+        List<AverageForInterval> averages = averageCalculationsService.getAveragesForDevice(TEST_DEVICE);
+        assertEquals(1, averages.size(), "Wrong number of average values");
+        assertEquals(400, averages.get(0).getAverage(), "Wrong average value");
+        assertEquals(1, averageCalculationsService.getSeriesUsage().size(), "Deleted series should not be reported");
+    }
+
+    @Test
+    public void deletedDatapointsShouldBePurgedLater(){
+        storeOneDatapointPerInterval();
+        averageCalculationsService.deleteDeviceDatapoints(TEST_DEVICE);
+        long userVersion = averageCalculationsService.getUserVersion(TEST_USER);
+
+        assertEquals(3, averageCalculationsService.purgeDeleted(), "Wrong number of purged datapoints");
+        assertEquals(0, averageCalculationsService.purgeDeleted(), "Wrong number of purged datapoints");
+
+        assertTrue(averageCalculationsService.getUserVersion(TEST_USER) > userVersion, "User version should only grow");
+        assertThrows(DataNotFoundException.class, () -> averageCalculationsService.getAveragesForUser(TEST_USER));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 300));
+        assertEquals(300, averageCalculationsService.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void summariesShouldHoldMinMaxAndPercentilesOfEveryInterval(){
+        for (int i = 0; i < 100; i++) {
+            averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP + i, i + 1));
+        }
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, THIRD_INTERVAL_FIRST_TIMESTAMP, 650));
+
+        List<SummaryForInterval> summaries = averageCalculationsService.getSummariesForDevice(TEST_DEVICE, Arrays.asList(50.0, 99.0), IntervalQuery.ALL);
+
+        assertEquals(3, summaries.size(), "Wrong number of intervals");
+        SummaryForInterval first = summaries.get(0);
+        assertEquals(100, first.getCount(), "Wrong count");
+        assertEquals(1, first.getMin(), "Wrong minimum");
+        assertEquals(100, first.getMax(), "Wrong maximum");
+        assertEquals(50.5, first.getAverage(), "Wrong average value");
+        assertEquals(50, first.getPercentiles().get("p50"), 1, "Wrong median");
+        assertEquals(99, first.getPercentiles().get("p99"), 1, "Wrong 99th percentile");
+        assertEquals(0, summaries.get(1).getCount(), "Interval without datapoints should be empty");
+        assertEquals(650, summaries.get(2).getPercentiles().get("p50"), "Wrong median");
+    }
+
+    @Test
+    public void userSummariesShouldBeMergedFromDevices(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint("otherTestDevice", TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP + 1, -300));
+
+        List<SummaryForInterval> summaries = averageCalculationsService.getSummariesForUser(TEST_USER, IntervalStatistics.DEFAULT_PERCENTILES,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofHours(1).toMillis()));
+
+        assertEquals(1, summaries.size(), "Wrong number of intervals");
+        assertEquals(2, summaries.get(0).getCount(), "Wrong count");
+        assertEquals(-300, summaries.get(0).getMin(), "Wrong minimum");
+        assertEquals(100, summaries.get(0).getMax(), "Wrong maximum");
+        assertThrows(InvalidQueryException.class, () -> averageCalculationsService.getSummariesForUser(TEST_USER,
+                IntervalStatistics.DEFAULT_PERCENTILES, new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofMinutes(1).toMillis())));
+    }
+
+    @Test
+    public void topDevicesShouldBeRankedByAverageWithinTimeRange(){
+        for (int device = 0; device < 200; device++) {
+            averageCalculationsService.storeDataPoint(new Datapoint("device" + device, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, device));
+            averageCalculationsService.storeDataPoint(new Datapoint("device" + device, TEST_USER, SECOND_INTERVAL_FIRST_TIMESTAMP, 1000 - device));
+        }
+        averageCalculationsService.storeDataPoint(new Datapoint("device7", "otherTestUser", FIRST_INTERVAL_SECOND_TIMESTAMP, 1000));
+
+        List<GroupAverage> top = averageCalculationsService.getTopDevices(3, new IntervalQuery(FIRST_INTERVAL_FIRST_TIMESTAMP, FIRST_INTERVAL_SECOND_TIMESTAMP + 1, 1));
+
+        assertEquals(3, top.size(), "Wrong number of devices");
+        assertEquals("device7", top.get(0).getIdentifier(), "Wrong device ranked first");
+        assertEquals(2, top.get(0).getCount(), "Wrong count");
+        assertEquals(503.5, top.get(0).getAverage(), "Wrong average value");
+        assertEquals("device199", top.get(1).getIdentifier(), "Wrong device ranked second");
+        assertEquals("device198", top.get(2).getIdentifier(), "Wrong device ranked third");
+        assertEquals("device0", averageCalculationsService.getTopDevices(1, new IntervalQuery(SECOND_INTERVAL_FIRST_TIMESTAMP, Long.MAX_VALUE, 1)).get(0).getIdentifier(), "Wrong device ranked first");
+    }
+
+    @Test
+    public void topUsersShouldBeAveragedAcrossTheirDevices(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint("otherTestDevice", TEST_USER, SECOND_INTERVAL_FIRST_TIMESTAMP, 500));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, "otherTestUser", FIRST_INTERVAL_FIRST_TIMESTAMP, 200));
+        averageCalculationsService.deleteDeviceDatapoints("otherTestDevice");
+
+        List<GroupAverage> top = averageCalculationsService.getTopUsers(10, IntervalQuery.ALL);
+
+        assertEquals(2, top.size(), "Wrong number of users");
+        assertEquals("otherTestUser", top.get(0).getIdentifier(), "Wrong user ranked first");
+        assertEquals(TEST_USER, top.get(1).getIdentifier(), "Wrong user ranked second");
+        assertEquals(100, top.get(1).getAverage(), "Deleted datapoints should not be averaged");
+    }
+
+    @Test
+    public void fleetAveragesShouldMergeAllDevices(){
+        for (int device = 0; device < 100; device++) {
+            averageCalculationsService.storeDataPoint(new Datapoint("device" + device, "user" + device % 3, FIRST_INTERVAL_FIRST_TIMESTAMP, device));
+        }
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, THIRD_INTERVAL_FIRST_TIMESTAMP, 300));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getFleetAverages(IntervalQuery.ALL);
+
+        assertEquals(3, averageValues.size(), "Wrong number of average values");
+        assertEquals(49.5, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(0, averageValues.get(1).getAverage(), "Wrong average value");
+        assertEquals(300, averageValues.get(2).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldAverageHoursAndDaysFromRollups(){
+        storeOneDatapointPerInterval();
+
+        List<AverageForInterval> hours = averageCalculationsService.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofHours(1).toMillis()));
+        List<AverageForInterval> days = averageCalculationsService.getAveragesForUser(TEST_USER,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofDays(1).toMillis()));
+
+        assertEquals(2, hours.size(), "Wrong number of average values");
+        assertEquals(7200000, hours.get(0).getStartTime(), "Wrong start of interval");
+        assertEquals(200, hours.get(0).getAverage(), "Wrong average value");
+        assertEquals(550, hours.get(1).getAverage(), "Wrong average value");
+        assertEquals(1, days.size(), "Wrong number of average values");
+        assertEquals(1300.0 / 3, days.get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldSumUpTierIntervalsIntoLongerResolution(){
+        storeOneDatapointPerInterval();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 22000000, 100));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getMovingAveragesForDevice(TEST_DEVICE, Arrays.asList(2L),
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofHours(2).toMillis()));
+
+        assertEquals(3, averageValues.size(), "Wrong number of average values");
+        assertEquals(1300.0 / 3, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(0, averageValues.get(1).getAverage(), "Wrong average value");
+        assertEquals(100, averageValues.get(2).getAverage(), "Wrong average value");
+        assertEquals(50, averageValues.get(2).getMovingAverage(), 1e-9, "Wrong moving average value");
+    }
+
+    @Test
+    public void shouldAverageMinutes(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_SECOND_TIMESTAMP, 300));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP + 60000, 500));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofMinutes(1).toMillis()));
+
+        assertEquals(2, averageValues.size(), "Wrong number of average values");
+        assertEquals(9960000, averageValues.get(0).getStartTime(), "Wrong start of interval");
+        assertEquals(200, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(500, averageValues.get(1).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldAverageIntervalsOfAnyWidthFromRangeIndex(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10050000, 500));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_SECOND_TIMESTAMP, 300));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getMovingAveragesForDevice(TEST_DEVICE, Arrays.asList(2L),
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofSeconds(7).toMillis()));
+
+        assertEquals(8, averageValues.size(), "Wrong number of average values");
+        assertEquals(9996000, averageValues.get(0).getStartTime(), "Wrong start of interval");
+        assertEquals(200, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(0, averageValues.get(1).getAverage(), "Wrong average value");
+        assertEquals(500, averageValues.get(7).getAverage(), "Wrong average value");
+        assertEquals(250, averageValues.get(7).getMovingAverage(), "Wrong moving average value");
+    }
+
+    @Test
+    public void shouldRejectTooManyIntervalsOfAnyWidth(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP + 900000, 300));
+
+        assertThrows(InvalidQueryException.class, () -> averageCalculationsService.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, 7)));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(FIRST_INTERVAL_FIRST_TIMESTAMP + 500000, Long.MAX_VALUE, Integer.MAX_VALUE, 7));
+        assertEquals(1, averageValues.size(), "Empty intervals should be skipped");
+        assertEquals(300, averageValues.get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void rangeTotalShouldOnlyCountDatapointsWithinRange(){
+        for (int i = 0; i < 1000; i++) {
+            averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP + (i * 7919) % 1000, i));
+        }
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, "otherTestUser", FIRST_INTERVAL_FIRST_TIMESTAMP + 500, 100000));
+        averageCalculationsService.compactDatapoints(FIRST_INTERVAL_FIRST_TIMESTAMP + 200);
+
+        RangeTotal total = averageCalculationsService.getRangeTotalForDevice(TEST_DEVICE, FIRST_INTERVAL_FIRST_TIMESTAMP + 250, FIRST_INTERVAL_FIRST_TIMESTAMP + 750);
+        long expectedSum = 100000;
+        for (int i = 0; i < 1000; i++) {
+            long offset = (i * 7919) % 1000;
+            if (offset >= 250 && offset < 750) {
+                expectedSum += i;
+            }
+        }
+
+        assertEquals(501, total.getCount(), "Wrong count");
+        assertEquals(expectedSum, total.getSum(), "Wrong sum");
+        assertEquals(1, averageCalculationsService.getRangeTotalForUser("otherTestUser", 0, Long.MAX_VALUE).getCount(), "Wrong count");
+        assertThrows(DataNotFoundException.class, () -> averageCalculationsService.getRangeTotalForDevice("unknownDevice", 0, 1));
+    }
+
+    @Test
+    public void compactedDatapointsShouldOnlyBeKeptInRollups(){
+        storeOneDatapointPerInterval();
+
+        assertEquals(1, averageCalculationsService.compactDatapoints(SECOND_INTERVAL_FIRST_TIMESTAMP), "Wrong number of compacted datapoints");
+
+        List<AverageForInterval> hours = averageCalculationsService.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofHours(1).toMillis()));
+        List<AverageForInterval> minutes = averageCalculationsService.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofMinutes(1).toMillis()));
+        assertEquals(200, hours.get(0).getAverage(), "Wrong average value");
+        assertEquals(550, hours.get(1).getAverage(), "Wrong average value");
+        assertEquals(10860000, minutes.get(0).getStartTime(), "Compacted minutes should not be returned");
+        assertEquals(450, minutes.get(0).getAverage(), "Wrong average value");
+
+        assertThrows(DuplicateDatapointException.class,
+                () -> averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_SECOND_TIMESTAMP, 100)));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, THIRD_INTERVAL_SECOND_TIMESTAMP, 850));
+        assertEquals(750, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(2).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void compactionWithoutOldDatapointsShouldKeepVersion(){
+        storeOneDatapointPerInterval();
+        long version = averageCalculationsService.getDeviceVersion(TEST_DEVICE);
+
+        assertEquals(0, averageCalculationsService.compactDatapoints(FIRST_INTERVAL_FIRST_TIMESTAMP), "Wrong number of compacted datapoints");
+        assertEquals(version, averageCalculationsService.getDeviceVersion(TEST_DEVICE), "Version should not change");
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_SECOND_TIMESTAMP, 100));
+    }
+
+    @Test
+    public void expiredDatapointsShouldBeDroppedWithTheirRollups(){
+        storeOneDatapointPerInterval();
+        averageCalculationsService.storeDataPoint(new Datapoint("otherDevice", TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+
+        assertEquals(1, averageCalculationsService.expireDatapoints(device -> TEST_DEVICE.equals(device) ? SECOND_INTERVAL_FIRST_TIMESTAMP : Long.MIN_VALUE),
+                "Wrong number of expired datapoints");
+
+        List<AverageForInterval> averages = averageCalculationsService.getAveragesForDevice(TEST_DEVICE);
+        assertEquals(2, averages.size(), "Wrong number of intervals");
+        assertEquals(450, averages.get(0).getAverage(), "Wrong average value");
+        List<AverageForInterval> hours = averageCalculationsService.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofHours(1).toMillis()));
+        assertEquals(550, hours.get(0).getAverage(), "Expired datapoints should not be kept in rollups");
+        assertEquals(100, averageCalculationsService.getAveragesForDevice("otherDevice").get(0).getAverage(), "Wrong average value");
+        assertThrows(DuplicateDatapointException.class,
+                () -> averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_SECOND_TIMESTAMP, 100)));
+    }
+
+    @Test
+    public void evictedSeriesShouldBeForgottenWhileNewDatapointsAreStored(){
+        storeOneDatapointPerInterval();
+        averageCalculationsService.storeDataPoint(new Datapoint("otherDevice", TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 100));
+        long version = averageCalculationsService.getUserVersion(TEST_USER);
+
+        assertEquals(2, averageCalculationsService.getSeriesUsage().size(), "Wrong number of series");
+        assertEquals(3, averageCalculationsService.evictSeries(TEST_DEVICE, TEST_USER), "Wrong number of evicted datapoints");
+        assertEquals(0, averageCalculationsService.evictSeries(TEST_DEVICE, TEST_USER), "Wrong number of evicted datapoints");
+
+        assertNotEquals(version, averageCalculationsService.getUserVersion(TEST_USER), "Version should change");
+        assertEquals(1, averageCalculationsService.getSeriesUsage().size(), "Wrong number of series");
+        assertThrows(DataNotFoundException.class, () -> averageCalculationsService.getAveragesForDevice(TEST_DEVICE));
+        assertEquals(100, averageCalculationsService.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 300));
+        assertEquals(200, averageCalculationsService.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void closedBlocksShouldBeCompressedAndStillQueried(){
+        long blockStart = Duration.ofHours(2).toMillis() * 1000;
+        for (int hour = 0; hour < 6; hour++) {
+            for (int second = 0; second < 3600; second += 10) {
+                averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER,
+                        blockStart + hour * 3600000L + second * 1000L, hour * 100 + second % 7));
+            }
+        }
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, blockStart + 5, 1000));
+
+        PointSeries[] series = new PointSeries[1];
+        averageCalculationsService.forEachSeries((device, user, pointSeries) -> series[0] = pointSeries);
+        assertEquals(2, series[0].getClosedBlocks().getBlockCount(), "Wrong number of closed blocks");
+        assertEquals(6 * 360 + 1, series[0].size(), "Wrong number of datapoints");
+        assertThrows(DuplicateDatapointException.class,
+                () -> averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, blockStart + 5, 1)));
+        assertThrows(DuplicateDatapointException.class,
+                () -> averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, blockStart + 3600000L, 1)));
+
+        RangeTotal total = averageCalculationsService.getRangeTotalForDevice(TEST_DEVICE, blockStart + 3600000L, blockStart + 5 * 3600000L);
+        long expectedSum = 0;
+        for (int hour = 1; hour < 5; hour++) {
+            for (int second = 0; second < 3600; second += 10) {
+                expectedSum += hour * 100 + second % 7;
+            }
+        }
+        assertEquals(4 * 360, total.getCount(), "Wrong count");
+        assertEquals(expectedSum, total.getSum(), "Wrong sum");
+        assertEquals(1000, averageCalculationsService.getRangeTotalForDevice(TEST_DEVICE, blockStart + 1, blockStart + 10000).getSum(),
+                "Late datapoint should be part of its closed block");
+    }
+
+    private void storeOneDatapointPerInterval(){
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, FIRST_INTERVAL_FIRST_TIMESTAMP, 200));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, SECOND_INTERVAL_FIRST_TIMESTAMP, 450));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, THIRD_INTERVAL_FIRST_TIMESTAMP, 650));
+    }
 }
@@ -0,0 +1,88 @@
+package cz.vladimir.amp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressedBlockTest {
+
+    @Test
+    public void shouldDecodeDatapointsAsEncoded(){
+        CompressedBlock.Encoder encoder = new CompressedBlock.Encoder();
+        long[] timestamps = {Long.MIN_VALUE, -5, 0, 1000, 2000, 3001, Long.MAX_VALUE};
+        long[] values = {Long.MAX_VALUE, Long.MIN_VALUE, 0, -1, 1, 300, 299};
+        for (int i = 0; i < timestamps.length; i++) {
+            encoder.add(timestamps[i], values[i]);
+        }
+        CompressedBlock block = encoder.build();
+
+        List<Long> decoded = new ArrayList<>();
+        block.forEach((timestamp, value) -> {
+            decoded.add(timestamp);
+            decoded.add(value);
+        });
+
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], decoded.get(2 * i), "Wrong timestamp");
+            assertEquals(values[i], decoded.get(2 * i + 1), "Wrong value");
+        }
+        assertTrue(block.contains(3001), "Timestamp should be present");
+        assertFalse(block.contains(3000), "Timestamp should not be present");
+    }
+
+    @Test
+    public void regularDatapointsShouldTakeFewBytes(){
+        CompressedBlock.Encoder encoder = new CompressedBlock.Encoder();
+        for (int i = 0; i < 7200; i++) {
+            encoder.add(1600000000000L + i * 1000L, 20 + i % 3);
+        }
+
+        assertTrue(encoder.build().estimatedBytes() < 7200 * 3, "Block should be compressed");
+    }
+
+    @Test
+    public void totalsShouldMatchDatapointsAcrossBlocks(){
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        CompressedBlocks blocks = CompressedBlocks.EMPTY;
+        for (int number = 0; number < 10; number++) {
+            CompressedBlock.Encoder encoder = new CompressedBlock.Encoder();
+            for (int timestamp = number * 1000; timestamp < (number + 1) * 1000; timestamp++) {
+                values[timestamp] = Long.MIN_VALUE;
+                if (random.nextInt(3) == 0) {
+                    values[timestamp] = random.nextInt(1000) - 500;
+                    encoder.add(timestamp, values[timestamp]);
+                }
+            }
+            blocks = blocks.with(number, encoder.build());
+        }
+        int late = 3500;
+        while (values[late] != Long.MIN_VALUE) {
+            late++;
+        }
+        values[late] = 7;
+        blocks = blocks.with(3, blocks.get(3).with(late, 7));
+
+        for (int i = 0; i < 200; i++) {
+            int from = random.nextInt(values.length);
+            int to = from + random.nextInt(values.length - from + 1);
+            RangeTotal total = new RangeTotal();
+            blocks.addTotal(total, from, to);
+
+            long sum = 0;
+            long count = 0;
+            for (int timestamp = from; timestamp < to; timestamp++) {
+                if (values[timestamp] != Long.MIN_VALUE) {
+                    sum += values[timestamp];
+                    count++;
+                }
+            }
+            assertEquals(count, total.getCount(), "Wrong count");
+            assertEquals(sum, total.getSum(), "Wrong sum");
+        }
+    }
+}
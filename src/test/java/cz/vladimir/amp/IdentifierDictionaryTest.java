@@ -0,0 +1,41 @@
+package cz.vladimir.amp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdentifierDictionaryTest {
+
+    @Test
+    public void idOfShouldReturnSameIdForEqualIdentifiers(){
+        IdentifierDictionary dictionary = new IdentifierDictionary();
+
+        int id = dictionary.idOf(new String("testDevice"));
+
+        assertEquals(id, dictionary.idOf(new String("testDevice")), "Wrong id");
+        assertEquals(id, dictionary.find("testDevice"), "Wrong id");
+        assertEquals("testDevice", dictionary.identifierOf(id), "Wrong identifier");
+        assertEquals(1, dictionary.getStatistics().getEntries(), "Wrong number of entries");
+    }
+
+    @Test
+    public void idOfShouldAssignDenseIds(){
+        IdentifierDictionary dictionary = new IdentifierDictionary();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, dictionary.idOf("testDevice" + i), "Wrong id");
+        }
+
+        assertEquals("testDevice42", dictionary.identifierOf(42), "Wrong identifier");
+        assertEquals(100, dictionary.getStatistics().getEntries(), "Wrong number of entries");
+        assertTrue(dictionary.getStatistics().getEstimatedBytes() > 0, "Estimated size should be positive");
+    }
+
+    @Test
+    public void findShouldNotAddUnknownIdentifier(){
+        IdentifierDictionary dictionary = new IdentifierDictionary();
+
+        assertEquals(IdentifierDictionary.NOT_FOUND, dictionary.find("notExistingDevice"), "Identifier should not be found");
+        assertEquals(0, dictionary.getStatistics().getEntries(), "Wrong number of entries");
+    }
+}
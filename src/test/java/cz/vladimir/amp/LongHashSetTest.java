@@ -0,0 +1,46 @@
+package cz.vladimir.amp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LongHashSetTest {
+
+    @Test
+    public void addShouldReturnFalseForValueAlreadyPresent(){
+        LongHashSet set = new LongHashSet();
+
+        assertTrue(set.add(1000000), "Value should be added");
+        assertFalse(set.add(1000000), "Value should already be present");
+        assertEquals(1, set.size(), "Wrong size");
+    }
+
+    @Test
+    public void shouldContainAllValuesAfterGrowing(){
+        LongHashSet set = new LongHashSet();
+
+        for (long timestamp = 0; timestamp < 100000; timestamp += 10) {
+            set.add(timestamp);
+        }
+
+        assertEquals(10000, set.size(), "Wrong size");
+        for (long timestamp = 0; timestamp < 100000; timestamp += 10) {
+            assertTrue(set.contains(timestamp), "Value should be present");
+            assertFalse(set.contains(timestamp + 1), "Value should not be present");
+        }
+    }
+
+    @Test
+    public void shouldSupportExtremeValues(){
+        LongHashSet set = new LongHashSet();
+
+        assertFalse(set.contains(Long.MIN_VALUE), "Value should not be present");
+        assertTrue(set.add(Long.MIN_VALUE), "Value should be added");
+        assertTrue(set.add(Long.MAX_VALUE), "Value should be added");
+        assertFalse(set.add(Long.MIN_VALUE), "Value should already be present");
+
+        assertTrue(set.contains(Long.MIN_VALUE), "Value should be present");
+        assertTrue(set.contains(Long.MAX_VALUE), "Value should be present");
+        assertEquals(2, set.size(), "Wrong size");
+    }
+}
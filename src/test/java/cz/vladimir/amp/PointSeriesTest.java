@@ -0,0 +1,95 @@
+package cz.vladimir.amp;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PointSeriesTest {
+
+    private static final long INTERVAL_IN_MILLIS = Duration.ofMinutes(15).toMillis();
+    private static final long BLOCK_IN_MILLIS = Duration.ofHours(2).toMillis();
+
+    /**
+     * Lower bound of what the original storage held per datapoint: a {@link Datapoint} of a 12 byte header,
+     * two compressed references and two longs, padded to 40 bytes, referenced from the lists of both its
+     * device and its user, not counting identifiers parsed anew for every request or the spare capacity of
+     * the lists.
+     */
+    private static final int DATAPOINT_OBJECT_BYTES = 40 + 2 * 4;
+
+    @Test
+    public void shouldKeepDatapointsAcrossBlockBoundaries(){
+        PointSeries series = new PointSeries(0, 0, INTERVAL_IN_MILLIS, 0, new SeriesView(), new SeriesView(), new Contention());
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        for (long i = 0; i < 1000; i++) {
+            assertTrue(series.add(i * 10, i), "Datapoint should be added");
+            expected.put(i * 10, i);
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            long timestamp = random.nextInt(10000);
+            assertEquals(!expected.containsKey(timestamp), series.add(timestamp, -timestamp), "Wrong duplicate detection");
+            expected.putIfAbsent(timestamp, -timestamp);
+        }
+
+        assertEquals(expected.size(), series.size(), "Wrong number of datapoints");
+        for (long[] range : new long[][]{{0, 10000}, {635, 645}, {630, 1290}, {3, 9997}}) {
+            long sum = expected.subMap(range[0], range[1]).values().stream().mapToLong(Long::longValue).sum();
+            RangeTotal total = series.getTotal(range[0], range[1]);
+            assertEquals(sum, total.getSum(), "Wrong sum from " + range[0] + " to " + range[1]);
+            assertEquals(expected.subMap(range[0], range[1]).size(), total.getCount(), "Wrong count from " + range[0] + " to " + range[1]);
+        }
+    }
+
+    @Test
+    public void viewsShouldShareTheSeries(){
+        SeriesView deviceView = new SeriesView();
+        SeriesView userView = new SeriesView();
+        PointSeries series = new PointSeries(0, 0, INTERVAL_IN_MILLIS, BLOCK_IN_MILLIS, deviceView, userView, new Contention());
+        deviceView.addMember(series);
+        userView.addMember(series);
+
+        series.add(1000, 10);
+        series.add(2000, 30);
+
+        assertSame(deviceView.getMembers().get(0), userView.getMembers().get(0), "Views should share the series");
+        assertEquals(40, deviceView.getTotal(0, 3000).getSum(), "Wrong sum of the device");
+        assertEquals(40, userView.getTotal(0, 3000).getSum(), "Wrong sum of the user");
+    }
+
+    @Test
+    public void deletedDeviceShouldDetachItsSeriesFromTheUser(){
+        AverageCalculationsService service = new AverageCalculationsService();
+        service.storeDataPoint(new Datapoint("testDevice", "testUser", 1000, 10));
+        service.storeDataPoint(new Datapoint("otherTestDevice", "testUser", 1000, 30));
+        long versionBefore = service.getUserVersion("testUser");
+
+        service.deleteDeviceDatapoints("testDevice");
+
+        assertEquals(30, service.getRangeTotalForUser("testUser", 0, 2000).getSum(), "Deleted series should drop out of the user");
+        assertTrue(service.getUserVersion("testUser") > versionBefore, "Version of the user should change");
+        assertEquals(1, service.purgeDeleted(), "Wrong number of purged datapoints");
+        service.storeDataPoint(new Datapoint("testDevice", "testUser", 1000, 50));
+        assertEquals(80, service.getRangeTotalForUser("testUser", 0, 2000).getSum(), "New series should replace the deleted one");
+    }
+
+    @Test
+    public void shouldHoldSeveralTimesFewerBytesPerDatapointThanDatapointObjects(){
+        PointSeries hot = new PointSeries(0, 0, INTERVAL_IN_MILLIS, 0, new SeriesView(), new SeriesView(), new Contention());
+        PointSeries compressed = new PointSeries(0, 0, INTERVAL_IN_MILLIS, BLOCK_IN_MILLIS, new SeriesView(), new SeriesView(), new Contention());
+        int datapoints = 100000;
+        for (int i = 0; i < datapoints; i++) {
+            hot.add(i * 10000L, 20 + i % 7);
+            compressed.add(i * 10000L, 20 + i % 7);
+        }
+
+        double hotBytes = (double) hot.estimatedBytes() / datapoints;
+        double compressedBytes = (double) compressed.estimatedBytes() / datapoints;
+        assertTrue(hotBytes < DATAPOINT_OBJECT_BYTES, "Uncompressed datapoints take " + hotBytes + " bytes each");
+        assertTrue(compressedBytes * 4 < DATAPOINT_OBJECT_BYTES, "Compressed datapoints take " + compressedBytes + " bytes each");
+    }
+}
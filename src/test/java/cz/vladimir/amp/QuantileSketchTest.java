@@ -0,0 +1,40 @@
+package cz.vladimir.amp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuantileSketchTest {
+
+    @Test
+    public void quantilesShouldBeWithinRelativeAccuracy(){
+        QuantileSketch sketch = new QuantileSketch();
+        for (long value = 1; value <= 10000; value++) {
+            sketch.add(value);
+        }
+
+        assertEquals(5000, sketch.quantile(0.5), 5000 * QuantileSketch.RELATIVE_ACCURACY, "Wrong median");
+        assertEquals(9500, sketch.quantile(0.95), 9500 * QuantileSketch.RELATIVE_ACCURACY, "Wrong 95th percentile");
+        assertEquals(9900, sketch.quantile(0.99), 9900 * QuantileSketch.RELATIVE_ACCURACY, "Wrong 99th percentile");
+    }
+
+    @Test
+    public void mergedSketchShouldEqualSketchOfAllValues(){
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch negative = new QuantileSketch();
+        QuantileSketch positive = new QuantileSketch();
+        for (long value = -1000; value <= 1000; value++) {
+            all.add(value);
+            (value < 0 ? negative : positive).add(value);
+        }
+
+        negative.merge(positive);
+
+        assertEquals(all.getCount(), negative.getCount(), "Wrong count");
+        for (double quantile = 0; quantile <= 1; quantile += 0.05) {
+            assertEquals(all.quantile(quantile), negative.quantile(quantile), "Wrong quantile " + quantile);
+        }
+        assertEquals(-500, all.quantile(0.25), 500 * QuantileSketch.RELATIVE_ACCURACY, "Wrong first quartile");
+        assertEquals(0, all.quantile(0.5), "Wrong median");
+    }
+}
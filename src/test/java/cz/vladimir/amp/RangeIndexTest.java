@@ -0,0 +1,66 @@
+package cz.vladimir.amp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangeIndexTest {
+
+    @Test
+    public void totalsShouldMatchDatapointsAddedOutOfOrder(){
+        RangeIndex index = new RangeIndex();
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Long.MIN_VALUE;
+        }
+        for (int i = 0; i < 5000; i++) {
+            int timestamp = i < 2500 ? i * 2 : random.nextInt(values.length);
+            if (values[timestamp] == Long.MIN_VALUE) {
+                values[timestamp] = random.nextInt(1000) - 500;
+                index.add(timestamp, values[timestamp]);
+            }
+        }
+
+        for (int i = 0; i < 200; i++) {
+            int from = random.nextInt(values.length);
+            int to = from + random.nextInt(values.length - from + 1);
+            RangeTotal total = new RangeTotal();
+            index.addTotal(total, from, to);
+
+            long sum = 0;
+            long count = 0;
+            for (int timestamp = from; timestamp < to; timestamp++) {
+                if (values[timestamp] != Long.MIN_VALUE) {
+                    sum += values[timestamp];
+                    count++;
+                }
+            }
+            assertEquals(count, total.getCount(), "Wrong count");
+            assertEquals(sum, total.getSum(), "Wrong sum");
+        }
+    }
+
+    @Test
+    public void shouldIterateDatapointsOrderedByTimestamp(){
+        RangeIndex index = new RangeIndex();
+        for (long timestamp = 1000; timestamp > 0; timestamp--) {
+            index.add(timestamp * 10, timestamp);
+        }
+
+        List<Long> timestamps = new ArrayList<>();
+        index.forEach((timestamp, value) -> timestamps.add(timestamp));
+
+        assertEquals(1000, index.size(), "Wrong size");
+        assertEquals(10, timestamps.get(0), "Wrong first timestamp");
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue(timestamps.get(i - 1) < timestamps.get(i), "Datapoints should be ordered");
+        }
+        assertTrue(index.contains(5000), "Timestamp should be present");
+        assertFalse(index.contains(5001), "Timestamp should not be present");
+    }
+}
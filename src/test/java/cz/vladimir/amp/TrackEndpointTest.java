@@ -0,0 +1,225 @@
+package cz.vladimir.amp;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class TrackEndpointTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void shouldReturnNotModifiedWhileDataIsUnchanged() throws Exception {
+        storeDatapoint("etagDevice", "etagUser", 10000000, 100);
+
+        String etag = mockMvc.perform(get("/statistics/devices/etagDevice/avg"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/statistics/devices/etagDevice/avg").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        storeDatapoint("etagDevice", "etagUser", 10000001, 300);
+
+        mockMvc.perform(get("/statistics/devices/etagDevice/avg").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].average").value(200.0));
+    }
+
+    @Test
+    public void shouldReturnMovingAveragesForSeveralWindowSizes() throws Exception {
+        storeDatapoint("windowDevice", "windowUser", 10000000, 100);
+        storeDatapoint("windowDevice", "windowUser", 10900000, 300);
+
+        mockMvc.perform(get("/statistics/users/windowUser/moving_avg").param("window_size", "1,2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[1].movingAverages.1").value(300.0))
+                .andExpect(jsonPath("$[1].movingAverages.2").value(200.0));
+    }
+
+    @Test
+    public void shouldPaginateAveragesWithCursor() throws Exception {
+        storeDatapoint("pageDevice", "pageUser", 10000000, 100);
+        storeDatapoint("pageDevice", "pageUser", 10900000, 300);
+        storeDatapoint("pageDevice", "pageUser", 11800000, 500);
+
+        String cursor = mockMvc.perform(get("/statistics/devices/pageDevice/avg").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(header().string(RangeParameters.NEXT_CURSOR_HEADER, "11700000"))
+                .andReturn().getResponse().getHeader(RangeParameters.NEXT_CURSOR_HEADER);
+
+        mockMvc.perform(get("/statistics/devices/pageDevice/avg").param("limit", "2").param("cursor", cursor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].average").value(500.0))
+                .andExpect(header().doesNotExist(RangeParameters.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    public void shouldDeleteDatapointsOfUserFromItsDevices() throws Exception {
+        storeDatapoint("deleteDevice", "deleteUser", 10000000, 100);
+        storeDatapoint("deleteDevice", "keptUser", 10000000, 300);
+
+        mockMvc.perform(delete("/users/deleteUser/datapoints"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/statistics/users/deleteUser/avg"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/statistics/devices/deleteDevice/avg"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].average").value(300.0));
+    }
+
+    @Test
+    public void shouldReturnPercentilesOfIntervals() throws Exception {
+        storeDatapoint("summaryDevice", "summaryUser", 10000000, 100);
+        storeDatapoint("summaryDevice", "summaryUser", 10000001, 300);
+
+        mockMvc.perform(get("/statistics/users/summaryUser/summary").param("percentiles", "50,99.9"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].count").value(2))
+                .andExpect(jsonPath("$[0].min").value(100))
+                .andExpect(jsonPath("$[0].max").value(300))
+                .andExpect(jsonPath("$[0].percentiles.p50").exists())
+                .andExpect(jsonPath("$[0].percentiles['p99.9']").exists());
+        mockMvc.perform(get("/statistics/devices/summaryDevice/summary").param("percentiles", "101"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/statistics/devices/summaryDevice/summary").param("resolution", "1m"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void shouldRankDevicesAndAverageFleetWithinTimeRange() throws Exception {
+        storeDatapoint("lowDevice", "fleetUser", 900000000000L, 100);
+        storeDatapoint("highDevice", "fleetUser", 900000000001L, 300);
+
+        mockMvc.perform(get("/statistics/devices/top").param("n", "1").param("from", "900000000000").param("to", "900000900000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].identifier").value("highDevice"))
+                .andExpect(jsonPath("$[0].average").value(300.0));
+        mockMvc.perform(get("/statistics/users/top").param("from", "900000000000").param("to", "900000900000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].identifier").value("fleetUser"))
+                .andExpect(jsonPath("$[0].count").value(2));
+        mockMvc.perform(get("/statistics/fleet/avg").param("from", "900000000000").param("to", "900000900000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].average").value(200.0));
+    }
+
+    @Test
+    public void shouldRejectEmptyTimeRange() throws Exception {
+        storeDatapoint("rangeDevice", "rangeUser", 10000000, 100);
+
+        mockMvc.perform(get("/statistics/devices/rangeDevice/avg").param("from", "10000000").param("to", "10000000"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void shouldStoreBatchAndReportDuplicatesAndInvalidItems() throws Exception {
+        mockMvc.perform(post("/datapoints/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"device\":\"batchDevice\",\"user\":\"batchUser\",\"timestamp\":10000000,\"value\":100},"
+                        + "{\"device\":\"batchDevice\",\"user\":\"batchUser\",\"timestamp\":10000000,\"value\":100},"
+                        + "{\"device\":\"batchDevice\",\"timestamp\":10000001,\"value\":100},"
+                        + "{\"device\":\"batchDevice\",\"user\":\"batchUser\",\"timestamp\":10000001,\"value\":300}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.duplicates[0]").value(1))
+                .andExpect(jsonPath("$.invalid[0]").value(2));
+
+        mockMvc.perform(get("/statistics/devices/batchDevice/avg"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].average").value(200.0));
+    }
+
+    @Test
+    public void shouldStoreNewlineDelimitedBatch() throws Exception {
+        mockMvc.perform(post("/datapoints/batch")
+                .contentType(DatapointBatchReader.NDJSON_VALUE)
+                .content("{\"device\":\"ndjsonDevice\",\"user\":\"ndjsonUser\",\"timestamp\":10000000,\"value\":100}\n"
+                        + "{\"device\":\"ndjsonDevice\",\"user\":\"ndjsonUser\",\"timestamp\":10900000,\"value\":300}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(2));
+
+        mockMvc.perform(post("/datapoints/batch")
+                .contentType(DatapointBatchReader.NDJSON_VALUE)
+                .content("{\"device\":\"ndjsonDevice\",\"user\":\"ndjsonUser\",\"timestamp\":11800000,\"value\":500}\n{\"device\":"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/statistics/devices/ndjsonDevice/avg"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3));
+    }
+
+    @Test
+    public void shouldReturnAveragesInRequestedResolution() throws Exception {
+        storeDatapoint("resolutionDevice", "resolutionUser", 10000000, 100);
+        storeDatapoint("resolutionDevice", "resolutionUser", 10900000, 300);
+
+        mockMvc.perform(get("/statistics/devices/resolutionDevice/avg").param("resolution", "1h"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].startTime").value(7200000))
+                .andExpect(jsonPath("$[1].average").value(300.0));
+        mockMvc.perform(get("/statistics/users/resolutionUser/avg").param("resolution", "1d"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].average").value(200.0));
+        mockMvc.perform(get("/statistics/devices/resolutionDevice/avg").param("resolution", "5m"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].startTime").value(9900000))
+                .andExpect(jsonPath("$[3].average").value(300.0));
+        mockMvc.perform(get("/statistics/devices/resolutionDevice/avg").param("resolution", "90s"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].startTime").value(9990000))
+                .andExpect(jsonPath("$[10].average").value(300.0));
+    }
+
+    @Test
+    public void shouldRejectResolutionSpanningTooManyIntervals() throws Exception {
+        storeDatapoint("fineResolutionDevice", "fineResolutionUser", 10000000, 100);
+        storeDatapoint("fineResolutionDevice", "fineResolutionUser", 96400000, 300);
+
+        mockMvc.perform(get("/statistics/devices/fineResolutionDevice/avg").param("resolution", "1ms"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void shouldAverageArbitraryTimeRange() throws Exception {
+        storeDatapoint("spanDevice", "spanUser", 10000000, 100);
+        storeDatapoint("spanDevice", "spanUser", 10000123, 300);
+        storeDatapoint("spanDevice", "spanUser", 10000456, 800);
+
+        mockMvc.perform(get("/statistics/devices/spanDevice/range_avg").param("from", "10000001").param("to", "10000457"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(2))
+                .andExpect(jsonPath("$.average").value(550.0));
+        mockMvc.perform(get("/statistics/users/spanUser/range_avg").param("from", "0").param("to", "10000123"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.sum").value(100));
+        mockMvc.perform(get("/statistics/users/spanUser/range_avg").param("from", "5").param("to", "5"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private void storeDatapoint(String device, String user, long timestamp, long value) throws Exception {
+        mockMvc.perform(post("/datapoints")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"device\":\"" + device + "\",\"user\":\"" + user + "\",\"timestamp\":" + timestamp + ",\"value\":" + value + "}"))
+                .andExpect(status().isOk());
+    }
+}
@@ -0,0 +1,34 @@
+package cz.vladimir.amp.compaction;
+
+import cz.vladimir.amp.AverageCalculationsService;
+import cz.vladimir.amp.Datapoint;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatapointCompactorTest {
+
+    private static final String TEST_DEVICE = "testDevice";
+    private static final String TEST_USER = "testUser";
+
+    @Test
+    public void shouldDropDatapointsOlderThanMaxAge(){
+        AverageCalculationsService averageCalculationsService = new AverageCalculationsService();
+        long now = System.currentTimeMillis();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, now, 300));
+        DatapointCompactor compactor = new DatapointCompactor(averageCalculationsService, Duration.ofDays(1), Duration.ofHours(1));
+
+        assertNull(compactor.getStatistics().getCutoff(), "Cutoff should not be known before the first run");
+        assertEquals(1, compactor.compact(), "Wrong number of compacted datapoints");
+        assertEquals(0, compactor.compact(), "Wrong number of compacted datapoints");
+
+        CompactionStatistics statistics = compactor.getStatistics();
+        assertEquals(2, statistics.getRuns(), "Wrong number of runs");
+        assertEquals(1, statistics.getDatapointsDropped(), "Wrong number of dropped datapoints");
+        assertEquals(0, statistics.getCutoff() % 60000, "Cutoff should be aligned to a minute");
+        assertEquals(100, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+    }
+}
@@ -0,0 +1,29 @@
+package cz.vladimir.amp.compression;
+
+import cz.vladimir.amp.AverageCalculationsService;
+import cz.vladimir.amp.Datapoint;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressionBenchmarkTest {
+
+    @Test
+    public void shouldReportClosedBlocksSmallerThanUncompressedDatapoints(){
+        AverageCalculationsService averageCalculationsService = new AverageCalculationsService();
+        long start = Duration.ofHours(2).toMillis() * 1000;
+        for (int second = 0; second < 3 * 7200; second += 5) {
+            averageCalculationsService.storeDataPoint(new Datapoint("testDevice", "testUser", start + second * 1000L, second % 11));
+        }
+
+        CompressionReport report = new CompressionBenchmark(averageCalculationsService).run(10, 50);
+
+        assertEquals(1, report.getSeries(), "Wrong number of series");
+        assertEquals(2, report.getClosedBlocks(), "Wrong number of closed blocks");
+        assertEquals(2 * 7200 / 5, report.getDatapoints(), "Wrong number of datapoints");
+        assertEquals(50, report.getQueries(), "Wrong number of queries");
+        assertTrue(report.getCompressedBytesPerDatapoint() < report.getUncompressedBytesPerDatapoint() / 4, "Closed blocks should be compressed");
+    }
+}
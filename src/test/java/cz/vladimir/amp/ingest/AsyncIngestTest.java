@@ -0,0 +1,52 @@
+package cz.vladimir.amp.ingest;
+
+import cz.vladimir.amp.AverageCalculationsService;
+import cz.vladimir.amp.Datapoint;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncIngestTest {
+
+    private static final String TEST_DEVICE = "testDevice";
+    private static final String TEST_USER = "testUser";
+
+    private final AverageCalculationsService averageCalculationsService = new AverageCalculationsService();
+
+    @Test
+    public void queuedDatapointsShouldBeVisibleAfterAwaitingThem(){
+        AsyncIngest asyncIngest = new AsyncIngest(averageCalculationsService, 2, 1024, 16, Duration.ofSeconds(5));
+        asyncIngest.start();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(asyncIngest.offer(new Datapoint(TEST_DEVICE, TEST_USER, 10000000 + i, i % 2 == 0 ? 100 : 300)));
+        }
+        assertTrue(asyncIngest.offer(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 500)));
+
+        assertTrue(asyncIngest.awaitApplied(), "Queued datapoints should be applied");
+        assertEquals(200, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+
+        asyncIngest.stop();
+        IngestStatistics statistics = asyncIngest.getStatistics();
+        assertEquals(101, statistics.getApplied(), "Wrong number of applied datapoints");
+        assertEquals(1, statistics.getDuplicates(), "Wrong number of duplicates");
+        assertEquals(0, statistics.getDepth(), "Queue should be drained");
+    }
+
+    @Test
+    public void fullQueueShouldRejectDatapoints(){
+        AsyncIngest asyncIngest = new AsyncIngest(averageCalculationsService, 1, 2, 16, Duration.ofMillis(10));
+        assertTrue(asyncIngest.offer(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100)));
+        assertTrue(asyncIngest.offer(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 100)));
+
+        assertFalse(asyncIngest.offer(new Datapoint(TEST_DEVICE, TEST_USER, 10000002, 100)));
+        assertFalse(asyncIngest.awaitApplied(), "Datapoints should not be applied before the appliers start");
+        assertEquals(1, asyncIngest.getStatistics().getRejected(), "Wrong number of rejected datapoints");
+
+        asyncIngest.start();
+        assertTrue(asyncIngest.awaitApplied(), "Rejected datapoints should not be awaited");
+        asyncIngest.stop();
+        assertEquals(2, asyncIngest.getStatistics().getApplied(), "Queued datapoints should be applied when stopping");
+    }
+}
@@ -0,0 +1,36 @@
+package cz.vladimir.amp.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = "amp.ingest.mode=async")
+@AutoConfigureMockMvc
+public class AsyncTrackEndpointTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void shouldAcceptDatapointAndServeItToConsistentRead() throws Exception {
+        mockMvc.perform(post("/datapoints")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"device\":\"asyncDevice\",\"user\":\"asyncUser\",\"timestamp\":10000000,\"value\":100}"))
+                .andExpect(status().isAccepted());
+
+        mockMvc.perform(get("/statistics/devices/asyncDevice/avg").param("consistent", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].average").value(100.0));
+
+        mockMvc.perform(get("/admin/ingest"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.applied").value(1));
+    }
+}
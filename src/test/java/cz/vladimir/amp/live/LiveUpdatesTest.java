@@ -0,0 +1,141 @@
+package cz.vladimir.amp.live;
+
+import cz.vladimir.amp.AverageCalculationsService;
+import cz.vladimir.amp.AverageForInterval;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.IntervalQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LiveUpdatesTest {
+
+    private static final String TEST_DEVICE = "testDevice";
+    private static final String TEST_USER = "testUser";
+    private static final long FIFTEEN_MINUTES = Duration.ofMinutes(15).toMillis();
+    private static final Object DELETED = new Object();
+
+    private AverageCalculationsService service;
+    private LiveUpdates liveUpdates;
+
+    @BeforeEach
+    public void setUp(){
+        service = new AverageCalculationsService();
+        liveUpdates = new LiveUpdates(service, Duration.ofHours(1), 1);
+        service.addListener(liveUpdates);
+        liveUpdates.start();
+    }
+
+    @AfterEach
+    public void tearDown(){
+        liveUpdates.stop();
+    }
+
+    @Test
+    public void datapointsOfOneIntervalShouldBeCoalesced() throws InterruptedException {
+        BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        liveUpdates.subscribeDevice(TEST_DEVICE, FIFTEEN_MINUTES, Collections.emptyList(), new QueueListener(events));
+
+        service.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 1000, 10));
+        service.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 2000, 20));
+        service.storeDataPoint(new Datapoint(TEST_DEVICE, "otherTestUser", 3000, 30));
+        service.storeDataPoint(new Datapoint("otherTestDevice", TEST_USER, 4000, 1000));
+        liveUpdates.flush();
+
+        List<AverageForInterval> changed = nextAverages(events);
+        assertEquals(1, changed.size(), "Wrong number of changed intervals");
+        assertEquals(0, changed.get(0).getStartTime(), "Wrong start time");
+        assertEquals(20.0, changed.get(0).getAverage(), "Wrong average");
+        assertEquals(3, liveUpdates.getStatistics().getDatapointsSeen(), "Wrong number of datapoints seen");
+
+        service.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 3 * FIFTEEN_MINUTES, 50));
+        liveUpdates.flush();
+
+        changed = nextAverages(events);
+        assertEquals(1, changed.size(), "Only the interval of the new datapoint should change");
+        assertEquals(3 * FIFTEEN_MINUTES, changed.get(0).getStartTime(), "Wrong start time");
+        assertEquals(50.0, changed.get(0).getAverage(), "Wrong average");
+    }
+
+    @Test
+    public void changedIntervalShouldUpdateTheFollowingMovingAverages() throws InterruptedException {
+        for (int interval = 0; interval < 6; interval++) {
+            service.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, interval * FIFTEEN_MINUTES, interval));
+        }
+        BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        List<Long> windowSizes = Arrays.asList(3L, 2L);
+        liveUpdates.subscribeUser(TEST_USER, FIFTEEN_MINUTES, windowSizes, new QueueListener(events));
+
+        service.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 2 * FIFTEEN_MINUTES + 1, 20));
+        liveUpdates.flush();
+
+        List<AverageForInterval> changed = nextAverages(events);
+        List<AverageForInterval> expected = service.getMovingAveragesForUser(TEST_USER, windowSizes, IntervalQuery.ALL);
+        assertEquals(3, changed.size(), "Wrong number of changed intervals");
+        for (int i = 0; i < changed.size(); i++) {
+            assertEquals((2 + i) * FIFTEEN_MINUTES, changed.get(i).getStartTime(), "Wrong start time");
+            assertEquals(expected.get(2 + i).getMovingAverages(), changed.get(i).getMovingAverages(), "Wrong moving averages");
+        }
+    }
+
+    @Test
+    public void deletionShouldBeSentAndFailingSubscriberDropped() throws InterruptedException {
+        BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        liveUpdates.subscribeDevice(TEST_DEVICE, FIFTEEN_MINUTES, Collections.emptyList(), new LiveListener() {
+            @Override
+            public void averagesChanged(List<AverageForInterval> changed) {
+                throw new IllegalStateException("Disconnected");
+            }
+
+            @Override
+            public void datapointsDeleted() {
+            }
+        });
+        liveUpdates.subscribeDevice(TEST_DEVICE, FIFTEEN_MINUTES, Collections.emptyList(), new QueueListener(events));
+
+        service.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 1000, 10));
+        liveUpdates.flush();
+        nextAverages(events);
+        service.deleteDeviceDatapoints(TEST_DEVICE);
+        liveUpdates.flush();
+
+        assertSame(DELETED, events.poll(10, TimeUnit.SECONDS), "Deletion should be sent");
+        assertEquals(1, liveUpdates.getStatistics().getSubscribersDropped(), "Wrong number of dropped subscribers");
+        assertEquals(1, liveUpdates.getStatistics().getSubscribers(), "Wrong number of subscribers");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<AverageForInterval> nextAverages(BlockingQueue<Object> events) throws InterruptedException {
+        Object event = events.poll(10, TimeUnit.SECONDS);
+        assertNotNull(event, "No update was sent");
+        return (List<AverageForInterval>) event;
+    }
+
+    private static class QueueListener implements LiveListener {
+        private final BlockingQueue<Object> events;
+
+        private QueueListener(BlockingQueue<Object> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void averagesChanged(List<AverageForInterval> changed) {
+            events.add(changed);
+        }
+
+        @Override
+        public void datapointsDeleted() {
+            events.add(DELETED);
+        }
+    }
+}
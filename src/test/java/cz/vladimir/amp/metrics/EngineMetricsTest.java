@@ -0,0 +1,64 @@
+package cz.vladimir.amp.metrics;
+
+import cz.vladimir.amp.AverageCalculationsService;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.exception.DuplicateDatapointException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EngineMetricsTest {
+
+    private static final String TEST_DEVICE = "testDevice";
+    private static final String TEST_USER = "testUser";
+
+    @Test
+    public void shouldMeterIngestAndSeries(){
+        AverageCalculationsService service = new AverageCalculationsService();
+        EngineMetrics engineMetrics = new EngineMetrics(service, Duration.ofMinutes(1));
+        service.addListener(engineMetrics);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        engineMetrics.bindTo(registry);
+
+        for (int i = 0; i < 10; i++) {
+            service.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, i * 1000L, i));
+        }
+        service.storeDataPoint(new Datapoint(TEST_DEVICE, "otherTestUser", 0, 1));
+        assertThrows(DuplicateDatapointException.class, () -> service.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 0, 1)));
+        List<Integer> skipped = service.storeDataPoints(Arrays.asList(new Datapoint(TEST_DEVICE, TEST_USER, 1000, 1),
+                new Datapoint(TEST_DEVICE, TEST_USER, 20000, 1)));
+        engineMetrics.scanSeries();
+
+        assertEquals(1, skipped.size(), "Wrong number of skipped datapoints");
+        assertEquals(12, registry.get("amp.datapoints.stored").functionCounter().count(), "Wrong number of stored datapoints");
+        assertEquals(2, registry.get("amp.datapoints.duplicates").functionCounter().count(), "Wrong number of duplicates");
+        assertEquals(2, registry.get("amp.series").gauge().value(), "Wrong number of series");
+        assertEquals(11, registry.get("amp.series.datapoints").tag("quantile", "1.0").gauge().value(), "Wrong largest series");
+        assertEquals(1, registry.get("amp.series.datapoints").tag("quantile", "0.5").gauge().value(), "Wrong median series");
+        assertTrue(registry.get("amp.series.bytes.total").gauge().value() > 0, "Heap of the series should be estimated");
+    }
+
+    @Test
+    public void shouldRankQueryCostsAndForgetDeleted(){
+        QueryCosts queryCosts = new QueryCosts();
+        queryCosts.recordDevice("cheapDevice", 1000);
+        queryCosts.recordDevice("expensiveDevice", 3000000);
+        queryCosts.recordDevice("expensiveDevice", 1000000);
+        queryCosts.recordUser(TEST_USER, 5000);
+
+        List<QueryCost> devices = queryCosts.getTopDevices(1);
+        assertEquals(1, devices.size(), "Wrong number of devices");
+        assertEquals("expensiveDevice", devices.get(0).getIdentifier(), "Wrong most expensive device");
+        assertEquals(2, devices.get(0).getQueries(), "Wrong number of queries");
+        assertEquals(2.0, devices.get(0).getAverageMillis(), "Wrong average time");
+
+        queryCosts.deviceDatapointsDeleted("expensiveDevice");
+        assertEquals("cheapDevice", queryCosts.getTopDevices(1).get(0).getIdentifier(), "Deleted device should be forgotten");
+        assertEquals(1, queryCosts.getTopUsers(10).size(), "Wrong number of users");
+    }
+}
@@ -0,0 +1,87 @@
+package cz.vladimir.amp.retention;
+
+import cz.vladimir.amp.AverageCalculationsService;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.DictionaryStatistics;
+import cz.vladimir.amp.IntervalQuery;
+import cz.vladimir.amp.exception.DataNotFoundException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetentionEvictorTest {
+
+    private static final String TEST_DEVICE = "testDevice";
+    private static final String TEST_USER = "testUser";
+
+    @Test
+    public void shouldDropDatapointsOlderThanTheirTimeToLive(){
+        AverageCalculationsService averageCalculationsService = new AverageCalculationsService();
+        long now = System.currentTimeMillis();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, now - Duration.ofHours(2).toMillis(), 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, now, 300));
+        averageCalculationsService.storeDataPoint(new Datapoint("longLivedDevice", TEST_USER, now - Duration.ofHours(2).toMillis(), 500));
+        RetentionEvictor evictor = new RetentionEvictor(averageCalculationsService, Duration.ofHours(1),
+                Collections.singletonMap("longLivedDevice", Duration.ofDays(1)), null, Duration.ofSeconds(10));
+
+        evictor.run();
+
+        RetentionStatistics statistics = evictor.getStatistics();
+        assertEquals(1, statistics.getRuns(), "Wrong number of runs");
+        assertEquals(1, statistics.getExpiredDatapoints(), "Wrong number of expired datapoints");
+        assertNull(statistics.getUsedBytes(), "Usage should not be measured without a budget");
+        assertEquals(300, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+        assertEquals(500, averageCalculationsService.getAveragesForDevice("longLivedDevice").get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyQueriedSeriesOverBudget() throws Exception {
+        AverageCalculationsService averageCalculationsService = new AverageCalculationsService();
+        for (int device = 0; device < 3; device++) {
+            for (int i = 0; i < 1000; i++) {
+                averageCalculationsService.storeDataPoint(new Datapoint("device" + device, TEST_USER, i * 60000L, device));
+            }
+        }
+        long seriesBytes = averageCalculationsService.getSeriesUsage().get(0).getEstimatedBytes();
+        Thread.sleep(5);
+        averageCalculationsService.getAveragesForDevice("device0");
+        averageCalculationsService.getAveragesForDevice("device2");
+        RetentionEvictor evictor = new RetentionEvictor(averageCalculationsService, null, Collections.emptyMap(),
+                seriesBytes * 5 / 2, Duration.ofSeconds(10));
+
+        evictor.run();
+
+        RetentionStatistics statistics = evictor.getStatistics();
+        assertEquals(1, statistics.getEvictedSeries(), "Wrong number of evicted series");
+        assertEquals(1000, statistics.getEvictedDatapoints(), "Wrong number of evicted datapoints");
+        assertTrue(statistics.getEvictedBytes() > 0, "Evicted bytes should be counted");
+        assertTrue(statistics.getUsedBytes() <= statistics.getMemoryBudget(), "Usage should be within the budget");
+        assertThrows(DataNotFoundException.class, () -> averageCalculationsService.getAveragesForDevice("device1"));
+        assertEquals(0, averageCalculationsService.getAveragesForDevice("device0").get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldCountDictionariesTowardsBudget(){
+        AverageCalculationsService averageCalculationsService = new AverageCalculationsService();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint("otherDevice", "otherUser", 10000000, 100));
+        long dictionaryBytes = averageCalculationsService.getDictionaryStatistics().values().stream()
+                .mapToLong(DictionaryStatistics::getEstimatedBytes).sum();
+        RetentionEvictor evictor = new RetentionEvictor(averageCalculationsService, null, Collections.emptyMap(),
+                dictionaryBytes, Duration.ofSeconds(10));
+
+        evictor.run();
+
+        RetentionStatistics statistics = evictor.getStatistics();
+        assertEquals(2, statistics.getEvictedSeries(), "Wrong number of evicted series");
+        assertEquals(dictionaryBytes, statistics.getUsedBytes(), "Dictionaries should be counted as used");
+        assertThrows(DataNotFoundException.class, () -> averageCalculationsService.getUserVersion(TEST_USER));
+        assertTrue(averageCalculationsService.getTopDevices(10, IntervalQuery.ALL).isEmpty(), "Evicted devices should not be listed");
+
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 300));
+        assertEquals(300, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+    }
+}
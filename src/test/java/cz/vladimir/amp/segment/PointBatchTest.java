@@ -0,0 +1,29 @@
+package cz.vladimir.amp.segment;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PointBatchTest {
+
+    @Test
+    public void shouldSortDatapointsByTimestamp(){
+        Random random = new Random(42);
+        PointBatch batch = new PointBatch();
+        for (int i = 0; i < 1000; i++) {
+            long timestamp = random.nextInt(1000000);
+            batch.add(timestamp, -timestamp);
+        }
+
+        batch.sort();
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                assertTrue(batch.getTimestamp(i - 1) <= batch.getTimestamp(i), "Datapoints should be ordered");
+            }
+            assertEquals(-batch.getTimestamp(i), batch.getValue(i), "Value should stay with its timestamp");
+        }
+    }
+}
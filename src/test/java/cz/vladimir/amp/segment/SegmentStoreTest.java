@@ -0,0 +1,205 @@
+package cz.vladimir.amp.segment;
+
+import cz.vladimir.amp.AverageCalculationsService;
+import cz.vladimir.amp.AverageForInterval;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.IntervalQuery;
+import cz.vladimir.amp.RangeTotal;
+import cz.vladimir.amp.exception.DataNotFoundException;
+import cz.vladimir.amp.exception.DuplicateDatapointException;
+import cz.vladimir.amp.wal.FsyncPolicy;
+import cz.vladimir.amp.wal.WriteAheadLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentStoreTest {
+
+    private static final String TEST_DEVICE = "testDevice";
+    private static final String TEST_USER = "testUser";
+    private static final Duration HOT_WINDOW = Duration.ofDays(1);
+
+    @TempDir
+    Path directory;
+
+    private AverageCalculationsService averageCalculationsService;
+    private SegmentStore segmentStore;
+
+    @Test
+    public void flushedDatapointsShouldBeMergedWithHotDatapoints() throws IOException {
+        long now = System.currentTimeMillis();
+        start(8);
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 300));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, "otherTestUser", 10900000, -400));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, now, 50));
+
+        assertEquals(3, segmentStore.flush(), "Wrong number of flushed datapoints");
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000002, 200));
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForDevice(TEST_DEVICE);
+        assertEquals(200, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(-400, averageValues.get(1).getAverage(), "Wrong average value");
+        assertEquals(50, averageValues.get(averageValues.size() - 1).getAverage(), "Wrong average value");
+        assertEquals(3, segmentStore.getStatistics().getDatapoints(), "Wrong number of datapoints in segments");
+    }
+
+    @Test
+    public void flushedDatapointsShouldBeAveragedInEveryResolution() throws IOException {
+        start(8);
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10060000, 300));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10900000, 500));
+        segmentStore.flush();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 700));
+
+        List<AverageForInterval> minutes = averageCalculationsService.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(10000000, 10900000, Integer.MAX_VALUE, Duration.ofMinutes(1).toMillis()));
+        List<AverageForInterval> hours = averageCalculationsService.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofHours(1).toMillis()));
+
+        assertEquals(16, minutes.size(), "Wrong number of average values");
+        assertEquals(400, minutes.get(0).getAverage(), "Wrong average value");
+        assertEquals(300, minutes.get(1).getAverage(), "Wrong average value");
+        assertEquals(500, minutes.get(15).getAverage(), "Wrong average value");
+        assertEquals(2, hours.size(), "Wrong number of average values");
+        assertEquals(1100.0 / 3, hours.get(0).getAverage(), "Wrong average value");
+        assertEquals(500, hours.get(1).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void rangeTotalShouldSumFlushedAndHotDatapoints() throws IOException {
+        start(8);
+        for (int i = 0; i < 300; i++) {
+            averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000 + i * 2, i));
+        }
+        segmentStore.flush();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000101, 1000));
+
+        RangeTotal total = averageCalculationsService.getRangeTotalForDevice(TEST_DEVICE, 10000100, 10000500);
+
+        assertEquals(201, total.getCount(), "Wrong count");
+        assertEquals(1000 + (50 + 249) * 200 / 2, total.getSum(), "Wrong sum");
+    }
+
+    @Test
+    public void flushedDatapointsShouldBeRejectedAsDuplicates() throws IOException {
+        start(8);
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        segmentStore.flush();
+
+        assertThrows(DuplicateDatapointException.class,
+                () -> averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100)));
+    }
+
+    @Test
+    public void segmentsShouldBeMappedAfterRestart() throws IOException {
+        start(8);
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 300));
+        segmentStore.flush();
+        segmentStore.close();
+
+        start(8);
+
+        assertEquals(200, averageCalculationsService.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+        assertThrows(DuplicateDatapointException.class,
+                () -> averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 300)));
+    }
+
+    @Test
+    public void segmentsShouldBeCompacted() throws IOException {
+        start(2);
+        for (int i = 0; i < 3; i++) {
+            averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000 + i, 100 * i));
+            segmentStore.flush();
+        }
+
+        assertEquals(1, segmentStore.getStatistics().getSegments(), "Wrong number of segments");
+        assertEquals(100, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+
+        start(2);
+        assertEquals(3, segmentStore.getStatistics().getDatapoints(), "Wrong number of datapoints in segments");
+        assertEquals(100, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void deletedSeriesShouldBeRemovedFromSegments() throws IOException {
+        start(8);
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint("otherTestDevice", TEST_USER, 10000000, 300));
+        segmentStore.flush();
+
+        averageCalculationsService.deleteDeviceDatapoints(TEST_DEVICE);
+        assertEquals(2, segmentStore.getStatistics().getDatapoints(), "Deleted datapoints should be removed in the background");
+        segmentStore.flush();
+        assertEquals(1, segmentStore.getStatistics().getDatapoints(), "Wrong number of datapoints in segments");
+
+        start(8);
+        assertThrows(DataNotFoundException.class, () -> averageCalculationsService.getAveragesForDevice(TEST_DEVICE));
+        assertEquals(300, averageCalculationsService.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void deletesNotRemovedFromSegmentsShouldBeReplayedFromTheWriteAheadLog() throws IOException {
+        WriteAheadLog writeAheadLog = startWithWriteAheadLog();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint("otherTestDevice", TEST_USER, 10000000, 300));
+        segmentStore.flush();
+        averageCalculationsService.deleteDeviceDatapoints(TEST_DEVICE);
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 500));
+        writeAheadLog.close();
+
+        writeAheadLog = startWithWriteAheadLog();
+
+        assertEquals(500, averageCalculationsService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+        assertEquals(400, averageCalculationsService.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+        writeAheadLog.close();
+    }
+
+    @Test
+    public void flushedFilesOfTheWriteAheadLogShouldBeReleased() throws IOException {
+        long now = System.currentTimeMillis();
+        WriteAheadLog writeAheadLog = startWithWriteAheadLog();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        segmentStore.flush();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, now, 50));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 300));
+        segmentStore.flush();
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000002, 200));
+        writeAheadLog.close();
+
+        writeAheadLog = startWithWriteAheadLog();
+
+        List<AverageForInterval> averageValues = averageCalculationsService.getAveragesForDevice(TEST_DEVICE);
+        assertEquals(200, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(50, averageValues.get(averageValues.size() - 1).getAverage(), "Wrong average value");
+        assertEquals(2, segmentStore.getStatistics().getDatapoints(), "Wrong number of datapoints in segments");
+        writeAheadLog.close();
+    }
+
+    private void start(int maxSegments) throws IOException {
+        averageCalculationsService = new AverageCalculationsService();
+        segmentStore = new SegmentStore(directory, averageCalculationsService, HOT_WINDOW, maxSegments);
+        segmentStore.open();
+        averageCalculationsService.addListener(segmentStore);
+    }
+
+    private WriteAheadLog startWithWriteAheadLog() throws IOException {
+        averageCalculationsService = new AverageCalculationsService();
+        WriteAheadLog writeAheadLog = new WriteAheadLog(directory.resolve("wal"), FsyncPolicy.ALWAYS, Duration.ofMillis(5));
+        segmentStore = new SegmentStore(directory.resolve("segments"), averageCalculationsService, HOT_WINDOW, 8);
+        segmentStore.open();
+        writeAheadLog.recover(averageCalculationsService);
+        segmentStore.setWriteAheadLog(writeAheadLog);
+        averageCalculationsService.addListener(segmentStore);
+        averageCalculationsService.addListener(writeAheadLog);
+        return writeAheadLog;
+    }
+}
@@ -0,0 +1,278 @@
+package cz.vladimir.amp.shard;
+
+import cz.vladimir.amp.AverageForInterval;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.GroupAverage;
+import cz.vladimir.amp.IntervalQuery;
+import cz.vladimir.amp.RangeTotal;
+import cz.vladimir.amp.SummaryForInterval;
+import cz.vladimir.amp.exception.DataNotFoundException;
+import cz.vladimir.amp.exception.DuplicateDatapointException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedAverageCalculationsTest {
+
+    private static final String TEST_DEVICE = "testDevice";
+    private static final String TEST_USER = "testUser";
+    private static final int SHARDS = 4;
+
+    private final ShardedAverageCalculations averageCalculations = new ShardedAverageCalculations(SHARDS);
+
+    @AfterEach
+    void close() {
+        averageCalculations.close();
+    }
+
+    @Test
+    public void shouldMergeUserDataFromAllShards(){
+        for (int device = 0; device < 10; device++) {
+            averageCalculations.storeDataPoint(new Datapoint("device" + device, TEST_USER, 10000000, device % 2 == 0 ? 100 : 300));
+        }
+        averageCalculations.storeDataPoint(new Datapoint("device0", TEST_USER, 11800000, 500));
+
+        List<AverageForInterval> averageValues = averageCalculations.getMovingAveragesForUser(TEST_USER, 2);
+
+        assertEquals(3, averageValues.size(), "Wrong number of average values");
+        assertEquals(200, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(0, averageValues.get(1).getAverage(), "Wrong average value");
+        assertEquals(250, averageValues.get(2).getMovingAverage(), "Wrong moving average value");
+    }
+
+    @Test
+    public void userVersionShouldIncreaseWithEveryDeletedDevice(){
+        for (int device = 0; device < 10; device++) {
+            averageCalculations.storeDataPoint(new Datapoint("device" + device, TEST_USER, 10000000, 100));
+        }
+
+        long version = averageCalculations.getUserVersion(TEST_USER);
+        for (int device = 9; device > 0; device--) {
+            averageCalculations.deleteDeviceDatapoints("device" + device);
+            long newVersion = averageCalculations.getUserVersion(TEST_USER);
+            assertTrue(newVersion > version, "User version should increase after deleting device" + device);
+            version = newVersion;
+        }
+        averageCalculations.deleteDeviceDatapoints("device0");
+        assertThrows(DataNotFoundException.class, () -> averageCalculations.getUserVersion(TEST_USER));
+    }
+
+    @Test
+    public void userVersionShouldIncreaseWithEveryEvictedSeries(){
+        for (int device = 0; device < 10; device++) {
+            averageCalculations.storeDataPoint(new Datapoint("device" + device, TEST_USER, 10000000, 100 * device));
+        }
+
+        long version = averageCalculations.getUserVersion(TEST_USER);
+        for (int device = 9; device > 0; device--) {
+            averageCalculations.evictSeries("device" + device, TEST_USER);
+            long newVersion = averageCalculations.getUserVersion(TEST_USER);
+            assertTrue(newVersion > version, "User version should increase after evicting device" + device);
+            version = newVersion;
+        }
+    }
+
+    @Test
+    public void shouldPadIntervalsBetweenShardsWithinTimeRange(){
+        averageCalculations.storeDataPoint(new Datapoint("device0", TEST_USER, 10000000, 100));
+        averageCalculations.storeDataPoint(new Datapoint("device1", TEST_USER, 12700000, 400));
+
+        List<AverageForInterval> averageValues = averageCalculations.getAveragesForUser(TEST_USER,
+                new IntervalQuery(10800000, 11700000, Integer.MAX_VALUE));
+
+        assertEquals(1, averageValues.size(), "Wrong number of average values");
+        assertEquals(0, averageValues.get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldRejectDuplicates(){
+        averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+
+        assertThrows(DuplicateDatapointException.class,
+                () -> averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 200)));
+        List<Integer> duplicates = averageCalculations.storeDataPoints(Arrays.asList(
+                new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 500),
+                new Datapoint("otherTestDevice", TEST_USER, 10000000, 300),
+                new Datapoint("otherTestDevice", TEST_USER, 10000000, 700)));
+
+        assertEquals(Arrays.asList(0, 2), duplicates, "Wrong duplicates");
+        assertEquals(200, averageCalculations.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void deletedDeviceShouldBeRemovedFromItsUsers(){
+        averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculations.storeDataPoint(new Datapoint("otherTestDevice", TEST_USER, 10000000, 300));
+        long userVersion = averageCalculations.getUserVersion(TEST_USER);
+
+        averageCalculations.deleteDeviceDatapoints(TEST_DEVICE);
+
+        assertThrows(DataNotFoundException.class, () -> averageCalculations.getAveragesForDevice(TEST_DEVICE));
+        assertEquals(300, averageCalculations.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+
+        averageCalculations.deleteUserDatapoints(TEST_USER);
+        assertThrows(DataNotFoundException.class, () -> averageCalculations.getUserVersion(TEST_USER));
+        assertThrows(DataNotFoundException.class, () -> averageCalculations.getAveragesForDevice("otherTestDevice"));
+        assertNotEquals(0, userVersion);
+    }
+
+    @Test
+    public void shouldMergeRollupsOfUserFromAllShards(){
+        for (int device = 0; device < 10; device++) {
+            averageCalculations.storeDataPoint(new Datapoint("device" + device, TEST_USER, 10000000 + device * 900000L, device * 100));
+        }
+
+        List<AverageForInterval> averageValues = averageCalculations.getAveragesForUser(TEST_USER,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofHours(1).toMillis()));
+
+        assertEquals(4, averageValues.size(), "Wrong number of average values");
+        assertEquals(0, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(250, averageValues.get(1).getAverage(), "Wrong average value");
+        assertEquals(650, averageValues.get(2).getAverage(), "Wrong average value");
+        assertEquals(900, averageValues.get(3).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void shouldMergeIntervalsOfAnyWidthFromShards(){
+        for (int device = 0; device < 8; device++) {
+            averageCalculations.storeDataPoint(new Datapoint("device" + device, TEST_USER, 10000000 + device * 7000, 100 * device));
+            averageCalculations.storeDataPoint(new Datapoint("device" + device, TEST_USER, 10000001 + device * 7000, 100 * device + 200));
+        }
+        averageCalculations.storeDataPoint(new Datapoint("device0", TEST_USER, 10070000, 700));
+
+        List<AverageForInterval> averageValues = averageCalculations.getAveragesForUser(TEST_USER,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofSeconds(7).toMillis()));
+
+        assertEquals(11, averageValues.size(), "Wrong number of average values");
+        assertEquals(9996000, averageValues.get(0).getStartTime(), "Wrong start of interval");
+        for (int device = 0; device < 8; device++) {
+            assertEquals(100 * device + 100, averageValues.get(device).getAverage(), "Wrong average value");
+        }
+        assertEquals(0, averageValues.get(8).getAverage(), "Wrong average value");
+        assertEquals(700, averageValues.get(10).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void compactedDatapointsShouldOnlyBeKeptInRollups(){
+        averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10900000, 300));
+        long version = averageCalculations.getDeviceVersion(TEST_DEVICE);
+
+        assertEquals(1, averageCalculations.compactDatapoints(10900000), "Wrong number of compacted datapoints");
+
+        List<AverageForInterval> minutes = averageCalculations.getAveragesForDevice(TEST_DEVICE,
+                new IntervalQuery(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Duration.ofMinutes(1).toMillis()));
+        assertEquals(1, minutes.size(), "Compacted minutes should not be returned");
+        assertEquals(100, averageCalculations.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+        assertNotEquals(version, averageCalculations.getDeviceVersion(TEST_DEVICE), "Version should change");
+        assertThrows(DuplicateDatapointException.class,
+                () -> averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 100)));
+    }
+
+    @Test
+    public void rangeTotalShouldCountCompactedQuarterHoursWithinRange(){
+        averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 0, 100));
+        averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 60000, 300));
+        averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 3600000, 500));
+        averageCalculations.compactDatapoints(3600000);
+
+        RangeTotal total = averageCalculations.getRangeTotalForDevice(TEST_DEVICE, 0, 3600000);
+        assertEquals(2, total.getCount(), "Wrong count");
+        assertEquals(400, total.getSum(), "Wrong sum");
+        assertEquals(0, averageCalculations.getRangeTotalForDevice(TEST_DEVICE, 1, 3600000).getCount(),
+                "Compacted quarter hours only partly within the range should not count");
+        assertEquals(900, averageCalculations.getRangeTotalForUser(TEST_USER, 0, 3600001).getSum(), "Wrong sum");
+        assertEquals(300, averageCalculations.getTopDevices(1, new IntervalQuery(0, 3600001, 1)).get(0).getAverage(),
+                "Wrong average of the top device");
+    }
+
+    @Test
+    public void expiredAndEvictedDatapointsShouldBeDropped(){
+        averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10900000, 300));
+        averageCalculations.storeDataPoint(new Datapoint("otherDevice", TEST_USER, 10900000, 500));
+
+        assertEquals(1, averageCalculations.expireDatapoints(device -> TEST_DEVICE.equals(device) ? 10900000 : Long.MIN_VALUE),
+                "Wrong number of expired datapoints");
+        assertEquals(300, averageCalculations.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+        assertThrows(DuplicateDatapointException.class,
+                () -> averageCalculations.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 100)));
+
+        assertEquals(2, averageCalculations.getSeriesUsage().size(), "Wrong number of series");
+        assertEquals(1, averageCalculations.evictSeries(TEST_DEVICE, TEST_USER), "Wrong number of evicted datapoints");
+        assertThrows(DataNotFoundException.class, () -> averageCalculations.getAveragesForDevice(TEST_DEVICE));
+        assertEquals(500, averageCalculations.getAveragesForUser(TEST_USER).get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void userSummariesShouldBeMergedAcrossShards(){
+        for (int device = 0; device < 10; device++) {
+            averageCalculations.storeDataPoint(new Datapoint("device" + device, TEST_USER, 10000000 + device, device * 100));
+        }
+
+        List<SummaryForInterval> summaries = averageCalculations.getSummariesForUser(TEST_USER, Arrays.asList(0.0, 100.0), IntervalQuery.ALL);
+
+        assertEquals(1, summaries.size(), "Wrong number of intervals");
+        assertEquals(10, summaries.get(0).getCount(), "Wrong count");
+        assertEquals(900, summaries.get(0).getMax(), "Wrong maximum");
+        assertEquals(0, summaries.get(0).getPercentiles().get("p0"), "Wrong minimum percentile");
+        assertEquals(900, summaries.get(0).getPercentiles().get("p100"), 9, "Wrong maximum percentile");
+    }
+
+    @Test
+    public void topUsersAndFleetAveragesShouldBeMergedAcrossShards(){
+        for (int device = 0; device < 10; device++) {
+            averageCalculations.storeDataPoint(new Datapoint("device" + device, TEST_USER, 10000000, device * 100));
+            averageCalculations.storeDataPoint(new Datapoint("device" + device, "otherTestUser", 10000000, 500));
+        }
+
+        List<GroupAverage> topUsers = averageCalculations.getTopUsers(1, IntervalQuery.ALL);
+        List<GroupAverage> topDevices = averageCalculations.getTopDevices(2, IntervalQuery.ALL);
+        List<AverageForInterval> fleetAverages = averageCalculations.getFleetAverages(IntervalQuery.ALL);
+
+        assertEquals("otherTestUser", topUsers.get(0).getIdentifier(), "Wrong user ranked first");
+        assertEquals(10, topUsers.get(0).getCount(), "Wrong count");
+        assertEquals("device9", topDevices.get(0).getIdentifier(), "Wrong device ranked first");
+        assertEquals("device8", topDevices.get(1).getIdentifier(), "Wrong device ranked second");
+        assertEquals(1, fleetAverages.size(), "Wrong number of average values");
+        assertEquals(475, fleetAverages.get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void concurrentWritersShouldStoreEveryDatapointOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> writers = new ArrayList<>();
+        for (int writer = 0; writer < 8; writer++) {
+            writers.add(executor.submit(() -> {
+                int stored = 0;
+                for (int i = 0; i < 2000; i++) {
+                    try {
+                        averageCalculations.storeDataPoint(new Datapoint("device" + i % 16, TEST_USER, i * 90000L, 100));
+                        stored++;
+                    } catch (DuplicateDatapointException e) {
+                        // another writer was first
+                    }
+                }
+                return stored;
+            }));
+        }
+        int stored = 0;
+        for (Future<Integer> writer : writers) {
+            stored += writer.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        assertEquals(2000, stored, "Every datapoint should be stored exactly once");
+        averageCalculations.getAveragesForUser(TEST_USER).forEach(average -> assertEquals(100, average.getAverage(), "Wrong average value"));
+    }
+}
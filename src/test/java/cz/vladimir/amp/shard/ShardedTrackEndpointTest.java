@@ -0,0 +1,65 @@
+package cz.vladimir.amp.shard;
+
+import cz.vladimir.amp.AverageCalculations;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = "amp.engine=sharded")
+@AutoConfigureMockMvc
+public class ShardedTrackEndpointTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AverageCalculations averageCalculations;
+
+    @Test
+    public void shouldServeRequestsFromShardedEngine() throws Exception {
+        assertTrue(averageCalculations instanceof ShardedAverageCalculations, "Sharded engine should be selected");
+
+        mockMvc.perform(post("/datapoints")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"device\":\"shardDevice\",\"user\":\"shardUser\",\"timestamp\":10000000,\"value\":100}"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/statistics/users/shardUser/avg"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andExpect(jsonPath("$[0].average").value(100.0));
+    }
+
+    @Test
+    public void userETagShouldChangeAfterDeviceDelete() throws Exception {
+        storeDatapoint("etagDevice", "etagUser", 10000000, 100);
+        storeDatapoint("otherEtagDevice", "etagUser", 10000000, 300);
+
+        String etag = mockMvc.perform(get("/statistics/users/etagUser/avg"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(delete("/devices/otherEtagDevice/datapoints"))
+                .andExpect(status().is2xxSuccessful());
+
+        mockMvc.perform(get("/statistics/users/etagUser/avg").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].average").value(100.0));
+    }
+
+    private void storeDatapoint(String device, String user, long timestamp, long value) throws Exception {
+        mockMvc.perform(post("/datapoints")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"device\":\"" + device + "\",\"user\":\"" + user + "\",\"timestamp\":" + timestamp + ",\"value\":" + value + "}"))
+                .andExpect(status().isOk());
+    }
+}
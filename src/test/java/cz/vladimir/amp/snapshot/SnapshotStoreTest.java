@@ -0,0 +1,113 @@
+package cz.vladimir.amp.snapshot;
+
+import cz.vladimir.amp.AverageCalculationsService;
+import cz.vladimir.amp.AverageForInterval;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.IntervalQuery;
+import cz.vladimir.amp.SummaryForInterval;
+import cz.vladimir.amp.exception.DuplicateDatapointException;
+import cz.vladimir.amp.wal.FsyncPolicy;
+import cz.vladimir.amp.wal.WriteAheadLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotStoreTest {
+
+    private static final String TEST_DEVICE = "testDevice";
+    private static final String TEST_USER = "testUser";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void restoredSeriesShouldAnswerLikeTheOriginal() throws IOException {
+        AverageCalculationsService original = new AverageCalculationsService();
+        long start = Duration.ofHours(2).toMillis() * 1000;
+        for (int minute = 0; minute < 5 * 60; minute++) {
+            original.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, start + minute * 60000L, minute % 13));
+            original.storeDataPoint(new Datapoint(TEST_DEVICE, "otherTestUser", start + minute * 60000L, -minute));
+        }
+        original.storeDataPoint(new Datapoint("compactedDevice", TEST_USER, 10000000, 100));
+        original.storeDataPoint(new Datapoint("compactedDevice", TEST_USER, 10000001, 300));
+        original.compactDatapoints(10900000);
+
+        Path file = directory.resolve("snapshot.amp");
+        SnapshotStatistics written = new SnapshotStore(file, original, 2).write();
+        AverageCalculationsService restored = new AverageCalculationsService();
+        SnapshotStore snapshotStore = new SnapshotStore(file, restored, 2);
+        snapshotStore.load();
+
+        assertEquals(3, written.getSeries(), "Wrong number of series");
+        assertEquals(600, written.getDatapoints(), "Wrong number of datapoints");
+        assertEquals(3, snapshotStore.getStatistics().getLoadedSeries(), "Wrong number of restored series");
+        assertEquals(averagesOf(original), averagesOf(restored), "Wrong averages");
+        assertEquals(original.getRangeTotalForUser(TEST_USER, start + 1, start + 4 * 3600000L).getSum(),
+                restored.getRangeTotalForUser(TEST_USER, start + 1, start + 4 * 3600000L).getSum(), "Wrong sum");
+        List<SummaryForInterval> summaries = restored.getSummariesForDevice("compactedDevice", Collections.singletonList(50.0), IntervalQuery.ALL);
+        assertEquals(2, summaries.get(0).getCount(), "Compacted rollups should be restored");
+        assertEquals(original.getSummariesForDevice("compactedDevice", Collections.singletonList(50.0), IntervalQuery.ALL).get(0).getPercentiles(),
+                summaries.get(0).getPercentiles(), "Wrong percentiles");
+        assertThrows(DuplicateDatapointException.class,
+                () -> restored.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, start + 60000L, 1)));
+        assertThrows(DuplicateDatapointException.class,
+                () -> restored.storeDataPoint(new Datapoint("compactedDevice", TEST_USER, 10000002, 1)));
+    }
+
+    @Test
+    public void corruptSnapshotShouldBeRefused() throws IOException {
+        AverageCalculationsService original = new AverageCalculationsService();
+        original.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        Path file = directory.resolve("snapshot.amp");
+        new SnapshotStore(file, original, 1).write();
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> new SnapshotStore(file, new AverageCalculationsService(), 1).load());
+    }
+
+    @Test
+    public void snapshotShouldReleaseTheLogItCovers() throws IOException {
+        Path file = directory.resolve("snapshot.amp");
+        Path logDirectory = directory.resolve("wal");
+        AverageCalculationsService original = new AverageCalculationsService();
+        WriteAheadLog writeAheadLog = new WriteAheadLog(logDirectory, FsyncPolicy.ALWAYS, Duration.ofMillis(5));
+        writeAheadLog.recover(original);
+        original.addListener(writeAheadLog);
+        SnapshotStore snapshotStore = new SnapshotStore(file, original, 1);
+        snapshotStore.setWriteAheadLog(writeAheadLog);
+
+        original.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        original.storeDataPoint(new Datapoint("deletedDevice", TEST_USER, 10000000, 900));
+        original.deleteDeviceDatapoints("deletedDevice");
+        snapshotStore.write();
+        original.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 300));
+        writeAheadLog.close();
+
+        try (Stream<Path> files = Files.list(logDirectory)) {
+            assertEquals(1, files.count(), "Files covered by the snapshot should be released");
+        }
+        AverageCalculationsService restored = new AverageCalculationsService();
+        new SnapshotStore(file, restored, 1).load();
+        new WriteAheadLog(logDirectory, FsyncPolicy.ALWAYS, Duration.ofMillis(5)).recover(restored);
+
+        assertEquals(200, restored.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+        assertEquals(200, restored.getAveragesForUser(TEST_USER).get(0).getAverage(), "Deleted device should stay deleted");
+    }
+
+    private static List<Double> averagesOf(AverageCalculationsService averageCalculationsService) {
+        return averageCalculationsService.getAveragesForDevice(TEST_DEVICE).stream().map(AverageForInterval::getAverage).collect(Collectors.toList());
+    }
+}
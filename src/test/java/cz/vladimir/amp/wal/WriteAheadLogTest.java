@@ -0,0 +1,121 @@
+package cz.vladimir.amp.wal;
+
+import cz.vladimir.amp.AverageCalculationsService;
+import cz.vladimir.amp.AverageForInterval;
+import cz.vladimir.amp.Datapoint;
+import cz.vladimir.amp.exception.DataNotFoundException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteAheadLogTest {
+
+    private static final String TEST_DEVICE = "testDevice";
+    private static final String TEST_USER = "testUser";
+
+    @TempDir
+    Path directory;
+
+    private WriteAheadLog writeAheadLog;
+
+    @ParameterizedTest
+    @EnumSource(FsyncPolicy.class)
+    public void storedDatapointsShouldBeRecoveredAfterRestart(FsyncPolicy fsyncPolicy) throws IOException {
+        AverageCalculationsService averageCalculationsService = startService(fsyncPolicy);
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 300));
+        averageCalculationsService.storeDataPoint(new Datapoint("otherTestDevice", TEST_USER, 10900000, -400));
+        stop();
+
+        AverageCalculationsService recoveredService = startService(fsyncPolicy);
+        List<AverageForInterval> averageValues = recoveredService.getAveragesForUser(TEST_USER);
+
+        assertEquals(2, averageValues.size(), "Wrong number of average values");
+        assertEquals(200, averageValues.get(0).getAverage(), "Wrong average value");
+        assertEquals(-400, averageValues.get(1).getAverage(), "Wrong average value");
+        assertEquals(0, writeAheadLog.getStatistics().getRecords(), "Replayed datapoints should not be logged again");
+    }
+
+    @Test
+    public void storedBatchShouldBeRecoveredAfterRestart() throws IOException {
+        AverageCalculationsService averageCalculationsService = startService(FsyncPolicy.ALWAYS);
+        averageCalculationsService.storeDataPoints(Arrays.asList(
+                new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100),
+                new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 700),
+                new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 300)));
+        assertEquals(2, writeAheadLog.getStatistics().getRecords(), "Duplicates should not be logged");
+        stop();
+
+        assertEquals(200, startService(FsyncPolicy.ALWAYS).getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+    }
+
+    @Test
+    public void deletesShouldBeRecoveredAfterRestart() throws IOException {
+        AverageCalculationsService averageCalculationsService = startService(FsyncPolicy.ALWAYS);
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculationsService.deleteDeviceDatapoints(TEST_DEVICE);
+        stop();
+
+        AverageCalculationsService recoveredService = startService(FsyncPolicy.ALWAYS);
+
+        assertThrows(DataNotFoundException.class, () -> recoveredService.getAveragesForDevice(TEST_DEVICE));
+    }
+
+    @Test
+    public void changesShouldBeRejectedBeforeTheyAreAppliedOnceTheLogFailed() throws IOException {
+        AverageCalculationsService averageCalculationsService = startService(FsyncPolicy.ALWAYS);
+        stop();
+        assertThrows(UncheckedIOException.class,
+                () -> averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100)));
+
+        assertThrows(UncheckedIOException.class,
+                () -> averageCalculationsService.storeDataPoint(new Datapoint("otherTestDevice", TEST_USER, 10000000, 100)));
+        assertThrows(DataNotFoundException.class, () -> averageCalculationsService.getAveragesForDevice("otherTestDevice"));
+    }
+
+    @Test
+    public void tornFrameAtTheEndShouldBeDropped() throws IOException {
+        AverageCalculationsService averageCalculationsService = startService(FsyncPolicy.ALWAYS);
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000000, 100));
+        averageCalculationsService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 300));
+        stop();
+
+        Path file = writeAheadLog.getFile();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 1);
+        }
+
+        AverageCalculationsService recoveredService = startService(FsyncPolicy.ALWAYS);
+        assertEquals(100, recoveredService.getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+
+        recoveredService.storeDataPoint(new Datapoint(TEST_DEVICE, TEST_USER, 10000001, 500));
+        stop();
+
+        assertEquals(300, startService(FsyncPolicy.ALWAYS).getAveragesForDevice(TEST_DEVICE).get(0).getAverage(), "Wrong average value");
+    }
+
+    private AverageCalculationsService startService(FsyncPolicy fsyncPolicy) throws IOException {
+        AverageCalculationsService averageCalculationsService = new AverageCalculationsService();
+        writeAheadLog = new WriteAheadLog(directory, fsyncPolicy, Duration.ofMillis(5));
+        writeAheadLog.recover(averageCalculationsService);
+        averageCalculationsService.addListener(writeAheadLog);
+        return averageCalculationsService;
+    }
+
+    private void stop() throws IOException {
+        writeAheadLog.close();
+    }
+}